@@ -0,0 +1,144 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import net.kuesters.mobile.MobileApp;
+import net.kuesters.mobile.crawler.AppCrawler;
+import net.kuesters.mobile.crawler.CrawlReport;
+
+/**
+ * Crawls {@link SyntheticSite}s of growing size end to end and reports the throughput and the peak heap of every crawl.
+ * <p>
+ * The crawls run one after the other in this JVM, each after a warm-up crawl of the smallest site. The arguments are the numbers of assets
+ * of the sites, 10, 100, 1,000 and 10,000 by default. The sites are configured with system properties:
+ * </p>
+ * <ul>
+ * <li><code>latency</code>: the delay of every response in milliseconds, 0 by default</li>
+ * <li><code>errorRate</code>: the fraction of failing assets, 0 by default</li>
+ * <li><code>assetSize</code>: the size of images and scripts in bytes, 16 KB by default</li>
+ * <li><code>fanOut</code>, <code>imagesPerPage</code> and <code>cssImportDepth</code>: the shape of the site</li>
+ * <li><code>concurrency</code>: the maximum concurrency of the crawler and per host, 8 by default</li>
+ * </ul>
+ * <p>
+ * Example: <code>java -Dlatency=20 -Dhttp.maxConnections=16 -cp target/benchmarks.jar net.kuesters.mobile.crawler.benchmark.CrawlLoadTest
+ * 100 5000</code>
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class CrawlLoadTest {
+
+	/** The default numbers of assets. */
+	private static final int[] DEFAULT_SIZES = { 10, 100, 1000, 10000 };
+
+	private CrawlLoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		// the crawler logs every asset, which would measure the console instead of the crawler
+		if (System.getProperty("org.apache.commons.logging.Log") == null)
+			System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.NoOpLog");
+
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%8s %8s %6s %10s %10s %8s %12s", "assets", "files", "errors", "seconds", "assets/s",
+				"MB/s", "peak heap MB"));
+		// warm up the JIT, the connection pool and the class loading
+		crawl(sizes[0], false);
+		for (int size : sizes)
+			crawl(size, true);
+	}
+
+	/**
+	 * Crawls a new site with about the given number of assets.
+	 *
+	 * @param assets
+	 *            the number of assets
+	 * @param print
+	 *            true to print the result
+	 * @throws Exception
+	 *             if the crawl failed
+	 */
+	private static void crawl(int assets, boolean print) throws Exception {
+		SyntheticSite site = newSite(assets);
+		site.start();
+		Path target = Files.createTempFile("synthetic", ".zip");
+		try {
+			AppCrawler crawler = new AppCrawler();
+			int concurrency = Integer.getInteger("concurrency", AppCrawler.DEFAULT_MAX_CONCURRENCY);
+			crawler.setMaxConcurrency(concurrency);
+			crawler.getHostScheduler().setMaxConcurrencyPerHost(concurrency);
+
+			MobileApp app = new MobileApp("Synthetic " + assets, site.getStartUrl(), "net.kuesters.synthetic", "1.0");
+			app.setDescription("A synthetic app with " + site.getAssetCount() + " assets");
+
+			System.gc();
+			resetPeakHeap();
+			CrawlReport report = crawler.crawl(app, target);
+			long peakHeap = getPeakHeap();
+
+			if (print) {
+				double seconds = report.getDuration() / 1000.0;
+				System.out.println(String.format(Locale.ROOT, "%8d %8d %6d %10.2f %10.1f %8.2f %12.1f", site.getAssetCount(), report.getFileCount(),
+						report.getErrors().size(), seconds, report.getFileCount() / seconds, report.getBytesIn() / seconds / 1024 / 1024,
+						peakHeap / 1024.0 / 1024));
+			}
+		} finally {
+			site.stop();
+			Files.deleteIfExists(target);
+			Files.deleteIfExists(target.resolveSibling(target.getFileName() + ".manifest"));
+		}
+	}
+
+	/**
+	 * Creates a site with about the given number of assets, configured by the system properties.
+	 *
+	 * @param assets
+	 *            the number of assets
+	 * @return the site
+	 */
+	private static SyntheticSite newSite(int assets) {
+		SyntheticSite site = new SyntheticSite();
+		site.setFanOut(Integer.getInteger("fanOut", site.getFanOut()));
+		site.setImagesPerPage(Integer.getInteger("imagesPerPage", site.getImagesPerPage()));
+		site.setCssImportDepth(Integer.getInteger("cssImportDepth", site.getCssImportDepth()));
+		site.setAssetSize(Integer.getInteger("assetSize", site.getAssetSize()));
+		site.setLatency(Long.getLong("latency", 0));
+		site.setErrorRate(Double.parseDouble(System.getProperty("errorRate", "0")));
+
+		int sharedAssets = site.getCssImportDepth() * 2 + 1;
+		site.setPages(Math.max(1, (assets - sharedAssets) / (1 + site.getImagesPerPage())));
+		return site;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * Gets the peak heap usage since {@link #resetPeakHeap()}. The peaks of the pools are added up, so the result is an upper bound.
+	 *
+	 * @return the bytes
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,73 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.kuesters.mobile.crawler.CssUrlRewriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks scanning and rewriting the references of large minified stylesheets.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog")
+public class CssRewriteBenchmark {
+
+	/** The number of rules of the stylesheet, 2,000 rules are about 130 KB. */
+	@Param({ "2000", "20000" })
+	public int rules;
+
+	/** The stylesheet. */
+	private String css;
+
+	@Setup
+	public void setUp() {
+		css = Inputs.minifiedCss(rules);
+	}
+
+	/**
+	 * Only scans the references and keeps them unchanged.
+	 *
+	 * @return the stylesheet
+	 */
+	@Benchmark
+	public String scan() {
+		return CssUrlRewriter.rewrite(css, new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Rewrites every reference, like the crawler does.
+	 *
+	 * @return the rewritten stylesheet
+	 */
+	@Benchmark
+	public String rewrite() {
+		return CssUrlRewriter.rewrite(css, new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				return url.startsWith("data:") ? null : "../" + url;
+			}
+		});
+	}
+}
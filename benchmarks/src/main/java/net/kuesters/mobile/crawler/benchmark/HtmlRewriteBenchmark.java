@@ -0,0 +1,73 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.kuesters.mobile.crawler.HtmlLinkRewriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks extracting and rewriting the links of large HTML pages.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog")
+public class HtmlRewriteBenchmark {
+
+	/** The number of content blocks of the page, 500 blocks are about 250 KB. */
+	@Param({ "500", "5000" })
+	public int elements;
+
+	/** The page. */
+	private String html;
+
+	@Setup
+	public void setUp() {
+		html = Inputs.largeHtml(elements);
+	}
+
+	/**
+	 * Only extracts the links and keeps them unchanged.
+	 *
+	 * @return the page
+	 */
+	@Benchmark
+	public String scan() {
+		return HtmlLinkRewriter.rewrite(html, new HtmlLinkRewriter.LinkHandler() {
+			@Override
+			public String rewrite(String tagName, String attributeName, String url) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Rewrites every link, like the crawler does.
+	 *
+	 * @return the rewritten page
+	 */
+	@Benchmark
+	public String rewrite() {
+		return HtmlLinkRewriter.rewrite(html, new HtmlLinkRewriter.LinkHandler() {
+			@Override
+			public String rewrite(String tagName, String attributeName, String url) {
+				return "../" + url;
+			}
+		});
+	}
+}
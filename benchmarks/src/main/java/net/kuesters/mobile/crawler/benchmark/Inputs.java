@@ -0,0 +1,191 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the realistic inputs of the benchmarks. All inputs are derived from a fixed seed, so every run measures the same data.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class Inputs {
+
+	/** The start URL of the synthetic app. */
+	public static final String START_URL = "http://www.example.com/apps/demo";
+
+	/** The seed of all random inputs. */
+	private static final long SEED = 42;
+
+	/** The names directories and files are made of. */
+	private static final String[] WORDS = { "assets", "img", "css", "js", "vendor", "fonts", "icons", "gallery", "2014", "thumbs", "large",
+			"de", "en", "products", "detail", "teaser", "background", "hero", "sprite", "lib" };
+
+	/** The extensions of the generated files. */
+	private static final String[] EXTENSIONS = { ".png", ".jpg", ".gif", ".css", ".js", ".woff", ".svg", ".html" };
+
+	private Inputs() {
+	}
+
+	/**
+	 * Generates absolute URLs within the app with deep paths.
+	 *
+	 * @param count
+	 *            the number of URLs
+	 * @param depth
+	 *            the number of directories of each path
+	 * @return the URLs
+	 */
+	public static List<String> deepUrls(int count, int depth) {
+		Random random = new Random(SEED);
+		List<String> urls = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+			urls.add(START_URL + path(random, depth) + EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+		return urls;
+	}
+
+	/**
+	 * Generates absolute URLs within the app with many query parameters, like the URLs of image services and CMS pages.
+	 *
+	 * @param count
+	 *            the number of URLs
+	 * @param parameters
+	 *            the number of query parameters of each URL
+	 * @return the URLs
+	 */
+	public static List<String> queryUrls(int count, int parameters) {
+		Random random = new Random(SEED);
+		List<String> urls = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			StringBuilder url = new StringBuilder(START_URL).append(path(random, 2)).append(".php?");
+			for (int p = 0; p < parameters; p++) {
+				if (p > 0)
+					url.append('&');
+				url.append(WORDS[random.nextInt(WORDS.length)]).append(p).append('=').append(random.nextInt(100000));
+			}
+			urls.add(url.toString());
+		}
+		return urls;
+	}
+
+	/**
+	 * Generates absolute URLs of other hosts, like CDNs, with ports that have to be normalized.
+	 *
+	 * @param count
+	 *            the number of URLs
+	 * @return the URLs
+	 */
+	public static List<String> foreignUrls(int count) {
+		Random random = new Random(SEED);
+		List<String> urls = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			String port = random.nextBoolean() ? ":80" : ":8080";
+			urls.add("http://cdn" + random.nextInt(5) + ".example.net" + port + path(random, 4) + EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+		}
+		return urls;
+	}
+
+	/**
+	 * Generates a minified stylesheet like the bundles of CSS frameworks, with many <code>url()</code> references, comments and strings.
+	 *
+	 * @param rules
+	 *            the number of rules
+	 * @return the stylesheet
+	 */
+	public static String minifiedCss(int rules) {
+		Random random = new Random(SEED);
+		StringBuilder css = new StringBuilder(rules * 80);
+		css.append("/*! bundle v1.0 | (c) example */@import \"base.css\";@import url(theme/print.css) print;");
+		for (int i = 0; i < rules; i++) {
+			css.append('.').append(WORDS[random.nextInt(WORDS.length)]).append('-').append(i).append("{");
+			switch (random.nextInt(5)) {
+			case 0:
+				css.append("background:url(").append(relativePath(random)).append(".png) no-repeat 0 0");
+				break;
+			case 1:
+				css.append("background-image:url(\"").append(relativePath(random)).append(".jpg\")");
+				break;
+			case 2:
+				css.append("content:\"url(not-a-reference.png)\";font-family:'Open Sans',sans-serif");
+				break;
+			case 3:
+				css.append("background:url(data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg==)");
+				break;
+			default:
+				css.append("margin:0 auto;padding:").append(random.nextInt(40)).append("px;color:#").append(Integer.toHexString(random.nextInt(0xffffff)));
+			}
+			css.append('}');
+		}
+		return css.toString();
+	}
+
+	/**
+	 * Generates a large HTML page with navigation, responsive images, scripts, stylesheets and inline styles.
+	 *
+	 * @param elements
+	 *            the number of content blocks
+	 * @return the page
+	 */
+	public static String largeHtml(int elements) {
+		Random random = new Random(SEED);
+		StringBuilder html = new StringBuilder(elements * 300);
+		html.append("<!DOCTYPE html>\n<html lang=\"en\"><head><meta charset=\"utf-8\"><title>Demo &amp; more</title>\n");
+		html.append("<link rel=\"stylesheet\" href=\"css/app.css\"><link rel=\"icon\" href=\"favicon.ico\">");
+		html.append("<link rel=\"preload\" as=\"font\" href=\"fonts/open-sans.woff2\"><link rel=\"canonical\" href=\"http://www.example.com/\">\n");
+		html.append("<style>body{background:url(img/bg.png)}</style>\n<script>var a = '<img src=\"x.png\">'; if (a < 3) {}</script></head>\n<body>\n");
+		for (int i = 0; i < elements; i++) {
+			String image = relativePath(random);
+			html.append("<div class=\"teaser\" style=\"background-image:url('").append(relativePath(random)).append(".jpg')\">");
+			html.append("<a href=\"").append(relativePath(random)).append(".html?id=").append(i).append("&amp;lang=en#top\">");
+			html.append("<img src=\"").append(image).append(".jpg\" srcset=\"").append(image).append("-1x.jpg 1x, ").append(image)
+					.append("-2x.jpg 2x\" alt=\"Teaser ").append(i).append("\" width=\"300\" height=\"200\"></a>");
+			html.append("<!-- teaser ").append(i).append(" <img src=\"commented.png\"> -->");
+			html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit &lt;").append(i).append("&gt;.</p></div>\n");
+			if (i % 50 == 0)
+				html.append("<video poster=\"video/poster").append(i).append(".jpg\" src=\"video/clip").append(i).append(".mp4\"></video>\n");
+		}
+		html.append("<script src=\"js/vendor/jquery.min.js\"></script><script src=\"js/app.js\"></script>\n</body></html>\n");
+		return html.toString();
+	}
+
+	/**
+	 * Generates binary content that compresses like images, i.e. hardly at all.
+	 *
+	 * @param size
+	 *            the size in bytes
+	 * @return the content
+	 */
+	public static byte[] binaryContent(int size) {
+		byte[] content = new byte[size];
+		new Random(SEED).nextBytes(content);
+		return content;
+	}
+
+	/**
+	 * Generates text content that compresses like scripts and stylesheets.
+	 *
+	 * @param size
+	 *            the size in bytes
+	 * @return the content
+	 */
+	public static byte[] textContent(int size) {
+		byte[] content = new byte[size];
+		byte[] css = minifiedCss(size / 60 + 1).getBytes();
+		System.arraycopy(css, 0, content, 0, Math.min(size, css.length));
+		return content;
+	}
+
+	private static String path(Random random, int depth) {
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i < depth; i++)
+			path.append('/').append(WORDS[random.nextInt(WORDS.length)]);
+		return path.append('/').append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(1000)).toString();
+	}
+
+	private static String relativePath(Random random) {
+		StringBuilder path = new StringBuilder();
+		for (int i = random.nextInt(3); i > 0; i--)
+			path.append("../");
+		return path.append(path(random, random.nextInt(4)).substring(1)).toString();
+	}
+}
@@ -0,0 +1,51 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.kuesters.mobile.MediaType;
+import net.kuesters.mobile.crawler.AppCrawlerUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks parsing the <code>Content-Type</code> headers of the responses.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog")
+public class MediaTypeBenchmark {
+
+	/** The header values as servers send them, in a typical mix. */
+	private static final String[] CONTENT_TYPES = { "text/html; charset=UTF-8", "text/css", "application/javascript; charset=utf-8",
+			"image/png", "image/jpeg", "image/gif", "application/x-javascript", "text/html", "application/font-woff", "image/svg+xml",
+			"application/octet-stream", "TEXT/CSS; charset=ISO-8859-1" };
+
+	@Benchmark
+	@OperationsPerInvocation(12)
+	public void parseMediaType(Blackhole blackhole) {
+		for (String contentType : CONTENT_TYPES)
+			blackhole.consume(MediaType.parseMediaType(contentType));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(12)
+	public void assetType(Blackhole blackhole) {
+		for (String contentType : CONTENT_TYPES)
+			blackhole.consume(AppCrawlerUtil.getAssetType(contentType));
+	}
+}
@@ -0,0 +1,126 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.kuesters.mobile.crawler.AppCrawlerUtil;
+import net.kuesters.mobile.crawler.PathResolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the URL normalization and the path mapping that run for every reference the crawler finds, computed from scratch and by a
+ * {@link PathResolver} that has seen the URLs before, like most references of a crawl after the first pages.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog")
+public class PathBenchmark {
+
+	/** The number of URLs per invocation. */
+	private static final int URLS = 1000;
+
+	/** The path of the page that refers to the URLs. */
+	private static final String REFERRER_PATH = "/products/detail/teaser/gallery/index.html";
+
+	/** The kind of URLs. */
+	@Param({ "deep", "query", "foreign" })
+	public String kind;
+
+	/** The URLs as found in the pages. */
+	private List<String> urls;
+
+	/** The normalized URLs. */
+	private List<String> normalizedUrls;
+
+	/** The absolute paths of the URLs in the ZIP file. */
+	private List<String> absolutePaths;
+
+	/** The resolver that has resolved all URLs and paths once. */
+	private PathResolver resolver;
+
+	@Setup
+	public void setUp() throws MalformedURLException {
+		if ("deep".equals(kind))
+			urls = Inputs.deepUrls(URLS, 8);
+		else if ("query".equals(kind))
+			urls = Inputs.queryUrls(URLS, 12);
+		else
+			urls = Inputs.foreignUrls(URLS);
+
+		normalizedUrls = new ArrayList<String>(URLS);
+		absolutePaths = new ArrayList<String>(URLS);
+		for (String url : urls) {
+			String normalizedUrl = AppCrawlerUtil.getNormalizedURL(url);
+			normalizedUrls.add(normalizedUrl);
+			absolutePaths.add(AppCrawlerUtil.getAbsoluteResultingPath(Inputs.START_URL, normalizedUrl));
+		}
+
+		resolver = new PathResolver(Inputs.START_URL);
+		for (String url : urls)
+			resolver.getRelativeResultingPath(resolver.resolve(url).getResultingPath(), REFERRER_PATH);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void normalizedUrl(Blackhole blackhole) throws MalformedURLException {
+		for (String url : urls)
+			blackhole.consume(AppCrawlerUtil.getNormalizedURL(url));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void absoluteResultingPath(Blackhole blackhole) throws MalformedURLException {
+		for (String url : normalizedUrls)
+			blackhole.consume(AppCrawlerUtil.getAbsoluteResultingPath(Inputs.START_URL, url));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void relativeResultingPath(Blackhole blackhole) {
+		for (String path : absolutePaths)
+			blackhole.consume(AppCrawlerUtil.getRelativeResultingPath(path, REFERRER_PATH));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void resolvedUrl(Blackhole blackhole) throws MalformedURLException {
+		for (String url : urls)
+			blackhole.consume(resolver.resolve(url));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void resolvedRelativeResultingPath(Blackhole blackhole) {
+		for (String path : absolutePaths)
+			blackhole.consume(resolver.getRelativeResultingPath(path, REFERRER_PATH));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(URLS)
+	public void newResolverRelativeResultingPath(Blackhole blackhole) throws MalformedURLException {
+		// a resolver that sees every path for the first time, so the directory tree is built while the paths are resolved
+		PathResolver newResolver = new PathResolver(Inputs.START_URL);
+		for (String path : absolutePaths)
+			blackhole.consume(newResolver.getRelativeResultingPath(path, REFERRER_PATH));
+	}
+}
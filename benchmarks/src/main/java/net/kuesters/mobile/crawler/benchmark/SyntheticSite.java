@@ -0,0 +1,351 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that generates the pages and assets of a synthetic app, so crawls can be measured without depending on real web
+ * servers.
+ * <p>
+ * The index page is the root of a tree of pages, every page links to {@link #setFanOut(int) fan-out} further pages until
+ * {@link #setPages(int) pages} pages exist. Every page embeds its own {@link #setImagesPerPage(int) images}, the shared script and the
+ * first stylesheet, which imports a chain of {@link #setCssImportDepth(int) further stylesheets}, each with a background image. All
+ * content is generated from the path, so every request for the same path returns the same bytes. Latency and errors can be injected to
+ * see how the crawler copes with slow and unreliable servers.
+ * </p>
+ * <p>
+ * Configure the site before {@link #start()}, changes afterwards are not guaranteed to be seen.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class SyntheticSite {
+
+	/** The paths of the pages. */
+	private static final Pattern PAGE_PATH = Pattern.compile("/page(\\d+)\\.html");
+
+	/** The paths of the stylesheets. */
+	private static final Pattern STYLESHEET_PATH = Pattern.compile("/css/style(\\d+)\\.css");
+
+	/** The paths of the images. */
+	private static final Pattern IMAGE_PATH = Pattern.compile("/img/[\\w-]+\\.png");
+
+	/** The path of the shared script. */
+	private static final String SCRIPT_PATH = "/js/app.js";
+
+	/** The number of pages. */
+	private int pages = 10;
+
+	/** The number of pages every page links to. */
+	private int fanOut = 4;
+
+	/** The number of images embedded by every page. */
+	private int imagesPerPage = 4;
+
+	/** The number of stylesheets in the import chain. */
+	private int cssImportDepth = 3;
+
+	/** The size of every image and script in bytes. */
+	private int assetSize = 16 * 1024;
+
+	/** The time every response is delayed by in milliseconds. */
+	private long latency;
+
+	/** The fraction of paths that answer with <code>500 Internal Server Error</code>. */
+	private double errorRate;
+
+	/** The number of server threads. */
+	private int threads = 64;
+
+	/** The server or <code>null</code> if it isn't running. */
+	private HttpServer server;
+
+	/** The threads of the server. */
+	private ExecutorService executor;
+
+	public int getPages() {
+		return pages;
+	}
+
+	public void setPages(int pages) {
+		if (pages < 1)
+			throw new IllegalArgumentException("There must be at least one page: " + pages);
+		this.pages = pages;
+	}
+
+	public int getFanOut() {
+		return fanOut;
+	}
+
+	public void setFanOut(int fanOut) {
+		if (fanOut < 1)
+			throw new IllegalArgumentException("The fan-out must be at least 1: " + fanOut);
+		this.fanOut = fanOut;
+	}
+
+	public int getImagesPerPage() {
+		return imagesPerPage;
+	}
+
+	public void setImagesPerPage(int imagesPerPage) {
+		if (imagesPerPage < 0)
+			throw new IllegalArgumentException("The number of images must not be negative: " + imagesPerPage);
+		this.imagesPerPage = imagesPerPage;
+	}
+
+	public int getCssImportDepth() {
+		return cssImportDepth;
+	}
+
+	public void setCssImportDepth(int cssImportDepth) {
+		if (cssImportDepth < 0)
+			throw new IllegalArgumentException("The import depth must not be negative: " + cssImportDepth);
+		this.cssImportDepth = cssImportDepth;
+	}
+
+	public int getAssetSize() {
+		return assetSize;
+	}
+
+	public void setAssetSize(int assetSize) {
+		if (assetSize < 0)
+			throw new IllegalArgumentException("The asset size must not be negative: " + assetSize);
+		this.assetSize = assetSize;
+	}
+
+	public long getLatency() {
+		return latency;
+	}
+
+	public void setLatency(long latency) {
+		if (latency < 0)
+			throw new IllegalArgumentException("The latency must not be negative: " + latency);
+		this.latency = latency;
+	}
+
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * Sets the fraction of paths that fail. Which paths fail is derived from the path, so the same paths fail in every crawl.
+	 *
+	 * @param errorRate
+	 *            the fraction between <code>0</code> and <code>1</code>
+	 */
+	public void setErrorRate(double errorRate) {
+		if (errorRate < 0 || errorRate > 1)
+			throw new IllegalArgumentException("The error rate must be between 0 and 1: " + errorRate);
+		this.errorRate = errorRate;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of server threads. With latency, the threads limit how many requests can be delayed at the same time.
+	 *
+	 * @param threads
+	 *            the number of threads, at least 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("There must be at least one thread: " + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Gets the number of assets a complete crawl finds, including the pages and excluding the files the crawler always requests.
+	 *
+	 * @return the number of assets
+	 */
+	public int getAssetCount() {
+		return pages * (1 + imagesPerPage) + cssImportDepth * 2 + 1;
+	}
+
+	/**
+	 * Starts the server on a free port of the loopback interface.
+	 *
+	 * @throws IOException
+	 *             Signals that the server couldn't be started.
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null)
+			throw new IllegalStateException("The site is already running");
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					respond(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public synchronized void stop() {
+		if (server == null)
+			return;
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+	}
+
+	/**
+	 * Gets the start URL of the app.
+	 *
+	 * @return the URL without a trailing slash
+	 */
+	public synchronized String getStartUrl() {
+		if (server == null)
+			throw new IllegalStateException("The site isn't running");
+		return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		if (errorRate > 0 && fails(path)) {
+			send(exchange, 500, "text/plain", toBytes("Injected error"));
+			return;
+		}
+
+		Matcher page = PAGE_PATH.matcher(path);
+		Matcher stylesheet = STYLESHEET_PATH.matcher(path);
+		if ("/".equals(path) || "/index.html".equals(path))
+			send(exchange, 200, "text/html; charset=UTF-8", toBytes(page(0)));
+		else if (page.matches() && Integer.parseInt(page.group(1)) < pages)
+			send(exchange, 200, "text/html; charset=UTF-8", toBytes(page(Integer.parseInt(page.group(1)))));
+		else if (stylesheet.matches() && Integer.parseInt(stylesheet.group(1)) < cssImportDepth)
+			send(exchange, 200, "text/css", toBytes(stylesheet(Integer.parseInt(stylesheet.group(1)))));
+		else if (SCRIPT_PATH.equals(path))
+			send(exchange, 200, "application/javascript", script());
+		else if (IMAGE_PATH.matcher(path).matches())
+			send(exchange, 200, "image/png", binary(path));
+		else
+			send(exchange, 404, "text/plain", toBytes("Not found"));
+	}
+
+	/**
+	 * Checks if a path is one of the failing paths.
+	 *
+	 * @param path
+	 *            the path
+	 * @return true, if the path fails
+	 */
+	private boolean fails(String path) {
+		// the index always works, otherwise there would be nothing to crawl
+		if ("/".equals(path))
+			return false;
+		return (path.hashCode() & Integer.MAX_VALUE) % 10000 < errorRate * 10000;
+	}
+
+	private String page(int number) {
+		StringBuilder html = new StringBuilder(1024);
+		html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Page ").append(number).append("</title>\n");
+		if (cssImportDepth > 0)
+			html.append("<link rel=\"stylesheet\" href=\"/css/style0.css\">\n");
+		html.append("<script src=\"/js/app.js\"></script></head>\n<body>\n<ul>\n");
+		for (int i = 1; i <= fanOut; i++) {
+			long child = (long) number * fanOut + i;
+			if (child < pages)
+				html.append("<li><a href=\"/page").append(child).append(".html\">Page ").append(child).append("</a></li>\n");
+		}
+		html.append("</ul>\n");
+		for (int i = 0; i < imagesPerPage; i++)
+			html.append("<img src=\"/img/p").append(number).append('-').append(i).append(".png\" alt=\"Image ").append(i).append("\">\n");
+		html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>\n</body></html>\n");
+		return html.toString();
+	}
+
+	private String stylesheet(int number) {
+		StringBuilder css = new StringBuilder(256);
+		if (number + 1 < cssImportDepth)
+			css.append("@import url(\"style").append(number + 1).append(".css\");\n");
+		css.append("body.level").append(number).append("{background:url(../img/css").append(number).append(".png) no-repeat;margin:0}\n");
+		return css.toString();
+	}
+
+	private byte[] script() {
+		byte[] line = toBytes("console.log('synthetic');\n");
+		byte[] script = new byte[assetSize];
+		for (int i = 0; i < script.length; i++)
+			script[i] = line[i % line.length];
+		return script;
+	}
+
+	private byte[] binary(String path) {
+		byte[] content = new byte[assetSize];
+		new Random(path.hashCode()).nextBytes(content);
+		return content;
+	}
+
+	private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(statusCode, body.length > 0 ? body.length : -1);
+		if (body.length > 0) {
+			OutputStream outputStream = exchange.getResponseBody();
+			outputStream.write(body);
+			outputStream.close();
+		}
+	}
+
+	private static byte[] toBytes(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// every Java platform has to support UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Runs the site until the process is stopped, e.g. to crawl it with other tools. The arguments are the number of pages and the latency
+	 * in milliseconds.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @throws Exception
+	 *             if the site couldn't be started
+	 */
+	public static void main(String[] args) throws Exception {
+		SyntheticSite site = new SyntheticSite();
+		if (args.length > 0)
+			site.setPages(Integer.parseInt(args[0]));
+		if (args.length > 1)
+			site.setLatency(Long.parseLong(args[1]));
+		site.start();
+		System.out.println("Serving " + site.getAssetCount() + " assets at " + site.getStartUrl());
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,69 @@
+package net.kuesters.mobile.crawler.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.kuesters.mobile.crawler.AppCrawlerUtil;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing ZIP entries, including the compression and the content hash, for assets that compress well and for assets that
+ * don't, with the compression levels of the {@link net.kuesters.mobile.crawler.CompressionPolicy}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog")
+public class ZipEntryBenchmark {
+
+	/** The number of entries per invocation. */
+	private static final int ENTRIES = 20;
+
+	/** The kind of content. */
+	@Param({ "text", "binary" })
+	public String content;
+
+	/** The size of each entry in bytes. */
+	@Param({ "4096", "262144" })
+	public int size;
+
+	/** The deflate level, <code>0</code> stores the entries. */
+	@Param({ "6", "1", "0" })
+	public int level;
+
+	/** The content of the entries. */
+	private byte[] bytes;
+
+	@Setup
+	public void setUp() {
+		bytes = "text".equals(content) ? Inputs.textContent(size) : Inputs.binaryContent(size);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void writeZipEntries() throws IOException {
+		ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+		for (int i = 0; i < ENTRIES; i++)
+			AppCrawlerUtil.writeZipEntry(zipOutputStream, new ByteArrayInputStream(bytes), "/assets/file" + i, level);
+		zipOutputStream.finish();
+	}
+}
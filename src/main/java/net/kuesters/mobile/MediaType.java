@@ -10,7 +10,7 @@ import org.apache.commons.lang.StringUtils;
 public enum MediaType {
 	TEXT_HTML("text", "html"), TEXT_CSS("text", "css"),
 	APPLICATION_XHTML_XML("application", "xhtml+xml"),
-	APPLICATION_JAVASCRIPT("application", "javascript"), APPLICATION_X_JAVASCRIPT("application", "x-javascript"),
+	APPLICATION_JAVASCRIPT("application", "javascript"), APPLICATION_X_JAVASCRIPT("application", "x-javascript"), TEXT_JAVASCRIPT("text", "javascript"),
 	IMAGE_GIF("image", "gif"), IMAGE_JPEG("image", "jpeg"), IMAGE_PNG("image", "png"),
 	UNKNOWN("", "");
 
@@ -23,8 +23,10 @@ public enum MediaType {
 	}
 
 	public static MediaType parseMediaType(String mediaType) {
-		String type = StringUtils.substringBefore(mediaType, "/");
-		String subType = StringUtils.substringAfter(mediaType, "/");
+		// parameters like the charset don't change the type
+		String essence = StringUtils.trim(StringUtils.substringBefore(mediaType, ";"));
+		String type = StringUtils.substringBefore(essence, "/");
+		String subType = StringUtils.substringAfter(essence, "/");
 
 		for (MediaType value : values()) {
 			if (value.type.equalsIgnoreCase(type) && value.subtype.equalsIgnoreCase(subType)) {
@@ -1,5 +1,11 @@
 package net.kuesters.mobile;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 public class MobileApp {
 
 	private String name;
@@ -8,6 +14,7 @@ public class MobileApp {
 	private String appVersion;
 	private long phoneGapBuildId;
 	private byte[] contentsZip;
+	private Path contentsZipPath;
 	private String contentsZipFileName;
 
 	public MobileApp(String name, String startUrl, String packageName,
@@ -48,6 +55,30 @@ public class MobileApp {
 		return contentsZip;
 	}
 
+	/**
+	 * Gets the file the contents ZIP is stored in, if it is kept on disk instead of {@link #getContentsZip()}.
+	 * 
+	 * @return the path of the contents ZIP or <code>null</code>
+	 */
+	public Path getContentsZipPath() {
+		return contentsZipPath;
+	}
+
+	/**
+	 * Opens the contents ZIP, no matter if it is kept in memory or on disk.
+	 * 
+	 * @return the input stream of the contents ZIP or <code>null</code> if there is none
+	 * @throws IOException
+	 *             Signals that the file of the contents ZIP couldn't be opened.
+	 */
+	public InputStream openContentsZip() throws IOException {
+		if (contentsZip != null)
+			return new ByteArrayInputStream(contentsZip);
+		if (contentsZipPath != null)
+			return Files.newInputStream(contentsZipPath);
+		return null;
+	}
+
 	public String getContentsZipFileName() {
 		return contentsZipFileName;
 	}
@@ -58,6 +89,20 @@ public class MobileApp {
 
 	public void setContentsZip(byte[] contentsZip) {
 		this.contentsZip = contentsZip;
+		if (contentsZip != null)
+			this.contentsZipPath = null;
+	}
+
+	/**
+	 * Sets the file the contents ZIP is stored in. This releases a contents ZIP that was kept in memory before.
+	 * 
+	 * @param contentsZipPath
+	 *            the path of the contents ZIP
+	 */
+	public void setContentsZipPath(Path contentsZipPath) {
+		this.contentsZipPath = contentsZipPath;
+		if (contentsZipPath != null)
+			this.contentsZip = null;
 	}
 
 	public void setContentsZipFileName(String contentsZipFileName) {
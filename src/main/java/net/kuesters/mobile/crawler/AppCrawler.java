@@ -1,30 +1,55 @@
 package net.kuesters.mobile.crawler;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.kuesters.mobile.MobileApp;
 import net.kuesters.mobile.crawler.AppCrawlerUtil.AssetType;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 
 /**
@@ -37,375 +62,2378 @@ public class AppCrawler {
 	/** The logger. */
 	private static final Log LOG = LogFactory.getLog(AppCrawler.class);
 
-	/** The app that is crawled. */
-	private MobileApp app;
+	/** The default number of assets that are fetched at the same time. */
+	public static final int DEFAULT_MAX_CONCURRENCY = 8;
 
-	/** The crawled URLs of the latest crawl. */
-	private List<String> crawledURLs;
+	/** The default number of bytes a crawl keeps in memory for the content of its assets. */
+	public static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
 
-	/** The ZIP output stream. */
-	private ZipOutputStream zipOutputStream;
+	/** The default size above which the content of an asset is moved to a temporary file. */
+	public static final long DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
 
-	/** The list of errors that happened during the latest crawl. */
-	private List<String> errors;
+	/** The default number of assets that may wait for the parse or package stage of a crawl. */
+	public static final int DEFAULT_STAGE_QUEUE_CAPACITY = 16;
 
-	/** True if <code>/icon.png</code> was found. */
-	private boolean hasIcon;
+	/** The number of times an asset is requested from a host that refuses it because it is overloaded. */
+	private static final int MAX_THROTTLED_ATTEMPTS = 3;
 
-	/** True if <code>/splash.png</code> was found. */
-	private boolean hasSplashScreen;
+	/** The rank of assets a page needs to be rendered: stylesheets, scripts and icons. */
+	private static final int CRITICAL_RANK = 0;
+
+	/** The rank of other assets a page or stylesheet refers to, e.g. images and fonts. */
+	private static final int RESOURCE_RANK = 1;
+
+	/** The rank of linked pages. */
+	private static final int PAGE_RANK = 2;
+
+	/** The extensions of files that aren't rewritten but may refer to other files by name, if their media type doesn't tell. */
+	private static final String[] TEXT_EXTENSIONS = { ".js", ".mjs", ".json", ".webmanifest", ".xml", ".svg", ".txt", ".appcache" };
+
+	/** The app that is crawled by {@link #crawl()} or <code>null</code>. */
+	private final MobileApp app;
+
+	/** The cache for off-site assets or <code>null</code>. */
+	private volatile HttpAssetCache assetCache;
+
+	/** The transport the assets are loaded with. */
+	private volatile Fetcher fetcher = new HttpFetcher();
+
+	/** The scheduler that limits the requests per host. */
+	private volatile HostScheduler hostScheduler = new HostScheduler();
+
+	/** The policy that decides how the entries of the packages are compressed. */
+	private volatile CompressionPolicy compressionPolicy = new CompressionPolicy();
+
+	/** The policy for the timeouts, retries and hedged requests of every request. */
+	private volatile RequestPolicy requestPolicy = new RequestPolicy();
+
+	/** The latest response times of every host, shared by all crawls. */
+	private final LatencyTracker latencies = new LatencyTracker();
+
+	/** The URLs every crawl is seeded with. */
+	private volatile CrawlSeeds seeds = new CrawlSeeds();
+
+	/** The limits of every crawl. */
+	private volatile CrawlBudget budget = new CrawlBudget();
+
+	/** The asset types that are minified, an unmodifiable set that is replaced as a whole. */
+	private volatile Set<AssetType> minifiedAssetTypes = Collections.unmodifiableSet(EnumSet.noneOf(AssetType.class));
+
+	/** The maximum number of assets that are fetched at the same time. */
+	private volatile int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+	/** The number of bytes a crawl keeps in memory for the content of its assets. */
+	private volatile long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+
+	/** The size above which the content of an asset is moved to a temporary file. */
+	private volatile long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+
+	/** The directory of the temporary files or <code>null</code> for the default temporary directory. */
+	private volatile Path spillDirectory;
+
+	/** The minimum time between two checkpoints of a crawl in milliseconds, <code>0</code> if no checkpoints are saved. */
+	private volatile long checkpointInterval;
+
+	/** The number of threads that parse HTML documents and stylesheets. */
+	private volatile int parseThreads = Runtime.getRuntime().availableProcessors();
+
+	/** The number of threads that compress the assets and add them to the ZIP file. */
+	private volatile int packageThreads = Runtime.getRuntime().availableProcessors();
+
+	/** The number of assets that may wait for the parse or package stage of a crawl. */
+	private volatile int stageQueueCapacity = DEFAULT_STAGE_QUEUE_CAPACITY;
+
+	/** True if every unique asset body is stored only once in a package. */
+	private volatile boolean deduplication;
+
+	/** True if a delta against the previous package is created when a package is replaced. */
+	private volatile boolean deltaPackages;
+
+	/** The listeners that are notified about every crawl. */
+	private final List<CrawlListener> listeners = new CopyOnWriteArrayList<CrawlListener>();
+
+	/** The state of the latest crawl or <code>null</code>. */
+	private volatile CrawlContext latestContext;
+
+	/**
+	 * Instantiates a new app crawler that can crawl any number of apps, one after the other or at the same time, with
+	 * {@link #crawl(MobileApp, Path)} and {@link #crawl(MobileApp, OutputStream)}.
+	 */
+	public AppCrawler() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates a new app crawler.
+	 * 
+	 * @param app
+	 *            the app
+	 */
+	public AppCrawler(MobileApp app) {
+		this.app = app;
+	}
+
+	/**
+	 * Gets the mobile app.
+	 * 
+	 * @return the mobile app or <code>null</code> if the crawler was created without one
+	 */
+	public MobileApp getApp() {
+		return app;
+	}
+
+	/**
+	 * Gets the app that the crawl methods without an app parameter crawl.
+	 * 
+	 * @return the mobile app
+	 * @throws IllegalStateException
+	 *             if the crawler was created without an app
+	 */
+	private MobileApp getRequiredApp() {
+		if (app == null)
+			throw new IllegalStateException("The crawler was created without an app");
+		return app;
+	}
+
+	/**
+	 * Gets the maximum number of assets that are fetched at the same time.
+	 * 
+	 * @return the maximum concurrency
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Sets the maximum number of assets that are fetched at the same time. A value of <code>1</code> crawls one asset after the other.
+	 * 
+	 * @param maxConcurrency
+	 *            the maximum concurrency, at least <code>1</code>
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be at least 1");
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * Gets the number of bytes every crawl may keep in memory for the content of its assets.
+	 * 
+	 * @return the maximum number of bytes
+	 */
+	public long getMaxBufferedBytes() {
+		return maxBufferedBytes;
+	}
+
+	/**
+	 * Sets the number of bytes every crawl may keep in memory for the content of the assets that are rewritten and compressed at the same
+	 * time. Content that doesn't fit is moved to temporary files, so the heap a crawl needs doesn't grow with the size of the site.
+	 * 
+	 * @param maxBufferedBytes
+	 *            the maximum number of bytes, <code>0</code> to write all content to temporary files
+	 */
+	public void setMaxBufferedBytes(long maxBufferedBytes) {
+		if (maxBufferedBytes < 0)
+			throw new IllegalArgumentException("maxBufferedBytes must not be negative");
+		this.maxBufferedBytes = maxBufferedBytes;
+	}
+
+	/**
+	 * Gets the size above which the content of an asset is moved to a temporary file.
+	 * 
+	 * @return the size in bytes
+	 */
+	public long getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * Sets the size above which the content of an asset is moved to a temporary file, even if the memory of the crawl isn't used up.
+	 * 
+	 * @param spillThreshold
+	 *            the size in bytes
+	 */
+	public void setSpillThreshold(long spillThreshold) {
+		if (spillThreshold < 0)
+			throw new IllegalArgumentException("spillThreshold must not be negative");
+		this.spillThreshold = spillThreshold;
+	}
+
+	/**
+	 * Gets the directory of the temporary files.
+	 * 
+	 * @return the directory or <code>null</code> for the default temporary directory
+	 */
+	public Path getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * Sets the directory of the temporary files. The files are deleted as soon as their assets are added to the package.
+	 * 
+	 * @param spillDirectory
+	 *            the directory or <code>null</code> for the default temporary directory
+	 */
+	public void setSpillDirectory(Path spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Gets the minimum time between two checkpoints of a crawl.
+	 * 
+	 * @return the interval in milliseconds, <code>0</code> if no checkpoints are saved
+	 */
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Sets the minimum time between two checkpoints of a crawl to a file. While the crawl is running, the partial ZIP file and a checkpoint
+	 * of the completed entries and the scheduled URLs are kept next to the target. If the crawl fails or the JVM stops, the next crawl to
+	 * the same target resumes from the checkpoint and only fetches what is missing. Crawls to an output stream don't save checkpoints.
+	 * 
+	 * @param checkpointInterval
+	 *            the interval in milliseconds, <code>0</code> to save no checkpoints
+	 * @see #crawl(MobileApp, Path)
+	 */
+	public void setCheckpointInterval(long checkpointInterval) {
+		if (checkpointInterval < 0)
+			throw new IllegalArgumentException("checkpointInterval must not be negative");
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Checks if every unique asset body is stored only once in a package.
+	 * 
+	 * @return true if the asset bodies are deduplicated
+	 */
+	public boolean isDeduplication() {
+		return deduplication;
+	}
+
+	/**
+	 * Sets if every unique asset body is stored only once in a package. Assets with the same body as an asset that is already in the
+	 * package aren't added again and the references of HTML documents and stylesheets to them are rewritten to the stored copy. A
+	 * duplicate is still added under its own path if something refers to it that isn't rewritten: files with fixed names like
+	 * <code>/icon.png</code>, seeds and files whose name appears in a script or another text file the crawler doesn't rewrite. The
+	 * duplicates and documents are kept until the end of the crawl for this, within the {@link #setMaxBufferedBytes(long) memory of the
+	 * crawl}, and documents and scripts of a checkpoint as well as documents of a previous package are always fetched again. The saved bytes
+	 * are part of the {@link CrawlReport}.
+	 * 
+	 * @param deduplication
+	 *            true to deduplicate the asset bodies
+	 */
+	public void setDeduplication(boolean deduplication) {
+		this.deduplication = deduplication;
+	}
+
+	/**
+	 * Checks if a delta against the previous package is created when a package is replaced.
+	 * 
+	 * @return true if deltas are created
+	 */
+	public boolean isDeltaPackages() {
+		return deltaPackages;
+	}
+
+	/**
+	 * Sets if a {@link DeltaPackage} is created when {@link #crawl(Path)} replaces an existing package. The delta is saved next to the ZIP
+	 * file under {@link DeltaPackage#getDeltaPath(Path)} and only contains the entries that were added or changed, so it can be sent to
+	 * clients that have the previous package instead of the whole new one. A delta of an earlier crawl is removed when a crawl can't create
+	 * one, so it never belongs to another package.
+	 * 
+	 * @param deltaPackages
+	 *            true to create deltas
+	 */
+	public void setDeltaPackages(boolean deltaPackages) {
+		this.deltaPackages = deltaPackages;
+	}
+
+	/**
+	 * Gets the number of threads of every crawl that rewrite and minify HTML documents and stylesheets.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getParseThreads() {
+		return parseThreads;
+	}
+
+	/**
+	 * Sets the number of threads of every crawl that rewrite the references of HTML documents and stylesheets and minify them, while the
+	 * fetch threads download the next assets. The default is the number of processors.
+	 * 
+	 * @param parseThreads
+	 *            the number of threads, at least <code>1</code>
+	 */
+	public void setParseThreads(int parseThreads) {
+		if (parseThreads < 1)
+			throw new IllegalArgumentException("parseThreads must be at least 1");
+		this.parseThreads = parseThreads;
+	}
+
+	/**
+	 * Gets the number of threads of every crawl that compress the assets and add them to the ZIP file.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getPackageThreads() {
+		return packageThreads;
+	}
+
+	/**
+	 * Sets the number of threads of every crawl that compress the assets and add them to the ZIP file. The default is the number of
+	 * processors.
+	 * 
+	 * @param packageThreads
+	 *            the number of threads, at least <code>1</code>
+	 */
+	public void setPackageThreads(int packageThreads) {
+		if (packageThreads < 1)
+			throw new IllegalArgumentException("packageThreads must be at least 1");
+		this.packageThreads = packageThreads;
+	}
+
+	/**
+	 * Gets the number of assets that may wait for the parse or package stage of a crawl.
+	 * 
+	 * @return the number of waiting assets per stage
+	 */
+	public int getStageQueueCapacity() {
+		return stageQueueCapacity;
+	}
+
+	/**
+	 * Sets the number of assets that may wait for the parse or package stage of a crawl. A thread that hands an asset to a full stage waits,
+	 * so the fetch threads slow down to the pace of parsing and compressing instead of buffering more and more bodies.
+	 * 
+	 * @param stageQueueCapacity
+	 *            the number of waiting assets per stage
+	 */
+	public void setStageQueueCapacity(int stageQueueCapacity) {
+		if (stageQueueCapacity < 0)
+			throw new IllegalArgumentException("stageQueueCapacity must not be negative");
+		this.stageQueueCapacity = stageQueueCapacity;
+	}
+
+	/**
+	 * Gets the cache that off-site assets are taken from.
+	 * 
+	 * @return the asset cache or <code>null</code>
+	 */
+	public HttpAssetCache getAssetCache() {
+		return assetCache;
+	}
+
+	/**
+	 * Sets the cache that off-site assets are taken from, e.g. libraries and fonts loaded from CDNs. The same cache can be used by any
+	 * number of crawlers at the same time.
+	 * 
+	 * @param assetCache
+	 *            the asset cache or <code>null</code> to fetch every asset from the network
+	 * @see HttpAssetCache#open(Path, long)
+	 */
+	public void setAssetCache(HttpAssetCache assetCache) {
+		this.assetCache = assetCache;
+	}
+
+	/**
+	 * Gets the transport the assets are loaded with.
+	 * 
+	 * @return the fetcher, an {@link HttpFetcher} by default
+	 */
+	public Fetcher getFetcher() {
+		return fetcher;
+	}
+
+	/**
+	 * Sets the transport the assets are loaded with. The same fetcher can be used by any number of crawlers at the same time, so they share
+	 * its connections.
+	 * 
+	 * @param fetcher
+	 *            the fetcher
+	 */
+	public void setFetcher(Fetcher fetcher) {
+		if (fetcher == null)
+			throw new IllegalArgumentException("The fetcher must not be null");
+		this.fetcher = fetcher;
+	}
+
+	/**
+	 * Gets the scheduler that limits the requests per host.
+	 * 
+	 * @return the host scheduler, every crawler has its own by default
+	 */
+	public HostScheduler getHostScheduler() {
+		return hostScheduler;
+	}
+
+	/**
+	 * Sets the scheduler that limits the requests per host. Crawlers that run at the same time should share one, so the limits of a host
+	 * apply to all of them together.
+	 * 
+	 * @param hostScheduler
+	 *            the host scheduler
+	 */
+	public void setHostScheduler(HostScheduler hostScheduler) {
+		if (hostScheduler == null)
+			throw new IllegalArgumentException("The host scheduler must not be null");
+		this.hostScheduler = hostScheduler;
+	}
+
+	/**
+	 * Gets the policy that decides how the entries of the packages are compressed.
+	 * 
+	 * @return the compression policy
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return compressionPolicy;
+	}
+
+	/**
+	 * Sets the policy that decides how the entries of the packages are compressed.
+	 * 
+	 * @param compressionPolicy
+	 *            the compression policy
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		if (compressionPolicy == null)
+			throw new IllegalArgumentException("The compression policy must not be null");
+		this.compressionPolicy = compressionPolicy;
+	}
+
+	/**
+	 * Gets the policy for the timeouts, retries and hedged requests of the requests.
+	 * 
+	 * @return the request policy
+	 */
+	public RequestPolicy getRequestPolicy() {
+		return requestPolicy;
+	}
+
+	/**
+	 * Sets the policy for the timeouts, retries and hedged requests of the requests.
+	 * 
+	 * @param requestPolicy
+	 *            the request policy
+	 */
+	public void setRequestPolicy(RequestPolicy requestPolicy) {
+		if (requestPolicy == null)
+			throw new IllegalArgumentException("The request policy must not be null");
+		this.requestPolicy = requestPolicy;
+	}
+
+	/**
+	 * Gets the URLs every crawl is seeded with next to the entry page.
+	 * 
+	 * @return the seeds
+	 */
+	public CrawlSeeds getSeeds() {
+		return seeds;
+	}
+
+	/**
+	 * Sets the URLs every crawl is seeded with next to the entry page.
+	 * 
+	 * @param seeds
+	 *            the seeds
+	 */
+	public void setSeeds(CrawlSeeds seeds) {
+		if (seeds == null)
+			throw new IllegalArgumentException("The seeds must not be null");
+		this.seeds = seeds;
+	}
+
+	/**
+	 * Gets the limits of every crawl.
+	 * 
+	 * @return the crawl budget, without limits by default
+	 */
+	public CrawlBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the limits of every crawl. Assets beyond the limits are skipped and listed in the {@link CrawlReport}.
+	 * 
+	 * @param budget
+	 *            the crawl budget
+	 */
+	public void setBudget(CrawlBudget budget) {
+		if (budget == null)
+			throw new IllegalArgumentException("The budget must not be null");
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the asset types that are minified.
+	 * 
+	 * @return an unmodifiable set of the asset types, empty by default
+	 */
+	public Set<AssetType> getMinifiedAssetTypes() {
+		return minifiedAssetTypes;
+	}
+
+	/**
+	 * Sets the asset types that are minified while they are added to the packages. HTML documents, stylesheets and scripts can be
+	 * minified, other types are ignored. The minifiers only remove comments and whitespace that don't change the meaning of the content,
+	 * the sizes before and after are reported in the {@link AssetMetrics}.
+	 * 
+	 * @param assetTypes
+	 *            the asset types, e.g. {@link AssetType#HTML}, {@link AssetType#STYLESHEET} and {@link AssetType#SCRIPT}, or an empty set to
+	 *            add all assets as they are served
+	 */
+	public void setMinifiedAssetTypes(Collection<AssetType> assetTypes) {
+		Set<AssetType> types = EnumSet.noneOf(AssetType.class);
+		types.addAll(assetTypes);
+		this.minifiedAssetTypes = Collections.unmodifiableSet(types);
+	}
+
+	/**
+	 * Adds a listener that is notified about every crawl and every crawled asset, e.g. {@link CrawlMetrics}.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addCrawlListener(CrawlListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("The listener must not be null");
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeCrawlListener(CrawlListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets a read-only view of the URLs crawled by the latest crawl. Use the {@link CrawlReport} to get the URLs of a specific crawl.
+	 * 
+	 * @return the crawled URLs
+	 */
+	public List<String> getCrawledURLs() {
+		CrawlContext context = latestContext;
+		return context != null ? context.getCrawledURLs().asList() : Collections.<String> emptyList();
+	}
+
+	/**
+	 * Checks if a URL is crawled.
+	 * 
+	 * @param url
+	 *            the URL
+	 * @return true, if the URL is crawled
+	 */
+	public boolean isCrawled(String url) {
+		CrawlContext context = latestContext;
+		return context != null && context.getCrawledURLs().contains(url);
+	}
+
+	/**
+	 * Gets a list of errors that occurred during the latest crawl. Use the {@link CrawlReport} to get the errors of a specific crawl.
+	 * 
+	 * @return the errors
+	 */
+	public List<CrawlError> getErrors() {
+		CrawlContext context = latestContext;
+		return context != null ? context.getErrors() : Collections.<CrawlError> emptyList();
+	}
+
+	/**
+	 * Crawl an app starting with it's {@link MobileApp#getStartUrl()}.
+	 * <p>
+	 * After the crawl possible errors can be obtained via {@link #getErrors()}.
+	 * </p>
+	 * <p>
+	 * The whole ZIP file is kept in memory. Use {@link #crawl(OutputStream)} or {@link #crawl(Path)} for large apps.
+	 * </p>
+	 * 
+	 * @return the resulting ZIP file as byte array output stream, which is incomplete if the crawl failed
+	 * @throws IllegalStateException
+	 *             if the crawler was created without an app
+	 */
+	public ByteArrayOutputStream crawl() {
+		String startUrl = getRequiredApp().getStartUrl();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			crawl(baos);
+		} catch (Exception e) {
+			LOG.warn("Couldn't crawl " + startUrl, e);
+		}
+		return baos;
+	}
+
+	/**
+	 * Crawl an app starting with it's {@link MobileApp#getStartUrl()} and write the resulting ZIP file to a file.
+	 * <p>
+	 * The ZIP file is written to a temporary file in the same directory first and only replaces the target when the crawl has finished,
+	 * so an existing package stays intact if the crawl fails.
+	 * </p>
+	 * <p>
+	 * A manifest of the crawled URLs is saved next to the ZIP file. If the target and its manifest already exist, the crawl is
+	 * incremental: assets are requested conditionally and unchanged ones are copied from the previous package without downloading or
+	 * compressing them again. With {@link #setDeltaPackages(boolean) delta packages}, a {@link DeltaPackage} against the previous package is
+	 * saved next to the ZIP file as well.
+	 * </p>
+	 * <p>
+	 * If a {@link #setCheckpointInterval(long) checkpoint interval} is set, a crawl that didn't finish is resumed from its checkpoint.
+	 * </p>
+	 * 
+	 * @param target
+	 *            the path of the resulting ZIP file
+	 * @throws IOException
+	 *             Signals that the ZIP file couldn't be written.
+	 */
+	public void crawl(Path target) throws IOException {
+		crawl(getRequiredApp(), target);
+	}
+
+	/**
+	 * Crawl an app starting with it's {@link MobileApp#getStartUrl()} and write the resulting ZIP file to a file. Works like
+	 * {@link #crawl(Path)}, but for any app, so a single crawler can crawl many apps at the same time.
+	 * 
+	 * @param app
+	 *            the app
+	 * @param target
+	 *            the path of the resulting ZIP file
+	 * @return the report of the crawl
+	 * @throws IOException
+	 *             Signals that the ZIP file couldn't be written.
+	 */
+	public CrawlReport crawl(MobileApp app, Path target) throws IOException {
+		ExecutorService executor = newExecutor(app);
+		try {
+			return crawl(app, target, executor);
+		} finally {
+			// the slots of the tasks that are dropped are freed, the hosts may be shared with other crawls
+			HostScheduler.dropped(executor.shutdownNow());
+		}
+	}
+
+	/**
+	 * Crawl an app and write the resulting ZIP file to a file, running the fetch tasks on the given executor.
+	 * 
+	 * @param app
+	 *            the app
+	 * @param target
+	 *            the path of the resulting ZIP file
+	 * @param executor
+	 *            the executor running the fetch tasks
+	 * @return the report of the crawl
+	 * @throws IOException
+	 *             Signals that the ZIP file couldn't be written.
+	 */
+	CrawlReport crawl(MobileApp app, Path target, Executor executor) throws IOException {
+		CrawlContext context = startCrawl(app, executor);
+		try {
+			Path directory = target.toAbsolutePath().getParent();
+			Path manifestPath = CrawlManifest.getManifestPath(target);
+			Path checkpointPath = CrawlCheckpoint.getCheckpointPath(target);
+			CrawlCheckpoint checkpoint = checkpointInterval > 0 ? loadCheckpoint(checkpointPath) : null;
+			Path deltaPath = DeltaPackage.getDeltaPath(target);
+			Path tempFile = null;
+			Path tempManifest = null;
+			Path tempDelta = null;
+			boolean successful = false;
+			try {
+				tempFile = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+				tempManifest = Files.createTempFile(directory, manifestPath.getFileName().toString(), ".tmp");
+				context.openPreviousPackage(target, manifestPath);
+				if (checkpointInterval > 0)
+					context.enableCheckpoints(checkpointPath, tempFile, checkpointInterval);
+
+				OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile));
+				try {
+					crawl(context, outputStream, checkpoint);
+				} catch (IOException e) {
+					saveLastCheckpoint(context);
+					throw e;
+				} finally {
+					outputStream.close();
+				}
+				context.getManifest().save(tempManifest);
+
+				context.closePreviousPackage();
+				boolean delta = false;
+				if (deltaPackages) {
+					tempDelta = Files.createTempFile(directory, deltaPath.getFileName().toString(), ".tmp");
+					delta = createDelta(context, target, tempFile, tempDelta);
+				}
+				AppCrawlerUtil.moveReplacing(tempFile, target);
+				AppCrawlerUtil.moveReplacing(tempManifest, manifestPath);
+				if (delta)
+					AppCrawlerUtil.moveReplacing(tempDelta, deltaPath);
+				else
+					Files.deleteIfExists(deltaPath);
+				successful = true;
+			} finally {
+				context.closePreviousPackage();
+				// the partial ZIP file is kept for the next crawl if a checkpoint refers to it
+				if (tempFile != null && (successful || !context.isCheckpointSaved()))
+					Files.deleteIfExists(tempFile);
+				if (successful && checkpointInterval > 0)
+					Files.deleteIfExists(checkpointPath);
+				if (tempManifest != null)
+					Files.deleteIfExists(tempManifest);
+				if (tempDelta != null)
+					Files.deleteIfExists(tempDelta);
+			}
+		} catch (IOException e) {
+			context.addError(app.getStartUrl(), CrawlError.Phase.FINISH, e, 0);
+			finishCrawl(context);
+			throw e;
+		}
+		return finishCrawl(context);
+	}
+
+	/**
+	 * Creates the delta between the package that is replaced and the new one.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param target
+	 *            the path of the package that is replaced
+	 * @param tempFile
+	 *            the path of the new package
+	 * @param tempDelta
+	 *            the path the delta is written to
+	 * @return true if the delta was created, false if there is no previous package or the delta couldn't be created
+	 */
+	private static boolean createDelta(CrawlContext context, Path target, Path tempFile, Path tempDelta) {
+		if (!Files.isRegularFile(target))
+			return false;
+
+		try {
+			DeltaPackage delta = DeltaPackage.create(target, tempFile, tempDelta);
+			LOG.info("Created delta of " + delta.getPaths(DeltaPackage.Change.ADDED).size() + " added, "
+					+ delta.getPaths(DeltaPackage.Change.CHANGED).size() + " changed and " + delta.getPaths(DeltaPackage.Change.REMOVED).size()
+					+ " removed file/s with " + Files.size(tempDelta) + " bytes for " + target);
+			return true;
+		} catch (IOException e) {
+			context.addError(context.getApp().getStartUrl(), CrawlError.Phase.FINISH, e, 0);
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the checkpoint of a crawl that didn't finish.
+	 * 
+	 * @param checkpointPath
+	 *            the path of the checkpoint
+	 * @return the checkpoint or <code>null</code> if there is none or it can't be used
+	 */
+	private static CrawlCheckpoint loadCheckpoint(Path checkpointPath) {
+		if (!Files.isRegularFile(checkpointPath))
+			return null;
+
+		try {
+			CrawlCheckpoint checkpoint = CrawlCheckpoint.load(checkpointPath);
+			if (Files.isRegularFile(checkpoint.getPartialFile(checkpointPath)))
+				return checkpoint;
+			LOG.warn("The partial ZIP file of checkpoint " + checkpointPath + " is missing, crawling everything again.");
+		} catch (IOException e) {
+			LOG.warn("Couldn't load checkpoint " + checkpointPath + ", crawling everything again.", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Saves a checkpoint of a crawl that failed, so the next crawl can resume it.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 */
+	private static void saveLastCheckpoint(CrawlContext context) {
+		try {
+			context.saveCheckpoint();
+		} catch (IOException e) {
+			LOG.warn("Couldn't save checkpoint " + context.getCheckpointPath() + " of the failed crawl", e);
+		}
+	}
+
+	/**
+	 * Crawl an app starting with it's {@link MobileApp#getStartUrl()} and write the resulting ZIP file to an output stream.
+	 * <p>
+	 * Every ZIP entry is written to the stream as soon as its asset has been crawled, so the package is never held in memory as a whole.
+	 * The stream is not closed. After the crawl possible errors can be obtained via {@link #getErrors()}.
+	 * </p>
+	 * 
+	 * @param outputStream
+	 *            the output stream the resulting ZIP file is written to
+	 * @throws IOException
+	 *             Signals that the ZIP file couldn't be written.
+	 */
+	public void crawl(OutputStream outputStream) throws IOException {
+		crawl(getRequiredApp(), outputStream);
+	}
+
+	/**
+	 * Crawl an app starting with it's {@link MobileApp#getStartUrl()} and write the resulting ZIP file to an output stream. Works like
+	 * {@link #crawl(OutputStream)}, but for any app, so a single crawler can crawl many apps at the same time.
+	 * 
+	 * @param app
+	 *            the app
+	 * @param outputStream
+	 *            the output stream the resulting ZIP file is written to
+	 * @return the report of the crawl
+	 * @throws IOException
+	 *             Signals that the ZIP file couldn't be written.
+	 */
+	public CrawlReport crawl(MobileApp app, OutputStream outputStream) throws IOException {
+		ExecutorService executor = newExecutor(app);
+		try {
+			CrawlContext context = startCrawl(app, executor);
+			try {
+				crawl(context, outputStream, null);
+			} catch (IOException e) {
+				context.addError(app.getStartUrl(), CrawlError.Phase.FINISH, e, 0);
+				finishCrawl(context);
+				throw e;
+			}
+			return finishCrawl(context);
+		} finally {
+			// the slots of the tasks that are dropped are freed, the hosts may be shared with other crawls
+			HostScheduler.dropped(executor.shutdownNow());
+		}
+	}
+
+	/**
+	 * Creates the state of a new crawl with its own request threads and parse and package stages and notifies the listeners.
+	 * 
+	 * @param app
+	 *            the app
+	 * @param executor
+	 *            the executor running the fetch tasks
+	 * @return the state of the crawl
+	 */
+	private CrawlContext startCrawl(MobileApp app, Executor executor) {
+		CrawlPipeline pipeline = new CrawlPipeline(parseThreads, packageThreads, stageQueueCapacity, new CrawlerThreadFactory(app.getName(),
+				"stage"));
+		RequestExecutor requestExecutor = new RequestExecutor(latencies, new CrawlerThreadFactory(app.getName(), "request"));
+		CrawlContext context = new CrawlContext(app, executor, new BufferBudget(maxBufferedBytes, spillThreshold, spillDirectory), budget,
+				pipeline, requestExecutor);
+		if (deduplication)
+			context.enableDeduplication();
+		for (CrawlListener listener : listeners) {
+			try {
+				listener.crawlStarted(app);
+			} catch (RuntimeException e) {
+				LOG.warn("Crawl listener " + listener + " failed", e);
+			}
+		}
+		return context;
+	}
+
+	/**
+	 * Stops the stages and request threads of a finished crawl, creates its report and notifies the listeners.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @return the report
+	 */
+	private CrawlReport finishCrawl(CrawlContext context) {
+		context.getPipeline().shutdown();
+		context.getRequestExecutor().shutdown();
+		if (context.getDeduplicator() != null)
+			context.getDeduplicator().release();
+		CrawlReport report = context.toReport();
+		for (CrawlListener listener : listeners) {
+			try {
+				listener.crawlFinished(report);
+			} catch (RuntimeException e) {
+				LOG.warn("Crawl listener " + listener + " failed", e);
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Notifies the listeners about a crawled or failed asset.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param metrics
+	 *            the metrics of the asset
+	 */
+	private void assetCrawled(CrawlContext context, AssetMetrics metrics) {
+		if (LOG.isDebugEnabled())
+			LOG.debug(metrics);
+		context.assetCrawled(metrics);
+		for (CrawlListener listener : listeners) {
+			try {
+				listener.assetCrawled(context.getApp(), metrics);
+			} catch (RuntimeException e) {
+				LOG.warn("Crawl listener " + listener + " failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Creates the executor for the fetch tasks of a crawl.
+	 * 
+	 * @param app
+	 *            the crawled app
+	 * @return the executor with {@link #maxConcurrency} threads
+	 */
+	private ExecutorService newExecutor(MobileApp app) {
+		return Executors.newFixedThreadPool(maxConcurrency, new CrawlerThreadFactory(app.getName()));
+	}
+
+	/**
+	 * Runs a crawl and writes the resulting ZIP file to an output stream.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param outputStream
+	 *            the output stream the resulting ZIP file is written to
+	 * @param checkpoint
+	 *            the checkpoint of a crawl that is resumed or <code>null</code>
+	 * @throws IOException
+	 *             Signals that the ZIP file couldn't be written.
+	 */
+	private void crawl(CrawlContext context, OutputStream outputStream, CrawlCheckpoint checkpoint) throws IOException {
+		MobileApp app = context.getApp();
+		LOG.info("Start crawling app " + app.getName());
+
+		String startUrl = app.getStartUrl();
+		latestContext = context;
+
+		// avoid crawling a phonegap.js file because it will be added dynamically by PhoneGap Build
+		context.markCrawled(app.getStartUrl() + "/phonegap.js");
+
+		try {
+			ZipArchiveOutputStream zipOutputStream = context.openZipOutputStream(outputStream);
+			zipOutputStream.setComment("Content for " + app.getName());
+
+			if (checkpoint != null)
+				resume(context, checkpoint);
+			crawl(context, startUrl, "/index.html", 0, CRITICAL_RANK);
+			crawlSeeds(context);
+			crawlDefaultIcon(context);
+			crawlDefaultSplashScreen(context);
+			context.awaitPendingTasks();
+			packageDeferredAssets(context);
+			addConfig(context);
+			zipOutputStream.finish();
+			zipOutputStream.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while crawling " + startUrl);
+		}
+
+		LOG.info("Finished crawling app " + app.getName() + ". Found " + context.getCrawledURLs().size() + " file/s. " + context.getErrors().size()
+				+ " error/s occured. Buffered at most " + context.getBufferBudget().getPeakBytes() + " bytes in memory, spilled "
+				+ context.getBufferBudget().getSpilledBuffers() + " asset/s to disk.");
+	}
+
+	/**
+	 * Resumes a crawl from the checkpoint of a crawl that didn't finish. The completed entries are copied from the partial ZIP file of the
+	 * checkpoint without compressing them again, then the URLs they refer to and the URLs that weren't completed are scheduled. The partial
+	 * ZIP file is deleted as soon as a checkpoint of the new crawl contains its entries.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param checkpoint
+	 *            the checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void resume(CrawlContext context, CrawlCheckpoint checkpoint) throws IOException {
+		Path partialFile = checkpoint.getPartialFile(context.getCheckpointPath());
+		LOG.info("Resuming crawl of app " + context.getApp().getName() + " with " + checkpoint.getEntries().size() + " completed file/s from "
+				+ partialFile);
+
+		List<CrawlCheckpoint.Entry> restored = new ArrayList<CrawlCheckpoint.Entry>();
+		List<String> refetched = new ArrayList<String>();
+		FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.READ);
+		try {
+			for (CrawlCheckpoint.Entry entry : checkpoint.getEntries()) {
+				// the references of a document can't be pointed at the stored copies anymore and the file names a script mentions are unknown
+				if (context.getDeduplicator() != null
+						&& (!entry.getManifestEntry().getLinks().isEmpty() || mayReferByName(entry.getManifestEntry().getPath()))) {
+					refetched.add(entry.getUrl());
+					continue;
+				}
+				InputStream rawInputStream;
+				try {
+					rawInputStream = CrawlCheckpoint.openRawEntry(channel, entry);
+				} catch (IOException e) {
+					LOG.warn("Couldn't restore " + entry.getUrl() + " from the checkpoint, crawling it again.", e);
+					continue;
+				}
+				try {
+					if (restoreZipEntry(context, entry, rawInputStream))
+						restored.add(entry);
+				} finally {
+					rawInputStream.close();
+				}
+			}
+		} finally {
+			channel.close();
+		}
+
+		// the depth of the restored assets isn't part of the checkpoint, so they count as referred to by the entry page
+		for (CrawlCheckpoint.Entry entry : restored) {
+			for (String link : entry.getManifestEntry().getLinks()) {
+				try {
+					crawl(context, link, entry.getManifestEntry().getPath(), 2, RESOURCE_RANK);
+				} catch (Exception e) {
+					LOG.warn("Couldn't crawl " + link, e);
+					context.addError(link, CrawlError.Phase.SCHEDULE, e, 0);
+				}
+			}
+		}
+		refetched.addAll(checkpoint.getFrontier());
+		for (String url : refetched) {
+			try {
+				crawl(context, url, "/index.html", 1, RESOURCE_RANK);
+			} catch (Exception e) {
+				LOG.warn("Couldn't crawl " + url, e);
+				context.addError(url, CrawlError.Phase.SCHEDULE, e, 0);
+			}
+		}
+
+		context.saveCheckpoint();
+		if (!partialFile.equals(context.getPartialFile()))
+			Files.deleteIfExists(partialFile);
+		LOG.info("Restored " + restored.size() + " file/s from the checkpoint");
+	}
+
+	/**
+	 * Copies a completed entry of a checkpoint to the ZIP file of the crawl.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param entry
+	 *            the entry of the checkpoint
+	 * @param rawInputStream
+	 *            the compressed content of the entry
+	 * @return true, if the entry was copied, false if its URL is crawled already
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static boolean restoreZipEntry(CrawlContext context, CrawlCheckpoint.Entry entry, InputStream rawInputStream) throws IOException {
+		if (!context.markCrawled(entry.getUrl()))
+			return false;
+
+		String path = entry.getManifestEntry().getPath();
+		ZipArchiveEntry zipEntry = entry.toZipArchiveEntry();
+		// only stored copies are part of a checkpoint, so the restored entries are the first of their content
+		if (context.getDeduplicator() != null)
+			context.getDeduplicator().claim(path, entry.getManifestEntry().getContentHash());
+		context.reserveZipEntryPath(path);
+		ZipArchiveOutputStream zipOutputStream = context.getZipOutputStream();
+		synchronized (zipOutputStream) {
+			long offset = context.getBytesWritten();
+			zipOutputStream.addRawArchiveEntry(zipEntry, rawInputStream);
+			context.entryWritten(path, offset, zipEntry);
+		}
+		context.assetCompleted(entry.getUrl(), entry.getManifestEntry());
+		return true;
+	}
+
+	/**
+	 * Crawl a given URL.
+	 * <p>
+	 * The URL is only scheduled to be fetched by the executor of the crawl, so the path that is returned can be used to rewrite the reference
+	 * right away, before the file itself has been fetched. Assets are fetched in the order of their depth and then of their rank, so the
+	 * files a page needs to be rendered come before its images and linked pages. A URL beyond the limits of the {@link #budget} isn't
+	 * scheduled and keeps its absolute URL.
+	 * </p>
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the URL as string
+	 * @param absoluteReferrerPath
+	 *            the absolute path of the referring file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the URL, <code>0</code> for the entry page
+	 * @param rank
+	 *            the rank of the URL among the URLs with the same depth, e.g. {@link #CRITICAL_RANK}
+	 * @return the path leading to this file in the resulting ZIP file, relative to the referrer
+	 * @throws MalformedURLException
+	 *             the malformed URL exception
+	 */
+	private String crawl(CrawlContext context, String urlString, String absoluteReferrerPath, int depth, int rank) throws MalformedURLException {
+		// we don't want to handle mailto: links
+		if (urlString.contains("mailto:"))
+			return urlString;
+
+		PathResolver pathResolver = context.getPathResolver();
+		PathResolver.Target target = pathResolver.resolve(urlString);
+		String normalizedUrl = target.getNormalizedUrl();
+
+		// the entry page is always crawled
+		if (depth > 0 && !context.getCrawledURLs().contains(normalizedUrl)) {
+			CrawlBudget.Limit limit = context.checkBudget(normalizedUrl, depth);
+			if (limit != null) {
+				context.assetSkipped(normalizedUrl, limit);
+				return urlString;
+			}
+		}
+
+		if (context.markCrawled(normalizedUrl))
+			submit(context, normalizedUrl, target.getResultingPath(), depth, getPriority(depth, rank));
+
+		return pathResolver.getRelativeResultingPath(target.getResultingPath(), absoluteReferrerPath);
+	}
+
+	/**
+	 * Schedules the {@link #seeds} of the app like pages the entry page links to, while the entry page is fetched. The sitemap and the web app
+	 * manifest are fetched like assets, see {@link #fetchScheduled(CrawlContext, String)}.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 */
+	private void crawlSeeds(final CrawlContext context) {
+		Set<String> urls = seeds.collect(context.getApp().getStartUrl(), new Fetcher() {
+			@Override
+			public FetchResponse fetch(String url, String eTag, String lastModified) throws IOException {
+				return fetchScheduled(context, url);
+			}
+		});
+		if (urls.isEmpty())
+			return;
+		LOG.info("Seeding crawl of app " + context.getApp().getName() + " with " + urls.size() + " URL/s");
+		for (String url : urls) {
+			try {
+				// a seed is known by its URL, so it has to keep its path
+				if (context.getDeduplicator() != null)
+					context.getDeduplicator().pin(context.getPathResolver().resolve(url).getResultingPath());
+				crawl(context, url, "/index.html", 1, PAGE_RANK);
+			} catch (Exception e) {
+				LOG.warn("Couldn't crawl " + url, e);
+				context.addError(url, CrawlError.Phase.SCHEDULE, e, 0);
+			}
+		}
+	}
+
+	/**
+	 * Fetches a file the crawl needs before it can schedule assets, like the sitemap, in a slot of the {@link #hostScheduler} and waits for
+	 * it. The request follows the {@link #requestPolicy} and is retried later if the host is busy, like the request of an asset. The body is
+	 * read in the slot too.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the URL as string
+	 * @return the response with the buffered body
+	 * @throws IOException
+	 *             Signals that the file couldn't be fetched or that the calling thread was interrupted.
+	 */
+	private FetchResponse fetchScheduled(final CrawlContext context, final String urlString) throws IOException {
+		final String host = getHost(urlString);
+		for (int attempt = 1;; attempt++) {
+			FutureTask<FetchResponse> task = new FutureTask<FetchResponse>(new Callable<FetchResponse>() {
+				@Override
+				public FetchResponse call() throws IOException {
+					FetchResponse response = fetchFromOrigin(context, urlString, null, null, new AssetMetrics(urlString, host));
+					try {
+						return new FetchResponse(response.getUrl(), response.getStatusCode(), response.getHeaders(), new ByteArrayInputStream(
+								IOUtils.toByteArray(response.getInputStream())));
+					} finally {
+						response.close();
+					}
+				}
+			});
+			hostScheduler.submit(host, context.getExecutor(), task, getPriority(0, PAGE_RANK));
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				task.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while fetching " + urlString);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof FetchException && ((FetchException) cause).isThrottled() && attempt < MAX_THROTTLED_ATTEMPTS) {
+					LOG.info("Host " + host + " is busy, retrying " + urlString + " later");
+					continue;
+				}
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				throw new IOException("Couldn't fetch " + urlString, cause);
+			}
+		}
+	}
+
+	/**
+	 * Gets the priority of an asset for the {@link #hostScheduler}.
+	 * 
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param rank
+	 *            the rank of the asset
+	 * @return the priority, lower values are fetched first
+	 */
+	private static int getPriority(int depth, int rank) {
+		return (int) Math.min(Integer.MAX_VALUE, (long) depth * (PAGE_RANK + 1) + rank);
+	}
+
+	/**
+	 * Crawl a given URL on the calling thread instead of the executor of the crawl. Files referenced by the URL are still crawled
+	 * concurrently.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the URL as string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void crawlNow(CrawlContext context, String urlString) throws IOException {
+		PathResolver.Target target = context.getPathResolver().resolve(urlString);
+		// the files crawled here have fixed names, e.g. config.xml refers to them
+		if (context.getDeduplicator() != null)
+			context.getDeduplicator().pin(target.getResultingPath());
+
+		if (context.markCrawled(target.getNormalizedUrl()))
+			crawlAsset(context, target.getNormalizedUrl(), target.getResultingPath(), 1, new AssetMetrics(target.getNormalizedUrl(),
+					getHost(target.getNormalizedUrl())));
+	}
+
+	/**
+	 * Submits a fetch task for an asset to the {@link #hostScheduler}, which runs it on the executor of the crawl. Errors are logged and
+	 * added to the errors of the crawl.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param priority
+	 *            the priority of the asset
+	 * @throws MalformedURLException
+	 *             the malformed URL exception
+	 */
+	private void submit(CrawlContext context, String urlString, String resultingPath, int depth, int priority) throws MalformedURLException {
+		context.assetScheduled(urlString);
+		submit(context, urlString, resultingPath, depth, priority, getHost(urlString), 1);
+	}
+
+	/**
+	 * Submits a fetch task for an asset to the {@link #hostScheduler}. A task the host refused because it is overloaded is submitted again
+	 * until {@link #MAX_THROTTLED_ATTEMPTS} is reached.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param priority
+	 *            the priority of the asset
+	 * @param host
+	 *            the host and port of the URL
+	 * @param attempt
+	 *            the number of the attempt, starting with 1
+	 */
+	private void submit(final CrawlContext context, final String urlString, final String resultingPath, final int depth, final int priority,
+			final String host, final int attempt) {
+		context.taskSubmitted();
+		try {
+			hostScheduler.submit(host, context.getExecutor(), new Runnable() {
+				@Override
+				public void run() {
+					AssetMetrics metrics = new AssetMetrics(urlString, host);
+					try {
+						// the time or bytes of the budget may have run out while the asset was waiting
+						CrawlBudget.Limit limit = depth > 0 ? context.checkRunningBudget() : null;
+						if (limit != null)
+							context.assetSkipped(urlString, limit);
+						else
+							crawlAsset(context, urlString, resultingPath, depth, metrics);
+					} catch (FetchException e) {
+						if (e.isThrottled() && attempt < MAX_THROTTLED_ATTEMPTS) {
+							LOG.info("Host " + host + " is busy, retrying " + urlString + " later");
+							submit(context, urlString, resultingPath, depth, priority, host, attempt + 1);
+						} else {
+							LOG.warn("Couldn't crawl " + urlString, e);
+							// every throttled attempt before was a single request
+							context.addError(urlString, CrawlError.Phase.FETCH, e, attempt - 1 + metrics.getAttempts());
+						}
+					} catch (Exception e) {
+						LOG.warn("Couldn't crawl " + urlString, e);
+						context.addError(urlString, CrawlError.Phase.FETCH, e, attempt - 1 + metrics.getAttempts());
+					} finally {
+						context.taskFinished();
+					}
+				}
+			}, priority);
+		} catch (RuntimeException e) {
+			context.taskFinished();
+			throw e;
+		}
+	}
+
+	/**
+	 * Crawl a URL that an asset refers to and remember it for the asset's manifest entry.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the URL as string
+	 * @param absoluteReferrerPath
+	 *            the absolute path of the referring file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the URL
+	 * @param rank
+	 *            the rank of the URL
+	 * @param references
+	 *            the URLs the referring asset refers to
+	 * @return the path leading to this file in the resulting ZIP file, relative to the referrer
+	 * @throws MalformedURLException
+	 *             the malformed URL exception
+	 */
+	private String crawlLink(CrawlContext context, String urlString, String absoluteReferrerPath, int depth, int rank, List<String> references)
+			throws MalformedURLException {
+		references.add(urlString);
+		return crawl(context, urlString, absoluteReferrerPath, depth, rank);
+	}
+
+	/**
+	 * Gets the manifest entry of the previous package that can be reused if the asset is unchanged.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @return the manifest entry or <code>null</code> if the asset has to be crawled from scratch
+	 */
+	private CrawlManifest.Entry getReusableEntry(CrawlContext context, String urlString, String resultingPath) {
+		CrawlManifest previousManifest = context.getPreviousManifest();
+		if (previousManifest == null)
+			return null;
+
+		CrawlManifest.Entry previous = previousManifest.get(urlString);
+		if (previous == null || !previous.hasValidator() || !previous.getPath().equals(resultingPath)
+				|| context.getPreviousPackage().getEntry(resultingPath) == null)
+			return null;
+		// the references of a reused document can't be pointed at the stored copies of duplicates
+		if (context.getDeduplicator() != null && !previous.getLinks().isEmpty())
+			return null;
+		return previous;
+	}
+
+	/**
+	 * Crawls the references of an HTML document and rewrites them to the paths of the crawled files while the document is copied.
+	 * <p>
+	 * Links to other pages are only followed within the app. A <code>base</code> element is honoured for resolving the references and then
+	 * reset to the document's own directory, because all references are rewritten relative to the document. References that can't be
+	 * crawled are kept as they are.
+	 * </p>
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param reader
+	 *            the reader of the document
+	 * @param writer
+	 *            the writer for the rewritten document
+	 * @param documentUrl
+	 *            the URL of the document
+	 * @param resultingPath
+	 *            the absolute path of the document in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the document
+	 * @param references
+	 *            the URLs the document refers to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void rewriteDocument(final CrawlContext context, Reader reader, Writer writer, final String documentUrl, final String resultingPath,
+			final int depth, final List<String> references) throws IOException {
+		new HtmlLinkRewriter(new HtmlLinkRewriter.LinkHandler() {
+
+			/** The URL the references are resolved against. */
+			private URL baseUrl = new URL(documentUrl);
+
+			@Override
+			public String rewrite(String tagName, String attributeName, String url) {
+				// fragments within the same document and inline data don't point to files
+				if (url.startsWith("#") || StringUtils.startsWithIgnoreCase(url, "data:") || StringUtils.startsWithIgnoreCase(url, "javascript:"))
+					return null;
+
+				URL absoluteUrl;
+				try {
+					absoluteUrl = new URL(baseUrl, url);
+				} catch (MalformedURLException e) {
+					// not a URL we could crawl
+					return null;
+				}
+
+				if ("base".equals(tagName)) {
+					baseUrl = absoluteUrl;
+					return "./";
+				}
+
+				String absoluteHref = absoluteUrl.toString();
+				boolean isPageLink = ("a".equals(tagName) || "area".equals(tagName)) && "href".equals(attributeName);
+				if (isPageLink && !StringUtils.startsWithIgnoreCase(absoluteHref, context.getApp().getStartUrl()))
+					return null;
+
+				int rank = isPageLink ? PAGE_RANK : "link".equals(tagName) || "script".equals(tagName) ? CRITICAL_RANK : RESOURCE_RANK;
+				try {
+					String relativePath = crawlLink(context, absoluteHref, resultingPath, depth + 1, rank, references);
+					return absoluteUrl.getRef() != null && !relativePath.contains("#") ? relativePath + "#" + absoluteUrl.getRef() : relativePath;
+				} catch (Exception e) {
+					LOG.warn("Couldn't crawl " + absoluteHref, e);
+					context.addError(absoluteHref, CrawlError.Phase.SCHEDULE, e, 0);
+					return null;
+				}
+			}
+		}).rewrite(reader, writer);
+	}
 
 	/**
-	 * Instantiates a new app crawler.
+	 * Crawls the references of a stylesheet and rewrites them to the paths of the crawled files while the stylesheet is copied.
+	 * References that can't be crawled are kept as they are.
 	 * 
-	 * @param app
-	 *            the app
+	 * @param context
+	 *            the state of the crawl
+	 * @param reader
+	 *            the reader of the stylesheet
+	 * @param writer
+	 *            the writer for the rewritten stylesheet
+	 * @param baseUrl
+	 *            the URL relative references are resolved against
+	 * @param resultingPath
+	 *            the absolute path of the file containing the stylesheet in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the stylesheet
+	 * @param references
+	 *            the URLs the containing file refers to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	public AppCrawler(MobileApp app) {
-		this.app = app;
-		this.crawledURLs = new ArrayList<String>();
-		this.errors = new ArrayList<String>();
+	private void rewriteStylesheet(final CrawlContext context, Reader reader, Writer writer, final String baseUrl, final String resultingPath,
+			final int depth, final List<String> references) throws IOException {
+		new CssUrlRewriter(new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				// inline data and references to fragments like SVG filters don't point to files
+				if (StringUtils.startsWithIgnoreCase(url, "data:") || url.startsWith("#"))
+					return null;
+
+				try {
+					String relativePath = crawlLink(context, new URL(new URL(baseUrl), url).toString(), resultingPath, depth + 1, RESOURCE_RANK,
+							references);
+					return StringUtils.isNotBlank(relativePath) ? relativePath : null;
+				} catch (Exception e) {
+					LOG.warn("Couldn't crawl " + url, e);
+					context.addError(url, CrawlError.Phase.SCHEDULE, e, 0);
+					return null;
+				}
+			}
+		}).rewrite(reader, writer);
 	}
 
 	/**
-	 * Gets the mobile app.
+	 * Gets a charset by its name, falling back to UTF-8 if the name is missing or unsupported.
 	 * 
-	 * @return the mobile app
+	 * @param charsetName
+	 *            the charset name or <code>null</code>
+	 * @return the charset
 	 */
-	public MobileApp getApp() {
-		return app;
+	private static Charset getCharset(String charsetName) {
+		try {
+			if (charsetName != null)
+				return Charset.forName(charsetName);
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Unsupported charset " + charsetName + ", using UTF-8");
+		}
+		return Charset.forName("UTF-8");
 	}
 
 	/**
-	 * Gets the crawled URLs.
+	 * Reads text and closes the stream.
 	 * 
-	 * @return the crawled URLs
+	 * @param inputStream
+	 *            the input stream
+	 * @param charsetName
+	 *            the charset name or <code>null</code> for UTF-8
+	 * @return the text
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	public List<String> getCrawledURLs() {
-		return crawledURLs;
+	private static String readText(InputStream inputStream, String charsetName) throws IOException {
+		try {
+			return IOUtils.toString(inputStream, getCharset(charsetName).name());
+		} finally {
+			inputStream.close();
+		}
 	}
 
 	/**
-	 * Checks if a URL is crawled.
+	 * Remembers the file names mentioned in a script or another text file that isn't rewritten, so duplicates with these names aren't
+	 * dropped.
 	 * 
-	 * @param url
-	 *            the URL
-	 * @return true, if the URL is crawled
+	 * @param context
+	 *            the state of the crawl
+	 * @param inputStream
+	 *            the content, the stream is closed
+	 * @param charsetName
+	 *            the charset name or <code>null</code> for UTF-8
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	public boolean isCrawled(String url) {
-		return getCrawledURLs().contains(url);
+	private static void mentionFileNames(CrawlContext context, InputStream inputStream, String charsetName) throws IOException {
+		context.getDeduplicator().mention(readText(inputStream, charsetName));
 	}
 
 	/**
-	 * Gets a list of errors that occurred during the last crawl.
+	 * Checks if a file that isn't rewritten may refer to other files by name, judged by its path.
 	 * 
-	 * @return the errors
+	 * @param path
+	 *            the path of the file
+	 * @return true for scripts and text files like web app manifests
 	 */
-	public List<String> getErrors() {
-		return errors;
+	private static boolean mayReferByName(String path) {
+		return mayReferByName(URLConnection.guessContentTypeFromName(path), path);
 	}
 
 	/**
-	 * Crawl an app starting with it's {@link MobileApp#getStartUrl()}.
+	 * Checks if a file that isn't rewritten may refer to other files by name.
+	 * 
+	 * @param contentType
+	 *            the media type of the file or <code>null</code>
+	 * @param path
+	 *            the path of the file
+	 * @return true for scripts and text files like web app manifests
+	 */
+	private static boolean mayReferByName(String contentType, String path) {
+		String type = StringUtils.lowerCase(StringUtils.substringBefore(contentType, ";"));
+		if (type != null && (type.startsWith("text/") || type.contains("javascript") || type.contains("json") || type.contains("xml")))
+			return !type.equals("text/html") && !type.equals("text/css");
+		return StringUtils.endsWithAny(StringUtils.lowerCase(path), TEXT_EXTENSIONS);
+	}
+
+	/**
+	 * Fetches an asset from the network or from the {@link #assetCache}.
 	 * <p>
-	 * After the crawl possible errors can be obtained via {@link #getErrors()}.
+	 * Only off-site assets are taken from the cache, so changes to the app itself are never hidden by it. If the asset is part of the
+	 * previous package, it is requested conditionally.
 	 * </p>
 	 * 
-	 * @return the resulting ZIP file as byte array output stream
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param previous
+	 *            the reusable manifest entry of the previous package or <code>null</code>
+	 * @param metrics
+	 *            the metrics of the asset, the body of the response is metered
+	 * @return the response or <code>null</code> if the asset of the previous package is unchanged
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	public ByteArrayOutputStream crawl() {
-		LOG.info("Start crawling app " + app.getName());
-
-		String startUrl = app.getStartUrl();
-
-		getCrawledURLs().clear();
-		// avoid crawling a phonegap.js file because it will be added dynamically by PhoneGap Build
-		getCrawledURLs().add(app.getStartUrl() + "/phonegap.js");
-		getErrors().clear();
-		hasIcon = false;
-		hasSplashScreen = false;
-
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		try {
-			zipOutputStream = new ZipOutputStream(baos);
-			zipOutputStream.setComment("Content for " + app.getName());
+	private FetchResponse fetch(CrawlContext context, String urlString, CrawlManifest.Entry previous, AssetMetrics metrics) throws IOException {
+		HttpAssetCache cache = StringUtils.startsWithIgnoreCase(urlString, context.getApp().getStartUrl()) ? null : assetCache;
+		HttpAssetCache.Entry cached = cache != null ? cache.get(urlString) : null;
+
+		if (cached != null && cached.isFresh()) {
+			try {
+				metrics.setSource(AssetMetrics.Source.CACHE);
+				return meter(cache.open(cached), metrics);
+			} catch (IOException e) {
+				LOG.debug("Cached " + urlString + " was evicted in the meantime", e);
+				cached = null;
+			}
+		}
 
-			crawl(startUrl, "/index.html");
-			crawlDefaultIcon();
-			crawlDefaultSplashScreen();
-			addConfig();
-			baos.close();
-			zipOutputStream.close();
-		} catch (Exception e) {
-			LOG.warn("Couldn't crawl " + startUrl, e);
+		FetchResponse response;
+		if (previous != null)
+			response = fetchFromOrigin(context, urlString, previous.getETag(), previous.getLastModified(), metrics);
+		else if (cached != null)
+			response = fetchFromOrigin(context, urlString, cached.getETag(), cached.getLastModified(), metrics);
+		else
+			response = fetchFromOrigin(context, urlString, null, null, metrics);
+		metrics.setSource(AssetMetrics.Source.NETWORK);
+		metrics.setRequestTimings(response);
+
+		if (response.isNotModified()) {
+			response.close();
+			if (previous != null)
+				return null;
+			if (cached != null) {
+				metrics.setSource(AssetMetrics.Source.CACHE);
+				return meter(cache.revalidated(cached, response), metrics);
+			}
+			throw new IOException("Unexpected response code 304 for unconditional request to " + urlString);
 		}
 
-		LOG.info("Finished crawling app " + app.getName() + ". Found " + getCrawledURLs().size() + " file/s. " + getErrors().size() + " error/s occured.");
+		// the cache reads the whole body from the network before the stored copy is returned
+		if (cache != null && cache.isCacheable(response))
+			return cache.store(urlString, meter(response, metrics));
+		return meter(response, metrics);
+	}
 
-		return baos;
+	/**
+	 * Meters the body of a response.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param metrics
+	 *            the metrics of the asset
+	 * @return the response with a metered body
+	 */
+	private static FetchResponse meter(FetchResponse response, AssetMetrics metrics) {
+		return new FetchResponse(response.getUrl(), response.getStatusCode(), response.getHeaders(), new MeteredInputStream(
+				response.getInputStream(), metrics));
 	}
 
 	/**
-	 * Crawl a given URL.
+	 * Fetches an asset with the {@link #fetcher} and reports the response time or the refusal of the host to the {@link #hostScheduler}.
+	 * The timeouts, retries and hedged requests follow the {@link #requestPolicy}. The fetch thread keeps the slot of the host while it
+	 * waits for a retry.
 	 * 
+	 * @param context
+	 *            the state of the crawl
 	 * @param urlString
-	 *            the URL as string
-	 * @param contentType
-	 *            the content type
-	 * @return the path leading to this file in the resulting ZIP file
+	 *            the normalized URL as string
+	 * @param eTag
+	 *            the <code>ETag</code> of a previous response or <code>null</code>
+	 * @param lastModified
+	 *            the <code>Last-Modified</code> date of a previous response or <code>null</code>
+	 * @param metrics
+	 *            the metrics of the asset, which count the requests
+	 * @return the response
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
+	 */
+	private FetchResponse fetchFromOrigin(CrawlContext context, String urlString, String eTag, String lastModified, AssetMetrics metrics)
+			throws IOException {
+		String host = getHost(urlString);
+		RequestPolicy policy = requestPolicy;
+		for (int attempt = 1;; attempt++) {
+			long timeout = policy.getTimeout(latencies.getPercentile(host, RequestPolicy.TIMEOUT_PERCENTILE));
+			long hedgeDelay = policy.isHedgedRequests() ? latencies.getPercentile(host, RequestPolicy.HEDGE_PERCENTILE) : -1;
+			try {
+				RequestExecutor.Request request = context.getRequestExecutor().execute(fetcher, host, urlString, eTag, lastModified, timeout,
+						hedgeDelay, metrics);
+				hostScheduler.responded(host, request.getLatency());
+				return request.getResponse();
+			} catch (IOException e) {
+				if (e instanceof FetchException && ((FetchException) e).isThrottled()) {
+					hostScheduler.throttled(host, ((FetchException) e).getRetryAfter());
+					throw e;
+				}
+				if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(e))
+					throw e;
+				long backoff = policy.getBackoff(attempt);
+				LOG.info("Request for " + urlString + " failed (" + e.getLocalizedMessage() + "), retrying in " + backoff + " ms");
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to retry " + urlString);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the host of a URL that requests are scheduled by.
+	 * 
+	 * @param urlString
+	 *            the URL as string
+	 * @return the host and port
 	 * @throws MalformedURLException
 	 *             the malformed URL exception
 	 */
-	private String crawl(String urlString, String absoluteReferrerPath) throws IOException, MalformedURLException, FileNotFoundException {
-		// we don't want to handle mailto: links
-		if (urlString.contains("mailto:"))
-			return urlString;
-
-		urlString = getNormalizedURL(urlString);
-		String resultingPath = getAbsoluteResultingPath(urlString);
-
-		if (!isCrawled(urlString)) {
-			LOG.info("Start crawling " + urlString);
-
-			getCrawledURLs().add(urlString);
-			InputStream inputStream = null;
-
-			URLConnection connection = getConnection(urlString);
-
-			// Workaround for web fonts because of wrong mime type delivered in the response header
-			boolean isWebfont = StringUtils.endsWithAny(connection.getURL().getPath(), new String[] { "eot", "otf", "ttf", "woff" });
+	private static String getHost(String urlString) throws MalformedURLException {
+		return StringUtils.defaultString(new URL(urlString).getAuthority());
+	}
 
-			AssetType assetType = isWebfont ? AssetType.OTHER : AppCrawlerUtil.getAssetType(connection.getContentType());
+	/**
+	 * Copies the unchanged entry of an asset from the previous package and crawls the URLs it refers to.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param previous
+	 *            the manifest entry of the previous package
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param metrics
+	 *            the metrics of the asset
+	 * @return true if the entry was copied, false if it is a duplicate that is resolved at the end of the crawl
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean reuseZipEntry(CrawlContext context, String urlString, CrawlManifest.Entry previous, int depth, AssetMetrics metrics)
+			throws IOException {
+		LOG.info("Reusing unchanged " + urlString);
+		metrics.setSource(AssetMetrics.Source.REUSED);
+		metrics.setAssetType(AppCrawlerUtil.getAssetType(URLConnection.guessContentTypeFromName(previous.getPath())));
+
+		ZipFile previousPackage = context.getPreviousPackage();
+		ZipArchiveEntry previousEntry = previousPackage.getEntry(previous.getPath());
+		Deduplicator deduplicator = context.getDeduplicator();
+		if (deduplicator != null) {
+			if (mayReferByName(previous.getPath()))
+				mentionFileNames(context, previousPackage.getInputStream(previousEntry), null);
+			String storedPath = deduplicator.claim(previous.getPath(), previous.getContentHash());
+			if (!storedPath.equals(previous.getPath())) {
+				// only assets without references are reused when the crawl deduplicates, so there are no links to crawl
+				AssetBuffer content = context.getBufferBudget().newBuffer();
+				boolean held = false;
+				try {
+					InputStream inputStream = previousPackage.getInputStream(previousEntry);
+					try {
+						IOUtils.copy(inputStream, content);
+					} finally {
+						inputStream.close();
+					}
+					content.close();
+					deduplicator.hold(new Deduplicator.Duplicate(urlString, previous.getPath(), storedPath, metrics.getAssetType(), previous
+							.getContentHash(), previousEntry.getCompressedSize(), previous.getETag(), previous.getLastModified(), content, metrics));
+					held = true;
+				} finally {
+					if (!held)
+						content.release();
+				}
+				return false;
+			}
+		}
 
-			LOG.info(assetType);
+		context.reserveZipEntryPath(previous.getPath());
+		ZipArchiveOutputStream zipOutputStream = context.getZipOutputStream();
+		synchronized (zipOutputStream) {
+			long bytesWritten = context.getBytesWritten();
+			long start = System.nanoTime();
+			InputStream rawInputStream = previousPackage.getRawInputStream(previousEntry);
+			try {
+				zipOutputStream.addRawArchiveEntry(previousEntry, rawInputStream);
+			} finally {
+				rawInputStream.close();
+			}
+			context.entryWritten(previous.getPath(), bytesWritten, previousEntry);
+			metrics.setCompressTime(System.nanoTime() - start);
+			metrics.setBytesOut(context.getBytesWritten() - bytesWritten);
+		}
 
-			if (assetType == AssetType.HTML) {
-				// get the HTML document to parse it and extract more links to crawl
-				Document doc = Jsoup.parse(connection.getInputStream(), connection.getContentEncoding(), urlString);
+		for (String link : previous.getLinks()) {
+			try {
+				// the manifest doesn't know how the links were used, so they are ranked like images
+				crawl(context, link, previous.getPath(), depth + 1, RESOURCE_RANK);
+			} catch (Exception e) {
+				LOG.warn("Couldn't crawl " + link, e);
+				context.addError(link, CrawlError.Phase.SCHEDULE, e, 0);
+			}
+		}
 
-				Elements links = doc.select("a[href]");
-				Elements media = doc.select("[src]");
-				Elements imports = doc.select("link[href]");
+		context.assetCompleted(urlString, previous);
+		return true;
+	}
 
-				for (Element link : links) {
-					String absoluteHref = link.attr("abs:href");
+	/**
+	 * Fetches a single asset on the calling thread and hands it to the stages of the {@link CrawlPipeline} that schedule all files it
+	 * refers to and add it to the ZIP file. The metrics of the asset are reported when its last stage is finished.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param metrics
+	 *            the new metrics of the asset
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void crawlAsset(CrawlContext context, String urlString, String resultingPath, int depth, AssetMetrics metrics)
+			throws IOException {
+		boolean handedOver = false;
+		try {
+			fetchAsset(context, urlString, resultingPath, depth, metrics);
+			handedOver = true;
+		} finally {
+			if (!handedOver) {
+				metrics.finish(false);
+				assetCrawled(context, metrics);
+			}
+		}
+	}
 
-					if (StringUtils.isNotBlank(absoluteHref) && StringUtils.startsWithIgnoreCase(absoluteHref, app.getStartUrl())) {
-						try {
-							link.attr("href", crawl(absoluteHref, resultingPath));
-						} catch (Exception e) {
-							LOG.warn("Couldn't crawl " + absoluteHref, e);
-							getErrors().add(e.getLocalizedMessage());
-						}
-					}
+	/**
+	 * Fetches the body of a single asset, classifies it and hands it to the parse stage, if its references have to be rewritten or it is
+	 * minified, or to the package stage. The body is downloaded completely, so the connection and the slot of the host are free before the
+	 * CPU bound work starts.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param urlString
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param metrics
+	 *            the metrics of the asset
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void fetchAsset(final CrawlContext context, final String urlString, final String resultingPath, final int depth,
+			final AssetMetrics metrics) throws IOException {
+		LOG.info("Start crawling " + urlString);
+
+		final CrawlManifest.Entry previous = getReusableEntry(context, urlString, resultingPath);
+		FetchResponse response = fetch(context, urlString, previous, metrics);
+
+		if (response == null) {
+			handOver(context, CrawlPipeline.Stage.PACKAGE, metrics, new AssetTask() {
+				@Override
+				public boolean run() throws IOException {
+					return reuseZipEntry(context, urlString, previous, depth, metrics);
 				}
+			});
+			return;
+		}
 
-				for (Element link : imports) {
-					String absoluteHref = link.attr("abs:href");
-					if (StringUtils.isNotBlank(absoluteHref)) {
-						try {
-							if ("stylesheet".equals(link.attr("rel")))
-								link.attr("href", crawl(absoluteHref, resultingPath));
-						} catch (Exception e) {
-							LOG.warn("Couldn't crawl " + absoluteHref, e);
-							getErrors().add(e.getLocalizedMessage());
-						}
-					}
-				}
+		// Workaround for web fonts because of wrong mime type delivered in the response header
+		boolean isWebfont = StringUtils.endsWithAny(response.getPath(), new String[] { "eot", "otf", "ttf", "woff" });
 
-				for (Element src : media) {
-					String absoluteSrc = src.attr("abs:src");
-					if (StringUtils.isNotBlank(absoluteSrc)) {
-						try {
-							src.attr("src", crawl(absoluteSrc, resultingPath));
-						} catch (Exception e) {
-							LOG.warn("Couldn't crawl " + absoluteSrc, e);
-							getErrors().add(e.getLocalizedMessage());
-						}
-					}
-				}
+		final AssetType assetType = isWebfont ? AssetType.OTHER : AppCrawlerUtil.getAssetType(response.getContentType());
+		metrics.setAssetType(assetType);
 
-				inputStream = IOUtils.toInputStream(doc.html());
-			} else if (assetType == AssetType.STYLESHEET) {
-				/*
-				 * Get the CSS content and parse all @import and url(...) declarations to crawl their links. Regular expressions found at
-				 * https://forums.oracle.com/forums/thread.jspa?threadID=2042775
-				 */
-				String css = IOUtils.toString(connection.getInputStream());
-
-				String stringLiteralRegex = "(?:\"(?:\\.|[^\\\"])*\"|'(?:\\.|[^\\'])*')";
-				String urlRegex = String.format("(?:url\\(\\s*(?:%s|[^)]*)\\s*\\))", stringLiteralRegex);
-				String importRegex = String.format("(?:@import\\s+(?:%s|%s))", urlRegex, stringLiteralRegex);
-
-				String regex = String.format("/\\*[\\s\\S]*?\\*/|(%s)|(%s)|%s", importRegex, urlRegex, stringLiteralRegex);
-
-				Pattern p = Pattern.compile(regex);
-				Matcher m = p.matcher(css);
-
-				while (m.find()) {
-					if (m.group(1) != null || m.group(2) != null) {
-						String matched = m.group();
-						try {
-							String strippedURL = matched.replaceAll("^.*?[\\(\"']\\s*[\"']?|[\"')\\s]*$", "");
-							URL baseURL = new URL(urlString);
-							strippedURL = new URL(baseURL, strippedURL).toString();
-
-							String relativePath = crawl(strippedURL, resultingPath);
-
-							if (StringUtils.isNotBlank(relativePath))
-								css.replace(strippedURL, relativePath);
-						} catch (Exception e) {
-							LOG.warn("Couldn't crawl " + matched, e);
-							getErrors().add(e.getLocalizedMessage());
-						}
-					}
-				}
+		final String charsetName = response.getCharset();
+		// the file names in scripts and other text that isn't rewritten must not become dropped duplicates
+		final boolean mentionsFiles = context.getDeduplicator() != null && assetType != AssetType.HTML && assetType != AssetType.STYLESHEET
+				&& (assetType == AssetType.SCRIPT || mayReferByName(response.getContentType(), response.getPath()));
+		final String eTag = response.getETag();
+		final String lastModified = response.getLastModified();
 
-				inputStream = IOUtils.toInputStream(css);
-			} else {
-				// everything else will only be copied but not parsed
-				inputStream = connection.getInputStream();
+		// the body is kept in memory or, if it is large, in a temporary file until it is added to the ZIP file
+		final AssetBuffer body = context.getBufferBudget().newBuffer();
+		boolean handedOver = false;
+		try {
+			InputStream responseStream = response.getInputStream();
+			try {
+				IOUtils.copy(responseStream, body);
+			} finally {
+				responseStream.close();
 			}
-
-			if (inputStream != null) {
-				LOG.info("Save to " + resultingPath);
-				addZipEntry(inputStream, resultingPath);
-				inputStream.close();
+			body.close();
+
+			if (assetType == AssetType.HTML || assetType == AssetType.STYLESHEET
+					|| (assetType == AssetType.SCRIPT && minifiedAssetTypes.contains(assetType))) {
+				handOver(context, CrawlPipeline.Stage.PARSE, metrics, new AssetTask() {
+					@Override
+					public boolean run() throws IOException {
+						if (mentionsFiles)
+							mentionFileNames(context, body.openInputStream(), charsetName);
+						parseAsset(context, urlString, resultingPath, depth, assetType, charsetName, eTag, lastModified, body, metrics);
+						return false;
+					}
+				});
 			} else {
-				throw new FileNotFoundException(urlString + "?");
+				handOver(context, CrawlPipeline.Stage.PACKAGE, metrics, new AssetTask() {
+					@Override
+					public boolean run() throws IOException {
+						if (mentionsFiles)
+							mentionFileNames(context, body.openInputStream(), charsetName);
+						return packageAsset(context, urlString, resultingPath, assetType, charsetName, eTag, lastModified,
+								Collections.<String> emptyList(), body, metrics);
+					}
+				});
 			}
-			LOG.info("Finished crawling " + urlString);
+			handedOver = true;
+		} finally {
+			if (!handedOver)
+				body.release();
 		}
-
-		return getRelativeResultingPath(resultingPath, absoluteReferrerPath);
 	}
 
 	/**
-	 * Normalizes URLs to avoid duplicates.
+	 * Rewrites the references of an HTML document or stylesheet, schedules the files they refer to and minifies the asset, then hands it
+	 * to the package stage.
 	 * 
+	 * @param context
+	 *            the state of the crawl
 	 * @param urlString
-	 *            the source's URL
-	 * @return the normalized URL as a string
-	 * @throws MalformedURLException
-	 *             the malformed URL exception
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param assetType
+	 *            the type of the asset
+	 * @param charsetName
+	 *            the charset of the response or <code>null</code>
+	 * @param eTag
+	 *            the <code>ETag</code> of the response or <code>null</code>
+	 * @param lastModified
+	 *            the <code>Last-Modified</code> date of the response or <code>null</code>
+	 * @param body
+	 *            the closed buffer with the body, it is released
+	 * @param metrics
+	 *            the metrics of the asset
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	private String getNormalizedURL(String urlString) throws MalformedURLException {
-		URL url = new URL(urlString);
-		return url.getProtocol() + "://" + url.getHost() + (url.getPort() > 0 && url.getPort() != url.getDefaultPort() ? ":" + url.getPort() : "") + url.getFile();
+	private void parseAsset(final CrawlContext context, final String urlString, final String resultingPath, int depth,
+			final AssetType assetType, String charsetName, final String eTag, final String lastModified, AssetBuffer body,
+			final AssetMetrics metrics) throws IOException {
+		final List<String> references = new ArrayList<String>();
+		final AssetBuffer content = context.getBufferBudget().newBuffer();
+		boolean handedOver = false;
+		try {
+			long parseStart = System.nanoTime();
+			Charset charset;
+			InputStream bodyStream = new BufferedInputStream(body.openInputStream());
+			try {
+				charset = getCharset(charsetName == null && assetType == AssetType.HTML ? HtmlLinkRewriter.detectCharset(bodyStream)
+						: charsetName);
+				Reader reader = new InputStreamReader(bodyStream, charset);
+				Writer writer = minify(new OutputStreamWriter(content, charset), assetType);
+				if (assetType == AssetType.HTML) {
+					// crawl all references of the HTML document and rewrite them while it is copied
+					rewriteDocument(context, reader, writer, urlString, resultingPath, depth, references);
+				} else if (assetType == AssetType.STYLESHEET) {
+					// crawl all @import and url(...) references of the CSS content and rewrite them while it is copied
+					rewriteStylesheet(context, reader, writer, urlString, resultingPath, depth, references);
+				} else {
+					// scripts aren't parsed for references, but minified while they are copied
+					IOUtils.copy(reader, writer);
+				}
+				writer.close();
+				measureMinification(writer, metrics);
+			} finally {
+				bodyStream.close();
+			}
+			body.release();
+			metrics.setParseTime(System.nanoTime() - parseStart);
+
+			final String contentCharset = charset.name();
+			handOver(context, CrawlPipeline.Stage.PACKAGE, metrics, new AssetTask() {
+				@Override
+				public boolean run() throws IOException {
+					return packageAsset(context, urlString, resultingPath, assetType, contentCharset, eTag, lastModified, references, content,
+							metrics);
+				}
+			});
+			handedOver = true;
+		} finally {
+			body.release();
+			if (!handedOver)
+				content.release();
+		}
 	}
 
 	/**
-	 * Builds the absolute path to the crawled file as it will be saved locally for the mobile app.
+	 * Compresses an asset and adds it to the ZIP file. If the crawl deduplicates the asset bodies, an asset whose body is already in the
+	 * ZIP file is held until the end of the crawl, and HTML documents and stylesheets are deferred until the duplicates are resolved.
 	 * 
+	 * @param context
+	 *            the state of the crawl
 	 * @param urlString
-	 *            the source's URL
-	 * @return the absolute local path to be used for the crawled file
-	 * @throws MalformedURLException
-	 *             the malformed url exception
+	 *            the normalized URL as string
+	 * @param resultingPath
+	 *            the absolute path of the file in the resulting ZIP file
+	 * @param assetType
+	 *            the type of the asset
+	 * @param charsetName
+	 *            the charset of the content or <code>null</code> if it isn't text
+	 * @param eTag
+	 *            the <code>ETag</code> of the response or <code>null</code>
+	 * @param lastModified
+	 *            the <code>Last-Modified</code> date of the response or <code>null</code>
+	 * @param references
+	 *            the URLs the asset refers to
+	 * @param content
+	 *            the closed buffer with the content, it is released when the asset is packaged
+	 * @param metrics
+	 *            the metrics of the asset
+	 * @return true if the asset was packaged, false if it was deferred or held
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
-	private String getAbsoluteResultingPath(String urlString) throws MalformedURLException {
-		URL url = new URL(urlString);
-		URL appUrl = new URL(app.getStartUrl());
-
-		StringBuffer resultingPath = new StringBuffer("");
-		resultingPath.append(!StringUtils.startsWithIgnoreCase(urlString, app.getStartUrl()) ? url.getHost().replace(".", "-") + "-" + url.getPort() : "");
-		resultingPath.append(url.getPath().replaceFirst(Pattern.quote(appUrl.getPath()), "").replace(":", "/").replace(",", "/"));
-		// convert parameters to directories
-		resultingPath.append((StringUtils.isNotBlank(url.getQuery()) ? url.getQuery().replace("=", "/").replace("&", "/").replace(":", "/") : ""));
-		// if the path doesn't contain a dot we consider it to be a directory and append a slash
-		resultingPath.append(!url.getPath().contains(".") && !url.getPath().endsWith("/") ? "/" : "");
-		// in case of a trailing slash we add an index.html for the directory's index file
-		resultingPath.append(resultingPath.toString().endsWith("/") ? "index.html" : "");
-
-		String resultingPathString = resultingPath.toString();
+	private boolean packageAsset(CrawlContext context, String urlString, String resultingPath, AssetType assetType, String charsetName,
+			String eTag, String lastModified, List<String> references, AssetBuffer content, AssetMetrics metrics) throws IOException {
+		Deduplicator deduplicator = context.getDeduplicator();
+		if (deduplicator != null && (assetType == AssetType.HTML || assetType == AssetType.STYLESHEET)) {
+			if (assetType == AssetType.HTML)
+				deduplicator.mentionScripts(readText(content.openInputStream(), charsetName));
+			deduplicator.defer(new Deduplicator.Document(urlString, resultingPath, assetType, charsetName, eTag, lastModified, references,
+					content, metrics));
+			return false;
+		}
 
-		return (!resultingPathString.startsWith("/") ? "/" : "") + resultingPathString;
+		boolean held = false;
+		try {
+			if (deduplicator == null) {
+				String contentHash = addZipEntry(context, content, resultingPath, assetType, metrics);
+				LOG.info("Saved to " + resultingPath);
+				context.assetCompleted(urlString, new CrawlManifest.Entry(resultingPath, contentHash, eTag, lastModified, references));
+			} else {
+				long start = System.nanoTime();
+				CompressedZipEntry entry = CompressedZipEntry.compress(content, resultingPath, compressionPolicy.getLevel(assetType, resultingPath),
+						context.getBufferBudget());
+				long compressTime = System.nanoTime() - start;
+				try {
+					String storedPath = deduplicator.claim(resultingPath, entry.getContentHash());
+					if (storedPath.equals(resultingPath)) {
+						context.reserveZipEntryPath(resultingPath);
+						writeZipEntry(context, entry, metrics, compressTime);
+						LOG.info("Saved to " + resultingPath);
+						context.assetCompleted(urlString, new CrawlManifest.Entry(resultingPath, entry.getContentHash(), eTag, lastModified,
+								references));
+					} else {
+						LOG.info("Holding duplicate of " + storedPath + " until the end of the crawl");
+						metrics.setCompressTime(compressTime);
+						deduplicator.hold(new Deduplicator.Duplicate(urlString, resultingPath, storedPath, assetType, entry.getContentHash(), entry
+								.getEntry().getCompressedSize(), eTag, lastModified, content, metrics));
+						held = true;
+						return false;
+					}
+				} finally {
+					entry.release();
+				}
+			}
+		} finally {
+			if (!held)
+				content.release();
+		}
+		LOG.info("Finished crawling " + urlString);
+		return true;
 	}
 
 	/**
-	 * Builds the relative path to the crawled file compared to a referring file.
-	 * <p>
-	 * This was inspired by C# code from <a href= "http://mrpmorris.blogspot.de/2007/05/convert-absolute-path-to-relative-path.html"
-	 * >http://mrpmorris.blogspot.de/2007/05/convert-absolute-path-to-relative-path.html</a>
-	 * </p>
+	 * Resolves the duplicates that were held and packages the HTML documents and stylesheets that were deferred until all other assets were
+	 * packaged, with their references to dropped duplicates pointed at the stored copies.
 	 * 
-	 * @param absoluteResultingPath
-	 *            the absolute path that will be made relative
-	 * @param absoluteReferrerPath
-	 *            the absolute path of the referrer as the base of the relative path
-	 * @return the relative resulting path
+	 * @param context
+	 *            the state of the crawl
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting
 	 */
-	private String getRelativeResultingPath(String absoluteResultingPath, String absoluteReferrerPath) {
-		if (absoluteResultingPath.equals(absoluteReferrerPath))
-			return "";
+	private void packageDeferredAssets(final CrawlContext context) throws IOException, InterruptedException {
+		Deduplicator deduplicator = context.getDeduplicator();
+		if (deduplicator == null)
+			return;
 
-		String[] absoluteDirectories = absoluteResultingPath.split("/");
-		String[] referrerDirectories = absoluteReferrerPath.split("/");
+		List<Deduplicator.Duplicate> duplicates = deduplicator.takeDuplicates();
+		int handedOver = 0;
+		try {
+			for (final Deduplicator.Duplicate duplicate : duplicates) {
+				handOver(context, CrawlPipeline.Stage.PACKAGE, duplicate.metrics, new AssetTask() {
+					@Override
+					public boolean run() throws IOException {
+						packageDuplicate(context, duplicate);
+						return true;
+					}
+				});
+				handedOver++;
+			}
+		} finally {
+			for (Deduplicator.Duplicate duplicate : duplicates.subList(handedOver, duplicates.size()))
+				duplicate.content.release();
+		}
+		// the documents can only be rewritten when it is known which duplicates are dropped
+		context.awaitPendingTasks();
+
+		List<Deduplicator.Document> documents = deduplicator.takeDocuments();
+		handedOver = 0;
+		try {
+			for (final Deduplicator.Document document : documents) {
+				handOver(context, CrawlPipeline.Stage.PACKAGE, document.metrics, new AssetTask() {
+					@Override
+					public boolean run() throws IOException {
+						packageDocument(context, document);
+						return true;
+					}
+				});
+				handedOver++;
+			}
+		} finally {
+			for (Deduplicator.Document document : documents.subList(handedOver, documents.size()))
+				document.content.release();
+		}
+		context.awaitPendingTasks();
+	}
 
-		// Get the shortest of the two paths
-		int length = referrerDirectories.length < absoluteDirectories.length ? referrerDirectories.length : absoluteDirectories.length;
+	/**
+	 * Resolves a duplicate that was held: it is added to the ZIP file under its own path if something refers to it by name, otherwise it is
+	 * dropped.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param duplicate
+	 *            the duplicate, its content is released
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void packageDuplicate(CrawlContext context, Deduplicator.Duplicate duplicate) throws IOException {
+		try {
+			Deduplicator deduplicator = context.getDeduplicator();
+			if (deduplicator.isReferredToByName(duplicate)) {
+				String contentHash = addZipEntry(context, duplicate.content, duplicate.path, duplicate.assetType, duplicate.metrics);
+				LOG.info("Saved duplicate of " + duplicate.storedPath + " to " + duplicate.path + ", it is referred to by name");
+				context.assetCompleted(duplicate.url, new CrawlManifest.Entry(duplicate.path, contentHash, duplicate.eTag, duplicate.lastModified,
+						Collections.<String> emptyList()));
+			} else {
+				deduplicator.drop(duplicate);
+				LOG.info("Skipped duplicate of " + duplicate.storedPath);
+				context.duplicateCompleted(duplicate.url, new CrawlManifest.Entry(duplicate.storedPath, duplicate.contentHash, duplicate.eTag,
+						duplicate.lastModified, Collections.<String> emptyList()));
+			}
+		} finally {
+			duplicate.content.release();
+		}
+		LOG.info("Finished crawling " + duplicate.url);
+	}
 
-		// Use to determine where in the loop we exited
-		int lastCommonRoot = -1;
+	/**
+	 * Packages a deferred HTML document or stylesheet. If it refers to duplicates, the references are rewritten to the stored copies
+	 * first.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param document
+	 *            the document, its content is released
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void packageDocument(CrawlContext context, Deduplicator.Document document) throws IOException {
+		AssetBuffer rewritten = null;
+		try {
+			// the relative paths of the duplicates as they were written to the document and the relative paths of their stored copies
+			final Map<String, String> replacements = new HashMap<String, String>();
+			PathResolver pathResolver = context.getPathResolver();
+			for (String reference : document.references) {
+				String path = pathResolver.resolve(reference).getResultingPath();
+				String storedPath = context.getDeduplicator().getStoredPath(path);
+				if (storedPath != null)
+					replacements.put(pathResolver.getRelativeResultingPath(path, document.path),
+							pathResolver.getRelativeResultingPath(storedPath, document.path));
+			}
 
-		// Find common root
-		for (int i = 0; i < length; i++)
-			if (referrerDirectories[i].equals(absoluteDirectories[i]))
-				lastCommonRoot = i;
-			else
-				break;
+			AssetBuffer content = document.content;
+			if (!replacements.isEmpty()) {
+				rewritten = context.getBufferBudget().newBuffer();
+				Charset charset = getCharset(document.charsetName);
+				Reader reader = new InputStreamReader(document.content.openInputStream(), charset);
+				try {
+					Writer writer = new OutputStreamWriter(rewritten, charset);
+					if (document.assetType == AssetType.HTML) {
+						new HtmlLinkRewriter(new HtmlLinkRewriter.LinkHandler() {
+							@Override
+							public String rewrite(String tagName, String attributeName, String url) {
+								return replaceReference(replacements, url);
+							}
+						}).rewrite(reader, writer);
+					} else {
+						new CssUrlRewriter(new CssUrlRewriter.UrlHandler() {
+							@Override
+							public String rewrite(String url) {
+								return replaceReference(replacements, url);
+							}
+						}).rewrite(reader, writer);
+					}
+					writer.close();
+				} finally {
+					reader.close();
+				}
+				content = rewritten;
+			}
 
-		// If we didn't find a common prefix then throw
-		if (lastCommonRoot == -1) {
-			LOG.warn("Paths do not have a common base: " + absoluteResultingPath + " -> " + absoluteReferrerPath);
-			throw new IllegalArgumentException("Paths do not have a common base");
+			LOG.info("Save to " + document.path);
+			String contentHash = addZipEntry(context, content, document.path, document.assetType, document.metrics);
+			context.assetCompleted(document.url, new CrawlManifest.Entry(document.path, contentHash, document.eTag, document.lastModified,
+					document.references));
+		} finally {
+			document.content.release();
+			if (rewritten != null)
+				rewritten.release();
 		}
-		// Build up the relative path
-		StringBuilder relativePath = new StringBuilder();
+		LOG.info("Finished crawling " + document.url);
+	}
 
-		// Add on the ..
-		for (int i = lastCommonRoot + 2; i < referrerDirectories.length; i++)
-			if (referrerDirectories[i].length() > 0)
-				relativePath.append("../");
+	/**
+	 * Replaces a reference to a duplicate, keeping its fragment.
+	 * 
+	 * @param replacements
+	 *            the relative paths of the stored copies by the relative paths of the duplicates
+	 * @param url
+	 *            the reference as written to the document
+	 * @return the replaced reference or <code>null</code> if the reference is kept
+	 */
+	private static String replaceReference(Map<String, String> replacements, String url) {
+		int fragment = url.indexOf('#');
+		String replacement = replacements.get(fragment >= 0 ? url.substring(0, fragment) : url);
+		if (replacement == null)
+			return null;
+		return fragment >= 0 ? replacement + url.substring(fragment) : replacement;
+	}
 
-		// Add on the folders
-		for (int i = lastCommonRoot + 1; i < absoluteDirectories.length - 1; i++)
-			relativePath.append(absoluteDirectories[i] + "/");
-		relativePath.append(absoluteDirectories[absoluteDirectories.length - 1]);
+	/**
+	 * Hands the next step of an asset to a stage of the {@link CrawlPipeline}, waiting if the stage is full. Errors of the step are logged
+	 * and added to the errors of the crawl.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param stage
+	 *            the stage
+	 * @param metrics
+	 *            the metrics of the asset, they are reported when the asset is finished
+	 * @param task
+	 *            the step
+	 * @throws InterruptedIOException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	private void handOver(final CrawlContext context, final CrawlPipeline.Stage stage, final AssetMetrics metrics, final AssetTask task)
+			throws InterruptedIOException {
+		context.taskSubmitted();
+		try {
+			context.getPipeline().execute(stage, new Runnable() {
+				@Override
+				public void run() {
+					boolean finished = true;
+					boolean successful = false;
+					try {
+						finished = task.run();
+						successful = true;
+					} catch (Exception e) {
+						LOG.warn("Couldn't crawl " + metrics.getUrl(), e);
+						context.addError(metrics.getUrl(), stage == CrawlPipeline.Stage.PARSE ? CrawlError.Phase.PARSE : CrawlError.Phase.PACKAGE, e,
+								metrics.getAttempts());
+					} finally {
+						if (finished) {
+							metrics.finish(successful);
+							assetCrawled(context, metrics);
+						}
+						context.taskFinished();
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			context.taskFinished();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while handing " + metrics.getUrl() + " to the " + stage + " stage");
+		} catch (RuntimeException e) {
+			context.taskFinished();
+			throw e;
+		}
+	}
 
-		String result = relativePath.toString();
-		if (result.startsWith("/"))
-			result = result.substring(1);
+	/**
+	 * Wraps the writer of an asset in a minifier if its type is {@link #setMinifiedAssetTypes(Collection) minified}.
+	 * 
+	 * @param writer
+	 *            the writer of the asset
+	 * @param assetType
+	 *            the type of the asset
+	 * @return the minifier or the writer itself
+	 */
+	private Writer minify(Writer writer, AssetType assetType) {
+		MinifyingWriter minifier = minifiedAssetTypes.contains(assetType) ? MinifyingWriter.create(assetType, writer) : null;
+		return minifier != null ? minifier : writer;
+	}
 
-		LOG.info(absoluteReferrerPath + " -> " + absoluteResultingPath + ": " + result);
-		return result;
+	/**
+	 * Takes the sizes of a minified asset after its writer was closed.
+	 * 
+	 * @param writer
+	 *            the writer returned by {@link #minify(Writer, AssetType)}
+	 * @param metrics
+	 *            the metrics of the asset
+	 */
+	private static void measureMinification(Writer writer, AssetMetrics metrics) {
+		if (writer instanceof MinifyingWriter) {
+			MinifyingWriter minifier = (MinifyingWriter) writer;
+			metrics.setMinification(minifier);
+			if (LOG.isDebugEnabled())
+				LOG.debug("Minified " + metrics.getUrl() + " from " + minifier.getCharsIn() + " to " + minifier.getCharsOut() + " characters");
+		}
 	}
 
 	/**
-	 * Adds an input stream as a new entry to the crawler's.
+	 * Adds buffered content as a new entry to the ZIP output stream of a crawl, compressed according to the {@link #compressionPolicy}. The
+	 * entry is compressed on the calling thread, so the crawl threads compress in parallel, and then appended to the ZIP file, one entry at
+	 * a time.
 	 * 
-	 * @param inputStream
-	 *            the input stream
+	 * @param context
+	 *            the state of the crawl
+	 * @param content
+	 *            the closed buffer with the content, it is left to the caller to release it
 	 * @param path
 	 *            the path
+	 * @param assetType
+	 *            the type of the asset
+	 * @param metrics
+	 *            the metrics of the asset that get the compress time and the bytes added or <code>null</code>
+	 * @return the hex encoded hash of the entry's content
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private String addZipEntry(CrawlContext context, AssetBuffer content, String path, AssetType assetType, AssetMetrics metrics)
+			throws IOException {
+		context.reserveZipEntryPath(path);
+		long start = System.nanoTime();
+		CompressedZipEntry entry = CompressedZipEntry.compress(content, path, compressionPolicy.getLevel(assetType, path), context.getBufferBudget());
+		try {
+			writeZipEntry(context, entry, metrics, System.nanoTime() - start);
+		} finally {
+			entry.release();
+		}
+		return entry.getContentHash();
+	}
+
+	/**
+	 * Appends a compressed entry to the ZIP output stream of a crawl. Its path has to be reserved before.
+	 * 
+	 * @param context
+	 *            the state of the crawl
+	 * @param entry
+	 *            the compressed entry, it is left to the caller to release it
+	 * @param metrics
+	 *            the metrics of the asset that get the compress time and the bytes added or <code>null</code>
+	 * @param compressTime
+	 *            the time it took to compress the entry in nanoseconds
 	 * @throws IOException
-	 *             Signals that an I/O exception has occurred. {@link #zipOutputStream}.
+	 *             Signals that an I/O exception has occurred.
 	 */
-	private void addZipEntry(InputStream inputStream, String path) throws IOException {
-		zipOutputStream.putNextEntry(new ZipEntry(path));
-		IOUtils.copy(inputStream, zipOutputStream);
-		zipOutputStream.closeEntry();
+	private static void writeZipEntry(CrawlContext context, CompressedZipEntry entry, AssetMetrics metrics, long compressTime)
+			throws IOException {
+		String path = entry.getEntry().getName();
+		ZipArchiveOutputStream zipOutputStream = context.getZipOutputStream();
+		synchronized (zipOutputStream) {
+			long bytesWritten = context.getBytesWritten();
+			long start = System.nanoTime();
+			entry.writeTo(zipOutputStream);
+			context.entryWritten(path, bytesWritten, entry.getEntry());
+			if (metrics != null) {
+				metrics.setCompressTime(compressTime + System.nanoTime() - start);
+				metrics.setBytesOut(context.getBytesWritten() - bytesWritten);
+			}
+		}
 	}
 
 	/**
 	 * Crawls the default icon at <code>/icon.png</code>.
+	 * 
+	 * @param context
+	 *            the state of the crawl
 	 */
-	private void crawlDefaultIcon() {
+	private void crawlDefaultIcon(CrawlContext context) {
 		try {
-			crawl(app.getStartUrl() + "/icon.png", "/index.html");
-			hasIcon = true;
+			crawlNow(context, context.getApp().getStartUrl() + "/icon.png");
+			context.setHasIcon(true);
 		} catch (Exception e) {
 			LOG.warn("Could not retrieve default app icon.");
 		}
@@ -413,11 +2441,14 @@ public class AppCrawler {
 
 	/**
 	 * Crawls the default splash screen at <code>/splash.png</code>.
+	 * 
+	 * @param context
+	 *            the state of the crawl
 	 */
-	private void crawlDefaultSplashScreen() {
+	private void crawlDefaultSplashScreen(CrawlContext context) {
 		try {
-			crawl(app.getStartUrl() + "/splash.png", "/index.html");
-			hasSplashScreen = true;
+			crawlNow(context, context.getApp().getStartUrl() + "/splash.png");
+			context.setHasSplashScreen(true);
 		} catch (Exception e) {
 			LOG.warn("Could not retrieve default splash screen.");
 		}
@@ -426,42 +2457,95 @@ public class AppCrawler {
 	/**
 	 * Adds the <a href="https://build.phonegap.com/docs/config-xml">PhoneGap Build XML configuration</a> at <code>/config.xml</code>.
 	 * <p>
-	 * If the {@link #app} has a <code>/config.xml</code> that can be crawled, it's contents will be integrated and all referred resources will be crawled, too.
+	 * If the app has a <code>/config.xml</code> that can be crawled, it's contents will be integrated and all referred resources will be crawled, too.
 	 * </p>
+	 * 
+	 * @param context
+	 *            the state of the crawl
 	 */
-	private void addConfig() {
+	private void addConfig(CrawlContext context) {
+		MobileApp app = context.getApp();
 		String additionalTags = null;
 		try {
 			String urlString = app.getStartUrl() + "/config.xml";
-			URLConnection connection = getConnection(urlString);
-			Document doc = Jsoup.parse(connection.getInputStream(), connection.getContentEncoding(), urlString);
-			additionalTags = StringUtils.trimToNull(doc.body().html());
+			FetchResponse response = fetcher.fetch(urlString, null, null);
+			try {
+				Document doc = Jsoup.parse(response.getInputStream(), response.getCharset(), urlString);
+				additionalTags = StringUtils.trimToNull(doc.body().html());
+			} finally {
+				response.close();
+			}
 		} catch (Exception e) {
 			LOG.warn("Could retrieve additional config.xml tags from app.", e);
 		}
 		try {
-			addZipEntry(AppCrawlerUtil.getConfigXMLDocument(app, additionalTags, hasIcon, hasSplashScreen), "/config.xml");
+			AssetBuffer content = context.getBufferBudget().newBuffer();
+			try {
+				IOUtils.copy(AppCrawlerUtil.getConfigXMLDocument(app, additionalTags, context.hasIcon(), context.hasSplashScreen()), content);
+				content.close();
+				addZipEntry(context, content, "/config.xml", AssetType.OTHER, null);
+			} finally {
+				content.release();
+			}
 		} catch (Exception e) {
 			LOG.warn("Could add config.xml.", e);
 		}
 	}
 
 	/**
-	 * Gets the connection to the given URL.
-	 * 
-	 * @param urlString
-	 *            the URL as string
-	 * @return the connection
-	 * @throws MalformedURLException
-	 *             the malformed URL exception
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * A step of an asset in a stage of the {@link CrawlPipeline}.
+	 */
+	private interface AssetTask {
+
+		/**
+		 * Runs the step.
+		 * 
+		 * @return <code>true</code> if the asset is finished, <code>false</code> if it was handed to the next stage
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		boolean run() throws IOException;
+	}
+
+	/**
+	 * The thread factory for the fetch and stage threads of a crawl. The threads are daemon threads, so a crawl that is left behind doesn't
+	 * keep the JVM alive.
 	 */
-	private URLConnection getConnection(String urlString) throws MalformedURLException, IOException {
-		URLConnection connection = new URL(urlString).openConnection();
-		connection.setRequestProperty("User-Agent", "AppCrawler Service");
-		connection.setConnectTimeout(3000);
-		connection.setReadTimeout(10000);
-		return connection;
+	private static class CrawlerThreadFactory implements ThreadFactory {
+
+		/** The prefix of the thread names. */
+		private final String namePrefix;
+
+		/** The number of the next thread. */
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		/**
+		 * Instantiates a new crawler thread factory.
+		 * 
+		 * @param appName
+		 *            the name of the crawled app
+		 */
+		CrawlerThreadFactory(String appName) {
+			this.namePrefix = "AppCrawler[" + appName + "]-";
+		}
+
+		/**
+		 * Instantiates a new crawler thread factory for the threads of a stage.
+		 * 
+		 * @param appName
+		 *            the name of the crawled app
+		 * @param stageName
+		 *            the name of the stage
+		 */
+		CrawlerThreadFactory(String appName, String stageName) {
+			this.namePrefix = "AppCrawler[" + appName + "]-" + stageName + "-";
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
 	}
 }
@@ -4,8 +4,22 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -20,6 +34,7 @@ import javax.xml.transform.stream.StreamResult;
 import net.kuesters.mobile.MediaType;
 import net.kuesters.mobile.MobileApp;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.w3c.dom.Document;
@@ -35,6 +50,16 @@ import org.xml.sax.SAXException;
  */
 public class AppCrawlerUtil {
 
+	/** The digits of hex strings. */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/** The formats of HTTP dates, the preferred one first. */
+	private static final String[] HTTP_DATE_FORMATS = { "EEE, dd MMM yyyy HH:mm:ss zzz", "EEEE, dd-MMM-yy HH:mm:ss zzz",
+			"EEE MMM d HH:mm:ss yyyy" };
+
+	/** The time zone of HTTP dates. */
+	private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
 	/** The Constant TYPE_MAPPINGS. */
 	private static final Map<MediaType, AssetType> TYPE_MAPPINGS;
 
@@ -49,6 +74,7 @@ public class AppCrawlerUtil {
 		TYPE_MAPPINGS.put(MediaType.TEXT_CSS, AssetType.STYLESHEET);
 		TYPE_MAPPINGS.put(MediaType.APPLICATION_JAVASCRIPT, AssetType.SCRIPT);
 		TYPE_MAPPINGS.put(MediaType.APPLICATION_X_JAVASCRIPT, AssetType.SCRIPT);
+		TYPE_MAPPINGS.put(MediaType.TEXT_JAVASCRIPT, AssetType.SCRIPT);
 	}
 
 	/**
@@ -91,6 +117,192 @@ public class AppCrawlerUtil {
 				.parseMediaType(mediaType)) : AssetType.OTHER;
 	}
 
+	/**
+	 * Creates the message digest that is used to hash the content of ZIP entries.
+	 * 
+	 * @return a new SHA-256 message digest
+	 */
+	public static MessageDigest newContentDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Converts bytes to a lower case hex string.
+	 * 
+	 * @param bytes
+	 *            the bytes
+	 * @return the hex string
+	 */
+	public static String toHexString(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Moves a file to a target, replacing the target atomically where the file system supports it.
+	 * 
+	 * @param source
+	 *            the file to move
+	 * @param target
+	 *            the target
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static void moveReplacing(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Formats a date for HTTP headers.
+	 * 
+	 * @param millis
+	 *            the date in milliseconds since the epoch
+	 * @return the date in the RFC 1123 format
+	 */
+	public static String formatHttpDate(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMATS[0], Locale.US);
+		format.setTimeZone(GMT);
+		return format.format(new Date(millis));
+	}
+
+	/**
+	 * Parses the date of an HTTP header in any of the formats allowed by RFC 7231.
+	 * 
+	 * @param date
+	 *            the date or <code>null</code>
+	 * @return the date in milliseconds since the epoch or <code>-1</code> if it's missing or invalid
+	 */
+	public static long parseHttpDate(String date) {
+		if (StringUtils.isBlank(date))
+			return -1;
+
+		for (String pattern : HTTP_DATE_FORMATS) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+			format.setTimeZone(GMT);
+			format.setLenient(false);
+			try {
+				return format.parse(date.trim()).getTime();
+			} catch (ParseException e) {
+				// try the next format
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Normalizes URLs to avoid duplicates.
+	 * 
+	 * @param urlString
+	 *            the source's URL
+	 * @return the normalized URL as a string
+	 * @throws MalformedURLException
+	 *             the malformed URL exception
+	 */
+	public static String getNormalizedURL(String urlString) throws MalformedURLException {
+		URL url = new URL(urlString);
+		return url.getProtocol() + "://" + url.getHost() + (url.getPort() > 0 && url.getPort() != url.getDefaultPort() ? ":" + url.getPort() : "") + url.getFile();
+	}
+
+	/**
+	 * Builds the absolute path to the crawled file as it will be saved locally for the mobile app. Crawls use a {@link PathResolver}, which
+	 * caches the paths.
+	 * 
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @param urlString
+	 *            the source's URL
+	 * @return the absolute local path to be used for the crawled file
+	 * @throws MalformedURLException
+	 *             the malformed url exception
+	 */
+	public static String getAbsoluteResultingPath(String startUrl, String urlString) throws MalformedURLException {
+		return PathResolver.getResultingPath(startUrl, new URL(startUrl).getPath(), new URL(urlString), urlString);
+	}
+
+	/**
+	 * Builds the relative path to the crawled file compared to a referring file. The directories of both paths are walked up to their
+	 * common ancestor, so resolving the relative path against the referrer leads to the file again. Crawls use a {@link PathResolver},
+	 * which caches the relative paths and returns the same ones.
+	 * 
+	 * @param absoluteResultingPath
+	 *            the absolute path that will be made relative
+	 * @param absoluteReferrerPath
+	 *            the absolute path of the referrer as the base of the relative path
+	 * @return the relative resulting path, empty if both paths are the same
+	 * @throws IllegalArgumentException
+	 *             if a path isn't absolute
+	 */
+	public static String getRelativeResultingPath(String absoluteResultingPath, String absoluteReferrerPath) {
+		return PathResolver.relativize(absoluteResultingPath, absoluteReferrerPath);
+	}
+
+	/**
+	 * Writes an input stream as a new entry to a ZIP output stream and hashes its content on the way.
+	 * 
+	 * @param zipOutputStream
+	 *            the ZIP output stream, the caller has to make sure that only one entry is written at a time
+	 * @param inputStream
+	 *            the content of the entry
+	 * @param path
+	 *            the path of the entry
+	 * @return the hex encoded hash of the entry's content
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static String writeZipEntry(ZipArchiveOutputStream zipOutputStream, InputStream inputStream, String path) throws IOException {
+		return writeZipEntry(zipOutputStream, inputStream, path, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Writes an input stream as a new entry with the given compression to a ZIP output stream and hashes its content on the way.
+	 * <p>
+	 * The entry is compressed in memory first, because a ZIP file that is streamed needs the sizes and CRC of raw entries before their
+	 * content. Content that doesn't get smaller by deflating it is stored.
+	 * </p>
+	 * 
+	 * @param zipOutputStream
+	 *            the ZIP output stream, the caller has to make sure that only one entry is written at a time
+	 * @param inputStream
+	 *            the content of the entry
+	 * @param path
+	 *            the path of the entry
+	 * @param level
+	 *            the deflate level or {@link CompressionPolicy#STORED}
+	 * @return the hex encoded hash of the entry's content
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static String writeZipEntry(ZipArchiveOutputStream zipOutputStream, InputStream inputStream, String path, int level)
+			throws IOException {
+		AssetBuffer content = BufferBudget.UNLIMITED.newBuffer();
+		try {
+			IOUtils.copy(inputStream, content);
+			content.close();
+			CompressedZipEntry entry = CompressedZipEntry.compress(content, path, level, BufferBudget.UNLIMITED);
+			try {
+				entry.writeTo(zipOutputStream);
+			} finally {
+				entry.release();
+			}
+			return entry.getContentHash();
+		} finally {
+			content.release();
+		}
+	}
+
 	/**
 	 * Gets the config.xml document.
 	 * 
@@ -0,0 +1,241 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The content of an asset, written once and read any number of times.
+ * <p>
+ * The content is kept in memory in chunks that are reserved from a {@link BufferBudget}. When the budget or the spill threshold doesn't
+ * allow another chunk, the content is moved to a temporary file and the memory is given back. Write the content, {@link #close()} the
+ * buffer and {@link #openInputStream() read} it. The buffer has to be {@link #release() released} when it isn't needed any longer, which
+ * also deletes its file.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class AssetBuffer extends OutputStream {
+
+	/** The size of the first chunk, enough for most small assets. */
+	private static final int MIN_CHUNK_SIZE = 4 * 1024;
+
+	/** The size the chunks grow to. */
+	private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+	/** The budget the memory is reserved from. */
+	private final BufferBudget budget;
+
+	/** The chunks in memory, only the last one may not be full. */
+	private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+	/** The number of bytes in the last chunk. */
+	private int lastChunkLength;
+
+	/** The number of bytes reserved from the budget. */
+	private long reserved;
+
+	/** The number of bytes of the content. */
+	private long size;
+
+	/** The temporary file or <code>null</code> if the content is in memory. */
+	private Path file;
+
+	/** The output stream of the temporary file while the content is written. */
+	private OutputStream fileOutputStream;
+
+	/** True if the content is complete. */
+	private boolean closed;
+
+	/**
+	 * Instantiates a new empty asset buffer.
+	 *
+	 * @param budget
+	 *            the budget the memory is reserved from
+	 */
+	AssetBuffer(BufferBudget budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("The buffer is closed");
+
+		while (len > 0) {
+			if (fileOutputStream != null) {
+				fileOutputStream.write(b, off, len);
+				size += len;
+				return;
+			}
+
+			if (chunks.isEmpty() || lastChunkLength == chunks.get(chunks.size() - 1).length) {
+				if (!addChunk()) {
+					spill();
+					continue;
+				}
+			}
+
+			byte[] chunk = chunks.get(chunks.size() - 1);
+			int count = Math.min(len, chunk.length - lastChunkLength);
+			System.arraycopy(b, off, chunk, lastChunkLength, count);
+			lastChunkLength += count;
+			size += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Adds a chunk if the spill threshold and the budget allow it. The chunks double in size up to {@link #MAX_CHUNK_SIZE}.
+	 *
+	 * @return true, if the chunk was added
+	 */
+	private boolean addChunk() {
+		int chunkSize = chunks.isEmpty() ? MIN_CHUNK_SIZE : Math.min(MAX_CHUNK_SIZE, chunks.get(chunks.size() - 1).length * 2);
+		if (reserved + chunkSize > budget.getSpillThreshold() || !budget.reserve(chunkSize))
+			return false;
+		reserved += chunkSize;
+		chunks.add(new byte[chunkSize]);
+		lastChunkLength = 0;
+		return true;
+	}
+
+	/**
+	 * Moves the content to a temporary file and releases the memory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void spill() throws IOException {
+		file = budget.createSpillFile();
+		fileOutputStream = new BufferedOutputStream(Files.newOutputStream(file));
+		for (int i = 0; i < chunks.size(); i++)
+			fileOutputStream.write(chunks.get(i), 0, i < chunks.size() - 1 ? chunks.get(i).length : lastChunkLength);
+		releaseMemory();
+	}
+
+	private void releaseMemory() {
+		chunks.clear();
+		lastChunkLength = 0;
+		budget.release(reserved);
+		reserved = 0;
+	}
+
+	/**
+	 * Completes the content. It can't be written to afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		if (fileOutputStream != null)
+			fileOutputStream.close();
+	}
+
+	/**
+	 * Gets the number of bytes of the content.
+	 *
+	 * @return the size
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the content was moved to a temporary file.
+	 *
+	 * @return true, if the content is in a file
+	 */
+	boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * Opens a new input stream of the content.
+	 *
+	 * @return the input stream, the caller has to close it
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	InputStream openInputStream() throws IOException {
+		if (!closed)
+			throw new IllegalStateException("The buffer isn't closed yet");
+		if (file != null)
+			return new BufferedInputStream(Files.newInputStream(file));
+		if (chunks.isEmpty() && size > 0)
+			throw new IllegalStateException("The buffer is released");
+		return new ChunkInputStream();
+	}
+
+	/**
+	 * Releases the memory and deletes the temporary file. The content can't be read afterwards.
+	 */
+	void release() {
+		releaseMemory();
+		size = 0;
+		closed = true;
+		if (file != null) {
+			try {
+				if (fileOutputStream != null)
+					fileOutputStream.close();
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+			file = null;
+			fileOutputStream = null;
+		}
+	}
+
+	/**
+	 * Reads the chunks in memory.
+	 */
+	private final class ChunkInputStream extends InputStream {
+
+		/** The index of the current chunk. */
+		private int chunkIndex;
+
+		/** The position in the current chunk. */
+		private int position;
+
+		private int getChunkLength(int index) {
+			return index < chunks.size() - 1 ? chunks.get(index).length : lastChunkLength;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (chunkIndex < chunks.size() && position == getChunkLength(chunkIndex)) {
+				chunkIndex++;
+				position = 0;
+			}
+			if (chunkIndex >= chunks.size())
+				return -1;
+
+			int count = Math.min(len, getChunkLength(chunkIndex) - position);
+			System.arraycopy(chunks.get(chunkIndex), position, b, off, count);
+			position += count;
+			return count;
+		}
+	}
+}
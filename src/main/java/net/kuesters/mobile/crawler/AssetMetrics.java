@@ -0,0 +1,273 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.concurrent.TimeUnit;
+
+import net.kuesters.mobile.crawler.AppCrawlerUtil.AssetType;
+
+/**
+ * The measurements of a single crawled asset, reported to the {@link CrawlListener}s of a crawler.
+ * <p>
+ * All times are in nanoseconds. A phase that didn't happen or couldn't be measured, like the DNS lookup of an asset that was taken from
+ * the cache, has a time of <code>-1</code>. The request timings are those of the response that was used, if a request was retried or
+ * hedged. Minified assets are minified while they are parsed, so the parse time includes the minification.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class AssetMetrics {
+
+	/**
+	 * Where the body of an asset came from.
+	 */
+	public enum Source {
+		/** Fetched with the fetcher of the crawler. */
+		NETWORK,
+		/** Taken from the asset cache, after a revalidation or without one. */
+		CACHE,
+		/** Copied unchanged from the previous package. */
+		REUSED
+	}
+
+	/** The normalized URL of the asset. */
+	private final String url;
+
+	/** The host and port of the URL. */
+	private final String host;
+
+	/** The time the crawl of the asset started at, as returned by {@link System#nanoTime()}. */
+	private final long start = System.nanoTime();
+
+	/** The type of the asset or <code>null</code> if the asset failed before its type was known. */
+	private AssetType assetType;
+
+	/** Where the body came from. */
+	private Source source = Source.NETWORK;
+
+	/** The time of the DNS lookup. */
+	private long dnsTime = -1;
+
+	/** The time of opening the connection. */
+	private long connectTime = -1;
+
+	/** The time from sending the request to receiving the response headers. */
+	private long firstByteTime = -1;
+
+	/** The time spent reading the body. */
+	private long downloadTime = -1;
+
+	/** The time spent parsing and rewriting the body. */
+	private long parseTime = -1;
+
+	/** The time spent compressing the body into the ZIP file. */
+	private long compressTime = -1;
+
+	/** The number of requests that were sent for the asset. */
+	private int attempts;
+
+	/** The number of bytes of the body that were read. */
+	private long bytesIn;
+
+	/** The number of bytes that were added to the ZIP file. */
+	private long bytesOut;
+
+	/** The number of characters before the minification. */
+	private long unminifiedLength = -1;
+
+	/** The number of characters after the minification. */
+	private long minifiedLength = -1;
+
+	/** The total time of the asset's crawl. */
+	private long totalTime = -1;
+
+	/** True if the asset was added to the ZIP file. */
+	private boolean successful;
+
+	/**
+	 * Instantiates new asset metrics and starts measuring the total time.
+	 *
+	 * @param url
+	 *            the normalized URL of the asset
+	 * @param host
+	 *            the host and port of the URL
+	 */
+	AssetMetrics(String url, String host) {
+		this.url = url;
+		this.host = host;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public AssetType getAssetType() {
+		return assetType;
+	}
+
+	void setAssetType(AssetType assetType) {
+		this.assetType = assetType;
+	}
+
+	public Source getSource() {
+		return source;
+	}
+
+	void setSource(Source source) {
+		this.source = source;
+	}
+
+	public long getDnsTime() {
+		return dnsTime;
+	}
+
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	public long getFirstByteTime() {
+		return firstByteTime;
+	}
+
+	/**
+	 * Takes the request timings of a response.
+	 *
+	 * @param response
+	 *            the response
+	 * @see FetchResponse#setTimings(long, long, long)
+	 */
+	void setRequestTimings(FetchResponse response) {
+		dnsTime = response.getDnsTime();
+		connectTime = response.getConnectTime();
+		firstByteTime = response.getFirstByteTime();
+	}
+
+	/**
+	 * Gets the number of requests that were sent for the asset, including retries and hedged requests.
+	 *
+	 * @return the number of requests, <code>0</code> if the asset was taken from the cache or the previous package without a request
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Counts a request that was sent for the asset.
+	 */
+	void addAttempt() {
+		attempts++;
+	}
+
+	public long getDownloadTime() {
+		return downloadTime;
+	}
+
+	public long getParseTime() {
+		return parseTime;
+	}
+
+	void setParseTime(long parseTime) {
+		this.parseTime = parseTime;
+	}
+
+	public long getCompressTime() {
+		return compressTime;
+	}
+
+	void setCompressTime(long compressTime) {
+		this.compressTime = compressTime;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * Counts a read of the body.
+	 *
+	 * @param bytes
+	 *            the number of bytes that were read
+	 * @param time
+	 *            the time the read took
+	 */
+	void read(long bytes, long time) {
+		bytesIn += bytes;
+		downloadTime = Math.max(0, downloadTime) + time;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	void setBytesOut(long bytesOut) {
+		this.bytesOut = bytesOut;
+	}
+
+	/**
+	 * Gets the number of characters of the asset before it was minified.
+	 *
+	 * @return the number of characters or <code>-1</code> if the asset wasn't minified
+	 */
+	public long getUnminifiedLength() {
+		return unminifiedLength;
+	}
+
+	/**
+	 * Gets the number of characters of the asset after it was minified.
+	 *
+	 * @return the number of characters or <code>-1</code> if the asset wasn't minified
+	 */
+	public long getMinifiedLength() {
+		return minifiedLength;
+	}
+
+	/**
+	 * Takes the sizes of a minified asset.
+	 *
+	 * @param minifier
+	 *            the minifier the asset was written to
+	 */
+	void setMinification(MinifyingWriter minifier) {
+		unminifiedLength = minifier.getCharsIn();
+		minifiedLength = minifier.getCharsOut();
+	}
+
+	/**
+	 * Gets the total time of the asset's crawl, from the start of the request to the end of its ZIP entry.
+	 *
+	 * @return the time or <code>-1</code> if the crawl isn't finished yet
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	/**
+	 * Stops measuring the total time.
+	 *
+	 * @param successful
+	 *            true if the asset was added to the ZIP file
+	 */
+	void finish(boolean successful) {
+		this.successful = successful;
+		this.totalTime = System.nanoTime() - start;
+	}
+
+	@Override
+	public String toString() {
+		return (successful ? "Crawled " : "Failed ") + url + " (" + assetType + ", " + source + ") in " + toMillis(totalTime) + " ms: dns "
+				+ toMillis(dnsTime) + ", connect " + toMillis(connectTime) + ", first byte " + toMillis(firstByteTime) + ", download "
+				+ toMillis(downloadTime) + ", parse " + toMillis(parseTime) + ", compress " + toMillis(compressTime) + " ms, " + bytesIn
+				+ " bytes in, " + bytesOut + " bytes out" + (attempts > 1 ? ", " + attempts + " requests" : "")
+				+ (minifiedLength >= 0 ? ", minified from " + unminifiedLength + " to " + minifiedLength + " characters" : "");
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(nanos) : -1;
+	}
+}
@@ -0,0 +1,148 @@
+package net.kuesters.mobile.crawler;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.kuesters.mobile.MobileApp;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Crawls many apps at the same time with a single {@link AppCrawler}.
+ * <p>
+ * All crawls share a global budget of fetch threads. The threads serve the apps in turn, one asset each, so small apps finish quickly
+ * even while large ones are crawled. The number of apps that are crawled at the same time is limited as well, the others wait in the
+ * order they were submitted. The crawlers share the {@link HostScheduler} of the {@link AppCrawler}, so the apps of the same server don't
+ * overload it together.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class BatchCrawler {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(BatchCrawler.class);
+
+	/** The default number of apps that are crawled at the same time. */
+	public static final int DEFAULT_MAX_PARALLEL_APPS = 4;
+
+	/** The crawler that crawls every app. */
+	private final AppCrawler crawler;
+
+	/** The fetch threads shared by all crawls. */
+	private final FairExecutor fetchExecutor;
+
+	/** The threads that run the crawls themselves. */
+	private final ExecutorService crawlExecutor;
+
+	/**
+	 * Instantiates a new batch crawler with {@link AppCrawler#getMaxConcurrency()} fetch threads and {@link #DEFAULT_MAX_PARALLEL_APPS}
+	 * parallel apps.
+	 *
+	 * @param crawler
+	 *            the crawler that crawls every app
+	 */
+	public BatchCrawler(AppCrawler crawler) {
+		this(crawler, crawler.getMaxConcurrency(), DEFAULT_MAX_PARALLEL_APPS);
+	}
+
+	/**
+	 * Instantiates a new batch crawler.
+	 *
+	 * @param crawler
+	 *            the crawler that crawls every app
+	 * @param maxConcurrency
+	 *            the number of assets that are fetched at the same time by all crawls together
+	 * @param maxParallelApps
+	 *            the number of apps that are crawled at the same time
+	 */
+	public BatchCrawler(AppCrawler crawler, int maxConcurrency, int maxParallelApps) {
+		if (maxParallelApps < 1)
+			throw new IllegalArgumentException("maxParallelApps must be at least 1");
+		this.crawler = crawler;
+		this.fetchExecutor = new FairExecutor(maxConcurrency, "BatchCrawler-fetch");
+		this.crawlExecutor = Executors.newFixedThreadPool(maxParallelApps, new ThreadFactory() {
+
+			/** The number of the next thread. */
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "BatchCrawler-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Gets the crawler that crawls every app.
+	 *
+	 * @return the crawler
+	 */
+	public AppCrawler getCrawler() {
+		return crawler;
+	}
+
+	/**
+	 * Submits an app to be crawled to a file. When the crawl has finished, the file is set as the
+	 * {@link MobileApp#setContentsZipPath(Path) contents ZIP} of the app.
+	 *
+	 * @param app
+	 *            the app
+	 * @param target
+	 *            the path of the resulting ZIP file, an existing package is updated incrementally
+	 * @return the future of the report, it fails if the ZIP file couldn't be written
+	 */
+	public Future<CrawlReport> submit(final MobileApp app, final Path target) {
+		return crawlExecutor.submit(new Callable<CrawlReport>() {
+			@Override
+			public CrawlReport call() throws Exception {
+				FairExecutor.Lane lane = fetchExecutor.newLane();
+				try {
+					CrawlReport report = crawler.crawl(app, target, lane);
+					app.setContentsZipPath(target);
+					LOG.info(report);
+					return report;
+				} finally {
+					HostScheduler.dropped(lane.close());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Submits apps to be crawled to a directory. The ZIP file of an app is named after its
+	 * {@link MobileApp#getContentsZipFileName() contents ZIP file name} or, if it has none, after its package name.
+	 *
+	 * @param apps
+	 *            the apps
+	 * @param directory
+	 *            the directory of the resulting ZIP files
+	 * @return the futures of the reports in the order of the apps
+	 */
+	public List<Future<CrawlReport>> submitAll(Collection<MobileApp> apps, Path directory) {
+		List<Future<CrawlReport>> futures = new ArrayList<Future<CrawlReport>>(apps.size());
+		for (MobileApp app : apps)
+			futures.add(submit(app, directory.resolve(StringUtils.defaultIfEmpty(app.getContentsZipFileName(), app.getPackageName() + ".zip"))));
+		return futures;
+	}
+
+	/**
+	 * Shuts the batch crawler down. Apps that are not crawled yet are dropped, running crawls are interrupted.
+	 */
+	public void shutdown() {
+		crawlExecutor.shutdownNow();
+		HostScheduler.dropped(fetchExecutor.shutdown());
+	}
+}
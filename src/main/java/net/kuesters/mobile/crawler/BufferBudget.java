@@ -0,0 +1,121 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The heap a crawl may use for the content of its assets while they are rewritten and compressed.
+ * <p>
+ * Every {@link AssetBuffer} reserves its memory from the budget. A buffer that grows beyond the spill threshold, or that can't reserve
+ * more memory because the other buffers of the crawl use up the budget, moves its content to a temporary file and continues there. So
+ * the heap used for content stays below the budget no matter how large the assets or the site are.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class BufferBudget {
+
+	/** A budget without limits that never spills, for content that is known to be small. */
+	static final BufferBudget UNLIMITED = new BufferBudget(Long.MAX_VALUE, Long.MAX_VALUE, null);
+
+	/** The maximum number of bytes all buffers may hold in memory together. */
+	private final long maxBytes;
+
+	/** The number of bytes a single buffer may hold in memory. */
+	private final long spillThreshold;
+
+	/** The directory of the temporary files or <code>null</code> for the default temporary directory. */
+	private final Path spillDirectory;
+
+	/** The number of bytes reserved by the buffers. */
+	private final AtomicLong usedBytes = new AtomicLong();
+
+	/** The largest number of bytes that were reserved at the same time. */
+	private final AtomicLong peakBytes = new AtomicLong();
+
+	/** The number of buffers that were moved to temporary files. */
+	private final AtomicInteger spilledBuffers = new AtomicInteger();
+
+	/**
+	 * Instantiates a new buffer budget.
+	 *
+	 * @param maxBytes
+	 *            the maximum number of bytes all buffers may hold in memory together
+	 * @param spillThreshold
+	 *            the number of bytes a single buffer may hold in memory
+	 * @param spillDirectory
+	 *            the directory of the temporary files or <code>null</code> for the default temporary directory
+	 */
+	BufferBudget(long maxBytes, long spillThreshold, Path spillDirectory) {
+		this.maxBytes = maxBytes;
+		this.spillThreshold = spillThreshold;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Creates a new empty buffer that takes its memory from this budget.
+	 *
+	 * @return the buffer
+	 */
+	AssetBuffer newBuffer() {
+		return new AssetBuffer(this);
+	}
+
+	long getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	/**
+	 * Reserves memory if the budget allows it.
+	 *
+	 * @param bytes
+	 *            the number of bytes
+	 * @return true, if the memory was reserved, false if the budget is used up
+	 */
+	boolean reserve(long bytes) {
+		while (true) {
+			long used = usedBytes.get();
+			if (used + bytes > maxBytes)
+				return false;
+			if (usedBytes.compareAndSet(used, used + bytes)) {
+				long peak;
+				while ((peak = peakBytes.get()) < used + bytes && !peakBytes.compareAndSet(peak, used + bytes))
+					;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases reserved memory.
+	 *
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	void release(long bytes) {
+		usedBytes.addAndGet(-bytes);
+	}
+
+	/**
+	 * Creates the temporary file of a buffer that is spilled.
+	 *
+	 * @return the path of the new empty file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Path createSpillFile() throws IOException {
+		spilledBuffers.incrementAndGet();
+		return spillDirectory != null ? Files.createTempFile(spillDirectory, "asset", ".tmp") : Files.createTempFile("asset", ".tmp");
+	}
+
+	long getPeakBytes() {
+		return peakBytes.get();
+	}
+
+	int getSpilledBuffers() {
+		return spilledBuffers.get();
+	}
+}
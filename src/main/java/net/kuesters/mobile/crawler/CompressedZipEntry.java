@@ -0,0 +1,159 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * A ZIP entry that is compressed before it is added to a ZIP file.
+ * <p>
+ * Compressing is the expensive part of writing an entry and needs nothing but the content, so every crawl thread compresses its own
+ * entries at the same time. Only appending the finished bytes to the ZIP file has to happen one entry after the other. The entry knows its
+ * CRC and sizes up front, so it is written with a complete local header and the ZIP file stays a standard one.
+ * </p>
+ * <p>
+ * The content is read from an {@link AssetBuffer} and deflated into another one, so large entries are compressed from and to temporary
+ * files instead of the heap. The entry has to be {@link #release() released} after it is written.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class CompressedZipEntry {
+
+	/** The size of the buffers to read and deflate the content. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The entry with method, CRC and sizes. */
+	private final ZipArchiveEntry entry;
+
+	/** The content as written to the ZIP file, either the content buffer itself or the deflated one. */
+	private final AssetBuffer data;
+
+	/** True if the data is the deflated buffer that belongs to this entry. */
+	private final boolean ownsData;
+
+	/** The hex encoded hash of the uncompressed content. */
+	private final String contentHash;
+
+	private CompressedZipEntry(ZipArchiveEntry entry, AssetBuffer data, boolean ownsData, String contentHash) {
+		this.entry = entry;
+		this.data = data;
+		this.ownsData = ownsData;
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * Compresses the content of an entry. Content that doesn't get smaller by deflating it is stored.
+	 *
+	 * @param content
+	 *            the closed buffer with the content of the entry, it still belongs to the caller and must not be released before the entry
+	 *            is written
+	 * @param path
+	 *            the path of the entry
+	 * @param level
+	 *            the deflate level or {@link CompressionPolicy#STORED}
+	 * @param budget
+	 *            the budget of the buffer for the deflated content
+	 * @return the compressed entry
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static CompressedZipEntry compress(AssetBuffer content, String path, int level, BufferBudget budget) throws IOException {
+		CRC32 crc = new CRC32();
+		MessageDigest digest = AppCrawlerUtil.newContentDigest();
+		AssetBuffer deflated = level != CompressionPolicy.STORED ? budget.newBuffer() : null;
+		Deflater deflater = deflated != null ? new Deflater(level, true) : null;
+		try {
+			// deflated the way ZIP files contain it, without a zlib header
+			DeflaterOutputStream deflaterOutputStream = deflater != null ? new DeflaterOutputStream(deflated, deflater, BUFFER_SIZE) : null;
+			InputStream inputStream = content.openInputStream();
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int length;
+				while ((length = inputStream.read(buffer)) >= 0) {
+					crc.update(buffer, 0, length);
+					digest.update(buffer, 0, length);
+					if (deflaterOutputStream != null)
+						deflaterOutputStream.write(buffer, 0, length);
+				}
+			} finally {
+				inputStream.close();
+			}
+			if (deflaterOutputStream != null)
+				deflaterOutputStream.close();
+		} catch (IOException e) {
+			if (deflated != null)
+				deflated.release();
+			throw e;
+		} finally {
+			if (deflater != null)
+				deflater.end();
+		}
+
+		ZipArchiveEntry entry = new ZipArchiveEntry(path);
+		entry.setSize(content.size());
+		entry.setCrc(crc.getValue());
+		String contentHash = AppCrawlerUtil.toHexString(digest.digest());
+
+		if (deflated != null && deflated.size() < content.size()) {
+			entry.setMethod(ZipArchiveEntry.DEFLATED);
+			entry.setCompressedSize(deflated.size());
+			return new CompressedZipEntry(entry, deflated, true, contentHash);
+		}
+
+		if (deflated != null)
+			deflated.release();
+		entry.setMethod(ZipArchiveEntry.STORED);
+		entry.setCompressedSize(content.size());
+		return new CompressedZipEntry(entry, content, false, contentHash);
+	}
+
+	/**
+	 * Appends the entry to a ZIP file without compressing it again.
+	 *
+	 * @param zipOutputStream
+	 *            the ZIP output stream, the caller has to make sure that only one entry is written at a time
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void writeTo(ZipArchiveOutputStream zipOutputStream) throws IOException {
+		InputStream inputStream = data.openInputStream();
+		try {
+			zipOutputStream.addRawArchiveEntry(entry, inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Releases the deflated content. The buffer of the uncompressed content is left to the caller.
+	 */
+	void release() {
+		if (ownsData)
+			data.release();
+	}
+
+	/**
+	 * Gets the ZIP entry with method, CRC and sizes.
+	 *
+	 * @return the ZIP entry
+	 */
+	ZipArchiveEntry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * Gets the hash of the uncompressed content.
+	 *
+	 * @return the hex encoded hash
+	 */
+	String getContentHash() {
+		return contentHash;
+	}
+}
@@ -0,0 +1,113 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import net.kuesters.mobile.crawler.AppCrawlerUtil.AssetType;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Decides how the entries of a package are compressed.
+ * <p>
+ * Images, fonts and media are compressed already, deflating them again costs CPU time for almost no gain. They are
+ * {@link #STORED stored}, either because of their {@link AssetType} or because of their file extension, which also catches fonts and media
+ * that are delivered with a generic content type. All other entries are deflated with the level of their type.
+ * </p>
+ * <p>
+ * A policy can be shared by any number of crawlers at the same time.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class CompressionPolicy {
+
+	/** The level of entries that are stored without compression. */
+	public static final int STORED = Deflater.NO_COMPRESSION;
+
+	/** The extensions of files that are stored by default. */
+	private static final String[] DEFAULT_STORED_EXTENSIONS = { "png", "jpg", "jpeg", "gif", "webp", "ico", "woff", "woff2", "mp3", "mp4",
+			"m4a", "m4v", "ogg", "oga", "ogv", "webm", "zip", "gz", "jar" };
+
+	/** The levels by asset type. */
+	private final Map<AssetType, Integer> levels = new EnumMap<AssetType, Integer>(AssetType.class);
+
+	/** The lower case extensions of files that are stored. */
+	private final Set<String> storedExtensions = new HashSet<String>();
+
+	/**
+	 * Instantiates a new compression policy that stores images and the files with the default extensions and deflates everything else
+	 * with the default level.
+	 */
+	public CompressionPolicy() {
+		for (AssetType assetType : AssetType.values())
+			levels.put(assetType, Deflater.DEFAULT_COMPRESSION);
+		levels.put(AssetType.IMAGE, STORED);
+		for (String extension : DEFAULT_STORED_EXTENSIONS)
+			storedExtensions.add(extension);
+	}
+
+	/**
+	 * Gets the level of an asset type.
+	 *
+	 * @param assetType
+	 *            the asset type
+	 * @return the deflate level or {@link #STORED}
+	 */
+	public synchronized int getLevel(AssetType assetType) {
+		return levels.get(assetType);
+	}
+
+	/**
+	 * Sets the level of an asset type.
+	 *
+	 * @param assetType
+	 *            the asset type
+	 * @param level
+	 *            the deflate level from 1 to 9, {@link Deflater#DEFAULT_COMPRESSION} or {@link #STORED}
+	 */
+	public synchronized void setLevel(AssetType assetType, int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		levels.put(assetType, level);
+	}
+
+	/**
+	 * Adds an extension of files that are stored no matter what type they are.
+	 *
+	 * @param extension
+	 *            the extension without the dot
+	 */
+	public synchronized void addStoredExtension(String extension) {
+		storedExtensions.add(extension.toLowerCase());
+	}
+
+	/**
+	 * Removes an extension of files that are stored, so they are compressed according to their type.
+	 *
+	 * @param extension
+	 *            the extension without the dot
+	 */
+	public synchronized void removeStoredExtension(String extension) {
+		storedExtensions.remove(extension.toLowerCase());
+	}
+
+	/**
+	 * Gets the level of an entry.
+	 *
+	 * @param assetType
+	 *            the type of the asset
+	 * @param path
+	 *            the path of the entry
+	 * @return the deflate level or {@link #STORED}
+	 */
+	public synchronized int getLevel(AssetType assetType, String path) {
+		String extension = StringUtils.substringAfterLast(StringUtils.substringAfterLast(path, "/"), ".");
+		if (!extension.isEmpty() && storedExtensions.contains(extension.toLowerCase()))
+			return STORED;
+		return levels.get(assetType);
+	}
+}
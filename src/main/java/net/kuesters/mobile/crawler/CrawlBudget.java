@@ -0,0 +1,201 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The limits of a crawl.
+ * <p>
+ * A site with generated URLs, e.g. a calendar or faceted search with query strings, can have an unbounded number of pages. The budget
+ * limits the total bytes, the number of assets, the link depth from the entry page and the time of a crawl, and excludes URLs that match
+ * a pattern. When a limit is reached, no further assets are fetched and references to them keep their original URL, so the package stays
+ * usable with the assets crawled so far. The entry page, the icon and the splash screen are always crawled.
+ * </p>
+ * <p>
+ * A budget has no limits by default. It can be shared by any number of crawlers at the same time, the limits apply to every crawl on its
+ * own.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class CrawlBudget {
+
+	/** The value of a limit that isn't set. */
+	public static final long NO_LIMIT = -1;
+
+	/**
+	 * The limits of a budget.
+	 */
+	public enum Limit {
+		/** The total bytes of the crawled asset bodies. */
+		BYTES,
+		/** The number of assets. */
+		ASSETS,
+		/** The link depth from the entry page. */
+		DEPTH,
+		/** The excluded URL patterns. */
+		URL_PATTERN,
+		/** The duration of the crawl. */
+		DURATION
+	}
+
+	/** The maximum total bytes of the crawled asset bodies. */
+	private long maxBytes = NO_LIMIT;
+
+	/** The maximum number of assets. */
+	private long maxAssets = NO_LIMIT;
+
+	/** The maximum link depth from the entry page. */
+	private long maxDepth = NO_LIMIT;
+
+	/** The maximum duration of a crawl in milliseconds. */
+	private long maxDuration = NO_LIMIT;
+
+	/** The patterns of URLs that aren't crawled. */
+	private final List<Pattern> excludedUrlPatterns = new ArrayList<Pattern>();
+
+	/**
+	 * Gets the maximum total bytes of the crawled asset bodies.
+	 *
+	 * @return the number of bytes or {@link #NO_LIMIT}
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the maximum total bytes of the crawled asset bodies. Assets that are already fetched when the limit is reached are completed.
+	 *
+	 * @param maxBytes
+	 *            the number of bytes or {@link #NO_LIMIT}
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = checkLimit(maxBytes, "maxBytes");
+	}
+
+	/**
+	 * Gets the maximum number of assets that are scheduled by a crawl.
+	 *
+	 * @return the number of assets or {@link #NO_LIMIT}
+	 */
+	public synchronized long getMaxAssets() {
+		return maxAssets;
+	}
+
+	/**
+	 * Sets the maximum number of assets that are scheduled by a crawl.
+	 *
+	 * @param maxAssets
+	 *            the number of assets or {@link #NO_LIMIT}
+	 */
+	public synchronized void setMaxAssets(long maxAssets) {
+		this.maxAssets = checkLimit(maxAssets, "maxAssets");
+	}
+
+	/**
+	 * Gets the maximum link depth from the entry page.
+	 *
+	 * @return the depth or {@link #NO_LIMIT}
+	 */
+	public synchronized long getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Sets the maximum link depth from the entry page. The files the entry page refers to have a depth of 1.
+	 *
+	 * @param maxDepth
+	 *            the depth or {@link #NO_LIMIT}
+	 */
+	public synchronized void setMaxDepth(long maxDepth) {
+		this.maxDepth = checkLimit(maxDepth, "maxDepth");
+	}
+
+	/**
+	 * Gets the maximum duration of a crawl.
+	 *
+	 * @return the duration in milliseconds or {@link #NO_LIMIT}
+	 */
+	public synchronized long getMaxDuration() {
+		return maxDuration;
+	}
+
+	/**
+	 * Sets the maximum duration of a crawl. Assets that are already fetched when the time is up are completed, all others are skipped.
+	 *
+	 * @param maxDuration
+	 *            the duration in milliseconds or {@link #NO_LIMIT}
+	 */
+	public synchronized void setMaxDuration(long maxDuration) {
+		this.maxDuration = checkLimit(maxDuration, "maxDuration");
+	}
+
+	/**
+	 * Excludes the URLs that match a pattern, e.g. <code>[?&amp;]date=</code> for the pages of a calendar. The pattern is searched for
+	 * anywhere in the normalized URL.
+	 *
+	 * @param pattern
+	 *            the regular expression
+	 */
+	public synchronized void addExcludedUrlPattern(String pattern) {
+		excludedUrlPatterns.add(Pattern.compile(pattern));
+	}
+
+	/**
+	 * Removes all excluded URL patterns.
+	 */
+	public synchronized void clearExcludedUrlPatterns() {
+		excludedUrlPatterns.clear();
+	}
+
+	/**
+	 * Checks if an asset may be scheduled.
+	 *
+	 * @param url
+	 *            the normalized URL of the asset
+	 * @param depth
+	 *            the link depth of the asset
+	 * @param scheduledAssets
+	 *            the number of assets the crawl has scheduled so far
+	 * @param bytes
+	 *            the total bytes of the asset bodies the crawl has fetched so far
+	 * @param duration
+	 *            the time the crawl is running in milliseconds
+	 * @return the limit that excludes the asset or <code>null</code> if it may be scheduled
+	 */
+	synchronized Limit check(String url, int depth, long scheduledAssets, long bytes, long duration) {
+		if (maxDepth != NO_LIMIT && depth > maxDepth)
+			return Limit.DEPTH;
+		for (Pattern pattern : excludedUrlPatterns) {
+			if (pattern.matcher(url).find())
+				return Limit.URL_PATTERN;
+		}
+		if (maxAssets != NO_LIMIT && scheduledAssets >= maxAssets)
+			return Limit.ASSETS;
+		return checkRunning(bytes, duration);
+	}
+
+	/**
+	 * Checks if a scheduled asset may still be fetched.
+	 *
+	 * @param bytes
+	 *            the total bytes of the asset bodies the crawl has fetched so far
+	 * @param duration
+	 *            the time the crawl is running in milliseconds
+	 * @return the limit that is reached or <code>null</code> if the asset may be fetched
+	 */
+	synchronized Limit checkRunning(long bytes, long duration) {
+		if (maxBytes != NO_LIMIT && bytes >= maxBytes)
+			return Limit.BYTES;
+		if (maxDuration != NO_LIMIT && duration >= maxDuration)
+			return Limit.DURATION;
+		return null;
+	}
+
+	private static long checkLimit(long limit, String name) {
+		if (limit < 0 && limit != NO_LIMIT)
+			throw new IllegalArgumentException(name + " must not be negative: " + limit);
+		return limit;
+	}
+}
@@ -0,0 +1,380 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The checkpoint of a crawl that hasn't finished yet. It is saved next to the ZIP file while the crawl is running and records the
+ * partial ZIP file the crawl writes to, the completed entries in it and the frontier of URLs that were scheduled but not completed yet.
+ * The visited URLs are the completed ones, the frontier and the links of the completed entries. A crawl that is started again with the
+ * checkpoint copies the completed entries from the partial ZIP file and only fetches what is missing.
+ * <p>
+ * Every entry of the partial ZIP file is written with a complete local header, so an entry can be read from the offset of its header
+ * even though the file has no central directory yet. The checkpoint is a UTF-8 text file with one tab separated line per frontier URL or
+ * entry, like the {@link CrawlManifest}.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class CrawlCheckpoint {
+
+	/** The first line of every checkpoint file. */
+	private static final String HEADER = "# AppCrawler checkpoint 1";
+
+	/** The charset of checkpoint files. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The signature of a local file header. */
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+	/** The length of a local file header without the file name and the extra field. */
+	private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+
+	/** The file name of the partial ZIP file in the same directory. */
+	private final String partialFileName;
+
+	/** The URLs that were scheduled but not completed. */
+	private final Set<String> frontier;
+
+	/** The completed entries in the order they were written. */
+	private final List<Entry> entries;
+
+	/**
+	 * Instantiates a new checkpoint.
+	 *
+	 * @param partialFileName
+	 *            the file name of the partial ZIP file in the same directory
+	 * @param frontier
+	 *            the URLs that were scheduled but not completed
+	 * @param entries
+	 *            the completed entries in the order they were written
+	 */
+	CrawlCheckpoint(String partialFileName, Collection<String> frontier, Collection<Entry> entries) {
+		this.partialFileName = partialFileName;
+		this.frontier = Collections.unmodifiableSet(new LinkedHashSet<String>(frontier));
+		this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+	}
+
+	/**
+	 * Gets the path of the checkpoint that belongs to a ZIP file.
+	 *
+	 * @param zipFile
+	 *            the path of the ZIP file
+	 * @return the path of the checkpoint
+	 */
+	static Path getCheckpointPath(Path zipFile) {
+		return zipFile.resolveSibling(zipFile.getFileName() + ".checkpoint");
+	}
+
+	/**
+	 * Loads a checkpoint from a file.
+	 *
+	 * @param path
+	 *            the path of the checkpoint
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             Signals that the file couldn't be read or isn't a checkpoint.
+	 */
+	static CrawlCheckpoint load(Path path) throws IOException {
+		String partialFileName = null;
+		List<String> frontier = new ArrayList<String>();
+		List<Entry> entries = new ArrayList<Entry>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), UTF_8));
+		try {
+			if (!HEADER.equals(reader.readLine()))
+				throw new IOException(path + " is not an AppCrawler checkpoint");
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (StringUtils.isBlank(line))
+					continue;
+				String[] fields = line.split("\t", -1);
+				if ("P".equals(fields[0]) && fields.length == 2) {
+					partialFileName = fields[1];
+				} else if ("F".equals(fields[0]) && fields.length == 2) {
+					frontier.add(fields[1]);
+				} else if ("E".equals(fields[0]) && fields.length >= 11) {
+					try {
+						List<String> links = new ArrayList<String>(Arrays.asList(fields).subList(11, fields.length));
+						CrawlManifest.Entry manifestEntry = new CrawlManifest.Entry(fields[7], fields[8], StringUtils.trimToNull(fields[9]),
+								StringUtils.trimToNull(fields[10]), links);
+						entries.add(new Entry(fields[6], manifestEntry, Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+								Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid checkpoint line: " + line);
+					}
+				} else {
+					throw new IOException("Invalid checkpoint line: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (partialFileName == null)
+			throw new IOException(path + " doesn't name its partial ZIP file");
+		return new CrawlCheckpoint(partialFileName, frontier, entries);
+	}
+
+	/**
+	 * Saves the checkpoint to a file. The file is replaced as a whole, so a crash while saving leaves the previous checkpoint intact.
+	 *
+	 * @param path
+	 *            the path of the checkpoint
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void save(Path path) throws IOException {
+		Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tempFile), UTF_8));
+			try {
+				writer.write(HEADER);
+				writer.write('\n');
+				writer.write("P\t");
+				writer.write(partialFileName);
+				writer.write('\n');
+				for (String url : frontier) {
+					writer.write("F\t");
+					writer.write(url);
+					writer.write('\n');
+				}
+				for (Entry entry : entries) {
+					CrawlManifest.Entry manifestEntry = entry.getManifestEntry();
+					writer.write("E\t" + entry.getOffset() + '\t' + entry.getMethod() + '\t' + entry.getCrc() + '\t' + entry.getSize() + '\t'
+							+ entry.getCompressedSize());
+					writer.write('\t');
+					writer.write(entry.getUrl());
+					writer.write('\t');
+					writer.write(manifestEntry.getPath());
+					writer.write('\t');
+					writer.write(manifestEntry.getContentHash());
+					writer.write('\t');
+					writer.write(StringUtils.defaultString(manifestEntry.getETag()));
+					writer.write('\t');
+					writer.write(StringUtils.defaultString(manifestEntry.getLastModified()));
+					for (String link : manifestEntry.getLinks()) {
+						writer.write('\t');
+						writer.write(link);
+					}
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			AppCrawlerUtil.moveReplacing(tempFile, path);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Gets the path of the partial ZIP file.
+	 *
+	 * @param checkpointPath
+	 *            the path of the checkpoint, the partial ZIP file is in the same directory
+	 * @return the path of the partial ZIP file
+	 */
+	Path getPartialFile(Path checkpointPath) {
+		return checkpointPath.resolveSibling(partialFileName);
+	}
+
+	Set<String> getFrontier() {
+		return frontier;
+	}
+
+	List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Opens the compressed content of an entry of the partial ZIP file. The local header at the entry's offset is checked first, so a
+	 * partial ZIP file that doesn't match the checkpoint isn't copied into a new package.
+	 *
+	 * @param channel
+	 *            the channel of the partial ZIP file, it is positioned at the content
+	 * @param entry
+	 *            the entry
+	 * @return the input stream of the compressed content, closing it leaves the channel open
+	 * @throws IOException
+	 *             Signals that the entry isn't in the partial ZIP file.
+	 */
+	static InputStream openRawEntry(FileChannel channel, Entry entry) throws IOException {
+		String path = entry.getManifestEntry().getPath();
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_FILE_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header, entry.getOffset());
+		if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE)
+			throw new IOException("No local header of " + path + " at " + entry.getOffset());
+
+		int nameLength = header.getShort(26) & 0xffff;
+		int extraLength = header.getShort(28) & 0xffff;
+		ByteBuffer name = ByteBuffer.allocate(nameLength);
+		readFully(channel, name, entry.getOffset() + LOCAL_FILE_HEADER_LENGTH);
+		if (!path.equals(new String(name.array(), UTF_8)))
+			throw new IOException("The local header at " + entry.getOffset() + " doesn't belong to " + path);
+
+		long contentOffset = entry.getOffset() + LOCAL_FILE_HEADER_LENGTH + nameLength + extraLength;
+		if (contentOffset + entry.getCompressedSize() > channel.size())
+			throw new IOException("The content of " + path + " is incomplete");
+
+		channel.position(contentOffset);
+		BoundedInputStream inputStream = new BoundedInputStream(Channels.newInputStream(channel), entry.getCompressedSize());
+		inputStream.setPropagateClose(false);
+		return inputStream;
+	}
+
+	/**
+	 * Reads a buffer from a channel.
+	 *
+	 * @param channel
+	 *            the channel
+	 * @param buffer
+	 *            the buffer that is filled
+	 * @param position
+	 *            the position in the channel
+	 * @throws IOException
+	 *             Signals that the channel ends before the buffer is full.
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int length = channel.read(buffer, position + buffer.position());
+			if (length < 0)
+				throw new IOException("Unexpected end of the partial ZIP file at " + (position + buffer.position()));
+		}
+	}
+
+	/**
+	 * A completed entry of the partial ZIP file.
+	 */
+	static final class Entry {
+
+		/** The normalized URL of the asset. */
+		private final String url;
+
+		/** The manifest entry of the asset. */
+		private final CrawlManifest.Entry manifestEntry;
+
+		/** The offset of the local header in the partial ZIP file. */
+		private final long offset;
+
+		/** The compression method. */
+		private final int method;
+
+		/** The CRC of the uncompressed content. */
+		private final long crc;
+
+		/** The size of the uncompressed content. */
+		private final long size;
+
+		/** The size of the compressed content. */
+		private final long compressedSize;
+
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param url
+		 *            the normalized URL of the asset
+		 * @param manifestEntry
+		 *            the manifest entry of the asset
+		 * @param offset
+		 *            the offset of the local header in the partial ZIP file
+		 * @param method
+		 *            the compression method
+		 * @param crc
+		 *            the CRC of the uncompressed content
+		 * @param size
+		 *            the size of the uncompressed content
+		 * @param compressedSize
+		 *            the size of the compressed content
+		 */
+		Entry(String url, CrawlManifest.Entry manifestEntry, long offset, int method, long crc, long size, long compressedSize) {
+			this.url = url;
+			this.manifestEntry = manifestEntry;
+			this.offset = offset;
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.compressedSize = compressedSize;
+		}
+
+		/**
+		 * Instantiates a new entry from the ZIP entry that was written.
+		 *
+		 * @param url
+		 *            the normalized URL of the asset
+		 * @param manifestEntry
+		 *            the manifest entry of the asset
+		 * @param offset
+		 *            the offset of the local header in the partial ZIP file
+		 * @param zipEntry
+		 *            the ZIP entry with method, CRC and sizes
+		 */
+		Entry(String url, CrawlManifest.Entry manifestEntry, long offset, ZipArchiveEntry zipEntry) {
+			this(url, manifestEntry, offset, zipEntry.getMethod(), zipEntry.getCrc(), zipEntry.getSize(), zipEntry.getCompressedSize());
+		}
+
+		String getUrl() {
+			return url;
+		}
+
+		CrawlManifest.Entry getManifestEntry() {
+			return manifestEntry;
+		}
+
+		long getOffset() {
+			return offset;
+		}
+
+		int getMethod() {
+			return method;
+		}
+
+		long getCrc() {
+			return crc;
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		long getCompressedSize() {
+			return compressedSize;
+		}
+
+		/**
+		 * Creates the ZIP entry that is added to a new package together with the raw content.
+		 *
+		 * @return the ZIP entry
+		 */
+		ZipArchiveEntry toZipArchiveEntry() {
+			ZipArchiveEntry zipEntry = new ZipArchiveEntry(manifestEntry.getPath());
+			zipEntry.setMethod(method);
+			zipEntry.setCrc(crc);
+			zipEntry.setSize(size);
+			zipEntry.setCompressedSize(compressedSize);
+			return zipEntry;
+		}
+	}
+}
@@ -0,0 +1,642 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
+
+import net.kuesters.mobile.MobileApp;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The state of a single crawl. An {@link AppCrawler} only holds its configuration, everything that changes while an app is crawled lives
+ * here, so one crawler can crawl any number of apps at the same time.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class CrawlContext {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(CrawlContext.class);
+
+	/** The app that is crawled. */
+	private final MobileApp app;
+
+	/** The executor running the fetch tasks. */
+	private final Executor executor;
+
+	/** The crawled URLs. */
+	private final CrawledURLIndex crawledURLs;
+
+	/** The memory for the content of the assets. */
+	private final BufferBudget bufferBudget;
+
+	/** The limits of the crawl. */
+	private final CrawlBudget budget;
+
+	/** The stages that parse and package the fetched assets. */
+	private final CrawlPipeline pipeline;
+
+	/** The executor that sends the requests with timeouts and hedged requests. */
+	private final RequestExecutor requestExecutor;
+
+	/** The number of assets that were scheduled. */
+	private final AtomicLong scheduledAssets = new AtomicLong();
+
+	/** The normalized URLs that were skipped because of the budget. */
+	private final Set<String> skippedURLs = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+	/** The limits of the budget that were reached. */
+	private final Set<CrawlBudget.Limit> reachedLimits = Collections.synchronizedSet(EnumSet.noneOf(CrawlBudget.Limit.class));
+
+	/** The list of errors that happened during the crawl. */
+	private final List<CrawlError> errors = Collections.synchronizedList(new ArrayList<CrawlError>());
+
+	/** The paths of the entries in the ZIP output stream. */
+	private final Set<String> zipEntryPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** The manifest of the crawl. */
+	private final CrawlManifest manifest = new CrawlManifest();
+
+	/** The number of fetch tasks that are submitted but not finished yet. */
+	private final AtomicInteger pendingTasks = new AtomicInteger();
+
+	/** The time the crawl started at in milliseconds since the epoch. */
+	private final long startTime = System.currentTimeMillis();
+
+	/** The number of bytes of all crawled asset bodies. */
+	private final AtomicLong bytesIn = new AtomicLong();
+
+	/** The resolver of the URLs and paths or <code>null</code> if it isn't created yet. */
+	private volatile PathResolver pathResolver;
+
+	/** The ZIP output stream. */
+	private ZipArchiveOutputStream zipOutputStream;
+
+	/** The stream below the ZIP output stream that counts the bytes of the ZIP file. */
+	private CountingOutputStream packageOutputStream;
+
+	/** The manifest of the previous package that is updated by the crawl or <code>null</code>. */
+	private CrawlManifest previousManifest;
+
+	/** The previous package that is updated by the crawl or <code>null</code>. */
+	private ZipFile previousPackage;
+
+	/** The index of the unique asset bodies or <code>null</code> if the crawl doesn't deduplicate them. */
+	private Deduplicator deduplicator;
+
+	/** The path of the checkpoint or <code>null</code> if the crawl doesn't save checkpoints. */
+	private Path checkpointPath;
+
+	/** The partial ZIP file the checkpoints refer to. */
+	private Path partialFile;
+
+	/** The minimum time between two checkpoints in milliseconds. */
+	private long checkpointInterval;
+
+	/** The time the latest checkpoint was saved at in milliseconds since the epoch. */
+	private volatile long lastCheckpointTime = System.currentTimeMillis();
+
+	/** True if a checkpoint that refers to the {@link #partialFile} was saved. */
+	private volatile boolean checkpointSaved;
+
+	/** The lock that makes sure that only one checkpoint is saved at a time, so an older one can't replace a newer one. */
+	private final Object checkpointLock = new Object();
+
+	/** True while a periodic checkpoint is saved. */
+	private final AtomicBoolean savingCheckpoint = new AtomicBoolean();
+
+	/** The normalized URLs that were scheduled but not completed, only tracked if the crawl saves checkpoints. */
+	private final Set<String> frontier = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** The entries of the ZIP file by path that aren't completed yet, only tracked if the crawl saves checkpoints. */
+	private final ConcurrentMap<String, WrittenEntry> writtenEntries = new ConcurrentHashMap<String, WrittenEntry>();
+
+	/** The completed entries of the ZIP file, only tracked if the crawl saves checkpoints. */
+	private final List<CrawlCheckpoint.Entry> completedEntries = Collections.synchronizedList(new ArrayList<CrawlCheckpoint.Entry>());
+
+	/** True if <code>/icon.png</code> was found. */
+	private volatile boolean hasIcon;
+
+	/** True if <code>/splash.png</code> was found. */
+	private volatile boolean hasSplashScreen;
+
+	/**
+	 * Instantiates a new crawl context.
+	 *
+	 * @param app
+	 *            the app that is crawled
+	 * @param executor
+	 *            the executor running the fetch tasks
+	 * @param bufferBudget
+	 *            the memory for the content of the assets
+	 * @param budget
+	 *            the limits of the crawl
+	 * @param pipeline
+	 *            the stages that parse and package the fetched assets
+	 * @param requestExecutor
+	 *            the executor that sends the requests
+	 */
+	CrawlContext(MobileApp app, Executor executor, BufferBudget bufferBudget, CrawlBudget budget, CrawlPipeline pipeline,
+			RequestExecutor requestExecutor) {
+		this.app = app;
+		this.executor = executor;
+		this.crawledURLs = new CrawledURLIndex(app.getStartUrl());
+		this.bufferBudget = bufferBudget;
+		this.budget = budget;
+		this.pipeline = pipeline;
+		this.requestExecutor = requestExecutor;
+	}
+
+	MobileApp getApp() {
+		return app;
+	}
+
+	Executor getExecutor() {
+		return executor;
+	}
+
+	CrawlPipeline getPipeline() {
+		return pipeline;
+	}
+
+	RequestExecutor getRequestExecutor() {
+		return requestExecutor;
+	}
+
+	CrawledURLIndex getCrawledURLs() {
+		return crawledURLs;
+	}
+
+	/**
+	 * Marks a URL as crawled unless it already is.
+	 *
+	 * @param url
+	 *            the URL
+	 * @return true, if the URL wasn't crawled before and has to be fetched by the caller
+	 */
+	boolean markCrawled(String url) {
+		return crawledURLs.add(url);
+	}
+
+	/**
+	 * Gets the resolver of the URLs and paths of the crawl, creating it on first use.
+	 *
+	 * @return the path resolver
+	 * @throws MalformedURLException
+	 *             if the start URL of the app is malformed
+	 */
+	PathResolver getPathResolver() throws MalformedURLException {
+		PathResolver resolver = pathResolver;
+		if (resolver == null) {
+			synchronized (this) {
+				resolver = pathResolver;
+				if (resolver == null)
+					pathResolver = resolver = new PathResolver(app.getStartUrl());
+			}
+		}
+		return resolver;
+	}
+
+	BufferBudget getBufferBudget() {
+		return bufferBudget;
+	}
+
+	CrawlBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Checks if an asset may be scheduled within the budget.
+	 *
+	 * @param url
+	 *            the normalized URL of the asset
+	 * @param depth
+	 *            the link depth of the asset
+	 * @return the limit that excludes the asset or <code>null</code> if it may be scheduled
+	 */
+	CrawlBudget.Limit checkBudget(String url, int depth) {
+		return budget.check(url, depth, scheduledAssets.get(), bytesIn.get(), System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Checks if a scheduled asset may still be fetched within the budget.
+	 *
+	 * @return the limit that is reached or <code>null</code> if the asset may be fetched
+	 */
+	CrawlBudget.Limit checkRunningBudget() {
+		return budget.checkRunning(bytesIn.get(), System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Records an asset that was skipped because of the budget. The first time a limit excludes an asset, it is logged.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @param limit
+	 *            the limit that excludes the asset
+	 */
+	void assetSkipped(String url, CrawlBudget.Limit limit) {
+		skippedURLs.add(url);
+		if (reachedLimits.add(limit))
+			LOG.info("Skipping " + url + " and further assets of app " + app.getName() + " because of the " + limit + " limit of the crawl budget");
+	}
+
+	List<CrawlError> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Adds an error of the crawl.
+	 *
+	 * @param url
+	 *            the URL the error belongs to
+	 * @param phase
+	 *            the phase the error happened in
+	 * @param cause
+	 *            the cause
+	 * @param attempts
+	 *            the number of requests that were sent for the asset
+	 */
+	void addError(String url, CrawlError.Phase phase, Throwable cause, int attempts) {
+		errors.add(new CrawlError(url, phase, cause, attempts));
+	}
+
+	CrawlManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Records a crawled asset in the manifest and, if the crawl saves checkpoints, as completed. A checkpoint is saved if the
+	 * {@link #enableCheckpoints(Path, Path, long) interval} has passed.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @param entry
+	 *            the manifest entry, its ZIP entry has to be written already
+	 */
+	void assetCompleted(String url, CrawlManifest.Entry entry) {
+		completed(url, entry, true);
+	}
+
+	/**
+	 * Records a crawled asset that wasn't added to the ZIP file because its body is stored under another path, like
+	 * {@link #assetCompleted(String, CrawlManifest.Entry)}. A duplicate isn't part of a checkpoint, a resumed crawl fetches it again.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @param entry
+	 *            the manifest entry with the stored path
+	 */
+	void duplicateCompleted(String url, CrawlManifest.Entry entry) {
+		completed(url, entry, false);
+	}
+
+	/**
+	 * Records a crawled asset.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @param entry
+	 *            the manifest entry
+	 * @param stored
+	 *            true if the entry was added to the ZIP file for this asset
+	 */
+	private void completed(String url, CrawlManifest.Entry entry, boolean stored) {
+		manifest.put(url, entry);
+		if (checkpointPath == null)
+			return;
+
+		frontier.remove(url);
+		WrittenEntry written = stored ? writtenEntries.remove(entry.getPath()) : null;
+		if (written != null)
+			completedEntries.add(new CrawlCheckpoint.Entry(url, entry, written.offset, written.entry));
+
+		if (System.currentTimeMillis() - lastCheckpointTime >= checkpointInterval && savingCheckpoint.compareAndSet(false, true)) {
+			try {
+				saveCheckpoint();
+			} catch (IOException e) {
+				LOG.warn("Couldn't save checkpoint " + checkpointPath, e);
+			} finally {
+				savingCheckpoint.set(false);
+			}
+		}
+	}
+
+	ZipArchiveOutputStream getZipOutputStream() {
+		return zipOutputStream;
+	}
+
+	/**
+	 * Starts the ZIP file of the crawl.
+	 *
+	 * @param outputStream
+	 *            the output stream the ZIP file is written to
+	 * @return the ZIP output stream
+	 */
+	ZipArchiveOutputStream openZipOutputStream(OutputStream outputStream) {
+		packageOutputStream = new CountingOutputStream(outputStream);
+		zipOutputStream = new ZipArchiveOutputStream(packageOutputStream);
+		return zipOutputStream;
+	}
+
+	/**
+	 * Records the offset of an entry that was added to the ZIP file, so a checkpoint can refer to it. The caller has to hold the lock of
+	 * the ZIP output stream.
+	 *
+	 * @param path
+	 *            the path of the entry
+	 * @param offset
+	 *            the number of bytes written to the ZIP file before the entry
+	 * @param entry
+	 *            the ZIP entry with method, CRC and sizes
+	 */
+	void entryWritten(String path, long offset, ZipArchiveEntry entry) {
+		if (checkpointPath != null)
+			writtenEntries.put(path, new WrittenEntry(offset, entry));
+	}
+
+	/**
+	 * Gets the number of bytes written to the ZIP file so far. Entries are complete when their ZIP output stream is released.
+	 *
+	 * @return the number of bytes
+	 */
+	long getBytesWritten() {
+		return packageOutputStream != null ? packageOutputStream.getByteCount() : 0;
+	}
+
+	/**
+	 * Adds the bytes of a crawled asset to the totals of the crawl.
+	 *
+	 * @param metrics
+	 *            the metrics of the asset
+	 */
+	void assetCrawled(AssetMetrics metrics) {
+		bytesIn.addAndGet(metrics.getBytesIn());
+	}
+
+	/**
+	 * Reserves the path of a new ZIP entry, because ZIP files must not contain two entries with the same path.
+	 *
+	 * @param path
+	 *            the path of the entry
+	 * @throws ZipException
+	 *             Signals that an entry with the path was already added.
+	 */
+	void reserveZipEntryPath(String path) throws ZipException {
+		if (!zipEntryPaths.add(path))
+			throw new ZipException("duplicate entry: " + path);
+	}
+
+	/**
+	 * Gets the number of entries in the ZIP file.
+	 *
+	 * @return the number of entries
+	 */
+	int getZipEntryCount() {
+		return zipEntryPaths.size();
+	}
+
+	/**
+	 * Opens the package and manifest of a previous crawl, if both exist, to make the crawl incremental.
+	 *
+	 * @param zipFile
+	 *            the path of the previous ZIP file
+	 * @param manifestPath
+	 *            the path of the previous manifest
+	 */
+	void openPreviousPackage(Path zipFile, Path manifestPath) {
+		if (!Files.isRegularFile(zipFile) || !Files.isRegularFile(manifestPath))
+			return;
+
+		try {
+			previousManifest = CrawlManifest.load(manifestPath);
+			previousPackage = new ZipFile(zipFile.toFile());
+			LOG.info("Updating previous package " + zipFile + " with " + previousManifest.size() + " file/s");
+		} catch (IOException e) {
+			LOG.warn("Couldn't open previous package " + zipFile + ", crawling everything again.", e);
+			closePreviousPackage();
+		}
+	}
+
+	/**
+	 * Closes the previous package, if there is one.
+	 */
+	void closePreviousPackage() {
+		ZipFile.closeQuietly(previousPackage);
+		previousPackage = null;
+		previousManifest = null;
+	}
+
+	/**
+	 * Makes the crawl save checkpoints while it is running.
+	 *
+	 * @param checkpointPath
+	 *            the path of the checkpoint
+	 * @param partialFile
+	 *            the file the ZIP file is written to
+	 * @param checkpointInterval
+	 *            the minimum time between two checkpoints in milliseconds
+	 */
+	void enableCheckpoints(Path checkpointPath, Path partialFile, long checkpointInterval) {
+		this.checkpointPath = checkpointPath;
+		this.partialFile = partialFile;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Makes the crawl store every unique asset body only once.
+	 */
+	void enableDeduplication() {
+		this.deduplicator = new Deduplicator();
+	}
+
+	/**
+	 * Gets the index of the unique asset bodies.
+	 *
+	 * @return the index or <code>null</code> if the crawl doesn't deduplicate them
+	 */
+	Deduplicator getDeduplicator() {
+		return deduplicator;
+	}
+
+	Path getCheckpointPath() {
+		return checkpointPath;
+	}
+
+	Path getPartialFile() {
+		return partialFile;
+	}
+
+	/**
+	 * Checks if a checkpoint that refers to the current partial ZIP file was saved, so the file is needed to resume the crawl.
+	 *
+	 * @return true, if a checkpoint was saved
+	 */
+	boolean isCheckpointSaved() {
+		return checkpointSaved;
+	}
+
+	/**
+	 * Counts an asset as scheduled but not completed yet.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 */
+	void assetScheduled(String url) {
+		scheduledAssets.incrementAndGet();
+		if (checkpointPath != null)
+			frontier.add(url);
+	}
+
+	/**
+	 * Saves a checkpoint of the crawl. The ZIP output stream is flushed first, so every completed entry the checkpoint refers to is in
+	 * the partial ZIP file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void saveCheckpoint() throws IOException {
+		if (checkpointPath == null || zipOutputStream == null)
+			return;
+
+		synchronized (checkpointLock) {
+			CrawlCheckpoint checkpoint;
+			synchronized (zipOutputStream) {
+				zipOutputStream.flush();
+				synchronized (completedEntries) {
+					checkpoint = new CrawlCheckpoint(partialFile.getFileName().toString(), frontier, completedEntries);
+				}
+			}
+			checkpoint.save(checkpointPath);
+			lastCheckpointTime = System.currentTimeMillis();
+			checkpointSaved = true;
+			LOG.debug("Saved checkpoint with " + checkpoint.getEntries().size() + " file/s and " + checkpoint.getFrontier().size()
+					+ " scheduled URL/s");
+		}
+	}
+
+	CrawlManifest getPreviousManifest() {
+		return previousManifest;
+	}
+
+	ZipFile getPreviousPackage() {
+		return previousPackage;
+	}
+
+	boolean hasIcon() {
+		return hasIcon;
+	}
+
+	void setHasIcon(boolean hasIcon) {
+		this.hasIcon = hasIcon;
+	}
+
+	boolean hasSplashScreen() {
+		return hasSplashScreen;
+	}
+
+	void setHasSplashScreen(boolean hasSplashScreen) {
+		this.hasSplashScreen = hasSplashScreen;
+	}
+
+	/**
+	 * Counts a fetch task that is about to be submitted.
+	 */
+	void taskSubmitted() {
+		pendingTasks.incrementAndGet();
+	}
+
+	/**
+	 * Marks a fetch task as finished and wakes up {@link #awaitPendingTasks()} when it was the last one.
+	 */
+	void taskFinished() {
+		if (pendingTasks.decrementAndGet() == 0) {
+			synchronized (pendingTasks) {
+				pendingTasks.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all submitted fetch tasks, including the ones they submitted themselves and the stages they handed their assets to, are
+	 * finished.
+	 *
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting
+	 */
+	void awaitPendingTasks() throws InterruptedException {
+		synchronized (pendingTasks) {
+			while (pendingTasks.get() > 0)
+				pendingTasks.wait();
+		}
+	}
+
+	/**
+	 * Creates the report of the crawl.
+	 *
+	 * @return the report with a snapshot of the current state
+	 */
+	CrawlReport toReport() {
+		List<CrawlError> errorsSnapshot;
+		synchronized (errors) {
+			errorsSnapshot = new ArrayList<CrawlError>(errors);
+		}
+		// a URL that was skipped once may have been crawled through a shorter path later
+		List<String> skippedSnapshot = new ArrayList<String>();
+		synchronized (skippedURLs) {
+			for (String url : skippedURLs) {
+				if (manifest.get(url) == null)
+					skippedSnapshot.add(url);
+			}
+		}
+		Set<CrawlBudget.Limit> limitsSnapshot;
+		synchronized (reachedLimits) {
+			limitsSnapshot = EnumSet.noneOf(CrawlBudget.Limit.class);
+			limitsSnapshot.addAll(reachedLimits);
+		}
+		Map<String, String> duplicates = deduplicator != null ? deduplicator.getDuplicates() : new HashMap<String, String>();
+		long deduplicatedBytes = deduplicator != null ? deduplicator.getSavedBytes() : 0;
+		return new CrawlReport(app, new ArrayList<String>(crawledURLs.asList()), errorsSnapshot, skippedSnapshot, limitsSnapshot, duplicates,
+				deduplicatedBytes, getZipEntryCount(), startTime, System.currentTimeMillis() - startTime, bytesIn.get(), getBytesWritten());
+	}
+
+	/**
+	 * An entry of the ZIP file and the offset of its local header.
+	 */
+	private static final class WrittenEntry {
+
+		/** The number of bytes written to the ZIP file before the entry. */
+		private final long offset;
+
+		/** The ZIP entry with method, CRC and sizes. */
+		private final ZipArchiveEntry entry;
+
+		WrittenEntry(long offset, ZipArchiveEntry entry) {
+			this.offset = offset;
+			this.entry = entry;
+		}
+	}
+}
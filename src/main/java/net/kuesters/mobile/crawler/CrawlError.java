@@ -0,0 +1,93 @@
+package net.kuesters.mobile.crawler;
+
+/**
+ * An error that happened during a crawl, e.g. an asset that couldn't be fetched or a package that couldn't be written.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class CrawlError {
+
+	/**
+	 * The phases of a crawl an error can happen in.
+	 */
+	public enum Phase {
+		/** Resolving and scheduling a URL an asset refers to. */
+		SCHEDULE,
+		/** Requesting an asset and reading its body. */
+		FETCH,
+		/** Rewriting the references of an asset and minifying it. */
+		PARSE,
+		/** Compressing an asset and adding it to the ZIP file. */
+		PACKAGE,
+		/** Writing the package as a whole, which fails the crawl. */
+		FINISH
+	}
+
+	/** The URL the error belongs to. */
+	private final String url;
+
+	/** The phase the error happened in. */
+	private final Phase phase;
+
+	/** The cause of the error. */
+	private final Throwable cause;
+
+	/** The number of requests that were sent for the asset. */
+	private final int attempts;
+
+	/**
+	 * Instantiates a new crawl error.
+	 *
+	 * @param url
+	 *            the URL of the asset or, if the package couldn't be written, the start URL of the app
+	 * @param phase
+	 *            the phase the error happened in
+	 * @param cause
+	 *            the cause
+	 * @param attempts
+	 *            the number of requests that were sent for the asset, including retries and hedged requests
+	 */
+	CrawlError(String url, Phase phase, Throwable cause, int attempts) {
+		this.url = url;
+		this.phase = phase;
+		this.cause = cause;
+		this.attempts = attempts;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public Phase getPhase() {
+		return phase;
+	}
+
+	public Throwable getCause() {
+		return cause;
+	}
+
+	/**
+	 * Gets the number of requests that were sent for the asset.
+	 *
+	 * @return the number of requests, including retries and hedged requests, <code>0</code> if the error happened before the asset was
+	 *         requested or it didn't need a request
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Gets the message of the cause.
+	 *
+	 * @return the localized message of the cause or its class name if it has no message
+	 */
+	public String getMessage() {
+		String message = cause.getLocalizedMessage();
+		return message != null ? message : cause.getClass().getName();
+	}
+
+	@Override
+	public String toString() {
+		return phase + " " + url + ": " + getMessage() + (attempts > 1 ? " (" + attempts + " attempts)" : "");
+	}
+}
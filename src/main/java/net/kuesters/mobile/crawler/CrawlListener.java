@@ -0,0 +1,41 @@
+package net.kuesters.mobile.crawler;
+
+import net.kuesters.mobile.MobileApp;
+
+/**
+ * Listens to the crawls of an {@link AppCrawler}, e.g. to collect {@link CrawlMetrics}.
+ * <p>
+ * Listeners are called on the threads of the crawls, many of them at the same time, so they have to be thread-safe and should return
+ * quickly. Exceptions thrown by a listener are logged and don't affect the crawl.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public interface CrawlListener {
+
+	/**
+	 * Called when the crawl of an app starts.
+	 *
+	 * @param app
+	 *            the app
+	 */
+	void crawlStarted(MobileApp app);
+
+	/**
+	 * Called when an asset was crawled or failed.
+	 *
+	 * @param app
+	 *            the app the asset belongs to
+	 * @param metrics
+	 *            the measurements of the asset
+	 */
+	void assetCrawled(MobileApp app, AssetMetrics metrics);
+
+	/**
+	 * Called when the crawl of an app has finished, also when it failed because the package couldn't be written.
+	 *
+	 * @param report
+	 *            the report of the crawl
+	 */
+	void crawlFinished(CrawlReport report);
+}
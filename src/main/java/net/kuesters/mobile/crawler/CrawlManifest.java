@@ -0,0 +1,224 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The manifest of a crawled package. It is saved next to the ZIP file and records for every crawled URL the HTTP validators, the hash of
+ * the ZIP entry's content, the path of the entry and the URLs the asset refers to. The next crawl uses it to send conditional requests and
+ * to reuse unchanged entries of the previous package.
+ * <p>
+ * The manifest is a UTF-8 text file with one tab separated line per URL.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+class CrawlManifest {
+
+	/** The first line of every manifest file. */
+	private static final String HEADER = "# AppCrawler manifest 1";
+
+	/** The charset of manifest files. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The entries by URL. */
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Gets the path of the manifest that belongs to a ZIP file.
+	 *
+	 * @param zipFile
+	 *            the path of the ZIP file
+	 * @return the path of the manifest
+	 */
+	static Path getManifestPath(Path zipFile) {
+		return zipFile.resolveSibling(zipFile.getFileName() + ".manifest");
+	}
+
+	/**
+	 * Loads a manifest from a file.
+	 *
+	 * @param path
+	 *            the path of the manifest
+	 * @return the manifest
+	 * @throws IOException
+	 *             Signals that the file couldn't be read or isn't a manifest.
+	 */
+	static CrawlManifest load(Path path) throws IOException {
+		CrawlManifest manifest = new CrawlManifest();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), UTF_8));
+		try {
+			if (!HEADER.equals(reader.readLine()))
+				throw new IOException(path + " is not an AppCrawler manifest");
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (StringUtils.isBlank(line))
+					continue;
+				String[] fields = line.split("\t", -1);
+				if (fields.length < 5)
+					throw new IOException("Invalid manifest line: " + line);
+				List<String> links = new ArrayList<String>(Arrays.asList(fields).subList(5, fields.length));
+				manifest.put(fields[0], new Entry(fields[1], fields[2], StringUtils.trimToNull(fields[3]), StringUtils.trimToNull(fields[4]), links));
+			}
+		} finally {
+			reader.close();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Saves the manifest to a file.
+	 *
+	 * @param path
+	 *            the path of the manifest
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void save(Path path) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), UTF_8));
+		try {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (String url : entries.keySet()) {
+				Entry entry = entries.get(url);
+				writer.write(url);
+				writer.write('\t');
+				writer.write(entry.getPath());
+				writer.write('\t');
+				writer.write(entry.getContentHash());
+				writer.write('\t');
+				writer.write(StringUtils.defaultString(entry.getETag()));
+				writer.write('\t');
+				writer.write(StringUtils.defaultString(entry.getLastModified()));
+				for (String link : entry.getLinks()) {
+					writer.write('\t');
+					writer.write(link);
+				}
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Gets the entry of a URL.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @return the entry or <code>null</code>
+	 */
+	Entry get(String url) {
+		return entries.get(url);
+	}
+
+	/**
+	 * Puts the entry of a URL.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @param entry
+	 *            the entry
+	 */
+	void put(String url, Entry entry) {
+		entries.put(url, entry);
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * The manifest entry of a single crawled URL.
+	 */
+	static final class Entry {
+
+		/** The path of the ZIP entry. */
+		private final String path;
+
+		/** The hex encoded SHA-256 hash of the ZIP entry's content. */
+		private final String contentHash;
+
+		/** The value of the <code>ETag</code> response header. */
+		private final String eTag;
+
+		/** The value of the <code>Last-Modified</code> response header. */
+		private final String lastModified;
+
+		/** The absolute URLs the asset refers to. */
+		private final List<String> links;
+
+		/**
+		 * Instantiates a new entry.
+		 *
+		 * @param path
+		 *            the path of the ZIP entry
+		 * @param contentHash
+		 *            the hash of the ZIP entry's content
+		 * @param eTag
+		 *            the <code>ETag</code> or <code>null</code>
+		 * @param lastModified
+		 *            the <code>Last-Modified</code> date or <code>null</code>
+		 * @param links
+		 *            the absolute URLs the asset refers to
+		 */
+		Entry(String path, String contentHash, String eTag, String lastModified, Collection<String> links) {
+			this.path = path;
+			this.contentHash = contentHash;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.links = Collections.unmodifiableList(new ArrayList<String>(links));
+		}
+
+		String getPath() {
+			return path;
+		}
+
+		String getContentHash() {
+			return contentHash;
+		}
+
+		String getETag() {
+			return eTag;
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+
+		List<String> getLinks() {
+			return links;
+		}
+
+		/**
+		 * Checks if a conditional request can be sent for this entry.
+		 *
+		 * @return true, if the entry has at least one validator
+		 */
+		boolean hasValidator() {
+			return eTag != null || lastModified != null;
+		}
+	}
+}
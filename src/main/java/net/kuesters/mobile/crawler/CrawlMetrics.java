@@ -0,0 +1,367 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.kuesters.mobile.MobileApp;
+
+/**
+ * A {@link CrawlListener} that aggregates the metrics of all crawls and exports them in the
+ * <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text format</a>, e.g. from a servlet that is scraped
+ * periodically.
+ * <p>
+ * The time spent in every phase, the bytes and the number of assets are counted per host and asset type, so it is easy to see which sites
+ * and types dominate the crawl time. The durations of assets and crawls are exported as histograms. Throughput is the rate of the byte
+ * counters, the throughput of the latest crawl is exported as a gauge as well. Every host adds its own time series, so the metrics of a
+ * crawler that visits arbitrary hosts grow with them.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class CrawlMetrics implements CrawlListener {
+
+	/** The content type of the exported metrics. */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/** The phases of an asset in the order of {@link Phase#ordinal()}. */
+	private enum Phase {
+		DNS, CONNECT, FIRST_BYTE, DOWNLOAD, PARSE, COMPRESS
+	}
+
+	/** The upper bounds of the buckets of the asset durations in seconds. */
+	private static final double[] ASSET_BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	/** The upper bounds of the buckets of the crawl durations in seconds. */
+	private static final double[] CRAWL_BUCKETS = { 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800 };
+
+	/** The counters of the assets by host and asset type. */
+	private final ConcurrentMap<AssetKey, AssetCounters> assetCounters = new ConcurrentHashMap<AssetKey, AssetCounters>();
+
+	/** The histograms of the asset durations by asset type. */
+	private final ConcurrentMap<String, Histogram> assetDurations = new ConcurrentHashMap<String, Histogram>();
+
+	/** The histogram of the crawl durations. */
+	private final Histogram crawlDurations = new Histogram(CRAWL_BUCKETS);
+
+	/** The number of crawls that are running. */
+	private final AtomicLong runningCrawls = new AtomicLong();
+
+	/** The number of finished crawls. */
+	private final AtomicLong crawls = new AtomicLong();
+
+	/** The number of finished crawls with errors. */
+	private final AtomicLong failedCrawls = new AtomicLong();
+
+	/** The number of files written by all crawls. */
+	private final AtomicLong files = new AtomicLong();
+
+	/** The throughput of the latest crawl in bytes per second. */
+	private volatile double latestThroughput;
+
+	@Override
+	public void crawlStarted(MobileApp app) {
+		runningCrawls.incrementAndGet();
+	}
+
+	@Override
+	public void assetCrawled(MobileApp app, AssetMetrics metrics) {
+		String assetType = getLabel(metrics.getAssetType());
+		AssetKey key = new AssetKey(metrics.getHost(), assetType);
+		AssetCounters counters = assetCounters.get(key);
+		if (counters == null) {
+			AssetCounters newCounters = new AssetCounters();
+			counters = assetCounters.putIfAbsent(key, newCounters);
+			if (counters == null)
+				counters = newCounters;
+		}
+		counters.add(metrics);
+
+		Histogram histogram = assetDurations.get(assetType);
+		if (histogram == null) {
+			Histogram newHistogram = new Histogram(ASSET_BUCKETS);
+			histogram = assetDurations.putIfAbsent(assetType, newHistogram);
+			if (histogram == null)
+				histogram = newHistogram;
+		}
+		histogram.observe(toSeconds(metrics.getTotalTime()));
+	}
+
+	@Override
+	public void crawlFinished(CrawlReport report) {
+		runningCrawls.decrementAndGet();
+		crawls.incrementAndGet();
+		if (!report.isSuccessful())
+			failedCrawls.incrementAndGet();
+		files.addAndGet(report.getFileCount());
+		crawlDurations.observe(report.getDuration() / 1000.0);
+		latestThroughput = report.getThroughput();
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text format.
+	 *
+	 * @param writer
+	 *            the writer, it isn't closed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		// sort the time series, so every scrape lists them in the same order
+		Map<AssetKey, AssetCounters> counters = new TreeMap<AssetKey, AssetCounters>(assetCounters);
+
+		writeHeader(writer, "appcrawler_assets_total", "counter", "Crawled assets by host, type and source.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet()) {
+			for (AssetMetrics.Source source : AssetMetrics.Source.values()) {
+				long count = entry.getValue().sources.get(source.ordinal());
+				if (count > 0)
+					writeSample(writer, "appcrawler_assets_total", entry.getKey().toLabels() + ",source=\"" + getLabel(source) + "\"", count);
+			}
+		}
+
+		writeHeader(writer, "appcrawler_asset_failures_total", "counter", "Assets that couldn't be crawled by host and type.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet())
+			writeSample(writer, "appcrawler_asset_failures_total", entry.getKey().toLabels(), entry.getValue().failures.get());
+
+		writeHeader(writer, "appcrawler_asset_phase_seconds_total", "counter", "Time spent in each phase of the crawled assets by host and type.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet()) {
+			for (Phase phase : Phase.values()) {
+				writeSample(writer, "appcrawler_asset_phase_seconds_total", entry.getKey().toLabels() + ",phase=\"" + getLabel(phase) + "\"",
+						toSeconds(entry.getValue().phaseTimes.get(phase.ordinal())));
+			}
+		}
+
+		writeHeader(writer, "appcrawler_asset_bytes_in_total", "counter", "Bytes of the crawled asset bodies by host and type.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet())
+			writeSample(writer, "appcrawler_asset_bytes_in_total", entry.getKey().toLabels(), entry.getValue().bytesIn.get());
+
+		writeHeader(writer, "appcrawler_asset_bytes_out_total", "counter", "Bytes added to the packages by host and type.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet())
+			writeSample(writer, "appcrawler_asset_bytes_out_total", entry.getKey().toLabels(), entry.getValue().bytesOut.get());
+
+		writeHeader(writer, "appcrawler_asset_unminified_chars_total", "counter", "Characters of the minified assets before the minification by host and type.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet())
+			writeSample(writer, "appcrawler_asset_unminified_chars_total", entry.getKey().toLabels(), entry.getValue().unminifiedChars.get());
+
+		writeHeader(writer, "appcrawler_asset_minified_chars_total", "counter", "Characters of the minified assets after the minification by host and type.");
+		for (Map.Entry<AssetKey, AssetCounters> entry : counters.entrySet())
+			writeSample(writer, "appcrawler_asset_minified_chars_total", entry.getKey().toLabels(), entry.getValue().minifiedChars.get());
+
+		writeHeader(writer, "appcrawler_asset_duration_seconds", "histogram", "Total crawl time of the assets by type.");
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(assetDurations).entrySet())
+			entry.getValue().writeTo(writer, "appcrawler_asset_duration_seconds", "type=\"" + escape(entry.getKey()) + "\"");
+
+		writeHeader(writer, "appcrawler_crawls_running", "gauge", "Crawls that are running.");
+		writeSample(writer, "appcrawler_crawls_running", null, runningCrawls.get());
+
+		writeHeader(writer, "appcrawler_crawls_total", "counter", "Finished crawls.");
+		writeSample(writer, "appcrawler_crawls_total", null, crawls.get());
+
+		writeHeader(writer, "appcrawler_crawl_failures_total", "counter", "Finished crawls with errors.");
+		writeSample(writer, "appcrawler_crawl_failures_total", null, failedCrawls.get());
+
+		writeHeader(writer, "appcrawler_crawl_files_total", "counter", "Files written to the packages.");
+		writeSample(writer, "appcrawler_crawl_files_total", null, files.get());
+
+		writeHeader(writer, "appcrawler_crawl_duration_seconds", "histogram", "Duration of the finished crawls.");
+		crawlDurations.writeTo(writer, "appcrawler_crawl_duration_seconds", null);
+
+		writeHeader(writer, "appcrawler_crawl_throughput_bytes_per_second", "gauge", "Bytes read per second by the latest finished crawl.");
+		writeSample(writer, "appcrawler_crawl_throughput_bytes_per_second", null, latestThroughput);
+	}
+
+	/**
+	 * Gets all metrics in the Prometheus text format.
+	 *
+	 * @return the metrics
+	 */
+	@Override
+	public String toString() {
+		StringWriter writer = new StringWriter();
+		try {
+			writeTo(writer);
+		} catch (IOException e) {
+			// a string writer doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	private static void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+		writer.write("# HELP " + name + " " + help + "\n");
+		writer.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(name);
+		if (labels != null)
+			writer.write("{" + labels + "}");
+		writer.write(" ");
+		writer.write(formatValue(value));
+		writer.write("\n");
+	}
+
+	private static String formatValue(double value) {
+		if (Double.isInfinite(value))
+			return value > 0 ? "+Inf" : "-Inf";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	/**
+	 * Escapes a label value.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the escaped value
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String getLabel(Enum<?> value) {
+		return value != null ? value.name().toLowerCase() : "unknown";
+	}
+
+	private static double toSeconds(long nanos) {
+		return nanos > 0 ? nanos / 1e9 : 0;
+	}
+
+	/**
+	 * The key of the asset counters.
+	 */
+	private static final class AssetKey implements Comparable<AssetKey> {
+
+		/** The host and port. */
+		private final String host;
+
+		/** The label of the asset type. */
+		private final String assetType;
+
+		AssetKey(String host, String assetType) {
+			this.host = host;
+			this.assetType = assetType;
+		}
+
+		String toLabels() {
+			return "host=\"" + escape(host) + "\",type=\"" + escape(assetType) + "\"";
+		}
+
+		@Override
+		public int compareTo(AssetKey other) {
+			int result = host.compareTo(other.host);
+			return result != 0 ? result : assetType.compareTo(other.assetType);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof AssetKey))
+				return false;
+			AssetKey other = (AssetKey) obj;
+			return host.equals(other.host) && assetType.equals(other.assetType);
+		}
+
+		@Override
+		public int hashCode() {
+			return host.hashCode() * 31 + assetType.hashCode();
+		}
+	}
+
+	/**
+	 * The counters of the assets of one host and type.
+	 */
+	private static final class AssetCounters {
+
+		/** The number of assets by {@link AssetMetrics.Source}. */
+		private final AtomicLongArray sources = new AtomicLongArray(AssetMetrics.Source.values().length);
+
+		/** The number of failed assets. */
+		private final AtomicLong failures = new AtomicLong();
+
+		/** The nanoseconds spent by {@link Phase}. */
+		private final AtomicLongArray phaseTimes = new AtomicLongArray(Phase.values().length);
+
+		/** The bytes read. */
+		private final AtomicLong bytesIn = new AtomicLong();
+
+		/** The bytes written. */
+		private final AtomicLong bytesOut = new AtomicLong();
+
+		/** The characters of the minified assets before the minification. */
+		private final AtomicLong unminifiedChars = new AtomicLong();
+
+		/** The characters of the minified assets after the minification. */
+		private final AtomicLong minifiedChars = new AtomicLong();
+
+		void add(AssetMetrics metrics) {
+			if (metrics.isSuccessful())
+				sources.incrementAndGet(metrics.getSource().ordinal());
+			else
+				failures.incrementAndGet();
+			addTime(Phase.DNS, metrics.getDnsTime());
+			addTime(Phase.CONNECT, metrics.getConnectTime());
+			addTime(Phase.FIRST_BYTE, metrics.getFirstByteTime());
+			addTime(Phase.DOWNLOAD, metrics.getDownloadTime());
+			addTime(Phase.PARSE, metrics.getParseTime());
+			addTime(Phase.COMPRESS, metrics.getCompressTime());
+			bytesIn.addAndGet(metrics.getBytesIn());
+			bytesOut.addAndGet(metrics.getBytesOut());
+			if (metrics.getMinifiedLength() >= 0) {
+				unminifiedChars.addAndGet(metrics.getUnminifiedLength());
+				minifiedChars.addAndGet(metrics.getMinifiedLength());
+			}
+		}
+
+		private void addTime(Phase phase, long time) {
+			if (time > 0)
+				phaseTimes.addAndGet(phase.ordinal(), time);
+		}
+	}
+
+	/**
+	 * A histogram with fixed buckets.
+	 */
+	private static final class Histogram {
+
+		/** The upper bounds of the buckets. */
+		private final double[] bounds;
+
+		/** The number of observations per bucket, not cumulative, the last one is the <code>+Inf</code> bucket. */
+		private final AtomicLongArray counts;
+
+		/** The sum of all observations in nanoseconds. */
+		private final AtomicLong sum = new AtomicLong();
+
+		Histogram(double[] bounds) {
+			this.bounds = bounds;
+			this.counts = new AtomicLongArray(bounds.length + 1);
+		}
+
+		void observe(double seconds) {
+			int bucket = 0;
+			while (bucket < bounds.length && seconds > bounds[bucket])
+				bucket++;
+			counts.incrementAndGet(bucket);
+			sum.addAndGet((long) (seconds * 1e9));
+		}
+
+		void writeTo(Writer writer, String name, String labels) throws IOException {
+			String prefix = labels != null ? labels + "," : "";
+			long cumulative = 0;
+			for (int i = 0; i <= bounds.length; i++) {
+				cumulative += counts.get(i);
+				String bound = i < bounds.length ? formatValue(bounds[i]) : "+Inf";
+				writeSample(writer, name + "_bucket", prefix + "le=\"" + bound + "\"", cumulative);
+			}
+			writeSample(writer, name + "_sum", labels, sum.get() / 1e9);
+			writeSample(writer, name + "_count", labels, cumulative);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU bound stages of a crawl that follow the fetch of an asset.
+ * <p>
+ * The fetch threads only download the body of an asset and classify it. HTML documents, stylesheets and minified scripts are then
+ * handed to the {@link Stage#PARSE parse} stage, which rewrites their references, and every asset ends up in the {@link Stage#PACKAGE
+ * package} stage, which compresses it and adds it to the ZIP file. Every stage has its own threads, so slow downloads don't stall parsing
+ * and compressing, and a large document that is parsed doesn't hold a connection open.
+ * </p>
+ * <p>
+ * Every stage takes only a limited number of assets at a time. A thread that hands an asset to a stage that is full waits until the stage
+ * has room, so fast fetchers can't pile up more bodies than the later stages can handle.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class CrawlPipeline {
+
+	/**
+	 * The stages after the fetch of an asset.
+	 */
+	enum Stage {
+		/** Rewrites the references of HTML documents and stylesheets and minifies them. */
+		PARSE,
+		/** Compresses the assets and adds them to the ZIP file. */
+		PACKAGE
+	}
+
+	/** The parse stage. */
+	private final BoundedStage parseStage;
+
+	/** The package stage. */
+	private final BoundedStage packageStage;
+
+	/**
+	 * Instantiates a new pipeline and starts its threads on demand.
+	 *
+	 * @param parseThreads
+	 *            the number of threads of the parse stage
+	 * @param packageThreads
+	 *            the number of threads of the package stage
+	 * @param queueCapacity
+	 *            the number of assets that may wait for each stage
+	 * @param threadFactory
+	 *            the factory of the threads of both stages
+	 */
+	CrawlPipeline(int parseThreads, int packageThreads, int queueCapacity, ThreadFactory threadFactory) {
+		this.parseStage = new BoundedStage(parseThreads, queueCapacity, threadFactory);
+		this.packageStage = new BoundedStage(packageThreads, queueCapacity, threadFactory);
+	}
+
+	/**
+	 * Hands a task to a stage. If the stage is full, the calling thread waits until it has room.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param task
+	 *            the task
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 * @throws RejectedExecutionException
+	 *             if the pipeline was shut down
+	 */
+	void execute(Stage stage, Runnable task) throws InterruptedException {
+		(stage == Stage.PARSE ? parseStage : packageStage).execute(task);
+	}
+
+	/**
+	 * Stops the threads of all stages. Waiting tasks are dropped.
+	 */
+	void shutdown() {
+		parseStage.executor.shutdownNow();
+		packageStage.executor.shutdownNow();
+	}
+
+	/**
+	 * A stage with a fixed number of threads and a limited number of tasks that may run or wait at the same time.
+	 */
+	private static final class BoundedStage {
+
+		/** The threads of the stage. */
+		private final ExecutorService executor;
+
+		/** The permits for the tasks that may run or wait. */
+		private final Semaphore permits;
+
+		BoundedStage(int threads, int queueCapacity, ThreadFactory threadFactory) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					threadFactory);
+			executor.allowCoreThreadTimeOut(true);
+			this.executor = executor;
+			this.permits = new Semaphore(threads + queueCapacity);
+		}
+
+		void execute(final Runnable task) throws InterruptedException {
+			permits.acquire();
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							permits.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				permits.release();
+				throw e;
+			}
+		}
+	}
+}
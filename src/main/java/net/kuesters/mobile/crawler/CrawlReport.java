@@ -0,0 +1,190 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.kuesters.mobile.MobileApp;
+
+/**
+ * The report of a finished crawl.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class CrawlReport {
+
+	/** The crawled app. */
+	private final MobileApp app;
+
+	/** The crawled URLs in the order they were found. */
+	private final List<String> crawledURLs;
+
+	/** The errors that happened during the crawl. */
+	private final List<CrawlError> errors;
+
+	/** The URLs that were skipped because of the budget. */
+	private final List<String> skippedURLs;
+
+	/** The limits of the budget that were reached. */
+	private final Set<CrawlBudget.Limit> reachedLimits;
+
+	/** The paths the duplicate asset bodies are stored under by the paths of the duplicates. */
+	private final Map<String, String> duplicates;
+
+	/** The compressed bytes of the duplicates that weren't added to the ZIP file. */
+	private final long deduplicatedBytes;
+
+	/** The number of files in the resulting ZIP file. */
+	private final int fileCount;
+
+	/** The time the crawl started at in milliseconds since the epoch. */
+	private final long startTime;
+
+	/** The duration of the crawl in milliseconds. */
+	private final long duration;
+
+	/** The number of bytes of all crawled asset bodies. */
+	private final long bytesIn;
+
+	/** The size of the resulting ZIP file in bytes. */
+	private final long bytesOut;
+
+	/**
+	 * Instantiates a new crawl report.
+	 *
+	 * @param app
+	 *            the crawled app
+	 * @param crawledURLs
+	 *            the crawled URLs
+	 * @param errors
+	 *            the errors
+	 * @param skippedURLs
+	 *            the URLs that were skipped because of the budget
+	 * @param reachedLimits
+	 *            the limits of the budget that were reached
+	 * @param duplicates
+	 *            the paths the duplicate asset bodies are stored under by the paths of the duplicates
+	 * @param deduplicatedBytes
+	 *            the compressed bytes of the duplicates that weren't added to the ZIP file
+	 * @param fileCount
+	 *            the number of files in the resulting ZIP file
+	 * @param startTime
+	 *            the start time in milliseconds since the epoch
+	 * @param duration
+	 *            the duration in milliseconds
+	 * @param bytesIn
+	 *            the number of bytes of all crawled asset bodies
+	 * @param bytesOut
+	 *            the size of the resulting ZIP file in bytes
+	 */
+	CrawlReport(MobileApp app, List<String> crawledURLs, List<CrawlError> errors, List<String> skippedURLs,
+			Set<CrawlBudget.Limit> reachedLimits, Map<String, String> duplicates, long deduplicatedBytes, int fileCount, long startTime,
+			long duration, long bytesIn, long bytesOut) {
+		this.app = app;
+		this.crawledURLs = Collections.unmodifiableList(crawledURLs);
+		this.errors = Collections.unmodifiableList(errors);
+		this.skippedURLs = Collections.unmodifiableList(skippedURLs);
+		this.reachedLimits = Collections.unmodifiableSet(reachedLimits);
+		this.duplicates = Collections.unmodifiableMap(duplicates);
+		this.deduplicatedBytes = deduplicatedBytes;
+		this.fileCount = fileCount;
+		this.startTime = startTime;
+		this.duration = duration;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+	}
+
+	public MobileApp getApp() {
+		return app;
+	}
+
+	public List<String> getCrawledURLs() {
+		return crawledURLs;
+	}
+
+	public List<CrawlError> getErrors() {
+		return errors;
+	}
+
+	public List<String> getSkippedURLs() {
+		return skippedURLs;
+	}
+
+	public Set<CrawlBudget.Limit> getReachedLimits() {
+		return reachedLimits;
+	}
+
+	/**
+	 * Checks if the crawl skipped assets because a limit of its budget was reached.
+	 *
+	 * @return true, if the package is incomplete
+	 */
+	public boolean isTruncated() {
+		return !skippedURLs.isEmpty();
+	}
+
+	/**
+	 * Gets the assets whose bodies were already in the package under another path, if the crawler deduplicates them. References to
+	 * them were rewritten to the stored path.
+	 *
+	 * @return the stored paths by the paths of the duplicates
+	 */
+	public Map<String, String> getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Gets the bytes the package is smaller because of the deduplication.
+	 *
+	 * @return the compressed bytes of the duplicates that weren't added, not counting the headers of their entries
+	 */
+	public long getDeduplicatedBytes() {
+		return deduplicatedBytes;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * Gets the throughput of the crawl.
+	 *
+	 * @return the bytes of crawled asset bodies per second
+	 */
+	public double getThroughput() {
+		return duration > 0 ? bytesIn * 1000.0 / duration : 0;
+	}
+
+	/**
+	 * Checks if the crawl finished without errors.
+	 *
+	 * @return true, if no error happened
+	 */
+	public boolean isSuccessful() {
+		return errors.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "Crawled app " + app.getName() + " in " + duration + " ms. Found " + crawledURLs.size() + " URL/s, " + fileCount + " file/s, "
+				+ bytesIn + " bytes in, " + bytesOut + " bytes out. " + skippedURLs.size() + " URL/s skipped, " + errors.size() + " error/s occured."
+				+ (duplicates.isEmpty() ? "" : " " + duplicates.size() + " duplicate/s saved " + deduplicatedBytes + " bytes.");
+	}
+}
@@ -0,0 +1,257 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+/**
+ * The URLs a crawl is seeded with, next to the entry page.
+ * <p>
+ * Without seeds, a crawl only knows the entry page at first and finds the other pages one link after the other, so only a few assets are
+ * fetched at the same time in the beginning. Seeds fill the frontier with many URLs at once: the pages of the app's
+ * <code>/sitemap.xml</code>, the start URL, icons and screenshots of its web app manifest at <code>/manifest.json</code> or
+ * <code>/manifest.webmanifest</code>, and any URLs the caller adds. The seeds are scheduled like the files the entry page refers to, so
+ * the {@link CrawlBudget} applies to them as well. Seeds that don't belong to the app are ignored.
+ * </p>
+ * <p>
+ * No seeds are used by default. The seeds can be shared by any number of crawlers at the same time.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class CrawlSeeds {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(CrawlSeeds.class);
+
+	/** The path of the sitemap, relative to the start URL. */
+	private static final String SITEMAP_PATH = "/sitemap.xml";
+
+	/** The paths the web app manifest is looked for at, relative to the start URL. */
+	private static final String[] MANIFEST_PATHS = { "/manifest.json", "/manifest.webmanifest" };
+
+	/**
+	 * The members of a web app manifest that hold URLs. The manifest is searched instead of parsed, which is enough for the string values
+	 * of <code>start_url</code> and of the <code>src</code> of icons and screenshots.
+	 */
+	private static final Pattern MANIFEST_URL_PATTERN = Pattern.compile("\"(start_url|src)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+	/** True if the sitemap is read. */
+	private boolean sitemap;
+
+	/** True if the web app manifest is read. */
+	private boolean webAppManifest;
+
+	/** The URLs added by the caller. */
+	private final List<String> urls = new ArrayList<String>();
+
+	/**
+	 * Checks if the pages of the app's <code>/sitemap.xml</code> are seeds.
+	 *
+	 * @return true if the sitemap is read
+	 */
+	public synchronized boolean isSitemap() {
+		return sitemap;
+	}
+
+	/**
+	 * Sets if the pages of the app's <code>/sitemap.xml</code> are seeds. A sitemap index is followed to the sitemaps of the app it lists.
+	 *
+	 * @param sitemap
+	 *            true to read the sitemap
+	 */
+	public synchronized void setSitemap(boolean sitemap) {
+		this.sitemap = sitemap;
+	}
+
+	/**
+	 * Checks if the start URL, icons and screenshots of the app's web app manifest are seeds.
+	 *
+	 * @return true if the web app manifest is read
+	 */
+	public synchronized boolean isWebAppManifest() {
+		return webAppManifest;
+	}
+
+	/**
+	 * Sets if the start URL, icons and screenshots of the app's web app manifest are seeds.
+	 *
+	 * @param webAppManifest
+	 *            true to read the web app manifest
+	 */
+	public synchronized void setWebAppManifest(boolean webAppManifest) {
+		this.webAppManifest = webAppManifest;
+	}
+
+	/**
+	 * Adds a seed.
+	 *
+	 * @param url
+	 *            an absolute URL or a path relative to the start URL of the crawled app, e.g. <code>/news.html</code>
+	 */
+	public synchronized void addUrl(String url) {
+		if (StringUtils.isBlank(url))
+			throw new IllegalArgumentException("The URL must not be blank");
+		urls.add(url);
+	}
+
+	/**
+	 * Removes all seeds the caller added.
+	 */
+	public synchronized void clearUrls() {
+		urls.clear();
+	}
+
+	/**
+	 * Collects the seeds of an app. Sources that can't be read are skipped.
+	 *
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @param fetcher
+	 *            the fetcher the sitemap and the manifest are loaded with
+	 * @return the absolute URLs of the app in the order they were found, without duplicates
+	 */
+	Set<String> collect(String startUrl, Fetcher fetcher) {
+		List<String> callerUrls;
+		boolean readSitemap;
+		boolean readManifest;
+		synchronized (this) {
+			callerUrls = new ArrayList<String>(urls);
+			readSitemap = sitemap;
+			readManifest = webAppManifest;
+		}
+
+		Set<String> seeds = new LinkedHashSet<String>();
+		for (String url : callerUrls)
+			addSeed(seeds, startUrl, startUrl + "/", url);
+		if (readManifest)
+			collectFromManifest(seeds, startUrl, fetcher);
+		if (readSitemap)
+			collectFromSitemap(seeds, startUrl, startUrl + SITEMAP_PATH, fetcher, true);
+		return seeds;
+	}
+
+	/**
+	 * Adds the URLs of the first web app manifest that is found.
+	 *
+	 * @param seeds
+	 *            the seeds
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @param fetcher
+	 *            the fetcher
+	 */
+	private static void collectFromManifest(Set<String> seeds, String startUrl, Fetcher fetcher) {
+		for (String path : MANIFEST_PATHS) {
+			String manifestUrl = startUrl + path;
+			String manifest = load(manifestUrl, fetcher);
+			if (manifest == null)
+				continue;
+			Matcher matcher = MANIFEST_URL_PATTERN.matcher(manifest);
+			while (matcher.find())
+				addSeed(seeds, startUrl, manifestUrl, StringEscapeUtils.unescapeJavaScript(matcher.group(2)));
+			return;
+		}
+	}
+
+	/**
+	 * Adds the pages of a sitemap or, if it is a sitemap index, of the sitemaps it lists.
+	 *
+	 * @param seeds
+	 *            the seeds
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @param sitemapUrl
+	 *            the URL of the sitemap
+	 * @param fetcher
+	 *            the fetcher
+	 * @param followIndex
+	 *            true if the sitemaps of a sitemap index are read
+	 */
+	private static void collectFromSitemap(Set<String> seeds, String startUrl, String sitemapUrl, Fetcher fetcher, boolean followIndex) {
+		String xml = load(sitemapUrl, fetcher);
+		if (xml == null)
+			return;
+		Document document = Jsoup.parse(xml, sitemapUrl, Parser.xmlParser());
+		for (Element location : document.select("sitemap > loc")) {
+			String url = location.text().trim();
+			// only one level of indexes is allowed by the sitemap protocol
+			if (followIndex && isOfApp(startUrl, url))
+				collectFromSitemap(seeds, startUrl, url, fetcher, false);
+		}
+		for (Element location : document.select("url > loc"))
+			addSeed(seeds, startUrl, sitemapUrl, location.text().trim());
+	}
+
+	/**
+	 * Loads a text file.
+	 *
+	 * @param url
+	 *            the URL
+	 * @param fetcher
+	 *            the fetcher
+	 * @return the content or <code>null</code> if the file couldn't be loaded
+	 */
+	private static String load(String url, Fetcher fetcher) {
+		try {
+			FetchResponse response = fetcher.fetch(url, null, null);
+			try {
+				return IOUtils.toString(response.getInputStream(), StringUtils.defaultString(response.getCharset(), "UTF-8"));
+			} finally {
+				response.close();
+			}
+		} catch (FileNotFoundException e) {
+			LOG.debug("No seeds at " + url);
+		} catch (IOException e) {
+			LOG.warn("Couldn't read the seeds at " + url, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a seed if it belongs to the app.
+	 *
+	 * @param seeds
+	 *            the seeds
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @param baseUrl
+	 *            the URL relative seeds are resolved against
+	 * @param url
+	 *            the seed
+	 */
+	private static void addSeed(Set<String> seeds, String startUrl, String baseUrl, String url) {
+		try {
+			// paths relative to the start URL don't start with a slash when they are resolved against it
+			String absoluteUrl = new URL(new URL(baseUrl), url.startsWith("/") && baseUrl.equals(startUrl + "/") ? url.substring(1) : url)
+					.toString();
+			if (isOfApp(startUrl, absoluteUrl))
+				seeds.add(absoluteUrl);
+			else
+				LOG.debug("Ignoring seed " + absoluteUrl + " outside of " + startUrl);
+		} catch (MalformedURLException e) {
+			LOG.warn("Ignoring invalid seed " + url, e);
+		}
+	}
+
+	private static boolean isOfApp(String startUrl, String url) {
+		return StringUtils.startsWithIgnoreCase(url, startUrl);
+	}
+}
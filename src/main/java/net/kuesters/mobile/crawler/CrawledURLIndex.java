@@ -0,0 +1,147 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The index of the URLs that have already been crawled by an {@link AppCrawler}.
+ * <p>
+ * Lookups and insertions run in constant time and are safe for concurrent use. URLs starting with the common prefix of the crawled app,
+ * usually its {@link net.kuesters.mobile.MobileApp#getStartUrl()}, are stored without that prefix, so large sites don't keep thousands of
+ * copies of the same host and base path in memory.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+class CrawledURLIndex {
+
+	/** The marker for keys of URLs that don't start with the {@link #prefix}. URLs never contain a NUL character. */
+	private static final char FOREIGN_KEY_MARKER = '\u0000';
+
+	/** The prefix that is shared by most of the URLs. */
+	private final String prefix;
+
+	/** The compacted keys of the crawled URLs. */
+	private final ConcurrentMap<String, Boolean> keys;
+
+	/** The compacted keys in the order they were added. */
+	private final List<String> order;
+
+	/**
+	 * Instantiates a new crawled URL index.
+	 *
+	 * @param prefix
+	 *            the prefix that is shared by most of the URLs
+	 */
+	CrawledURLIndex(String prefix) {
+		this.prefix = prefix != null ? prefix : "";
+		this.keys = new ConcurrentHashMap<String, Boolean>();
+		this.order = new ArrayList<String>();
+	}
+
+	/**
+	 * Adds a URL to the index.
+	 *
+	 * @param url
+	 *            the URL
+	 * @return true, if the URL wasn't in the index before
+	 */
+	boolean add(String url) {
+		String key = toKey(url);
+		if (keys.putIfAbsent(key, Boolean.TRUE) != null)
+			return false;
+
+		synchronized (order) {
+			order.add(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the index contains a URL.
+	 *
+	 * @param url
+	 *            the URL
+	 * @return true, if the URL was added before
+	 */
+	boolean contains(String url) {
+		return url != null && keys.containsKey(toKey(url));
+	}
+
+	/**
+	 * Gets the number of URLs in the index.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return keys.size();
+	}
+
+	/**
+	 * Removes all URLs from the index.
+	 */
+	void clear() {
+		synchronized (order) {
+			keys.clear();
+			order.clear();
+		}
+	}
+
+	/**
+	 * Gets a read-only view of the URLs in the order they were added.
+	 *
+	 * @return the URLs
+	 */
+	List<String> asList() {
+		return new AbstractList<String>() {
+
+			@Override
+			public String get(int index) {
+				synchronized (order) {
+					return toURL(order.get(index));
+				}
+			}
+
+			@Override
+			public int size() {
+				synchronized (order) {
+					return order.size();
+				}
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof String && CrawledURLIndex.this.contains((String) o);
+			}
+		};
+	}
+
+	/**
+	 * Converts a URL to its compacted key.
+	 *
+	 * @param url
+	 *            the URL
+	 * @return the key
+	 */
+	private String toKey(String url) {
+		if (url.startsWith(prefix))
+			return url.substring(prefix.length());
+		return FOREIGN_KEY_MARKER + url;
+	}
+
+	/**
+	 * Converts a compacted key back to its URL.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the URL
+	 */
+	private String toURL(String key) {
+		if (key.length() > 0 && key.charAt(0) == FOREIGN_KEY_MARKER)
+			return key.substring(1);
+		return prefix + key;
+	}
+}
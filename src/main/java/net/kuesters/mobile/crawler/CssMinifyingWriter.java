@@ -0,0 +1,213 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minifies stylesheets.
+ * <p>
+ * Comments are removed, except for comments starting with <code>/*!</code>, which usually contain licenses. Runs of whitespace are
+ * collapsed to a single space, which is dropped next to braces, semicolons, commas, colons and parentheses, and the last semicolon of a
+ * block is dropped. Strings, unquoted URLs and escaped characters are copied as they are.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class CssMinifyingWriter extends MinifyingWriter {
+
+	/** Characters a space in front of them can be dropped. */
+	private static final String NO_SPACE_BEFORE = "{};,)";
+
+	/** Characters a space after them can be dropped. */
+	private static final String NO_SPACE_AFTER = "{};,:(";
+
+	private static final int CODE = 0;
+	private static final int STRING = 1;
+	private static final int URL = 2;
+	private static final int COMMENT = 3;
+
+	/** The state of the minifier. */
+	private int state = CODE;
+
+	/** The quote of the current string. */
+	private char quote;
+
+	/** Whether the previous character of a string, URL or code was a backslash. */
+	private boolean escaped;
+
+	/** Whether whitespace was skipped since the last character written. */
+	private boolean pendingSpace;
+
+	/** Whether a semicolon was held back because it may end a block. */
+	private boolean pendingSemicolon;
+
+	/** Whether a slash was held back because it may start a comment. */
+	private boolean pendingSlash;
+
+	/** The text of the current comment. */
+	private final StringBuilder comment = new StringBuilder();
+
+	/** The last four characters written in code, to recognize <code>url(</code>. */
+	private final char[] recent = new char[4];
+
+	CssMinifyingWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	void process(char c) throws IOException {
+		switch (state) {
+		case STRING:
+			emit(c);
+			if (escaped)
+				escaped = false;
+			else if (c == '\\')
+				escaped = true;
+			else if (c == quote)
+				state = CODE;
+			return;
+		case URL:
+			if ((c == '"' || c == '\'') && getLastEmitted() == '(') {
+				// a quoted URL is a string
+				pendingSpace = false;
+				emit(c);
+				quote = c;
+				state = STRING;
+				return;
+			}
+			if (isWhitespace(c) && !escaped) {
+				pendingSpace = true;
+				return;
+			}
+			if (c == ')' && !escaped) {
+				pendingSpace = false;
+				emitCode(c);
+				state = CODE;
+				return;
+			}
+			if (pendingSpace && getLastEmitted() != '(')
+				emit(' ');
+			pendingSpace = false;
+			emit(c);
+			escaped = !escaped && c == '\\';
+			return;
+		case COMMENT:
+			if (c == '/' && comment.length() > 0 && comment.charAt(comment.length() - 1) == '*') {
+				if (comment.charAt(0) == '!') {
+					flushPending(' ');
+					emit("/*");
+					emit(comment);
+					emit('/');
+				}
+				comment.setLength(0);
+				// a comment separates tokens like whitespace
+				pendingSpace = true;
+				state = CODE;
+			} else
+				comment.append(c);
+			return;
+		}
+
+		if (pendingSlash) {
+			pendingSlash = false;
+			if (c == '*') {
+				state = COMMENT;
+				return;
+			}
+			flushPending('/');
+			emitCode('/');
+		}
+
+		if (escaped) {
+			// an escaped character is part of an identifier, even whitespace and punctuation
+			escaped = false;
+			emitCode(c);
+			return;
+		}
+		if (isWhitespace(c)) {
+			pendingSpace = true;
+			return;
+		}
+		if (c == '/') {
+			pendingSlash = true;
+			return;
+		}
+		if (c == ';') {
+			// a run of semicolons is one
+			pendingSpace = false;
+			pendingSemicolon = true;
+			return;
+		}
+		if (c == '}')
+			pendingSemicolon = false;
+		flushPending(c);
+		emitCode(c);
+
+		if (c == '\\')
+			escaped = true;
+		else if (c == '"' || c == '\'') {
+			quote = c;
+			escaped = false;
+			state = STRING;
+		} else if (c == '(' && isUrl()) {
+			escaped = false;
+			state = URL;
+		}
+	}
+
+	/**
+	 * Writes the held back semicolon and space in front of a character.
+	 *
+	 * @param next
+	 *            the character that follows
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void flushPending(char next) throws IOException {
+		if (pendingSemicolon) {
+			emitCode(';');
+			pendingSemicolon = false;
+			pendingSpace = false;
+		}
+		if (pendingSpace) {
+			char last = getLastEmitted();
+			if (last != 0 && NO_SPACE_AFTER.indexOf(last) < 0 && NO_SPACE_BEFORE.indexOf(next) < 0)
+				emitCode(' ');
+			pendingSpace = false;
+		}
+	}
+
+	private void emitCode(char c) throws IOException {
+		emit(c);
+		System.arraycopy(recent, 1, recent, 0, recent.length - 1);
+		recent[recent.length - 1] = c;
+	}
+
+	/**
+	 * Checks if the parenthesis just written opens an URL.
+	 *
+	 * @return true, if the code ends with <code>url(</code>
+	 */
+	private boolean isUrl() {
+		return Character.toLowerCase(recent[0]) == 'u' && Character.toLowerCase(recent[1]) == 'r' && Character.toLowerCase(recent[2]) == 'l';
+	}
+
+	@Override
+	void finish() throws IOException {
+		if (state == COMMENT && comment.length() > 0 && comment.charAt(0) == '!') {
+			// an unterminated comment is kept as it is
+			emit("/*");
+			emit(comment);
+		}
+		comment.setLength(0);
+		if (pendingSlash)
+			emit('/');
+		pendingSlash = false;
+		if (pendingSemicolon)
+			emit(';');
+		pendingSemicolon = false;
+		pendingSpace = false;
+		escaped = false;
+		state = CODE;
+	}
+}
@@ -0,0 +1,419 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * A single pass tokenizer that finds the <code>@import</code> and <code>url(...)</code> references of a stylesheet and rewrites them while
+ * the stylesheet is copied from a reader to a writer.
+ * <p>
+ * Comments and string literals are skipped, everything that isn't a reference is copied unchanged. Every character is looked at once with a
+ * lookahead of a few characters, so even large minified bundles are processed in linear time and constant memory.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class CssUrlRewriter {
+
+	/** The size of the read buffer. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The maximum number of hex digits of an escaped code point. */
+	private static final int MAX_HEX_DIGITS = 6;
+
+	/** The character that invalid escaped code points are decoded to. */
+	private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+	/**
+	 * The handler that is called for every reference found in a stylesheet.
+	 */
+	public interface UrlHandler {
+
+		/**
+		 * Rewrites a reference.
+		 *
+		 * @param url
+		 *            the URL with decoded escapes, without quotes and surrounding whitespace
+		 * @return the URL to write instead or <code>null</code> to keep the reference unchanged, it is escaped where needed
+		 */
+		String rewrite(String url);
+	}
+
+	/** The handler for the references. */
+	private final UrlHandler handler;
+
+	/** The reader of the current stylesheet. */
+	private Reader reader;
+
+	/** The writer of the current stylesheet. */
+	private Writer writer;
+
+	/** The read buffer. */
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	/** The position of the next character in the {@link #buffer}. */
+	private int position;
+
+	/** The number of valid characters in the {@link #buffer}. */
+	private int limit;
+
+	/** True if the last string literal that was read had a closing quote. */
+	private boolean stringClosed;
+
+	/**
+	 * Instantiates a new CSS URL rewriter. A rewriter isn't thread-safe, but it can be used for any number of stylesheets one after the
+	 * other.
+	 *
+	 * @param handler
+	 *            the handler for the references
+	 */
+	public CssUrlRewriter(UrlHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Rewrites the references of a stylesheet given as a string.
+	 *
+	 * @param css
+	 *            the stylesheet
+	 * @param handler
+	 *            the handler for the references
+	 * @return the rewritten stylesheet
+	 */
+	public static String rewrite(String css, UrlHandler handler) {
+		StringWriter writer = new StringWriter(css.length());
+		try {
+			new CssUrlRewriter(handler).rewrite(new StringReader(css), writer);
+		} catch (IOException e) {
+			// string readers and writers don't throw
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Copies a stylesheet from a reader to a writer and rewrites all of its references. Neither the reader nor the writer is closed.
+	 *
+	 * @param reader
+	 *            the reader of the stylesheet
+	 * @param writer
+	 *            the writer for the rewritten stylesheet
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void rewrite(Reader reader, Writer writer) throws IOException {
+		this.reader = reader;
+		this.writer = writer;
+		this.position = 0;
+		this.limit = 0;
+		try {
+			int previous = -1;
+			int c;
+			while ((c = read()) != -1) {
+				if (c == '/' && peek(0) == '*') {
+					writer.write(c);
+					copyComment();
+				} else if (c == '"' || c == '\'') {
+					writer.write(c);
+					writer.write(readString((char) c));
+					if (stringClosed)
+						writer.write(c);
+				} else if ((c == 'u' || c == 'U') && !isNameChar(previous) && lookingAt("rl(")) {
+					writer.write(c);
+					writer.write(buffer, position, 3);
+					position += 3;
+					rewriteUrlFunction();
+					c = ')';
+				} else if (c == '@' && lookingAt("import") && !isNameChar(peek(6))) {
+					writer.write(c);
+					writer.write(buffer, position, 6);
+					position += 6;
+					rewriteImportString();
+					c = ' ';
+				} else {
+					writer.write(c);
+				}
+				previous = c;
+			}
+		} finally {
+			this.reader = null;
+			this.writer = null;
+		}
+	}
+
+	/**
+	 * Copies a comment after its opening slash.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void copyComment() throws IOException {
+		writer.write(read());
+		int previous = -1;
+		int c;
+		while ((c = read()) != -1) {
+			writer.write(c);
+			if (previous == '*' && c == '/')
+				return;
+			previous = c;
+		}
+	}
+
+	/**
+	 * Reads a string literal after its opening quote and consumes the closing quote. Escapes are kept as they are. A string that is not
+	 * closed before the end of the line ends there, the line break is not consumed.
+	 *
+	 * @param quote
+	 *            the quote character
+	 * @return the raw content of the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private String readString(char quote) throws IOException {
+		StringBuilder content = new StringBuilder();
+		stringClosed = false;
+		int c;
+		while ((c = peek(0)) != -1 && c != '\n') {
+			position++;
+			if (c == quote) {
+				stringClosed = true;
+				break;
+			}
+			content.append((char) c);
+			if (c == '\\' && (c = read()) != -1)
+				content.append((char) c);
+		}
+		return content.toString();
+	}
+
+	/**
+	 * Rewrites the argument of a <code>url(</code> function and copies it including the closing parenthesis.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void rewriteUrlFunction() throws IOException {
+		copyWhitespace();
+
+		int c = peek(0);
+		if (c == '"' || c == '\'') {
+			position++;
+			writeString((char) c, readString((char) c));
+			copyWhitespace();
+			if (peek(0) == ')')
+				writer.write(read());
+			return;
+		}
+
+		StringBuilder argument = new StringBuilder();
+		while ((c = read()) != -1 && c != ')') {
+			argument.append((char) c);
+			if (c == '\\' && (c = read()) != -1)
+				argument.append((char) c);
+		}
+
+		String url = argument.toString();
+		int end = url.length();
+		while (end > 0 && Character.isWhitespace(url.charAt(end - 1)))
+			end--;
+
+		String replacement = end > 0 ? handler.rewrite(unescape(url.substring(0, end))) : null;
+		if (replacement != null)
+			writer.write(needsQuotes(replacement) ? '"' + escape(replacement, '"') + '"' : replacement);
+		else
+			writer.write(url, 0, end);
+		writer.write(url, end, url.length() - end);
+		if (c == ')')
+			writer.write(c);
+	}
+
+	/**
+	 * Rewrites the string form of an <code>@import</code> rule. The <code>url(</code> form is handled like any other URL function.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void rewriteImportString() throws IOException {
+		copyWhitespace();
+
+		int c = peek(0);
+		if (c == '"' || c == '\'') {
+			position++;
+			writeString((char) c, readString((char) c));
+		}
+	}
+
+	/**
+	 * Writes a string literal with a possibly rewritten reference.
+	 *
+	 * @param quote
+	 *            the quote character
+	 * @param url
+	 *            the raw content of the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeString(char quote, String url) throws IOException {
+		String trimmed = url.trim();
+		String replacement = trimmed.length() > 0 && stringClosed ? handler.rewrite(unescape(trimmed)) : null;
+		writer.write(quote);
+		writer.write(replacement != null ? escape(replacement, quote) : url);
+		if (stringClosed)
+			writer.write(quote);
+	}
+
+	/**
+	 * Copies whitespace.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void copyWhitespace() throws IOException {
+		int c;
+		while ((c = peek(0)) != -1 && Character.isWhitespace(c)) {
+			writer.write(c);
+			position++;
+		}
+	}
+
+	/**
+	 * Checks if the next characters match a keyword, ignoring case.
+	 *
+	 * @param keyword
+	 *            the lower case keyword
+	 * @return true, if the keyword follows
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean lookingAt(String keyword) throws IOException {
+		for (int i = 0; i < keyword.length(); i++) {
+			int c = peek(i);
+			if (c == -1 || Character.toLowerCase((char) c) != keyword.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next character.
+	 *
+	 * @return the character or <code>-1</code> at the end of the stylesheet
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private int read() throws IOException {
+		if (position >= limit && !fill(1))
+			return -1;
+		return buffer[position++];
+	}
+
+	/**
+	 * Peeks at a character ahead of the current position without consuming it.
+	 *
+	 * @param offset
+	 *            the offset from the current position
+	 * @return the character or <code>-1</code> if the stylesheet ends before
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private int peek(int offset) throws IOException {
+		if (position + offset >= limit && !fill(offset + 1))
+			return -1;
+		return buffer[position + offset];
+	}
+
+	/**
+	 * Fills the buffer until at least a number of characters are available.
+	 *
+	 * @param count
+	 *            the number of characters that are needed
+	 * @return true, if the characters are available
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean fill(int count) throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while (limit < count) {
+			int read = reader.read(buffer, limit, buffer.length - limit);
+			if (read == -1)
+				return false;
+			limit += read;
+		}
+		return true;
+	}
+
+	private static boolean isNameChar(int c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_' || c > 127;
+	}
+
+	private static boolean needsQuotes(String url) {
+		for (int i = 0; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == '\'' || c == '\\')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Decodes the escapes of a URL or string: a backslash followed by up to six hex digits and an optional whitespace is the code point,
+	 * an escaped line break continues the line and any other escaped character stands for itself.
+	 *
+	 * @param value
+	 *            the raw value
+	 * @return the decoded value
+	 */
+	static String unescape(String value) {
+		int backslash = value.indexOf('\\');
+		if (backslash < 0)
+			return value;
+
+		StringBuilder decoded = new StringBuilder(value.length());
+		decoded.append(value, 0, backslash);
+		int i = backslash;
+		while (i < value.length()) {
+			char c = value.charAt(i++);
+			if (c != '\\' || i == value.length()) {
+				decoded.append(c);
+				continue;
+			}
+
+			c = value.charAt(i);
+			int digits = 0;
+			while (digits < MAX_HEX_DIGITS && i + digits < value.length() && Character.digit(value.charAt(i + digits), 16) >= 0)
+				digits++;
+			if (digits > 0) {
+				int codePoint = Integer.parseInt(value.substring(i, i + digits), 16);
+				i += digits;
+				if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT || codePoint >= Character.MIN_SURROGATE
+						&& codePoint <= Character.MAX_SURROGATE)
+					codePoint = REPLACEMENT_CHARACTER;
+				decoded.appendCodePoint(codePoint);
+				// a single whitespace ends the escape, CRLF counts as one
+				if (i < value.length() && value.charAt(i) == '\r' && i + 1 < value.length() && value.charAt(i + 1) == '\n')
+					i += 2;
+				else if (i < value.length() && Character.isWhitespace(value.charAt(i)))
+					i++;
+			} else if (c == '\r' && i + 1 < value.length() && value.charAt(i + 1) == '\n')
+				i += 2;
+			else if (c == '\n' || c == '\r' || c == '\f')
+				i++;
+			else {
+				decoded.append(c);
+				i++;
+			}
+		}
+		return decoded.toString();
+	}
+
+	private static String escape(String url, char quote) {
+		return url.replace("\\", "\\\\").replace(String.valueOf(quote), "\\" + quote);
+	}
+}
@@ -0,0 +1,371 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.kuesters.mobile.crawler.AppCrawlerUtil.AssetType;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Keeps every unique asset body of a crawl only once in the ZIP file.
+ * <p>
+ * The same bytes are often served under several URLs, e.g. with cache-busting query strings, from mirrored paths or as identical images
+ * with different names. The first asset with a body is stored under its own path, every later asset with the same content hash is a
+ * duplicate of that path.
+ * </p>
+ * <p>
+ * A duplicate can only be left out of the ZIP file if every reference to it is rewritten to the stored copy, which the crawler only does
+ * for HTML documents and stylesheets. Duplicates are therefore kept until the end of the crawl and only dropped if nothing refers to them
+ * by name: files with fixed names like <code>/icon.png</code>, seeds and files whose name is mentioned in scripts, inline scripts, web
+ * app manifests or other text that isn't rewritten are pinned and stored under their own path.
+ * </p>
+ * <p>
+ * The references of HTML documents and stylesheets are rewritten before the files they refer to are fetched, so it isn't known yet which
+ * of them will be duplicates. The documents are therefore deferred until the duplicates are resolved, then the references to dropped
+ * duplicates are pointed at the stored copies. Documents are never duplicates themselves, because a relative reference only means the
+ * same file in the same directory.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class Deduplicator {
+
+	/** The pattern of the words of text that isn't rewritten, which include the file names it mentions. */
+	private static final Pattern NAME_PATTERN = Pattern.compile("[\\w~%+.-]+");
+
+	/** The pattern of the parts of an HTML document that are scripts: <code>script</code> elements, event handlers and script URLs. */
+	private static final Pattern INLINE_SCRIPT_PATTERN = Pattern.compile(
+			"<script\\b[^>]*>(.*?)</script\\s*>|\\son\\w+\\s*=\\s*(\"[^\"]*\"|'[^']*')|javascript:[^\"'>]*", Pattern.CASE_INSENSITIVE
+					| Pattern.DOTALL);
+
+	/** The stored paths by content hash. */
+	private final Map<String, String> storedPaths = new HashMap<String, String>();
+
+	/** The stored paths by the paths of the dropped duplicates, in the order they were dropped. */
+	private final Map<String, String> duplicates = new LinkedHashMap<String, String>();
+
+	/** The paths that have to be stored under their own name, because something refers to them that isn't rewritten. */
+	private final Set<String> pinnedPaths = new HashSet<String>();
+
+	/** The words of the text that isn't rewritten. */
+	private final Set<String> mentionedNames = new HashSet<String>();
+
+	/** The duplicates that are resolved at the end of the crawl. */
+	private final List<Duplicate> pendingDuplicates = new ArrayList<Duplicate>();
+
+	/** The documents that are packaged at the end of the crawl. */
+	private final List<Document> documents = new ArrayList<Document>();
+
+	/** The compressed bytes that weren't added to the ZIP file. */
+	private long savedBytes;
+
+	/**
+	 * Claims the content of an entry for its path.
+	 *
+	 * @param path
+	 *            the path of the entry
+	 * @param contentHash
+	 *            the hex encoded hash of the uncompressed content
+	 * @return the path the content is stored under, the path itself if the entry has to be added to the ZIP file
+	 */
+	synchronized String claim(String path, String contentHash) {
+		String storedPath = storedPaths.get(contentHash);
+		if (storedPath == null) {
+			storedPaths.put(contentHash, path);
+			return path;
+		}
+		return storedPath;
+	}
+
+	/**
+	 * Pins a path, so an entry with that path is stored under it even if it is a duplicate.
+	 *
+	 * @param path
+	 *            the absolute path in the resulting ZIP file
+	 */
+	synchronized void pin(String path) {
+		pinnedPaths.add(path);
+	}
+
+	/**
+	 * Remembers the file names mentioned in text whose references aren't rewritten, like a script or a web app manifest.
+	 *
+	 * @param text
+	 *            the text
+	 */
+	void mention(CharSequence text) {
+		Set<String> names = new HashSet<String>();
+		Matcher matcher = NAME_PATTERN.matcher(text);
+		while (matcher.find()) {
+			names.add(matcher.group());
+			// a name at the end of a sentence
+			names.add(StringUtils.strip(matcher.group(), "."));
+		}
+		synchronized (this) {
+			mentionedNames.addAll(names);
+		}
+	}
+
+	/**
+	 * Remembers the file names mentioned in the scripts of an HTML document, which aren't rewritten like its attributes.
+	 *
+	 * @param html
+	 *            the document
+	 */
+	void mentionScripts(CharSequence html) {
+		Matcher matcher = INLINE_SCRIPT_PATTERN.matcher(html);
+		while (matcher.find())
+			mention(matcher.group());
+	}
+
+	/**
+	 * Keeps a duplicate until the end of the crawl, when it is known if something refers to it by name.
+	 *
+	 * @param duplicate
+	 *            the duplicate
+	 */
+	synchronized void hold(Duplicate duplicate) {
+		pendingDuplicates.add(duplicate);
+	}
+
+	/**
+	 * Takes the duplicates that were held.
+	 *
+	 * @return the duplicates held since the last call
+	 */
+	synchronized List<Duplicate> takeDuplicates() {
+		List<Duplicate> taken = new ArrayList<Duplicate>(pendingDuplicates);
+		pendingDuplicates.clear();
+		return taken;
+	}
+
+	/**
+	 * Checks if a duplicate has to be stored under its own path, because it is pinned or its file name is mentioned in text that isn't
+	 * rewritten. Must not be called before all assets are packaged.
+	 *
+	 * @param duplicate
+	 *            the duplicate
+	 * @return true if the duplicate has to be stored
+	 */
+	synchronized boolean isReferredToByName(Duplicate duplicate) {
+		if (pinnedPaths.contains(duplicate.path))
+			return true;
+		String fileName = getFileName(duplicate.url);
+		return !fileName.isEmpty() && (mentionedNames.contains(fileName) || mentionedNames.contains(decode(fileName)));
+	}
+
+	/**
+	 * Drops a duplicate, so the references of the documents are pointed at its stored copy.
+	 *
+	 * @param duplicate
+	 *            the duplicate
+	 */
+	synchronized void drop(Duplicate duplicate) {
+		duplicates.put(duplicate.path, duplicate.storedPath);
+		savedBytes += duplicate.compressedSize;
+	}
+
+	/**
+	 * Gets the path the content of a dropped duplicate is stored under.
+	 *
+	 * @param path
+	 *            the path of the entry
+	 * @return the stored path or <code>null</code> if the entry isn't a dropped duplicate
+	 */
+	synchronized String getStoredPath(String path) {
+		return duplicates.get(path);
+	}
+
+	/**
+	 * Gets the duplicates dropped so far.
+	 *
+	 * @return a copy of the stored paths by the paths of their duplicates
+	 */
+	synchronized Map<String, String> getDuplicates() {
+		return new LinkedHashMap<String, String>(duplicates);
+	}
+
+	/**
+	 * Gets the compressed bytes that weren't added to the ZIP file, not counting the local headers of the entries.
+	 *
+	 * @return the number of bytes
+	 */
+	synchronized long getSavedBytes() {
+		return savedBytes;
+	}
+
+	/**
+	 * Defers the packaging of a document until all other assets are packaged.
+	 *
+	 * @param document
+	 *            the document
+	 */
+	synchronized void defer(Document document) {
+		documents.add(document);
+	}
+
+	/**
+	 * Takes the deferred documents.
+	 *
+	 * @return the documents deferred since the last call
+	 */
+	synchronized List<Document> takeDocuments() {
+		List<Document> taken = new ArrayList<Document>(documents);
+		documents.clear();
+		return taken;
+	}
+
+	/**
+	 * Releases the content of the duplicates and documents that weren't packaged.
+	 */
+	synchronized void release() {
+		for (Duplicate duplicate : pendingDuplicates)
+			duplicate.content.release();
+		pendingDuplicates.clear();
+		for (Document document : documents)
+			document.content.release();
+		documents.clear();
+	}
+
+	/**
+	 * Gets the file name of a URL, which is how scripts usually refer to a file.
+	 *
+	 * @param url
+	 *            the URL
+	 * @return the last segment of the path or an empty string if the path ends with a slash
+	 */
+	private static String getFileName(String url) {
+		int end = url.length();
+		int query = url.indexOf('?');
+		if (query >= 0)
+			end = query;
+		int fragment = url.indexOf('#');
+		if (fragment >= 0 && fragment < end)
+			end = fragment;
+		return url.substring(url.lastIndexOf('/', end - 1) + 1, end);
+	}
+
+	/**
+	 * Decodes the percent encoded characters of a file name.
+	 *
+	 * @param fileName
+	 *            the file name
+	 * @return the decoded file name or the file name itself if it can't be decoded
+	 */
+	private static String decode(String fileName) {
+		try {
+			return URLDecoder.decode(fileName.replace("+", "%2B"), "UTF-8");
+		} catch (IllegalArgumentException e) {
+			return fileName;
+		} catch (UnsupportedEncodingException e) {
+			// every Java platform has to support UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A duplicate that waits for the end of the crawl.
+	 */
+	static final class Duplicate {
+
+		/** The normalized URL. */
+		final String url;
+
+		/** The absolute path in the resulting ZIP file. */
+		final String path;
+
+		/** The path the content is stored under. */
+		final String storedPath;
+
+		/** The type of the asset. */
+		final AssetType assetType;
+
+		/** The hex encoded hash of the content. */
+		final String contentHash;
+
+		/** The size of the compressed content, which is saved if the duplicate is dropped. */
+		final long compressedSize;
+
+		/** The <code>ETag</code> of the response or <code>null</code>. */
+		final String eTag;
+
+		/** The <code>Last-Modified</code> date of the response or <code>null</code>. */
+		final String lastModified;
+
+		/** The closed buffer with the content. */
+		final AssetBuffer content;
+
+		/** The metrics of the asset, which are reported when the duplicate is resolved. */
+		final AssetMetrics metrics;
+
+		Duplicate(String url, String path, String storedPath, AssetType assetType, String contentHash, long compressedSize, String eTag,
+				String lastModified, AssetBuffer content, AssetMetrics metrics) {
+			this.url = url;
+			this.path = path;
+			this.storedPath = storedPath;
+			this.assetType = assetType;
+			this.contentHash = contentHash;
+			this.compressedSize = compressedSize;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.content = content;
+			this.metrics = metrics;
+		}
+	}
+
+	/**
+	 * An HTML document or stylesheet with rewritten references that waits to be packaged.
+	 */
+	static final class Document {
+
+		/** The normalized URL. */
+		final String url;
+
+		/** The absolute path in the resulting ZIP file. */
+		final String path;
+
+		/** The type, {@link AssetType#HTML} or {@link AssetType#STYLESHEET}. */
+		final AssetType assetType;
+
+		/** The charset of the content. */
+		final String charsetName;
+
+		/** The <code>ETag</code> of the response or <code>null</code>. */
+		final String eTag;
+
+		/** The <code>Last-Modified</code> date of the response or <code>null</code>. */
+		final String lastModified;
+
+		/** The URLs the document refers to. */
+		final List<String> references;
+
+		/** The closed buffer with the rewritten content. */
+		final AssetBuffer content;
+
+		/** The metrics of the document, which are reported when it is packaged. */
+		final AssetMetrics metrics;
+
+		Document(String url, String path, AssetType assetType, String charsetName, String eTag, String lastModified, List<String> references,
+				AssetBuffer content, AssetMetrics metrics) {
+			this.url = url;
+			this.path = path;
+			this.assetType = assetType;
+			this.charsetName = charsetName;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.references = references;
+			this.content = content;
+			this.metrics = metrics;
+		}
+	}
+}
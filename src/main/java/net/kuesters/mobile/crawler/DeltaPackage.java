@@ -0,0 +1,433 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The difference between two packages of the same app, which turns the older package into the newer one.
+ * <p>
+ * An update of an app usually changes only a few of its files, but without a delta the whole package has to be transferred again. A
+ * delta compares the packages entry by entry using the SHA-256 hashes of their content and only contains the entries that were added or
+ * changed. Entries that are unchanged or removed are only listed. {@link #apply(Path, Path)} copies the unchanged entries from the older
+ * package and the others from the delta, in the order of the newer package, so the result has the same entries as the newer package.
+ * </p>
+ * <p>
+ * A delta is a ZIP file itself. Its first entry is a UTF-8 text file with one tab separated line per entry, like the {@link CrawlManifest}.
+ * The added and changed entries follow under the number of their line, so they can't collide with the index. Entries are copied as they
+ * are compressed in both directions, nothing is deflated again. The hashes of all entries are checked when a delta is applied, so a delta
+ * can't be applied to a package it wasn't made for.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class DeltaPackage {
+
+	/** The first line of every delta index. */
+	private static final String HEADER = "# AppCrawler delta 1";
+
+	/** The name of the index entry. */
+	private static final String INDEX_NAME = "delta.index";
+
+	/** The prefix of the names of the added and changed entries. */
+	private static final String ENTRY_PREFIX = "entries/";
+
+	/** The charset of the index. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The size of the buffer to hash entries. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The change of a single entry.
+	 */
+	public enum Change {
+
+		/** The entry is the same in both packages. */
+		UNCHANGED("="),
+
+		/** The entry is only in the newer package. */
+		ADDED("+"),
+
+		/** The entry is in both packages with different content. */
+		CHANGED("*"),
+
+		/** The entry is only in the older package. */
+		REMOVED("-");
+
+		/** The symbol of the change in the index. */
+		private final String symbol;
+
+		private Change(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * Gets the change of an index symbol.
+		 *
+		 * @param symbol
+		 *            the symbol
+		 * @return the change or <code>null</code> if the symbol is unknown
+		 */
+		static Change of(String symbol) {
+			for (Change change : values())
+				if (change.symbol.equals(symbol))
+					return change;
+			return null;
+		}
+	}
+
+	/** The delta file. */
+	private final Path path;
+
+	/** The changes by path, unchanged, added and changed entries in the order of the newer package, followed by the removed ones. */
+	private final Map<String, Change> changes;
+
+	/** The content hashes by path, of the newer package or, for removed entries, of the older one. */
+	private final Map<String, String> contentHashes;
+
+	private DeltaPackage(Path path, Map<String, Change> changes, Map<String, String> contentHashes) {
+		this.path = path;
+		this.changes = Collections.unmodifiableMap(changes);
+		this.contentHashes = contentHashes;
+	}
+
+	/**
+	 * Gets the path of the delta that belongs to a ZIP file.
+	 *
+	 * @param zipFile
+	 *            the path of the ZIP file
+	 * @return the path of the delta, which turns the previous package into the ZIP file
+	 */
+	public static Path getDeltaPath(Path zipFile) {
+		return zipFile.resolveSibling(zipFile.getFileName() + ".delta");
+	}
+
+	/**
+	 * Creates the delta between two packages.
+	 *
+	 * @param oldPackage
+	 *            the path of the older package
+	 * @param newPackage
+	 *            the path of the newer package
+	 * @param path
+	 *            the path the delta is written to, an existing file is replaced
+	 * @return the delta
+	 * @throws IOException
+	 *             Signals that a package couldn't be read or the delta couldn't be written.
+	 */
+	public static DeltaPackage create(Path oldPackage, Path newPackage, Path path) throws IOException {
+		ZipFile oldZipFile = new ZipFile(oldPackage.toFile());
+		try {
+			ZipFile newZipFile = new ZipFile(newPackage.toFile());
+			try {
+				return create(oldZipFile, newZipFile, path);
+			} finally {
+				newZipFile.close();
+			}
+		} finally {
+			oldZipFile.close();
+		}
+	}
+
+	private static DeltaPackage create(ZipFile oldZipFile, ZipFile newZipFile, Path path) throws IOException {
+		Map<String, String> oldHashes = hashEntries(oldZipFile);
+		Map<String, String> newHashes = hashEntries(newZipFile);
+
+		Map<String, Change> changes = new LinkedHashMap<String, Change>();
+		Map<String, String> contentHashes = new LinkedHashMap<String, String>(newHashes);
+		for (Map.Entry<String, String> entry : newHashes.entrySet()) {
+			String oldHash = oldHashes.get(entry.getKey());
+			if (oldHash == null)
+				changes.put(entry.getKey(), Change.ADDED);
+			else
+				changes.put(entry.getKey(), oldHash.equals(entry.getValue()) ? Change.UNCHANGED : Change.CHANGED);
+		}
+		for (Map.Entry<String, String> entry : oldHashes.entrySet()) {
+			if (!newHashes.containsKey(entry.getKey())) {
+				changes.put(entry.getKey(), Change.REMOVED);
+				contentHashes.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		DeltaPackage delta = new DeltaPackage(path, changes, contentHashes);
+		ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(path.toFile());
+		try {
+			zipOutputStream.putArchiveEntry(new ZipArchiveEntry(INDEX_NAME));
+			zipOutputStream.write(delta.formatIndex().getBytes(UTF_8));
+			zipOutputStream.closeArchiveEntry();
+
+			int line = 0;
+			for (Map.Entry<String, Change> change : changes.entrySet()) {
+				line++;
+				if (change.getValue() == Change.ADDED || change.getValue() == Change.CHANGED)
+					copyRawEntry(newZipFile, newZipFile.getEntry(change.getKey()), ENTRY_PREFIX + line, zipOutputStream);
+			}
+		} finally {
+			zipOutputStream.close();
+		}
+		return delta;
+	}
+
+	/**
+	 * Loads a delta from a file.
+	 *
+	 * @param path
+	 *            the path of the delta
+	 * @return the delta
+	 * @throws IOException
+	 *             Signals that the file couldn't be read or isn't a delta.
+	 */
+	public static DeltaPackage load(Path path) throws IOException {
+		Map<String, Change> changes = new LinkedHashMap<String, Change>();
+		Map<String, String> contentHashes = new LinkedHashMap<String, String>();
+		ZipFile zipFile = new ZipFile(path.toFile());
+		try {
+			ZipArchiveEntry index = zipFile.getEntry(INDEX_NAME);
+			if (index == null)
+				throw new IOException(path + " is not an AppCrawler delta");
+			BufferedReader reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(index), UTF_8));
+			try {
+				if (!HEADER.equals(reader.readLine()))
+					throw new IOException(path + " is not an AppCrawler delta");
+
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (StringUtils.isBlank(line))
+						continue;
+					String[] fields = line.split("\t", -1);
+					Change change = fields.length == 3 ? Change.of(fields[0]) : null;
+					if (change == null || changes.containsKey(fields[1]))
+						throw new IOException("Invalid delta line: " + line);
+					changes.put(fields[1], change);
+					contentHashes.put(fields[1], fields[2]);
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			zipFile.close();
+		}
+		return new DeltaPackage(path, changes, contentHashes);
+	}
+
+	/**
+	 * Applies the delta to the package it was created from.
+	 *
+	 * @param oldPackage
+	 *            the path of the older package
+	 * @param newPackage
+	 *            the path the newer package is written to, an existing file is replaced
+	 * @throws IOException
+	 *             Signals that the older package doesn't match the delta or a file couldn't be read or written. Nothing is left at the
+	 *             path of the newer package then.
+	 */
+	public void apply(Path oldPackage, Path newPackage) throws IOException {
+		boolean successful = false;
+		ZipFile oldZipFile = new ZipFile(oldPackage.toFile());
+		try {
+			ZipFile deltaZipFile = new ZipFile(path.toFile());
+			try {
+				checkOldPackage(oldZipFile, oldPackage);
+				ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(newPackage.toFile());
+				try {
+					int line = 0;
+					for (Map.Entry<String, Change> change : changes.entrySet()) {
+						line++;
+						String entryPath = change.getKey();
+						if (change.getValue() == Change.UNCHANGED) {
+							copyRawEntry(oldZipFile, oldZipFile.getEntry(entryPath), entryPath, zipOutputStream);
+						} else if (change.getValue() != Change.REMOVED) {
+							ZipArchiveEntry entry = deltaZipFile.getEntry(ENTRY_PREFIX + line);
+							if (entry == null || !contentHashes.get(entryPath).equals(hashEntry(deltaZipFile, entry)))
+								throw new IOException(path + " is missing or has a damaged entry for " + entryPath);
+							copyRawEntry(deltaZipFile, entry, entryPath, zipOutputStream);
+						}
+					}
+				} finally {
+					zipOutputStream.close();
+				}
+				successful = true;
+			} finally {
+				deltaZipFile.close();
+			}
+		} finally {
+			oldZipFile.close();
+			if (!successful)
+				Files.deleteIfExists(newPackage);
+		}
+	}
+
+	/**
+	 * Checks that the older package is the one the delta was created from: every entry is listed as unchanged, changed or removed and
+	 * the unchanged entries have the same content.
+	 *
+	 * @param oldZipFile
+	 *            the older package
+	 * @param oldPackage
+	 *            the path of the older package
+	 * @throws IOException
+	 *             Signals that the package doesn't match or couldn't be read.
+	 */
+	private void checkOldPackage(ZipFile oldZipFile, Path oldPackage) throws IOException {
+		Set<String> expected = new HashSet<String>();
+		for (Map.Entry<String, Change> change : changes.entrySet())
+			if (change.getValue() != Change.ADDED)
+				expected.add(change.getKey());
+
+		for (ZipArchiveEntry entry : Collections.list(oldZipFile.getEntries())) {
+			if (entry.isDirectory())
+				continue;
+			if (!expected.remove(entry.getName()))
+				throw new IOException(oldPackage + " has entry " + entry.getName() + ", which " + path + " doesn't know");
+			if (changes.get(entry.getName()) == Change.UNCHANGED && !contentHashes.get(entry.getName()).equals(hashEntry(oldZipFile, entry)))
+				throw new IOException("Entry " + entry.getName() + " of " + oldPackage + " differs from the one " + path + " was created from");
+		}
+		if (!expected.isEmpty())
+			throw new IOException(oldPackage + " is missing " + expected.size() + " entry/ies " + path + " was created from");
+	}
+
+	/**
+	 * Gets the path of the delta file.
+	 *
+	 * @return the path
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the changes of all entries.
+	 *
+	 * @return the changes by path, unchanged, added and changed entries in the order of the newer package, followed by the removed ones
+	 */
+	public Map<String, Change> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Gets the paths of the entries with a change.
+	 *
+	 * @param change
+	 *            the change
+	 * @return the paths in the order of the index
+	 */
+	public List<String> getPaths(Change change) {
+		List<String> paths = new ArrayList<String>();
+		for (Map.Entry<String, Change> entry : changes.entrySet())
+			if (entry.getValue() == change)
+				paths.add(entry.getKey());
+		return paths;
+	}
+
+	/**
+	 * Checks if the packages have the same entries.
+	 *
+	 * @return true if no entry was added, changed or removed
+	 */
+	public boolean isEmpty() {
+		return !changes.containsValue(Change.ADDED) && !changes.containsValue(Change.CHANGED) && !changes.containsValue(Change.REMOVED);
+	}
+
+	/**
+	 * Formats the index of the delta.
+	 *
+	 * @return the index
+	 */
+	private String formatIndex() {
+		StringBuilder index = new StringBuilder(HEADER).append('\n');
+		for (Map.Entry<String, Change> change : changes.entrySet())
+			index.append(change.getValue().symbol).append('\t').append(change.getKey()).append('\t').append(contentHashes.get(change.getKey()))
+					.append('\n');
+		return index.toString();
+	}
+
+	/**
+	 * Hashes the content of the file entries of a ZIP file.
+	 *
+	 * @param zipFile
+	 *            the ZIP file
+	 * @return the hex encoded hashes by path in the order of the central directory
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static Map<String, String> hashEntries(ZipFile zipFile) throws IOException {
+		Map<String, String> hashes = new LinkedHashMap<String, String>();
+		for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries()))
+			if (!entry.isDirectory())
+				hashes.put(entry.getName(), hashEntry(zipFile, entry));
+		return hashes;
+	}
+
+	/**
+	 * Hashes the uncompressed content of a ZIP entry like {@link CompressedZipEntry} does.
+	 *
+	 * @param zipFile
+	 *            the ZIP file
+	 * @param entry
+	 *            the entry
+	 * @return the hex encoded hash
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static String hashEntry(ZipFile zipFile, ZipArchiveEntry entry) throws IOException {
+		MessageDigest digest = AppCrawlerUtil.newContentDigest();
+		InputStream inputStream = zipFile.getInputStream(entry);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = inputStream.read(buffer)) >= 0)
+				digest.update(buffer, 0, length);
+		} finally {
+			inputStream.close();
+		}
+		return AppCrawlerUtil.toHexString(digest.digest());
+	}
+
+	/**
+	 * Copies a ZIP entry to another ZIP file without compressing it again.
+	 *
+	 * @param zipFile
+	 *            the ZIP file of the entry
+	 * @param entry
+	 *            the entry
+	 * @param name
+	 *            the name of the copy
+	 * @param zipOutputStream
+	 *            the ZIP file the copy is added to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void copyRawEntry(ZipFile zipFile, ZipArchiveEntry entry, String name, ZipArchiveOutputStream zipOutputStream)
+			throws IOException {
+		ZipArchiveEntry copy = new ZipArchiveEntry(name);
+		copy.setMethod(entry.getMethod());
+		copy.setTime(entry.getTime());
+		copy.setCrc(entry.getCrc());
+		copy.setSize(entry.getSize());
+		copy.setCompressedSize(entry.getCompressedSize());
+		InputStream rawInputStream = zipFile.getRawInputStream(entry);
+		try {
+			zipOutputStream.addRawArchiveEntry(copy, rawInputStream);
+		} finally {
+			rawInputStream.close();
+		}
+	}
+}
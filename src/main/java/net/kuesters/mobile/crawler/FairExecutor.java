@@ -0,0 +1,159 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A fixed number of worker threads shared by several lanes, e.g. one lane per crawled app. The workers take one task from each lane with
+ * queued tasks in turn, so an app with thousands of assets can't starve an app with a few, and the total number of running tasks never
+ * exceeds the number of workers.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class FairExecutor {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(FairExecutor.class);
+
+	/** The lanes with queued tasks in the order they are served. */
+	private final Queue<Lane> readyLanes = new ArrayDeque<Lane>();
+
+	/** The worker threads. */
+	private final List<Thread> workers = new ArrayList<Thread>();
+
+	/** True after {@link #shutdown()} was called. */
+	private boolean shutdown;
+
+	/**
+	 * Instantiates a new fair executor and starts its workers.
+	 *
+	 * @param threads
+	 *            the number of worker threads
+	 * @param name
+	 *            the prefix of the thread names
+	 */
+	FairExecutor(int threads, String name) {
+		if (threads < 1)
+			throw new IllegalArgumentException("The number of threads must be at least 1: " + threads);
+
+		for (int i = 1; i <= threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, name + "-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+		}
+		for (Thread worker : workers)
+			worker.start();
+	}
+
+	/**
+	 * Creates a new lane.
+	 *
+	 * @return the lane
+	 */
+	Lane newLane() {
+		return new Lane();
+	}
+
+	/**
+	 * Stops the workers after their current task. Queued tasks are dropped.
+	 *
+	 * @return the dropped tasks
+	 */
+	synchronized List<Runnable> shutdown() {
+		shutdown = true;
+		List<Runnable> dropped = new ArrayList<Runnable>();
+		for (Lane lane : readyLanes) {
+			dropped.addAll(lane.tasks);
+			lane.tasks.clear();
+		}
+		readyLanes.clear();
+		notifyAll();
+		return dropped;
+	}
+
+	/**
+	 * The loop of a worker thread.
+	 */
+	private void work() {
+		while (true) {
+			Runnable task;
+			synchronized (this) {
+				while (!shutdown && readyLanes.isEmpty()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (shutdown)
+					return;
+
+				Lane lane = readyLanes.poll();
+				task = lane.tasks.poll();
+				if (!lane.tasks.isEmpty())
+					readyLanes.add(lane);
+			}
+
+			try {
+				task.run();
+			} catch (Throwable e) {
+				// nothing replaces a worker, so an error of a single task must not end it
+				LOG.error("Task failed", e);
+			}
+		}
+	}
+
+	/**
+	 * The executor of one participant. Tasks of a lane run in the order they were submitted.
+	 */
+	final class Lane implements Executor {
+
+		/** The queued tasks, guarded by the fair executor. */
+		private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+		/** True after {@link #close()} was called, guarded by the fair executor. */
+		private boolean closed;
+
+		private Lane() {
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			synchronized (FairExecutor.this) {
+				if (closed || shutdown)
+					throw new RejectedExecutionException("The lane is closed");
+				if (tasks.isEmpty())
+					readyLanes.add(this);
+				tasks.add(task);
+				FairExecutor.this.notify();
+			}
+		}
+
+		/**
+		 * Closes the lane. Queued tasks are dropped and new ones are rejected.
+		 *
+		 * @return the dropped tasks
+		 */
+		List<Runnable> close() {
+			synchronized (FairExecutor.this) {
+				closed = true;
+				List<Runnable> dropped = new ArrayList<Runnable>(tasks);
+				tasks.clear();
+				readyLanes.remove(this);
+				return dropped;
+			}
+		}
+	}
+}
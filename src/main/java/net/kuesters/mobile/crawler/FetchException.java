@@ -0,0 +1,61 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Signals that a server answered a request with an error status.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class FetchException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The status code of <code>Too Many Requests</code>, which {@link java.net.HttpURLConnection} has no constant for. */
+	public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	/** The HTTP status code. */
+	private final int statusCode;
+
+	/** The delay the server asked for before the next request in milliseconds or <code>-1</code>. */
+	private final long retryAfter;
+
+	/**
+	 * Instantiates a new fetch exception.
+	 *
+	 * @param url
+	 *            the URL of the request
+	 * @param statusCode
+	 *            the HTTP status code
+	 * @param retryAfter
+	 *            the delay of the <code>Retry-After</code> header in milliseconds or <code>-1</code>
+	 */
+	public FetchException(String url, int statusCode, long retryAfter) {
+		super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+		this.statusCode = statusCode;
+		this.retryAfter = retryAfter;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Gets the delay the server asked for with the <code>Retry-After</code> header.
+	 *
+	 * @return the delay in milliseconds or <code>-1</code> if the server didn't send one
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Checks if the server refused the request because it is overloaded or rate limited, so it makes sense to retry it later.
+	 *
+	 * @return true, if the status is <code>429 Too Many Requests</code> or <code>503 Service Unavailable</code>
+	 */
+	public boolean isThrottled() {
+		return statusCode == HTTP_TOO_MANY_REQUESTS || statusCode == HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+}
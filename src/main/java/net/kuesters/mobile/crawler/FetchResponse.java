@@ -0,0 +1,234 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The response to a request for an asset, no matter if it was answered by the network, by a cache or by any other {@link Fetcher}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class FetchResponse implements Closeable {
+
+	/** The URL the response was finally loaded from, after redirects. */
+	private final String url;
+
+	/** The HTTP status code. */
+	private final int statusCode;
+
+	/** The response headers by their case insensitive names. */
+	private final Map<String, String> headers;
+
+	/** The response body. */
+	private final InputStream inputStream;
+
+	/** The time of the DNS lookup in nanoseconds or <code>-1</code>. */
+	private long dnsTime = -1;
+
+	/** The time of opening the connection in nanoseconds or <code>-1</code>. */
+	private long connectTime = -1;
+
+	/** The time until the response headers were received in nanoseconds or <code>-1</code>. */
+	private long firstByteTime = -1;
+
+	/**
+	 * Instantiates a new fetch response.
+	 *
+	 * @param url
+	 *            the URL the response was finally loaded from
+	 * @param statusCode
+	 *            the HTTP status code
+	 * @param headers
+	 *            the response headers, only the last value of repeated headers is kept
+	 * @param inputStream
+	 *            the response body, an empty stream if there is none
+	 */
+	public FetchResponse(String url, int statusCode, Map<String, String> headers, InputStream inputStream) {
+		this.url = url;
+		this.statusCode = statusCode;
+		Map<String, String> caseInsensitiveHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		caseInsensitiveHeaders.putAll(headers);
+		this.headers = Collections.unmodifiableMap(caseInsensitiveHeaders);
+		this.inputStream = inputStream;
+	}
+
+	/**
+	 * Instantiates a new successful fetch response with the headers a crawl depends on.
+	 *
+	 * @param url
+	 *            the URL the response was finally loaded from
+	 * @param contentType
+	 *            the content type or <code>null</code>
+	 * @param eTag
+	 *            the <code>ETag</code> or <code>null</code>
+	 * @param lastModified
+	 *            the <code>Last-Modified</code> date or <code>null</code>
+	 * @param inputStream
+	 *            the response body
+	 */
+	FetchResponse(String url, String contentType, String eTag, String lastModified, InputStream inputStream) {
+		this(url, HttpURLConnection.HTTP_OK, toHeaders(contentType, eTag, lastModified), inputStream);
+	}
+
+	private static Map<String, String> toHeaders(String contentType, String eTag, String lastModified) {
+		Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		if (contentType != null)
+			headers.put("Content-Type", contentType);
+		if (eTag != null)
+			headers.put("ETag", eTag);
+		if (lastModified != null)
+			headers.put("Last-Modified", lastModified);
+		return headers;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Gets the path of the URL the response was finally loaded from.
+	 *
+	 * @return the path
+	 * @throws MalformedURLException
+	 *             the malformed URL exception
+	 */
+	public String getPath() throws MalformedURLException {
+		return new URL(url).getPath();
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Checks if the server confirmed the validators of a conditional request.
+	 *
+	 * @return true, if the status is <code>304 Not Modified</code>
+	 */
+	public boolean isNotModified() {
+		return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+	}
+
+	/**
+	 * Gets the value of a response header.
+	 *
+	 * @param name
+	 *            the case insensitive name of the header
+	 * @return the value or <code>null</code> if the header is missing
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * Gets the value of a response header that contains an HTTP date.
+	 *
+	 * @param name
+	 *            the case insensitive name of the header
+	 * @return the date in milliseconds since the epoch or <code>-1</code> if the header is missing or invalid
+	 */
+	public long getDateHeader(String name) {
+		return AppCrawlerUtil.parseHttpDate(getHeader(name));
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Gets the value of the <code>Content-Length</code> header.
+	 *
+	 * @return the length or <code>-1</code> if it isn't known
+	 */
+	public long getContentLength() {
+		String contentLength = getHeader("Content-Length");
+		try {
+			return contentLength != null ? Long.parseLong(contentLength.trim()) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public String getContentType() {
+		return getHeader("Content-Type");
+	}
+
+	/**
+	 * Gets the charset of the <code>Content-Type</code> header.
+	 *
+	 * @return the charset or <code>null</code> if the header doesn't name one
+	 */
+	public String getCharset() {
+		String contentType = getContentType();
+		if (contentType == null)
+			return null;
+
+		for (String parameter : StringUtils.split(contentType, ';')) {
+			String trimmed = parameter.trim();
+			if (StringUtils.startsWithIgnoreCase(trimmed, "charset="))
+				return StringUtils.trimToNull(StringUtils.strip(trimmed.substring("charset=".length()), "\"'"));
+		}
+		return null;
+	}
+
+	public String getETag() {
+		return getHeader("ETag");
+	}
+
+	public String getLastModified() {
+		return getHeader("Last-Modified");
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public long getDnsTime() {
+		return dnsTime;
+	}
+
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	public long getFirstByteTime() {
+		return firstByteTime;
+	}
+
+	/**
+	 * Sets the timings of the request, so they show up in the {@link AssetMetrics} of the asset. Fetchers that can't measure a phase pass
+	 * <code>-1</code> for it.
+	 *
+	 * @param dnsTime
+	 *            the time of the DNS lookup in nanoseconds
+	 * @param connectTime
+	 *            the time of opening the connection in nanoseconds
+	 * @param firstByteTime
+	 *            the time from sending the request to receiving the response headers in nanoseconds
+	 */
+	public void setTimings(long dnsTime, long connectTime, long firstByteTime) {
+		this.dnsTime = dnsTime;
+		this.connectTime = connectTime;
+		this.firstByteTime = firstByteTime;
+	}
+
+	/**
+	 * Closes the response body. Fetchers that pool connections get the connection back when the body was read completely or closed.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		inputStream.close();
+	}
+}
@@ -0,0 +1,32 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+
+/**
+ * The transport the {@link AppCrawler} loads assets with. The default is the {@link HttpFetcher}, other implementations like the
+ * {@link FileSystemFetcher} make it possible to crawl an app without a web server.
+ * <p>
+ * Implementations must be thread-safe, because a crawler fetches several assets at the same time.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public interface Fetcher {
+
+	/**
+	 * Fetches an asset. If validators of a previous response are given, the request is conditional and the response may have the status
+	 * <code>304 Not Modified</code> with an empty body.
+	 *
+	 * @param url
+	 *            the absolute URL
+	 * @param eTag
+	 *            the <code>ETag</code> of a previous response or <code>null</code>
+	 * @param lastModified
+	 *            the <code>Last-Modified</code> date of a previous response or <code>null</code>
+	 * @return the response, the caller must close it
+	 * @throws IOException
+	 *             Signals that the asset couldn't be fetched, including error statuses. A missing asset is signalled by a
+	 *             {@link java.io.FileNotFoundException}.
+	 */
+	FetchResponse fetch(String url, String eTag, String lastModified) throws IOException;
+}
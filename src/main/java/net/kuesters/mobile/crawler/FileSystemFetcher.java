@@ -0,0 +1,135 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A {@link Fetcher} that serves the URLs below a base URL from a directory, like a static web server would. It makes it possible to crawl
+ * an app without a network, e.g. from a checkout or from a ZIP file system.
+ * <p>
+ * Requests for directories are answered with their <code>index.html</code>. Every response has an <code>ETag</code> and a
+ * <code>Last-Modified</code> date derived from the file, and conditional requests are answered with <code>304 Not Modified</code>.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class FileSystemFetcher implements Fetcher {
+
+	/** The URL that corresponds to the {@link #root} directory, without a trailing slash. */
+	private final String baseUrl;
+
+	/** The directory the files are served from. */
+	private final Path root;
+
+	/**
+	 * Instantiates a new file system fetcher.
+	 *
+	 * @param baseUrl
+	 *            the URL that corresponds to the root directory
+	 * @param root
+	 *            the directory the files are served from
+	 */
+	public FileSystemFetcher(String baseUrl, Path root) {
+		this.baseUrl = StringUtils.removeEnd(baseUrl, "/");
+		this.root = root.toAbsolutePath().normalize();
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	@Override
+	public FetchResponse fetch(String url, String eTag, String lastModified) throws IOException {
+		Path file = resolve(url);
+		if (Files.isDirectory(file))
+			file = file.resolve("index.html");
+		if (!Files.isRegularFile(file))
+			throw new FileNotFoundException(url);
+
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		long size = Files.size(file);
+		String fileETag = '"' + Long.toHexString(size) + '-' + Long.toHexString(modified) + '"';
+		String fileLastModified = AppCrawlerUtil.formatHttpDate(modified);
+
+		Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		headers.put("ETag", fileETag);
+		headers.put("Last-Modified", fileLastModified);
+
+		// HTTP dates have a precision of seconds
+		long since = AppCrawlerUtil.parseHttpDate(lastModified);
+		boolean notModified = eTag != null ? eTag.equals(fileETag) : since >= 0 && modified / 1000 <= since / 1000;
+		if (notModified)
+			return new FetchResponse(url, HttpURLConnection.HTTP_NOT_MODIFIED, headers, new ByteArrayInputStream(new byte[0]));
+
+		headers.put("Content-Type", getContentType(file));
+		headers.put("Content-Length", String.valueOf(size));
+		return new FetchResponse(url, HttpURLConnection.HTTP_OK, headers, Files.newInputStream(file));
+	}
+
+	/**
+	 * Resolves the file of a URL. The query and the fragment are ignored.
+	 *
+	 * @param url
+	 *            the absolute URL
+	 * @return the path of the file, it may not exist
+	 * @throws FileNotFoundException
+	 *             Signals that the URL is not below the base URL or outside of the root directory.
+	 */
+	private Path resolve(String url) throws FileNotFoundException {
+		if (!StringUtils.startsWithIgnoreCase(url, baseUrl))
+			throw new FileNotFoundException(url);
+
+		String path;
+		try {
+			path = StringUtils.defaultString(new URI(baseUrl + "/" + url.substring(baseUrl.length())).getPath());
+		} catch (URISyntaxException e) {
+			throw new FileNotFoundException(url);
+		}
+		String basePath = StringUtils.defaultString(URI.create(baseUrl).getPath());
+		String relativePath = StringUtils.stripStart(path.substring(Math.min(path.length(), basePath.length())), "/");
+
+		Path file = root.resolve(relativePath).normalize();
+		if (!file.startsWith(root))
+			throw new FileNotFoundException(url);
+		return file;
+	}
+
+	/**
+	 * Gets the content type of a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the content type, <code>application/octet-stream</code> if it can't be determined
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static String getContentType(Path file) throws IOException {
+		String fileName = file.getFileName().toString();
+		String contentType = URLConnection.guessContentTypeFromName(fileName);
+		if (contentType == null)
+			contentType = Files.probeContentType(file);
+		if (contentType == null) {
+			String extension = StringUtils.substringAfterLast(fileName, ".").toLowerCase();
+			if ("css".equals(extension))
+				contentType = "text/css";
+			else if ("js".equals(extension))
+				contentType = "application/javascript";
+		}
+		return contentType != null ? contentType : "application/octet-stream";
+	}
+}
@@ -0,0 +1,479 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A scheduler that sits between the discovery of an asset and its fetch and keeps the crawlers polite to the hosts they load from.
+ * <p>
+ * Every host has its own queue, a limit of concurrent requests and a minimum interval between the start of two requests. A task is only
+ * handed to its executor when both allow it. The limits adapt to the host: fast responses raise the concurrency by about one per round of
+ * requests, slow responses lower it the same way, and a <code>429 Too Many Requests</code> or <code>503 Service Unavailable</code>
+ * halves it, doubles the interval and pauses the host for as long as its <code>Retry-After</code> header asks. Every successful response
+ * halves the interval again. So CDNs are crawled at full speed while small origin servers are never flooded.
+ * </p>
+ * <p>
+ * The queue of a host is ordered by the priority of the tasks, tasks with the same priority are started in the order they were submitted.
+ * A task holds a slot of its host from the moment it is handed to its executor until it has run. An executor that drops tasks without
+ * running them, e.g. by {@link java.util.concurrent.ExecutorService#shutdownNow()}, has to pass them to {@link #dropped(Collection)}.
+ * </p>
+ * <p>
+ * A scheduler is thread-safe. Crawlers that share one also share the limits, which keeps the load on a host bounded even when several apps
+ * from the same server are crawled at the same time.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class HostScheduler {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(HostScheduler.class);
+
+	/** The default upper limit of concurrent requests per host. */
+	public static final int DEFAULT_MAX_CONCURRENCY_PER_HOST = 6;
+
+	/** The default response time above which a host is considered to be under load, in milliseconds. */
+	public static final long DEFAULT_TARGET_LATENCY = 1000;
+
+	/** The concurrency a host starts with. */
+	private static final double INITIAL_CONCURRENCY = 2;
+
+	/** The interval a throttled host is at least slowed down to, in milliseconds. */
+	private static final long MIN_BACKOFF_INTERVAL = 250;
+
+	/** The upper limit of the interval between two requests to a throttled host, in milliseconds. */
+	private static final long MAX_BACKOFF_INTERVAL = 5000;
+
+	/** The upper limit of concurrent requests per host. */
+	private int maxConcurrencyPerHost = DEFAULT_MAX_CONCURRENCY_PER_HOST;
+
+	/** The minimum interval between the start of two requests to the same host in milliseconds. */
+	private long minRequestInterval;
+
+	/** The response time above which a host is considered to be under load, in milliseconds. */
+	private long targetLatency = DEFAULT_TARGET_LATENCY;
+
+	/** The state of every host the scheduler has seen. */
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+	/** The timer that dispatches the tasks of hosts that have to wait, created on first use. */
+	private ScheduledExecutorService timer;
+
+	/** The number of tasks submitted so far, which keeps the order of tasks with the same priority. */
+	private long submittedTasks;
+
+	/**
+	 * Gets the upper limit of concurrent requests per host.
+	 *
+	 * @return the limit
+	 */
+	public synchronized int getMaxConcurrencyPerHost() {
+		return maxConcurrencyPerHost;
+	}
+
+	/**
+	 * Sets the upper limit of concurrent requests per host. The adaptive limit of a host never exceeds it.
+	 *
+	 * @param maxConcurrencyPerHost
+	 *            the limit, at least 1
+	 */
+	public synchronized void setMaxConcurrencyPerHost(int maxConcurrencyPerHost) {
+		if (maxConcurrencyPerHost < 1)
+			throw new IllegalArgumentException("The maximum concurrency per host must be at least 1: " + maxConcurrencyPerHost);
+		this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+		for (Host host : hosts.values())
+			host.concurrency = Math.min(host.concurrency, maxConcurrencyPerHost);
+	}
+
+	/**
+	 * Gets the minimum interval between the start of two requests to the same host.
+	 *
+	 * @return the interval in milliseconds, <code>0</code> for no limit
+	 */
+	public synchronized long getMinRequestInterval() {
+		return minRequestInterval;
+	}
+
+	/**
+	 * Sets the minimum interval between the start of two requests to the same host, which limits the request rate.
+	 *
+	 * @param minRequestInterval
+	 *            the interval in milliseconds, <code>0</code> for no limit
+	 */
+	public synchronized void setMinRequestInterval(long minRequestInterval) {
+		if (minRequestInterval < 0)
+			throw new IllegalArgumentException("The minimum request interval must not be negative: " + minRequestInterval);
+		this.minRequestInterval = minRequestInterval;
+		for (Host host : hosts.values())
+			host.interval = Math.max(host.interval, minRequestInterval);
+	}
+
+	/**
+	 * Gets the response time above which a host is considered to be under load and its concurrency is lowered.
+	 *
+	 * @return the response time in milliseconds
+	 */
+	public synchronized long getTargetLatency() {
+		return targetLatency;
+	}
+
+	/**
+	 * Sets the response time above which a host is considered to be under load and its concurrency is lowered.
+	 *
+	 * @param targetLatency
+	 *            the response time in milliseconds
+	 */
+	public synchronized void setTargetLatency(long targetLatency) {
+		if (targetLatency < 1)
+			throw new IllegalArgumentException("The target latency must be positive: " + targetLatency);
+		this.targetLatency = targetLatency;
+	}
+
+	/**
+	 * Gets the current concurrency limit of a host.
+	 *
+	 * @param hostName
+	 *            the host and port
+	 * @return the number of requests that may run at the same time
+	 */
+	public synchronized int getConcurrency(String hostName) {
+		Host host = hosts.get(normalize(hostName));
+		return host != null ? host.getLimit() : (int) Math.min(INITIAL_CONCURRENCY, maxConcurrencyPerHost);
+	}
+
+	/**
+	 * Queues a task for a host. It is handed to the executor as soon as the limits of the host allow it.
+	 *
+	 * @param hostName
+	 *            the host and port the task requests
+	 * @param executor
+	 *            the executor that runs the task
+	 * @param task
+	 *            the task
+	 */
+	public void submit(String hostName, Executor executor, Runnable task) {
+		submit(hostName, executor, task, 0);
+	}
+
+	/**
+	 * Queues a task for a host. It is handed to the executor as soon as the limits of the host allow it and no task with a higher priority
+	 * waits for the host.
+	 *
+	 * @param hostName
+	 *            the host and port the task requests
+	 * @param executor
+	 *            the executor that runs the task
+	 * @param task
+	 *            the task
+	 * @param priority
+	 *            the priority, tasks with lower values are started first
+	 */
+	public void submit(String hostName, Executor executor, Runnable task, int priority) {
+		List<Job> ready;
+		synchronized (this) {
+			Host host = getHost(hostName);
+			host.queue.add(new Job(executor, task, priority, submittedTasks++));
+			ready = poll(host);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Records the response time of a successful request and adapts the concurrency of the host.
+	 *
+	 * @param hostName
+	 *            the host and port
+	 * @param latency
+	 *            the time until the response headers arrived in milliseconds
+	 */
+	public void responded(String hostName, long latency) {
+		List<Job> ready;
+		synchronized (this) {
+			Host host = getHost(hostName);
+			if (latency <= targetLatency)
+				host.concurrency = Math.min(maxConcurrencyPerHost, host.concurrency + 1 / host.concurrency);
+			else
+				host.concurrency = Math.max(1, host.concurrency - 1 / host.concurrency);
+			if (host.interval > minRequestInterval)
+				host.interval = host.interval / 2 < MIN_BACKOFF_INTERVAL ? minRequestInterval : Math.max(minRequestInterval, host.interval / 2);
+			ready = poll(host);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Records that a host refused a request because it is overloaded or rate limited. The host gets half the concurrency, twice the
+	 * interval and isn't requested again until the delay it asked for is over.
+	 *
+	 * @param hostName
+	 *            the host and port
+	 * @param retryAfter
+	 *            the delay of the <code>Retry-After</code> header in milliseconds or <code>-1</code>
+	 */
+	public void throttled(String hostName, long retryAfter) {
+		List<Job> ready;
+		synchronized (this) {
+			Host host = getHost(hostName);
+			host.concurrency = Math.max(1, host.concurrency / 2);
+			host.interval = Math.min(MAX_BACKOFF_INTERVAL, Math.max(MIN_BACKOFF_INTERVAL, host.interval * 2));
+			host.nextStart = Math.max(host.nextStart, System.currentTimeMillis() + (retryAfter >= 0 ? retryAfter : host.interval));
+			LOG.info("Host " + host.name + " throttled, reducing concurrency to " + host.getLimit() + " and pausing for "
+					+ (host.nextStart - System.currentTimeMillis()) + " ms");
+			ready = poll(host);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Gets the state of a host and creates it on first use.
+	 *
+	 * @param hostName
+	 *            the host and port
+	 * @return the state
+	 */
+	private Host getHost(String hostName) {
+		String name = normalize(hostName);
+		Host host = hosts.get(name);
+		if (host == null) {
+			host = new Host(name, Math.min(INITIAL_CONCURRENCY, maxConcurrencyPerHost), minRequestInterval);
+			hosts.put(name, host);
+		}
+		return host;
+	}
+
+	/**
+	 * Takes the tasks of a host off its queue that may be started now. If the next task has to wait for the interval, a wake-up is
+	 * scheduled. Must be called while holding the lock.
+	 *
+	 * @param host
+	 *            the host
+	 * @return the tasks to dispatch
+	 */
+	private List<Job> poll(final Host host) {
+		List<Job> ready = new ArrayList<Job>();
+		while (!host.queue.isEmpty() && host.running < host.getLimit()) {
+			long now = System.currentTimeMillis();
+			if (now < host.nextStart) {
+				if (!host.wakeUpScheduled) {
+					host.wakeUpScheduled = true;
+					getTimer().schedule(new Runnable() {
+						@Override
+						public void run() {
+							List<Job> woken;
+							synchronized (HostScheduler.this) {
+								host.wakeUpScheduled = false;
+								woken = poll(host);
+							}
+							dispatch(woken);
+						}
+					}, host.nextStart - now, TimeUnit.MILLISECONDS);
+				}
+				break;
+			}
+
+			Job job = host.queue.poll();
+			job.host = host;
+			host.running++;
+			host.nextStart = now + host.interval;
+			ready.add(job);
+		}
+		return ready;
+	}
+
+	/**
+	 * Hands tasks to their executors. Must be called without holding the lock.
+	 *
+	 * @param jobs
+	 *            the tasks
+	 */
+	private void dispatch(List<Job> jobs) {
+		for (Job job : jobs) {
+			try {
+				job.executor.execute(new DispatchedTask(job));
+			} catch (RejectedExecutionException e) {
+				// the crawl the task belongs to was shut down
+				LOG.debug("Dropping task for " + job.host.name, e);
+				finished(job.host);
+			}
+		}
+	}
+
+	/**
+	 * Frees the slots of tasks that an executor dropped without running them, so the hosts of a failed or cancelled crawl don't keep them
+	 * forever. Other tasks are ignored, so the whole list of {@link java.util.concurrent.ExecutorService#shutdownNow()} can be passed.
+	 *
+	 * @param tasks
+	 *            the tasks the executor dropped
+	 */
+	static void dropped(Collection<Runnable> tasks) {
+		for (Runnable task : tasks)
+			if (task instanceof DispatchedTask)
+				((DispatchedTask) task).drop();
+	}
+
+	/**
+	 * Frees the slot of a finished task and starts the next tasks of the host.
+	 *
+	 * @param host
+	 *            the host
+	 */
+	private void finished(Host host) {
+		List<Job> ready;
+		synchronized (this) {
+			host.running--;
+			ready = poll(host);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Gets the timer and creates it on first use. Must be called while holding the lock.
+	 *
+	 * @return the timer
+	 */
+	private ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "HostScheduler-timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+			executor.allowCoreThreadTimeOut(true);
+			timer = executor;
+		}
+		return timer;
+	}
+
+	private static String normalize(String hostName) {
+		return hostName.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * The state of a single host.
+	 */
+	private static final class Host {
+
+		/** The host and port. */
+		private final String name;
+
+		/** The tasks that wait for a slot, ordered by priority. */
+		private final Queue<Job> queue = new PriorityQueue<Job>();
+
+		/** The adaptive concurrency, the fraction grows until a whole request more is allowed. */
+		private double concurrency;
+
+		/** The adaptive interval between the start of two requests in milliseconds. */
+		private long interval;
+
+		/** The time the next request may start at in milliseconds since the epoch. */
+		private long nextStart;
+
+		/** The number of running tasks. */
+		private int running;
+
+		/** True if the timer will poll the queue. */
+		private boolean wakeUpScheduled;
+
+		private Host(String name, double concurrency, long interval) {
+			this.name = name;
+			this.concurrency = concurrency;
+			this.interval = interval;
+		}
+
+		private int getLimit() {
+			return (int) concurrency;
+		}
+	}
+
+	/**
+	 * A task that was handed to its executor and holds a slot of its host until it has run or was dropped.
+	 */
+	private final class DispatchedTask implements Runnable {
+
+		/** The task. */
+		private final Job job;
+
+		/** True once the task has started or was dropped, so the slot is freed only once. */
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private DispatchedTask(Job job) {
+			this.job = job;
+		}
+
+		@Override
+		public void run() {
+			if (!done.compareAndSet(false, true))
+				return;
+			try {
+				job.task.run();
+			} finally {
+				finished(job.host);
+			}
+		}
+
+		/**
+		 * Frees the slot of the task without running it.
+		 */
+		private void drop() {
+			if (done.compareAndSet(false, true)) {
+				LOG.debug("Dropped task for " + job.host.name);
+				finished(job.host);
+			}
+		}
+	}
+
+	/**
+	 * A queued task.
+	 */
+	private static final class Job implements Comparable<Job> {
+
+		/** The executor that runs the task. */
+		private final Executor executor;
+
+		/** The task. */
+		private final Runnable task;
+
+		/** The priority, lower values are started first. */
+		private final int priority;
+
+		/** The number of the task in the order they were submitted. */
+		private final long sequence;
+
+		/** The host of the task, set when it is dispatched. */
+		private Host host;
+
+		private Job(Executor executor, Runnable task, int priority, long sequence) {
+			this.executor = executor;
+			this.task = task;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority)
+				return priority < other.priority ? -1 : 1;
+			return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,637 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A single pass tokenizer that finds the references of an HTML document and rewrites them while the document is copied from a reader to a
+ * writer.
+ * <p>
+ * The document isn't parsed into a tree. Only start tags are looked at, everything else, including the formatting of the tags themselves,
+ * is copied unchanged. These references are reported to the {@link LinkHandler}:
+ * </p>
+ * <ul>
+ * <li><code>href</code> of <code>a</code>, <code>area</code> and <code>base</code> elements</li>
+ * <li><code>href</code> of <code>link</code> elements with one of the relations <code>stylesheet</code>, <code>preload</code>,
+ * <code>modulepreload</code>, <code>icon</code>, <code>apple-touch-icon</code> or <code>manifest</code></li>
+ * <li><code>src</code> of any element, every candidate of <code>srcset</code> and <code>poster</code></li>
+ * <li><code>url(...)</code> and <code>@import</code> references of <code>style</code> attributes and elements</li>
+ * </ul>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class HtmlLinkRewriter {
+
+	/** The size of the read buffer. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The elements whose content is text that must not be parsed as markup. */
+	private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<String>(Arrays.asList("script", "style", "textarea", "title", "xmp",
+			"noembed", "noframes"));
+
+	/** The number of bytes at the beginning of a document that are searched for a charset declaration. */
+	private static final int CHARSET_DETECTION_LIMIT = 1024;
+
+	/** The character that invalid numeric character references are decoded to. */
+	private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+	/** The pattern of charset declarations in <code>meta</code> elements, with or without <code>http-equiv</code>. */
+	private static final Pattern META_CHARSET_PATTERN = Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+
+	/** The relations of <code>link</code> elements that refer to files. */
+	private static final Set<String> LINK_RELATIONS = new HashSet<String>(Arrays.asList("stylesheet", "preload", "modulepreload", "icon",
+			"apple-touch-icon", "manifest"));
+
+	/**
+	 * The handler that is called for every reference found in a document.
+	 */
+	public interface LinkHandler {
+
+		/**
+		 * Rewrites a reference.
+		 *
+		 * @param tagName
+		 *            the lower case name of the element
+		 * @param attributeName
+		 *            the lower case name of the attribute or <code>null</code> for a reference in the content of a <code>style</code>
+		 *            element
+		 * @param url
+		 *            the URL with decoded character references
+		 * @return the URL to write instead or <code>null</code> to keep the reference unchanged
+		 */
+		String rewrite(String tagName, String attributeName, String url);
+	}
+
+	/** The handler for the references. */
+	private final LinkHandler handler;
+
+	/** The reader of the current document. */
+	private Reader reader;
+
+	/** The writer of the current document. */
+	private Writer writer;
+
+	/** The read buffer. */
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	/** The position of the next character in the {@link #buffer}. */
+	private int position;
+
+	/** The number of valid characters in the {@link #buffer}. */
+	private int limit;
+
+	/**
+	 * Instantiates a new HTML link rewriter. A rewriter isn't thread-safe, but it can be used for any number of documents one after the
+	 * other.
+	 *
+	 * @param handler
+	 *            the handler for the references
+	 */
+	public HtmlLinkRewriter(LinkHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Rewrites the references of a document given as a string.
+	 *
+	 * @param html
+	 *            the document
+	 * @param handler
+	 *            the handler for the references
+	 * @return the rewritten document
+	 */
+	public static String rewrite(String html, LinkHandler handler) {
+		StringWriter writer = new StringWriter(html.length());
+		try {
+			new HtmlLinkRewriter(handler).rewrite(new StringReader(html), writer);
+		} catch (IOException e) {
+			// string readers and writers don't throw
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Copies a document from a reader to a writer and rewrites all of its references. Neither the reader nor the writer is closed.
+	 *
+	 * @param reader
+	 *            the reader of the document
+	 * @param writer
+	 *            the writer for the rewritten document
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void rewrite(Reader reader, Writer writer) throws IOException {
+		this.reader = reader;
+		this.writer = writer;
+		this.position = 0;
+		this.limit = 0;
+		try {
+			int c;
+			while ((c = read()) != -1) {
+				if (c != '<') {
+					writer.write(c);
+					continue;
+				}
+
+				int next = peek(0);
+				if (next == '!' && lookingAt("!--")) {
+					writer.write(c);
+					copyUntil("-->");
+				} else if (next == '!' || next == '?' || next == '/') {
+					writer.write(c);
+					copyUntil(">");
+				} else if (Character.isLetter(next)) {
+					String tagName = rewriteStartTag();
+					if (tagName != null && RAW_TEXT_ELEMENTS.contains(tagName))
+						copyRawText(tagName);
+				} else {
+					writer.write(c);
+				}
+			}
+		} finally {
+			this.reader = null;
+			this.writer = null;
+		}
+	}
+
+	/**
+	 * Reads a start tag after its opening angle bracket, rewrites its references and writes it.
+	 *
+	 * @return the lower case tag name or <code>null</code> if the document ended inside the tag
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private String rewriteStartTag() throws IOException {
+		StringBuilder tag = new StringBuilder("<");
+		int c;
+		while ((c = peek(0)) != -1 && !Character.isWhitespace(c) && c != '>' && c != '/') {
+			tag.append((char) c);
+			position++;
+		}
+		String tagName = tag.substring(1).toLowerCase(Locale.ENGLISH);
+
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		while ((c = read()) != -1) {
+			tag.append((char) c);
+			if (c == '>')
+				break;
+			if (Character.isWhitespace(c) || c == '/')
+				continue;
+
+			Attribute attribute = new Attribute();
+			int nameStart = tag.length() - 1;
+			while ((c = peek(0)) != -1 && !Character.isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+				tag.append((char) c);
+				position++;
+			}
+			attribute.name = tag.substring(nameStart).toLowerCase(Locale.ENGLISH);
+			attributes.add(attribute);
+
+			copyWhitespace(tag);
+			if (peek(0) != '=')
+				continue;
+			tag.append((char) read());
+			copyWhitespace(tag);
+
+			c = peek(0);
+			if (c == '"' || c == '\'') {
+				position++;
+				tag.append((char) c);
+				attribute.quote = (char) c;
+				attribute.valueStart = tag.length();
+				while ((c = read()) != -1 && c != attribute.quote)
+					tag.append((char) c);
+				attribute.valueEnd = tag.length();
+				if (c != -1)
+					tag.append((char) c);
+			} else {
+				attribute.valueStart = tag.length();
+				while ((c = peek(0)) != -1 && !Character.isWhitespace(c) && c != '>') {
+					tag.append((char) c);
+					position++;
+				}
+				attribute.valueEnd = tag.length();
+			}
+		}
+
+		if (c == -1) {
+			writer.write(tag.toString());
+			return null;
+		}
+
+		rewriteAttributes(tag, tagName, attributes);
+		writer.write(tag.toString());
+		return tagName;
+	}
+
+	/**
+	 * Rewrites the references in the attributes of a start tag.
+	 *
+	 * @param tag
+	 *            the raw start tag
+	 * @param tagName
+	 *            the lower case tag name
+	 * @param attributes
+	 *            the attributes in the order they appear in the tag
+	 */
+	private void rewriteAttributes(StringBuilder tag, String tagName, List<Attribute> attributes) {
+		boolean isFileLink = !"link".equals(tagName) || hasFileRelation(tag, attributes);
+
+		// replace from the end, so the offsets of the attributes in front stay valid
+		for (int i = attributes.size() - 1; i >= 0; i--) {
+			Attribute attribute = attributes.get(i);
+			if (attribute.valueStart < 0)
+				continue;
+
+			String name = attribute.name;
+			String value = decode(tag.substring(attribute.valueStart, attribute.valueEnd));
+			String replacement = null;
+
+			if ("src".equals(name) || "poster".equals(name))
+				replacement = rewriteUrl(tagName, name, value);
+			else if ("href".equals(name) && isFileLink)
+				replacement = rewriteUrl(tagName, name, value);
+			else if ("srcset".equals(name))
+				replacement = rewriteSrcset(tagName, value);
+			else if ("style".equals(name))
+				replacement = rewriteStyle(tagName, name, value);
+
+			if (replacement != null && !replacement.equals(value))
+				tag.replace(attribute.valueStart, attribute.valueEnd, encode(replacement, attribute.quote));
+		}
+	}
+
+	/**
+	 * Checks if a <code>link</code> element refers to a file by one of its relations.
+	 *
+	 * @param tag
+	 *            the raw start tag
+	 * @param attributes
+	 *            the attributes
+	 * @return true, if one of the relations refers to a file
+	 */
+	private static boolean hasFileRelation(StringBuilder tag, List<Attribute> attributes) {
+		for (Attribute attribute : attributes) {
+			if ("rel".equals(attribute.name) && attribute.valueStart >= 0) {
+				String rel = tag.substring(attribute.valueStart, attribute.valueEnd).toLowerCase(Locale.ENGLISH);
+				for (String relation : StringUtils.split(rel))
+					if (LINK_RELATIONS.contains(relation))
+						return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rewrites a single URL.
+	 *
+	 * @param tagName
+	 *            the lower case tag name
+	 * @param attributeName
+	 *            the lower case attribute name
+	 * @param url
+	 *            the decoded URL
+	 * @return the replacement or <code>null</code>
+	 */
+	private String rewriteUrl(String tagName, String attributeName, String url) {
+		String trimmed = url.trim();
+		return trimmed.length() > 0 ? handler.rewrite(tagName, attributeName, trimmed) : null;
+	}
+
+	/**
+	 * Rewrites every image candidate of a <code>srcset</code> attribute and keeps their descriptors.
+	 *
+	 * @param tagName
+	 *            the lower case tag name
+	 * @param srcset
+	 *            the decoded attribute value
+	 * @return the rewritten attribute value
+	 */
+	private String rewriteSrcset(String tagName, String srcset) {
+		StringBuilder result = new StringBuilder(srcset.length());
+		int length = srcset.length();
+		int i = 0;
+		while (i < length) {
+			// leading whitespace and separators
+			int start = i;
+			while (i < length && (Character.isWhitespace(srcset.charAt(i)) || srcset.charAt(i) == ','))
+				i++;
+			result.append(srcset, start, i);
+
+			// the URL runs until whitespace, trailing commas separate it from the next candidate
+			int urlStart = i;
+			while (i < length && !Character.isWhitespace(srcset.charAt(i)))
+				i++;
+			int urlEnd = i;
+			while (urlEnd > urlStart && srcset.charAt(urlEnd - 1) == ',')
+				urlEnd--;
+			if (urlEnd > urlStart) {
+				String url = srcset.substring(urlStart, urlEnd);
+				String replacement = handler.rewrite(tagName, "srcset", url);
+				result.append(replacement != null ? replacement : url);
+			}
+			result.append(srcset, urlEnd, i);
+
+			// the descriptor runs until the next comma outside of parentheses
+			if (urlEnd == i) {
+				int descriptorStart = i;
+				int depth = 0;
+				while (i < length && (srcset.charAt(i) != ',' || depth > 0)) {
+					if (srcset.charAt(i) == '(')
+						depth++;
+					else if (srcset.charAt(i) == ')' && depth > 0)
+						depth--;
+					i++;
+				}
+				result.append(srcset, descriptorStart, i);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Rewrites the references of inline CSS.
+	 *
+	 * @param tagName
+	 *            the lower case tag name
+	 * @param attributeName
+	 *            the lower case attribute name or <code>null</code> for the content of a <code>style</code> element
+	 * @param css
+	 *            the CSS
+	 * @return the rewritten CSS
+	 */
+	private String rewriteStyle(final String tagName, final String attributeName, String css) {
+		if (css.indexOf('(') < 0 && css.indexOf('@') < 0)
+			return null;
+
+		return CssUrlRewriter.rewrite(css, new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				return handler.rewrite(tagName, attributeName, url);
+			}
+		});
+	}
+
+	/**
+	 * Copies the content of a raw text element including its end tag. The content of <code>style</code> elements is rewritten.
+	 *
+	 * @param tagName
+	 *            the lower case tag name
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void copyRawText(String tagName) throws IOException {
+		String endTag = "</" + tagName;
+		boolean isStyle = "style".equals(tagName);
+		StringBuilder content = isStyle ? new StringBuilder() : null;
+
+		int c;
+		while ((c = peek(0)) != -1) {
+			if (c == '<' && lookingAt(endTag)) {
+				int next = peek(endTag.length());
+				if (next == -1 || next == '>' || next == '/' || Character.isWhitespace(next))
+					break;
+			}
+			position++;
+			if (isStyle)
+				content.append((char) c);
+			else
+				writer.write(c);
+		}
+
+		if (isStyle) {
+			String css = content.toString();
+			String rewritten = rewriteStyle(tagName, null, css);
+			writer.write(rewritten != null ? rewritten : css);
+		}
+	}
+
+	/**
+	 * Copies everything up to and including a terminator.
+	 *
+	 * @param terminator
+	 *            the terminator
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void copyUntil(String terminator) throws IOException {
+		int c;
+		while ((c = read()) != -1) {
+			writer.write(c);
+			if (c == terminator.charAt(0) && (terminator.length() == 1 || lookingAt(terminator.substring(1)))) {
+				writer.write(buffer, position, terminator.length() - 1);
+				position += terminator.length() - 1;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies whitespace into a tag.
+	 *
+	 * @param tag
+	 *            the raw tag
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void copyWhitespace(StringBuilder tag) throws IOException {
+		int c;
+		while ((c = peek(0)) != -1 && Character.isWhitespace(c)) {
+			tag.append((char) c);
+			position++;
+		}
+	}
+
+	/**
+	 * Checks if the next characters match a string, ignoring case.
+	 *
+	 * @param text
+	 *            the lower case text
+	 * @return true, if the text follows
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean lookingAt(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			int c = peek(i);
+			if (c == -1 || Character.toLowerCase((char) c) != text.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private int read() throws IOException {
+		if (position >= limit && !fill(1))
+			return -1;
+		return buffer[position++];
+	}
+
+	private int peek(int offset) throws IOException {
+		if (position + offset >= limit && !fill(offset + 1))
+			return -1;
+		return buffer[position + offset];
+	}
+
+	private boolean fill(int count) throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while (limit < count) {
+			int read = reader.read(buffer, limit, buffer.length - limit);
+			if (read == -1)
+				return false;
+			limit += read;
+		}
+		return true;
+	}
+
+	/**
+	 * Detects the charset of a document from its <code>meta</code> elements. The stream is reset to where it was.
+	 *
+	 * @param inputStream
+	 *            the document, the stream must support {@link InputStream#mark(int)}
+	 * @return the charset name or <code>null</code> if the beginning of the document doesn't declare one
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static String detectCharset(InputStream inputStream) throws IOException {
+		byte[] head = new byte[CHARSET_DETECTION_LIMIT];
+		inputStream.mark(head.length);
+		int length = 0;
+		try {
+			int read;
+			while (length < head.length && (read = inputStream.read(head, length, head.length - length)) != -1)
+				length += read;
+		} finally {
+			inputStream.reset();
+		}
+
+		Matcher matcher = META_CHARSET_PATTERN.matcher(new String(head, 0, length, "ISO-8859-1"));
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	/**
+	 * Decodes the character references that can appear in URLs.
+	 *
+	 * @param value
+	 *            the raw attribute value
+	 * @return the decoded value
+	 */
+	static String decode(String value) {
+		int ampersand = value.indexOf('&');
+		if (ampersand < 0)
+			return value;
+
+		StringBuilder decoded = new StringBuilder(value.length());
+		decoded.append(value, 0, ampersand);
+		int i = ampersand;
+		while (i < value.length()) {
+			char c = value.charAt(i);
+			int semicolon = c == '&' ? value.indexOf(';', i) : -1;
+			if (semicolon > i + 1 && semicolon - i <= 10) {
+				String entity = value.substring(i + 1, semicolon);
+				int decodedChar = decodeEntity(entity);
+				if (decodedChar >= 0) {
+					decoded.appendCodePoint(decodedChar);
+					i = semicolon + 1;
+					continue;
+				}
+			}
+			decoded.append(c);
+			i++;
+		}
+		return decoded.toString();
+	}
+
+	/**
+	 * Decodes a single character reference.
+	 *
+	 * @param entity
+	 *            the reference without <code>&amp;</code> and <code>;</code>
+	 * @return the code point, U+FFFD for invalid numeric references or <code>-1</code> if the reference isn't supported
+	 */
+	private static int decodeEntity(String entity) {
+		if ("amp".equals(entity))
+			return '&';
+		if ("quot".equals(entity))
+			return '"';
+		if ("apos".equals(entity))
+			return '\'';
+		if ("lt".equals(entity))
+			return '<';
+		if ("gt".equals(entity))
+			return '>';
+		int codePoint;
+		try {
+			if (entity.startsWith("#x") || entity.startsWith("#X"))
+				codePoint = Integer.parseInt(entity.substring(2), 16);
+			else if (entity.startsWith("#"))
+				codePoint = Integer.parseInt(entity.substring(1));
+			else
+				return -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		if (codePoint < 0)
+			return -1;
+		// like browsers, references to no character or to a surrogate become the replacement character
+		if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+				|| (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+			return REPLACEMENT_CHARACTER;
+		return codePoint;
+	}
+
+	/**
+	 * Encodes a replacement for an attribute value.
+	 *
+	 * @param value
+	 *            the replacement
+	 * @param quote
+	 *            the quote of the attribute value or <code>0</code> if it isn't quoted
+	 * @return the encoded value
+	 */
+	private static String encode(String value, char quote) {
+		String encoded = value.replace("&", "&amp;");
+		if (quote == '"')
+			return encoded.replace("\"", "&quot;");
+		if (quote == '\'')
+			return encoded.replace("'", "&#39;");
+		return encoded.replace("\"", "&quot;").replace("'", "&#39;").replace(" ", "%20").replace(">", "&gt;").replace("<", "&lt;")
+				.replace("=", "&#61;").replace("`", "&#96;");
+	}
+
+	/**
+	 * An attribute of a start tag with the offsets of its value in the raw tag.
+	 */
+	private static final class Attribute {
+
+		/** The lower case name. */
+		private String name;
+
+		/** The quote of the value or <code>0</code> if the value isn't quoted. */
+		private char quote;
+
+		/** The offset of the value or <code>-1</code> if the attribute has no value. */
+		private int valueStart = -1;
+
+		/** The end offset of the value. */
+		private int valueEnd = -1;
+	}
+}
@@ -0,0 +1,199 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minifies HTML documents.
+ * <p>
+ * Comments are removed, except for conditional comments. Runs of whitespace in text are collapsed to a single space or line break, so the
+ * document renders the same, and whitespace between attributes is collapsed to a single space. The content of <code>script</code>,
+ * <code>style</code>, <code>pre</code> and <code>textarea</code> elements and the values of attributes are copied as they are.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class HtmlMinifyingWriter extends MinifyingWriter {
+
+	/** The elements whose content is copied as it is. */
+	private static final String[] RAW_ELEMENTS = { "script", "style", "pre", "textarea" };
+
+	private static final int TEXT = 0;
+	private static final int TAG = 1;
+	private static final int COMMENT = 2;
+	private static final int RAW = 3;
+	private static final int RAW_END = 4;
+
+	/** The state of the minifier. */
+	private int state = TEXT;
+
+	/** Whether whitespace was skipped since the last character written. */
+	private boolean pendingSpace;
+
+	/** Whether the skipped whitespace contains a line break. */
+	private boolean pendingNewline;
+
+	/** The current tag without the opening bracket, or the content of the current comment. */
+	private final StringBuilder buffer = new StringBuilder();
+
+	/** The quote of the current attribute value or <code>0</code>. */
+	private char quote;
+
+	/** The end tag of the current raw element without the closing bracket, e.g. <code>&lt;/script</code>. */
+	private String rawEndTag;
+
+	/** The number of characters of the {@link #rawEndTag} that were matched. */
+	private int rawEndTagMatched;
+
+	HtmlMinifyingWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	void process(char c) throws IOException {
+		switch (state) {
+		case TEXT:
+			if (isWhitespace(c)) {
+				pendingSpace = true;
+				pendingNewline |= c == '\n';
+				return;
+			}
+			flushPendingSpace();
+			if (c == '<') {
+				buffer.setLength(0);
+				quote = 0;
+				state = TAG;
+			} else
+				emit(c);
+			return;
+		case TAG:
+			processTag(c);
+			return;
+		case COMMENT:
+			buffer.append(c);
+			if (c == '>' && endsWith(buffer, "-->")) {
+				// conditional comments are for Internet Explorer, but the other browsers ignore them anyway
+				if (buffer.charAt(0) == '[' || endsWith(buffer, "]-->")) {
+					emit("<!--");
+					emit(buffer);
+				}
+				buffer.setLength(0);
+				state = TEXT;
+			}
+			return;
+		case RAW:
+			emit(c);
+			if (Character.toLowerCase(c) == rawEndTag.charAt(rawEndTagMatched)) {
+				if (++rawEndTagMatched == rawEndTag.length())
+					state = RAW_END;
+			} else
+				rawEndTagMatched = c == '<' ? 1 : 0;
+			return;
+		case RAW_END:
+			emit(c);
+			if (c == '>')
+				state = TEXT;
+			return;
+		}
+	}
+
+	/**
+	 * Processes a character of a tag.
+	 *
+	 * @param c
+	 *            the character
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void processTag(char c) throws IOException {
+		if (buffer.length() == 0 && !Character.isLetter(c) && c != '/' && c != '!' && c != '?') {
+			// a single less-than sign in text
+			emit('<');
+			state = TEXT;
+			process(c);
+			return;
+		}
+
+		if (quote != 0) {
+			buffer.append(c);
+			if (c == quote)
+				quote = 0;
+			return;
+		}
+
+		if (isWhitespace(c)) {
+			if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != ' ')
+				buffer.append(' ');
+			return;
+		}
+		if (c == '"' || c == '\'')
+			quote = c;
+		else if (c == '>') {
+			int length = buffer.length();
+			if (length > 0 && buffer.charAt(length - 1) == ' ')
+				buffer.setLength(--length);
+			emit('<');
+			emit(buffer);
+			emit('>');
+			startElement();
+			return;
+		}
+		buffer.append(c);
+
+		if (buffer.length() == 3 && "!--".contentEquals(buffer)) {
+			buffer.setLength(0);
+			state = COMMENT;
+		}
+	}
+
+	/**
+	 * Continues after the tag in the {@link #buffer} was written, with the content of a raw element or text.
+	 */
+	private void startElement() {
+		state = TEXT;
+		if (buffer.length() == 0 || !Character.isLetter(buffer.charAt(0)) || buffer.charAt(buffer.length() - 1) == '/')
+			return;
+
+		int end = 0;
+		while (end < buffer.length() && buffer.charAt(end) != ' ' && buffer.charAt(end) != '/')
+			end++;
+		String name = buffer.substring(0, end).toLowerCase();
+		for (String rawElement : RAW_ELEMENTS) {
+			if (rawElement.equals(name)) {
+				rawEndTag = "</" + name;
+				rawEndTagMatched = 0;
+				state = RAW;
+				return;
+			}
+		}
+	}
+
+	private void flushPendingSpace() throws IOException {
+		// the whitespace in front of a removed comment was written already
+		if (pendingSpace && getLastEmitted() != 0 && !isWhitespace(getLastEmitted()))
+			emit(pendingNewline ? '\n' : ' ');
+		pendingSpace = false;
+		pendingNewline = false;
+	}
+
+	private static boolean endsWith(StringBuilder buffer, String suffix) {
+		int offset = buffer.length() - suffix.length();
+		return offset >= 0 && buffer.indexOf(suffix, offset) == offset;
+	}
+
+	@Override
+	void finish() throws IOException {
+		// unterminated tags and comments are kept as they are
+		if (state == TAG) {
+			emit('<');
+			emit(buffer);
+		} else if (state == COMMENT) {
+			emit("<!--");
+			emit(buffer);
+		}
+		buffer.setLength(0);
+		pendingSpace = false;
+		pendingNewline = false;
+		state = TEXT;
+	}
+}
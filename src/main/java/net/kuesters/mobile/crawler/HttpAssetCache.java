@@ -0,0 +1,632 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A persistent cache for HTTP responses that is shared by all {@link AppCrawler} instances using the same directory.
+ * <p>
+ * The cache honours the <code>Cache-Control</code>, <code>Expires</code> and <code>Last-Modified</code> headers of the responses: stale
+ * entries are revalidated with a conditional request and responses that must not be stored are never written to disk. When the size of the
+ * stored bodies exceeds the disk budget, the least recently used entries are evicted.
+ * </p>
+ * <p>
+ * Every entry consists of a body file and a metadata file, both named after the SHA-256 hash of the normalized URL. Files are written to a
+ * temporary file first and moved into place, so concurrent crawls, even from different JVMs, never see half written entries.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class HttpAssetCache {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(HttpAssetCache.class);
+
+	/** The suffix of body files. */
+	private static final String BODY_SUFFIX = ".body";
+
+	/** The suffix of metadata files. */
+	private static final String META_SUFFIX = ".meta";
+
+	/** The upper bound for the heuristic freshness of responses without explicit expiration, as suggested by RFC 7234. */
+	private static final long MAX_HEURISTIC_FRESHNESS = 24L * 60 * 60 * 1000;
+
+	/** The shared caches by their directory. */
+	private static final ConcurrentMap<Path, HttpAssetCache> INSTANCES = new ConcurrentHashMap<Path, HttpAssetCache>();
+
+	/** The directory of the cache. */
+	private final Path directory;
+
+	/** The maximum number of bytes the bodies may take on disk. */
+	private volatile long maxBytes;
+
+	/** The entries by their key, in the order of their last use. */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** The number of bytes the bodies take on disk. */
+	private long size;
+
+	/**
+	 * Instantiates a new HTTP asset cache.
+	 *
+	 * @param directory
+	 *            the directory of the cache
+	 * @param maxBytes
+	 *            the maximum number of bytes the bodies may take on disk
+	 */
+	private HttpAssetCache(Path directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Opens the cache in a directory. All callers using the same directory share the same instance. If the cache is already open, its disk
+	 * budget is updated.
+	 *
+	 * @param directory
+	 *            the directory of the cache, it is created if it doesn't exist
+	 * @param maxBytes
+	 *            the maximum number of bytes the cached bodies may take on disk
+	 * @return the cache
+	 * @throws IOException
+	 *             Signals that the directory couldn't be created or read.
+	 */
+	public static HttpAssetCache open(Path directory, long maxBytes) throws IOException {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("maxBytes must not be negative");
+
+		Files.createDirectories(directory);
+		Path key = directory.toRealPath();
+
+		HttpAssetCache cache = INSTANCES.get(key);
+		if (cache == null) {
+			HttpAssetCache newCache = new HttpAssetCache(key, maxBytes);
+			newCache.load();
+			cache = INSTANCES.putIfAbsent(key, newCache);
+			if (cache == null)
+				cache = newCache;
+		}
+		cache.setMaxBytes(maxBytes);
+		return cache;
+	}
+
+	/**
+	 * Gets the directory of the cache.
+	 *
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Gets the maximum number of bytes the cached bodies may take on disk.
+	 *
+	 * @return the disk budget
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the cached bodies may take on disk and evicts entries if necessary.
+	 *
+	 * @param maxBytes
+	 *            the disk budget
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Gets the number of bytes the cached bodies take on disk.
+	 *
+	 * @return the size
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of cached responses.
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		List<Entry> removed;
+		synchronized (this) {
+			removed = new ArrayList<Entry>(entries.values());
+			entries.clear();
+			size = 0;
+		}
+		for (Entry entry : removed)
+			deleteFiles(entry.getKey());
+	}
+
+	/**
+	 * Gets the cached response of a URL and marks it as recently used.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @return the entry, fresh or stale, or <code>null</code> if the URL isn't cached
+	 */
+	Entry get(String url) {
+		String key = toKey(url);
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if (entry == null || !url.equals(entry.getUrl()))
+			return null;
+
+		try {
+			Files.setLastModifiedTime(getMetaPath(key), FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the entry was evicted by another JVM in the meantime
+			remove(entry);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Opens the body of a cached response.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @return the response
+	 * @throws IOException
+	 *             Signals that the body couldn't be opened, e.g. because it was evicted in the meantime.
+	 */
+	FetchResponse open(Entry entry) throws IOException {
+		InputStream inputStream = Files.newInputStream(getBodyPath(entry.getKey()));
+		return new FetchResponse(entry.getUrl(), entry.getContentType(), entry.getETag(), entry.getLastModified(), inputStream);
+	}
+
+	/**
+	 * Checks if a response may be stored in the cache. Responses that must not be stored, that would never be fresh and can't be
+	 * revalidated either, or that are larger than the whole disk budget are not cacheable.
+	 *
+	 * @param response
+	 *            the response
+	 * @return true, if the response is cacheable
+	 */
+	boolean isCacheable(FetchResponse response) {
+		if (response.getStatusCode() != HttpURLConnection.HTTP_OK)
+			return false;
+		if (response.getContentLength() > maxBytes)
+			return false;
+
+		String cacheControl = StringUtils.lowerCase(response.getHeader("Cache-Control"));
+		if (cacheControl != null && (cacheControl.contains("no-store") || cacheControl.contains("private")))
+			return false;
+		if ("*".equals(StringUtils.trim(response.getHeader("Vary"))))
+			return false;
+
+		return getFreshUntil(response) > System.currentTimeMillis() || response.getETag() != null || response.getLastModified() != null;
+	}
+
+	/**
+	 * Stores a response and opens the stored body. The body is read from the network completely before this method
+	 * returns. If it turns out to be larger than the whole disk budget, it is served from a temporary file that is deleted when it is
+	 * closed.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @param response
+	 *            a cacheable response, it is closed
+	 * @return the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	FetchResponse store(String url, FetchResponse response) throws IOException {
+		String key = toKey(url);
+		final Path tempBody = Files.createTempFile(directory, key, BODY_SUFFIX + ".tmp");
+		boolean keepTempBody = false;
+		try {
+			InputStream inputStream = response.getInputStream();
+			try {
+				OutputStream outputStream = Files.newOutputStream(tempBody);
+				try {
+					IOUtils.copy(inputStream, outputStream);
+				} finally {
+					outputStream.close();
+				}
+			} finally {
+				inputStream.close();
+			}
+
+			Entry entry = new Entry(key, url, response.getContentType(), response.getETag(), response.getLastModified(), getFreshUntil(response),
+					Files.size(tempBody));
+
+			if (entry.getSize() > maxBytes) {
+				keepTempBody = true;
+				InputStream bodyStream = new FilterInputStream(Files.newInputStream(tempBody)) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							Files.deleteIfExists(tempBody);
+						}
+					}
+				};
+				return new FetchResponse(url, entry.getContentType(), entry.getETag(), entry.getLastModified(), bodyStream);
+			}
+
+			AppCrawlerUtil.moveReplacing(tempBody, getBodyPath(key));
+			writeMeta(entry);
+			put(entry);
+			return open(entry);
+		} finally {
+			if (!keepTempBody)
+				Files.deleteIfExists(tempBody);
+		}
+	}
+
+	/**
+	 * Updates the freshness of an entry after the origin server confirmed it with <code>304 Not Modified</code> and opens its body.
+	 *
+	 * @param entry
+	 *            the revalidated entry
+	 * @param response
+	 *            the <code>304</code> response
+	 * @return the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	FetchResponse revalidated(Entry entry, FetchResponse response) throws IOException {
+		Entry updated = new Entry(entry.getKey(), entry.getUrl(), entry.getContentType(), StringUtils.defaultIfEmpty(response.getETag(),
+				entry.getETag()), StringUtils.defaultIfEmpty(response.getLastModified(), entry.getLastModified()), getFreshUntil(response),
+				entry.getSize());
+		writeMeta(updated);
+		put(updated);
+		return open(updated);
+	}
+
+	/**
+	 * Calculates until when a response is fresh. Explicit expiration times win over the heuristic of 10% of the time since the last
+	 * modification.
+	 *
+	 * @param response
+	 *            the response
+	 * @return the time in milliseconds since the epoch
+	 */
+	private static long getFreshUntil(FetchResponse response) {
+		long now = System.currentTimeMillis();
+		String cacheControl = StringUtils.lowerCase(response.getHeader("Cache-Control"));
+		if (cacheControl != null) {
+			if (cacheControl.contains("no-cache") || cacheControl.contains("must-revalidate") && !cacheControl.contains("max-age"))
+				return 0;
+
+			long maxAge = getDirectiveSeconds(cacheControl, "s-maxage");
+			if (maxAge < 0)
+				maxAge = getDirectiveSeconds(cacheControl, "max-age");
+			if (maxAge >= 0)
+				return now + maxAge * 1000;
+		}
+
+		long date = response.getDateHeader("Date") > 0 ? response.getDateHeader("Date") : now;
+		long expires = response.getDateHeader("Expires");
+		if (expires > 0)
+			return now + Math.max(0, expires - date);
+		long lastModified = response.getDateHeader("Last-Modified");
+		if (lastModified > 0)
+			return now + Math.min(MAX_HEURISTIC_FRESHNESS, Math.max(0, date - lastModified) / 10);
+		return 0;
+	}
+
+	/**
+	 * Gets the seconds of a <code>Cache-Control</code> directive.
+	 *
+	 * @param cacheControl
+	 *            the lower case header value
+	 * @param directive
+	 *            the directive's name
+	 * @return the seconds or <code>-1</code> if the directive is missing or invalid
+	 */
+	private static long getDirectiveSeconds(String cacheControl, String directive) {
+		for (String part : StringUtils.split(cacheControl, ',')) {
+			String trimmed = part.trim();
+			if (trimmed.startsWith(directive + "=")) {
+				try {
+					return Long.parseLong(StringUtils.strip(trimmed.substring(directive.length() + 1), "\""));
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Loads the entries of the directory. Entries are ordered by their last use, which is stored as the modification time of their
+	 * metadata file.
+	 *
+	 * @throws IOException
+	 *             Signals that the directory couldn't be read.
+	 */
+	private void load() throws IOException {
+		final ConcurrentMap<Path, Long> lastUse = new ConcurrentHashMap<Path, Long>();
+		List<Path> metaFiles = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + META_SUFFIX);
+		try {
+			for (Path metaFile : stream) {
+				metaFiles.add(metaFile);
+				lastUse.put(metaFile, Files.getLastModifiedTime(metaFile).toMillis());
+			}
+		} finally {
+			stream.close();
+		}
+
+		Collections.sort(metaFiles, new Comparator<Path>() {
+			@Override
+			public int compare(Path a, Path b) {
+				return lastUse.get(a).compareTo(lastUse.get(b));
+			}
+		});
+
+		for (Path metaFile : metaFiles) {
+			try {
+				put(readMeta(metaFile));
+			} catch (IOException e) {
+				LOG.warn("Ignoring unreadable cache entry " + metaFile, e);
+			}
+		}
+		LOG.info("Opened asset cache " + directory + " with " + entries.size() + " entries and " + size + " bytes");
+	}
+
+	/**
+	 * Adds or replaces an entry and evicts the least recently used entries if the disk budget is exceeded.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	private void put(Entry entry) {
+		synchronized (this) {
+			Entry previous = entries.put(entry.getKey(), entry);
+			if (previous != null)
+				size -= previous.getSize();
+			size += entry.getSize();
+		}
+		evict();
+	}
+
+	/**
+	 * Removes an entry that is no longer available.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	private synchronized void remove(Entry entry) {
+		if (entries.get(entry.getKey()) == entry) {
+			entries.remove(entry.getKey());
+			size -= entry.getSize();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the bodies fit into the disk budget.
+	 */
+	private void evict() {
+		List<Entry> evicted = new ArrayList<Entry>();
+		synchronized (this) {
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (size > maxBytes && iterator.hasNext()) {
+				Entry entry = iterator.next();
+				iterator.remove();
+				size -= entry.getSize();
+				evicted.add(entry);
+			}
+		}
+		for (Entry entry : evicted) {
+			LOG.debug("Evicting " + entry.getUrl() + " from asset cache");
+			deleteFiles(entry.getKey());
+		}
+	}
+
+	/**
+	 * Deletes the files of an entry.
+	 *
+	 * @param key
+	 *            the key of the entry
+	 */
+	private void deleteFiles(String key) {
+		try {
+			Files.deleteIfExists(getMetaPath(key));
+			Files.deleteIfExists(getBodyPath(key));
+		} catch (IOException e) {
+			LOG.warn("Couldn't delete cache entry " + key, e);
+		}
+	}
+
+	/**
+	 * Writes the metadata file of an entry.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeMeta(Entry entry) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("url", entry.getUrl());
+		properties.setProperty("freshUntil", Long.toString(entry.getFreshUntil()));
+		properties.setProperty("size", Long.toString(entry.getSize()));
+		if (entry.getContentType() != null)
+			properties.setProperty("contentType", entry.getContentType());
+		if (entry.getETag() != null)
+			properties.setProperty("eTag", entry.getETag());
+		if (entry.getLastModified() != null)
+			properties.setProperty("lastModified", entry.getLastModified());
+
+		Path tempMeta = Files.createTempFile(directory, entry.getKey(), META_SUFFIX + ".tmp");
+		try {
+			OutputStream outputStream = Files.newOutputStream(tempMeta);
+			try {
+				properties.store(outputStream, null);
+			} finally {
+				outputStream.close();
+			}
+			AppCrawlerUtil.moveReplacing(tempMeta, getMetaPath(entry.getKey()));
+		} finally {
+			Files.deleteIfExists(tempMeta);
+		}
+	}
+
+	/**
+	 * Reads a metadata file.
+	 *
+	 * @param metaFile
+	 *            the metadata file
+	 * @return the entry
+	 * @throws IOException
+	 *             Signals that the file couldn't be read or its body is missing.
+	 */
+	private Entry readMeta(Path metaFile) throws IOException {
+		String fileName = metaFile.getFileName().toString();
+		String key = fileName.substring(0, fileName.length() - META_SUFFIX.length());
+		if (!Files.isRegularFile(getBodyPath(key)))
+			throw new IOException("Missing body of " + key);
+
+		Properties properties = new Properties();
+		InputStream inputStream = Files.newInputStream(metaFile);
+		try {
+			properties.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+
+		try {
+			return new Entry(key, properties.getProperty("url"), properties.getProperty("contentType"), properties.getProperty("eTag"),
+					properties.getProperty("lastModified"), Long.parseLong(properties.getProperty("freshUntil")), Long.parseLong(properties
+							.getProperty("size")));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid metadata " + metaFile, e);
+		}
+	}
+
+	private Path getBodyPath(String key) {
+		return directory.resolve(key + BODY_SUFFIX);
+	}
+
+	private Path getMetaPath(String key) {
+		return directory.resolve(key + META_SUFFIX);
+	}
+
+	/**
+	 * Converts a URL to the key of its entry.
+	 *
+	 * @param url
+	 *            the normalized URL
+	 * @return the key
+	 */
+	private static String toKey(String url) {
+		try {
+			return AppCrawlerUtil.toHexString(AppCrawlerUtil.newContentDigest().digest(url.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			// every Java platform has to support UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A cached response.
+	 */
+	static final class Entry {
+
+		private final String key;
+		private final String url;
+		private final String contentType;
+		private final String eTag;
+		private final String lastModified;
+		private final long freshUntil;
+		private final long size;
+
+		Entry(String key, String url, String contentType, String eTag, String lastModified, long freshUntil, long size) {
+			this.key = key;
+			this.url = url;
+			this.contentType = contentType;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.freshUntil = freshUntil;
+			this.size = size;
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		String getUrl() {
+			return url;
+		}
+
+		String getContentType() {
+			return contentType;
+		}
+
+		String getETag() {
+			return eTag;
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+
+		long getFreshUntil() {
+			return freshUntil;
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		/**
+		 * Checks if the entry can be used without asking the origin server.
+		 *
+		 * @return true, if the entry is fresh
+		 */
+		boolean isFresh() {
+			return System.currentTimeMillis() < freshUntil;
+		}
+
+		/**
+		 * Checks if a conditional request can be sent for this entry.
+		 *
+		 * @return true, if the entry has at least one validator
+		 */
+		boolean hasValidator() {
+			return eTag != null || lastModified != null;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * The default {@link Fetcher} that loads assets with {@link HttpURLConnection}.
+ * <p>
+ * Connections are kept alive and reused by the connection pool of the JDK. A connection only returns to the pool when its response body
+ * was read completely, so the bodies of <code>304</code> and error responses are drained before they are discarded. The number of idle
+ * connections that are kept per host is configured with the system property <code>http.maxConnections</code>, which defaults to 5 and
+ * should be raised to the maximum concurrency of the crawlers.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class HttpFetcher implements Fetcher {
+
+	/** The default connect timeout in milliseconds. */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+
+	/** The default read timeout in milliseconds. */
+	public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+	/** The default value of the <code>User-Agent</code> header. */
+	public static final String DEFAULT_USER_AGENT = "AppCrawler Service";
+
+	/** The connect timeout in milliseconds. */
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+	/** The read timeout in milliseconds. */
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+	/** The value of the <code>User-Agent</code> header. */
+	private volatile String userAgent = DEFAULT_USER_AGENT;
+
+	/** The hosts that were already looked up before a request, so they aren't looked up again. */
+	private final ConcurrentMap<String, Boolean> resolvedHosts = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Gets the connect timeout.
+	 *
+	 * @return the timeout in milliseconds, <code>0</code> waits forever
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets the connect timeout.
+	 *
+	 * @param connectTimeout
+	 *            the timeout in milliseconds, <code>0</code> waits forever
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		if (connectTimeout < 0)
+			throw new IllegalArgumentException("The connect timeout must not be negative: " + connectTimeout);
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Gets the read timeout.
+	 *
+	 * @return the timeout in milliseconds, <code>0</code> waits forever
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Sets the read timeout.
+	 *
+	 * @param readTimeout
+	 *            the timeout in milliseconds, <code>0</code> waits forever
+	 */
+	public void setReadTimeout(int readTimeout) {
+		if (readTimeout < 0)
+			throw new IllegalArgumentException("The read timeout must not be negative: " + readTimeout);
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Gets the value of the <code>User-Agent</code> header.
+	 *
+	 * @return the user agent
+	 */
+	public String getUserAgent() {
+		return userAgent;
+	}
+
+	/**
+	 * Sets the value of the <code>User-Agent</code> header that is sent with every request.
+	 *
+	 * @param userAgent
+	 *            the user agent
+	 */
+	public void setUserAgent(String userAgent) {
+		this.userAgent = userAgent;
+	}
+
+	@Override
+	public FetchResponse fetch(String url, String eTag, String lastModified) throws IOException {
+		URLConnection connection = openConnection(url);
+		if (eTag != null)
+			connection.setRequestProperty("If-None-Match", eTag);
+		if (lastModified != null)
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+
+		if (!(connection instanceof HttpURLConnection))
+			return new FetchResponse(connection.getURL().toString(), HttpURLConnection.HTTP_OK, getHeaders(connection), connection.getInputStream());
+
+		HttpURLConnection httpConnection = (HttpURLConnection) connection;
+		long dnsTime = resolve(connection.getURL().getHost());
+		long connectStart = System.nanoTime();
+		httpConnection.connect();
+		long firstByteStart = System.nanoTime();
+		int statusCode = httpConnection.getResponseCode();
+		long end = System.nanoTime();
+		String finalUrl = httpConnection.getURL().toString();
+
+		if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			discard(httpConnection.getErrorStream());
+			if (statusCode == HttpURLConnection.HTTP_NOT_FOUND || statusCode == HttpURLConnection.HTTP_GONE)
+				throw new FileNotFoundException(finalUrl);
+			throw new FetchException(finalUrl, statusCode, getRetryAfter(httpConnection.getHeaderField("Retry-After")));
+		}
+
+		FetchResponse response;
+		if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			discard(httpConnection.getInputStream());
+			response = new FetchResponse(finalUrl, statusCode, getHeaders(connection), new ByteArrayInputStream(new byte[0]));
+		} else {
+			response = new FetchResponse(finalUrl, statusCode, getHeaders(connection), httpConnection.getInputStream());
+		}
+		response.setTimings(dnsTime, firstByteStart - connectStart, end - firstByteStart);
+		return response;
+	}
+
+	/**
+	 * Resolves a host name before the first connection to it is opened, so the DNS lookup can be timed on its own. The JDK caches the
+	 * address, so the connection doesn't look it up again. The lookup isn't bounded by the connect or read timeout, so every host is only
+	 * looked up once by the fetcher, later connections resolve it from the cache of the JDK while they connect.
+	 *
+	 * @param host
+	 *            the host name
+	 * @return the time of the DNS lookup in nanoseconds or <code>-1</code> if the host wasn't looked up here, because it was looked up
+	 *         before or only a proxy can resolve it
+	 */
+	private long resolve(String host) {
+		if (host == null || host.isEmpty() || resolvedHosts.putIfAbsent(host.toLowerCase(Locale.ENGLISH), Boolean.TRUE) != null)
+			return -1;
+		long start = System.nanoTime();
+		try {
+			InetAddress.getByName(host);
+			return System.nanoTime() - start;
+		} catch (UnknownHostException e) {
+			// the connection reports the error unless a proxy resolves the host
+			return -1;
+		}
+	}
+
+	/**
+	 * Opens a connection to a URL and configures it. Subclasses may add request headers like credentials.
+	 *
+	 * @param url
+	 *            the absolute URL
+	 * @return the connection that isn't connected yet
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected URLConnection openConnection(String url) throws IOException {
+		URLConnection connection = new URL(url).openConnection();
+		connection.setRequestProperty("User-Agent", userAgent);
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		return connection;
+	}
+
+	/**
+	 * Gets the response headers of a connection.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @return the value of every header by its name, like {@link URLConnection#getHeaderField(String)} returns it
+	 */
+	private static Map<String, String> getHeaders(URLConnection connection) {
+		Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		for (String name : connection.getHeaderFields().keySet()) {
+			// the status line has no name
+			if (name != null)
+				headers.put(name, connection.getHeaderField(name));
+		}
+		return headers;
+	}
+
+	/**
+	 * Parses the value of a <code>Retry-After</code> header, which is either a number of seconds or an HTTP date.
+	 *
+	 * @param retryAfter
+	 *            the header value or <code>null</code>
+	 * @return the delay in milliseconds or <code>-1</code> if the header is missing or invalid
+	 */
+	private static long getRetryAfter(String retryAfter) {
+		if (retryAfter == null)
+			return -1;
+		try {
+			return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+		} catch (NumberFormatException e) {
+			long date = AppCrawlerUtil.parseHttpDate(retryAfter);
+			return date >= 0 ? Math.max(0, date - System.currentTimeMillis()) : -1;
+		}
+	}
+
+	/**
+	 * Reads a response body to its end and closes it, so the connection can be reused.
+	 *
+	 * @param inputStream
+	 *            the body or <code>null</code>
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void discard(InputStream inputStream) throws IOException {
+		if (inputStream == null)
+			return;
+		try {
+			IOUtils.copy(inputStream, NullOutputStream.NULL_OUTPUT_STREAM);
+		} finally {
+			inputStream.close();
+		}
+	}
+}
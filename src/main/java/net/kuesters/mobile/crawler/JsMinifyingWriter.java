@@ -0,0 +1,363 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Minifies scripts.
+ * <p>
+ * Comments are removed, except for comments starting with <code>/*!</code>, which usually contain licenses. Whitespace is removed where
+ * it doesn't separate tokens. Line breaks are kept unless the characters around them show that no semicolon can be inserted automatically,
+ * so the script parses the same. Strings, template literals and regular expressions are copied as they are. Whether a slash starts a
+ * regular expression or divides is decided from the token in front of it, like most minifiers do. A slash after a closing parenthesis
+ * may start a regular expression after <code>if (...)</code> or <code>while (...)</code> though, so the whitespace from such a slash to
+ * the next slash on the same line is copied as it is.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class JsMinifyingWriter extends MinifyingWriter {
+
+	/** The keywords a regular expression can follow. */
+	private static final Set<String> REGEX_KEYWORDS = new HashSet<String>(Arrays.asList("return", "typeof", "instanceof", "in", "of",
+			"new", "delete", "void", "throw", "case", "do", "else", "yield", "await"));
+
+	/** Characters a line break after them can be dropped. */
+	private static final String NO_NEWLINE_AFTER = "{;,([=:";
+
+	/** Characters a line break in front of them can be dropped. */
+	private static final String NO_NEWLINE_BEFORE = ")]};,";
+
+	/** Characters a slash after them divides. */
+	private static final String DIVISION_AFTER = ")]'\"`";
+
+	private static final int CODE = 0;
+	private static final int STRING = 1;
+	private static final int TEMPLATE = 2;
+	private static final int REGEX = 3;
+	private static final int LINE_COMMENT = 4;
+	private static final int BLOCK_COMMENT = 5;
+
+	/** The state of the minifier. */
+	private int state = CODE;
+
+	/** The last character of code written or <code>0</code>. */
+	private char lastCode;
+
+	/** The identifier, keyword or number that ends the code written so far. */
+	private final StringBuilder word = new StringBuilder();
+
+	/** Whether the code written so far ends with a regular expression. */
+	private boolean afterRegex;
+
+	/** Whether whitespace was skipped since the last character written. */
+	private boolean pendingSpace;
+
+	/** Whether the skipped whitespace contains a line break. */
+	private boolean pendingNewline;
+
+	/** Whether a slash was held back because it may start a comment. */
+	private boolean pendingSlash;
+
+	/** Whether the held back slash starts a regular expression if it doesn't start a comment. */
+	private boolean slashStartsRegex;
+
+	/** The quote of the current string. */
+	private char quote;
+
+	/** Whether the previous character of a string, template or regular expression was a backslash. */
+	private boolean escaped;
+
+	/** Whether the previous characters of a string were a backslash and a carriage return, which may be followed by a line feed. */
+	private boolean escapedCarriageReturn;
+
+	/** Whether whitespace is copied as it is, because the slash in front of it may start a regular expression. */
+	private boolean verbatimSpace;
+
+	/** Whether the current regular expression is in a character class. */
+	private boolean inCharacterClass;
+
+	/** Whether the previous character of a template literal was a dollar sign. */
+	private boolean dollar;
+
+	/** Whether the current block comment is kept. */
+	private boolean keepComment;
+
+	/** Whether the current block comment has no characters yet. */
+	private boolean commentStart;
+
+	/** Whether the previous character of the current block comment was an asterisk. */
+	private boolean star;
+
+	/** The number of open braces in code. */
+	private int braceDepth;
+
+	/** The brace depths at which the placeholders of enclosing template literals close. */
+	private int[] templateDepths = new int[4];
+
+	/** The number of enclosing template literals. */
+	private int templateCount;
+
+	JsMinifyingWriter(Writer out) {
+		super(out);
+	}
+
+	@Override
+	void process(char c) throws IOException {
+		switch (state) {
+		case STRING:
+			emit(c);
+			if (escapedCarriageReturn) {
+				escapedCarriageReturn = false;
+				// a backslash and CRLF continue the line
+				if (c == '\n')
+					return;
+			}
+			if (escaped) {
+				escaped = false;
+				escapedCarriageReturn = c == '\r';
+			} else if (c == '\\')
+				escaped = true;
+			else if (c == quote)
+				endLiteral(c);
+			else if (c == '\n')
+				// strings can't span lines, the quotes were misread
+				endLiteral(c);
+			return;
+		case TEMPLATE:
+			emit(c);
+			if (escaped)
+				escaped = false;
+			else if (c == '\\')
+				escaped = true;
+			else if (c == '`')
+				endLiteral(c);
+			else if (c == '{' && dollar) {
+				push(braceDepth);
+				state = CODE;
+				lastCode = c;
+				word.setLength(0);
+			}
+			dollar = !escaped && c == '$';
+			return;
+		case REGEX:
+			emit(c);
+			if (escaped)
+				escaped = false;
+			else if (c == '\\')
+				escaped = true;
+			else if (c == '[')
+				inCharacterClass = true;
+			else if (c == ']')
+				inCharacterClass = false;
+			else if (c == '/' && !inCharacterClass) {
+				endLiteral(c);
+				afterRegex = true;
+			} else if (c == '\n')
+				// regular expressions can't span lines, the slash was a division
+				endLiteral(c);
+			return;
+		case LINE_COMMENT:
+			if (c == '\n' || c == '\r') {
+				pendingSpace = true;
+				pendingNewline = true;
+				state = CODE;
+			}
+			return;
+		case BLOCK_COMMENT:
+			processBlockComment(c);
+			return;
+		}
+
+		if (pendingSlash) {
+			pendingSlash = false;
+			if (c == '/') {
+				state = LINE_COMMENT;
+				return;
+			}
+			if (c == '*') {
+				commentStart = true;
+				star = false;
+				state = BLOCK_COMMENT;
+				return;
+			}
+			flushPending('/');
+			boolean afterParenthesis = lastCode == ')';
+			emitCode('/');
+			verbatimSpace = !slashStartsRegex && afterParenthesis;
+			if (slashStartsRegex) {
+				escaped = false;
+				inCharacterClass = false;
+				state = REGEX;
+				process(c);
+				return;
+			}
+		}
+
+		boolean lineTerminator = c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+		if (verbatimSpace && (lineTerminator || c == '/'))
+			verbatimSpace = false;
+		if (verbatimSpace && isWhitespace(c)) {
+			emit(c);
+			return;
+		}
+		if (isWhitespace(c) || lineTerminator) {
+			pendingSpace = true;
+			pendingNewline |= c != ' ' && c != '\t' && c != '\f';
+			return;
+		}
+		if (c == '/') {
+			pendingSlash = true;
+			slashStartsRegex = startsRegex();
+			return;
+		}
+
+		flushPending(c);
+		emitCode(c);
+		if (c == '"' || c == '\'') {
+			quote = c;
+			escaped = false;
+			state = STRING;
+		} else if (c == '`') {
+			escaped = false;
+			dollar = false;
+			state = TEMPLATE;
+		} else if (c == '{')
+			braceDepth++;
+		else if (c == '}') {
+			if (templateCount > 0 && templateDepths[templateCount - 1] == braceDepth) {
+				// the end of a placeholder continues the template literal
+				templateCount--;
+				escaped = false;
+				dollar = false;
+				state = TEMPLATE;
+			} else
+				braceDepth--;
+		}
+	}
+
+	private void processBlockComment(char c) throws IOException {
+		if (commentStart) {
+			commentStart = false;
+			keepComment = c == '!';
+			if (keepComment) {
+				flushPending('/');
+				emit("/*");
+			}
+		}
+		if (keepComment)
+			emit(c);
+		else if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029')
+			// a comment with a line break counts as a line break
+			pendingNewline = true;
+
+		if (c == '/' && star) {
+			pendingSpace = true;
+			// the code after a license starts on a new line
+			pendingNewline |= keepComment;
+			state = CODE;
+		}
+		star = c == '*';
+	}
+
+	/**
+	 * Decides whether a slash in code starts a regular expression.
+	 *
+	 * @return true, if the slash starts a regular expression, false if it divides
+	 */
+	private boolean startsRegex() {
+		if (lastCode == 0)
+			return true;
+		if (afterRegex)
+			return false;
+		if (word.length() > 0)
+			return REGEX_KEYWORDS.contains(word.toString());
+		return DIVISION_AFTER.indexOf(lastCode) < 0;
+	}
+
+	/**
+	 * Writes the held back whitespace in front of a character of code, if it is needed.
+	 *
+	 * @param next
+	 *            the character that follows
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void flushPending(char next) throws IOException {
+		if (!pendingSpace || lastCode == 0) {
+			pendingSpace = false;
+			pendingNewline = false;
+			return;
+		}
+		if (pendingNewline && NO_NEWLINE_AFTER.indexOf(lastCode) < 0 && NO_NEWLINE_BEFORE.indexOf(next) < 0)
+			emit('\n');
+		else if (needsSpace(next))
+			emit(' ');
+		pendingSpace = false;
+		pendingNewline = false;
+	}
+
+	/**
+	 * Checks if the code written so far and a character would run into each other without a space.
+	 *
+	 * @param next
+	 *            the character
+	 * @return true, if a space is needed
+	 */
+	private boolean needsSpace(char next) {
+		if ((isIdentifierPart(lastCode) || afterRegex) && isIdentifierPart(next))
+			return true;
+		// a + +b, a - -b, a / /b/
+		if (lastCode == next && (next == '+' || next == '-' || next == '/'))
+			return true;
+		// 1 .toString()
+		return next == '.' && Character.isDigit(lastCode);
+	}
+
+	private void emitCode(char c) throws IOException {
+		emit(c);
+		lastCode = c;
+		afterRegex = false;
+		if (isIdentifierPart(c))
+			word.append(c);
+		else
+			word.setLength(0);
+	}
+
+	/**
+	 * Continues with code after a string, template literal or regular expression.
+	 *
+	 * @param c
+	 *            the last character of the literal
+	 */
+	private void endLiteral(char c) {
+		lastCode = c;
+		word.setLength(0);
+		state = CODE;
+	}
+
+	private void push(int depth) {
+		if (templateCount == templateDepths.length)
+			templateDepths = Arrays.copyOf(templateDepths, templateCount * 2);
+		templateDepths[templateCount++] = depth;
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '\\' || c > 127;
+	}
+
+	@Override
+	void finish() throws IOException {
+		if (pendingSlash)
+			emit('/');
+		pendingSlash = false;
+		pendingSpace = false;
+		pendingNewline = false;
+		verbatimSpace = false;
+		escapedCarriageReturn = false;
+		state = CODE;
+	}
+}
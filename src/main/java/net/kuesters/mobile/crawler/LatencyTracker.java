@@ -0,0 +1,77 @@
+package net.kuesters.mobile.crawler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the latest response times of every host, so the timeouts of its requests can follow how fast it actually answers.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class LatencyTracker {
+
+	/** The number of response times that are kept per host. */
+	private static final int WINDOW_SIZE = 128;
+
+	/** The number of response times a host needs before its percentiles are used. */
+	private static final int MIN_SAMPLES = 16;
+
+	/** The latest response times by host. */
+	private final Map<String, Samples> hosts = new HashMap<String, Samples>();
+
+	/**
+	 * Records the response time of a request.
+	 *
+	 * @param host
+	 *            the host and port
+	 * @param latency
+	 *            the time until the response headers arrived in milliseconds
+	 */
+	synchronized void record(String host, long latency) {
+		String name = host.toLowerCase(Locale.ENGLISH);
+		Samples samples = hosts.get(name);
+		if (samples == null) {
+			samples = new Samples();
+			hosts.put(name, samples);
+		}
+		samples.values[samples.next] = latency;
+		samples.next = (samples.next + 1) % WINDOW_SIZE;
+		samples.count = Math.min(WINDOW_SIZE, samples.count + 1);
+	}
+
+	/**
+	 * Gets a percentile of the latest response times of a host.
+	 *
+	 * @param host
+	 *            the host and port
+	 * @param percentile
+	 *            the percentile between 1 and 100
+	 * @return the response time in milliseconds or <code>-1</code> if the host has too few response times
+	 */
+	synchronized long getPercentile(String host, int percentile) {
+		Samples samples = hosts.get(host.toLowerCase(Locale.ENGLISH));
+		if (samples == null || samples.count < MIN_SAMPLES)
+			return -1;
+		long[] sorted = Arrays.copyOf(samples.values, samples.count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * The ring buffer of the response times of a host.
+	 */
+	private static final class Samples {
+
+		/** The response times, the oldest is overwritten first. */
+		final long[] values = new long[WINDOW_SIZE];
+
+		/** The index of the next response time. */
+		int next;
+
+		/** The number of response times. */
+		int count;
+	}
+}
@@ -0,0 +1,53 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that counts the bytes read from the body of an asset and the time spent waiting for them in its {@link AssetMetrics}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class MeteredInputStream extends FilterInputStream {
+
+	/** The metrics of the asset. */
+	private final AssetMetrics metrics;
+
+	/**
+	 * Instantiates a new metered input stream.
+	 *
+	 * @param inputStream
+	 *            the body of the asset
+	 * @param metrics
+	 *            the metrics of the asset
+	 */
+	MeteredInputStream(InputStream inputStream, AssetMetrics metrics) {
+		super(inputStream);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		int b = super.read();
+		metrics.read(b >= 0 ? 1 : 0, System.nanoTime() - start);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		int count = super.read(b, off, len);
+		metrics.read(Math.max(0, count), System.nanoTime() - start);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long start = System.nanoTime();
+		long skipped = super.skip(n);
+		metrics.read(skipped, System.nanoTime() - start);
+		return skipped;
+	}
+}
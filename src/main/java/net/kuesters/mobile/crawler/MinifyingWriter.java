@@ -0,0 +1,189 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import net.kuesters.mobile.crawler.AppCrawlerUtil.AssetType;
+
+/**
+ * A writer that minifies the text written to it on the fly and passes the result on to another writer.
+ * <p>
+ * The minifiers are conservative: they only remove comments and whitespace where that can't change the meaning of the content, and copy
+ * everything they don't understand. The text is processed character by character, so assets of any size are minified while they are
+ * streamed into the ZIP file. Closing the writer writes the remaining text and closes the underlying writer.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+abstract class MinifyingWriter extends Writer {
+
+	/** The writer the minified text is written to. */
+	private final Writer out;
+
+	/** The minified text that isn't written to {@link #out} yet. */
+	private final char[] buffer = new char[8192];
+
+	/** The number of characters in the {@link #buffer}. */
+	private int bufferLength;
+
+	/** The number of characters written to the minifier. */
+	private long charsIn;
+
+	/** The number of characters the minifier wrote. */
+	private long charsOut;
+
+	/** The last character the minifier wrote or <code>0</code>. */
+	private char lastEmitted;
+
+	/**
+	 * Instantiates a new minifying writer.
+	 *
+	 * @param out
+	 *            the writer the minified text is written to
+	 */
+	MinifyingWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Creates the minifier of an asset type.
+	 *
+	 * @param assetType
+	 *            the asset type
+	 * @param out
+	 *            the writer the minified text is written to
+	 * @return the minifier or <code>null</code> if there is none for the type
+	 */
+	static MinifyingWriter create(AssetType assetType, Writer out) {
+		switch (assetType) {
+		case HTML:
+			return new HtmlMinifyingWriter(out);
+		case STYLESHEET:
+			return new CssMinifyingWriter(out);
+		case SCRIPT:
+			return new JsMinifyingWriter(out);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Processes the next character of the text.
+	 *
+	 * @param c
+	 *            the character
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	abstract void process(char c) throws IOException;
+
+	/**
+	 * Writes everything that is held back at the end of the text.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	abstract void finish() throws IOException;
+
+	/**
+	 * Writes a character of the minified text.
+	 *
+	 * @param c
+	 *            the character
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	final void emit(char c) throws IOException {
+		if (bufferLength == buffer.length) {
+			out.write(buffer, 0, bufferLength);
+			bufferLength = 0;
+		}
+		buffer[bufferLength++] = c;
+		lastEmitted = c;
+		charsOut++;
+	}
+
+	/**
+	 * Writes characters of the minified text.
+	 *
+	 * @param text
+	 *            the characters
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	final void emit(CharSequence text) throws IOException {
+		for (int i = 0; i < text.length(); i++)
+			emit(text.charAt(i));
+	}
+
+	/**
+	 * Gets the last character of the minified text.
+	 *
+	 * @return the character or <code>0</code> if nothing was written yet
+	 */
+	final char getLastEmitted() {
+		return lastEmitted;
+	}
+
+	/**
+	 * Gets the number of characters written to the minifier, i.e. the size of the original text.
+	 *
+	 * @return the number of characters
+	 */
+	long getCharsIn() {
+		return charsIn;
+	}
+
+	/**
+	 * Gets the number of characters of the minified text.
+	 *
+	 * @return the number of characters
+	 */
+	long getCharsOut() {
+		return charsOut;
+	}
+
+	static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		charsIn++;
+		process((char) c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			charsIn++;
+			process(cbuf[i]);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			charsIn++;
+			process(str.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes the minified text so far to the underlying writer. Text that is held back because it depends on what follows stays in the
+	 * minifier until more text is written or the minifier is closed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.write(buffer, 0, bufferLength);
+		bufferLength = 0;
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		flush();
+		out.close();
+	}
+}
@@ -0,0 +1,316 @@
+package net.kuesters.mobile.crawler;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Resolves the URLs found while an app is crawled to the paths of their files in the resulting ZIP file and the paths of the files to
+ * each other.
+ * <p>
+ * A page usually refers to the same assets as many other pages, often several times, so the results are cached: every URL is parsed and
+ * mapped to its path only once, and the relative path between two directories is only built once. The paths are the same as those of
+ * {@link AppCrawlerUtil#getNormalizedURL(String)}, {@link AppCrawlerUtil#getAbsoluteResultingPath(String, String)} and
+ * {@link AppCrawlerUtil#getRelativeResultingPath(String, String)}. The directories of all paths are kept in a tree, a relative path is
+ * found by walking up from both directories to their common ancestor instead of comparing the paths segment by segment.
+ * </p>
+ * <p>
+ * A resolver belongs to a single crawl and grows with the URLs and paths of the app. It is safe for concurrent use.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public final class PathResolver {
+
+	/** The start URL of the app. */
+	private final String startUrl;
+
+	/** The path of the start URL, which is removed from the paths of the app's URLs. */
+	private final String appPath;
+
+	/** The targets by the URLs they were resolved from, both as found and normalized. */
+	private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+
+	/** The locations of the absolute paths. */
+	private final ConcurrentMap<String, Location> locations = new ConcurrentHashMap<String, Location>();
+
+	/** The root directory of the ZIP file. */
+	private final Directory root = new Directory(null, "");
+
+	/**
+	 * Instantiates a new path resolver.
+	 *
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @throws MalformedURLException
+	 *             if the start URL is malformed
+	 */
+	public PathResolver(String startUrl) throws MalformedURLException {
+		this.startUrl = startUrl;
+		this.appPath = new URL(startUrl).getPath();
+	}
+
+	/**
+	 * Resolves a URL to its normalized form and the path of its file in the resulting ZIP file.
+	 *
+	 * @param urlString
+	 *            the URL as string
+	 * @return the target
+	 * @throws MalformedURLException
+	 *             the malformed URL exception
+	 */
+	public Target resolve(String urlString) throws MalformedURLException {
+		Target target = targets.get(urlString);
+		if (target != null)
+			return target;
+
+		String normalizedUrl = AppCrawlerUtil.getNormalizedURL(urlString);
+		target = targets.get(normalizedUrl);
+		if (target == null) {
+			target = new Target(normalizedUrl, getResultingPath(startUrl, appPath, new URL(normalizedUrl), normalizedUrl));
+			Target existing = targets.putIfAbsent(normalizedUrl, target);
+			if (existing != null)
+				target = existing;
+		}
+		targets.putIfAbsent(urlString, target);
+		return target;
+	}
+
+	/**
+	 * Builds the relative path to a file compared to a referring file.
+	 *
+	 * @param absoluteResultingPath
+	 *            the absolute path that will be made relative
+	 * @param absoluteReferrerPath
+	 *            the absolute path of the referrer as the base of the relative path
+	 * @return the relative resulting path, empty if both paths are the same
+	 */
+	public String getRelativeResultingPath(String absoluteResultingPath, String absoluteReferrerPath) {
+		if (absoluteResultingPath.equals(absoluteReferrerPath))
+			return "";
+
+		Directory directory = getLocation(absoluteReferrerPath).directory;
+		String relativePath = directory.relativePaths.get(absoluteResultingPath);
+		if (relativePath == null) {
+			relativePath = directory.relativize(getLocation(absoluteResultingPath));
+			directory.relativePaths.putIfAbsent(absoluteResultingPath, relativePath);
+		}
+		return relativePath;
+	}
+
+	/**
+	 * Builds the relative path to a file compared to a referring file without a cache, like
+	 * {@link #getRelativeResultingPath(String, String)} does.
+	 *
+	 * @param absoluteResultingPath
+	 *            the absolute path that will be made relative
+	 * @param absoluteReferrerPath
+	 *            the absolute path of the referrer as the base of the relative path
+	 * @return the relative resulting path, empty if both paths are the same
+	 */
+	static String relativize(String absoluteResultingPath, String absoluteReferrerPath) {
+		if (absoluteResultingPath.equals(absoluteReferrerPath))
+			return "";
+
+		Directory root = new Directory(null, "");
+		return newLocation(root, absoluteReferrerPath).directory.relativize(newLocation(root, absoluteResultingPath));
+	}
+
+	/**
+	 * Gets the location of an absolute path, adding its directories to the tree if they are new.
+	 *
+	 * @param absolutePath
+	 *            the absolute path
+	 * @return the location
+	 */
+	private Location getLocation(String absolutePath) {
+		Location location = locations.get(absolutePath);
+		if (location != null)
+			return location;
+
+		location = newLocation(root, absolutePath);
+		Location existing = locations.putIfAbsent(absolutePath, location);
+		return existing != null ? existing : location;
+	}
+
+	/**
+	 * Creates the location of an absolute path, adding its directories to a tree if they are new.
+	 *
+	 * @param root
+	 *            the root directory of the tree
+	 * @param absolutePath
+	 *            the absolute path
+	 * @return the location
+	 */
+	private static Location newLocation(Directory root, String absolutePath) {
+		if (!absolutePath.startsWith("/"))
+			throw new IllegalArgumentException("Not an absolute path: " + absolutePath);
+
+		Directory directory = root;
+		int start = 1;
+		int end;
+		while ((end = absolutePath.indexOf('/', start)) >= 0) {
+			directory = directory.getChild(absolutePath.substring(start, end));
+			start = end + 1;
+		}
+		return new Location(directory, absolutePath.substring(start));
+	}
+
+	/**
+	 * Builds the absolute path to the crawled file as it will be saved locally for the mobile app.
+	 *
+	 * @param startUrl
+	 *            the start URL of the app
+	 * @param appPath
+	 *            the path of the start URL
+	 * @param url
+	 *            the source's URL
+	 * @param urlString
+	 *            the source's URL as string
+	 * @return the absolute local path to be used for the crawled file
+	 */
+	static String getResultingPath(String startUrl, String appPath, URL url, String urlString) {
+		String path = url.getPath();
+		StringBuilder resultingPath = new StringBuilder(path.length() + 16);
+		resultingPath.append('/');
+		if (!StringUtils.startsWithIgnoreCase(urlString, startUrl))
+			resultingPath.append(url.getHost().replace('.', '-')).append('-').append(url.getPort());
+		resultingPath.append(StringUtils.replaceChars(StringUtils.replaceOnce(path, appPath, ""), ":,", "//"));
+		// convert parameters to directories
+		if (StringUtils.isNotBlank(url.getQuery()))
+			resultingPath.append(StringUtils.replaceChars(url.getQuery(), "=&:", "///"));
+		// if the path doesn't contain a dot we consider it to be a directory and append a slash
+		if (path.indexOf('.') < 0 && !path.endsWith("/"))
+			resultingPath.append('/');
+		// in case of a trailing slash we add an index.html for the directory's index file
+		if (resultingPath.charAt(resultingPath.length() - 1) == '/')
+			resultingPath.append("index.html");
+
+		// the leading slash is only needed if the path doesn't have one of its own
+		return resultingPath.length() > 1 && resultingPath.charAt(1) == '/' ? resultingPath.substring(1) : resultingPath.toString();
+	}
+
+	/**
+	 * A URL resolved by a {@link PathResolver}.
+	 */
+	public static final class Target {
+
+		/** The normalized URL. */
+		private final String normalizedUrl;
+
+		/** The absolute path of the file in the resulting ZIP file. */
+		private final String resultingPath;
+
+		private Target(String normalizedUrl, String resultingPath) {
+			this.normalizedUrl = normalizedUrl;
+			this.resultingPath = resultingPath;
+		}
+
+		public String getNormalizedUrl() {
+			return normalizedUrl;
+		}
+
+		public String getResultingPath() {
+			return resultingPath;
+		}
+	}
+
+	/**
+	 * A file in the tree of directories.
+	 */
+	private static final class Location {
+
+		/** The directory of the file. */
+		private final Directory directory;
+
+		/** The name of the file. */
+		private final String fileName;
+
+		Location(Directory directory, String fileName) {
+			this.directory = directory;
+			this.fileName = fileName;
+		}
+	}
+
+	/**
+	 * A directory in the resulting ZIP file.
+	 */
+	private static final class Directory {
+
+		/** The parent directory or <code>null</code> for the root. */
+		private final Directory parent;
+
+		/** The name of the directory. */
+		private final String name;
+
+		/** The number of directories above this one. */
+		private final int depth;
+
+		/** The sub directories by name. */
+		private final ConcurrentMap<String, Directory> children = new ConcurrentHashMap<String, Directory>();
+
+		/** The relative paths from this directory by the absolute paths they lead to. */
+		private final ConcurrentMap<String, String> relativePaths = new ConcurrentHashMap<String, String>();
+
+		Directory(Directory parent, String name) {
+			this.parent = parent;
+			this.name = name;
+			this.depth = parent != null ? parent.depth + 1 : 0;
+		}
+
+		Directory getChild(String name) {
+			Directory child = children.get(name);
+			if (child == null) {
+				Directory newChild = new Directory(this, name);
+				child = children.putIfAbsent(name, newChild);
+				if (child == null)
+					child = newChild;
+			}
+			return child;
+		}
+
+		/**
+		 * Builds the relative path from this directory to a file.
+		 *
+		 * @param target
+		 *            the location of the file
+		 * @return the relative path
+		 */
+		String relativize(Location target) {
+			Directory from = this;
+			Directory to = target.directory;
+			int ups = 0;
+			while (from.depth > to.depth) {
+				from = from.parent;
+				ups++;
+			}
+
+			// the directories below the common ancestor, from the bottom up
+			Directory[] downs = new Directory[to.depth];
+			int count = 0;
+			while (to.depth > from.depth) {
+				downs[count++] = to;
+				to = to.parent;
+			}
+			while (from != to) {
+				from = from.parent;
+				ups++;
+				downs[count++] = to;
+				to = to.parent;
+			}
+
+			StringBuilder relativePath = new StringBuilder(ups * 3 + count * 8 + target.fileName.length());
+			for (int i = 0; i < ups; i++)
+				relativePath.append("../");
+			for (int i = count - 1; i >= 0; i--)
+				relativePath.append(downs[i].name).append('/');
+			relativePath.append(target.fileName);
+
+			// an empty directory name would make the path absolute
+			return relativePath.length() > 0 && relativePath.charAt(0) == '/' ? relativePath.substring(1) : relativePath.toString();
+		}
+	}
+}
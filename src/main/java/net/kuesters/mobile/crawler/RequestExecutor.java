@@ -0,0 +1,261 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sends the requests of a crawl on threads of their own, so the fetch thread can stop waiting for a response after a timeout and send a
+ * hedged request while the first one is still running.
+ * <p>
+ * A request that is abandoned keeps running until the fetcher returns or its own timeouts end it, then its response is closed. The
+ * response times of all requests are recorded once, including the abandoned and failed ones and capped at the timeout of the request, so
+ * slow responses aren't missing from the percentiles. A request that times out counts with the whole timeout, so the timeouts of a host
+ * that gets slower grow with it.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+final class RequestExecutor {
+
+	/** The logger. */
+	private static final Log LOG = LogFactory.getLog(RequestExecutor.class);
+
+	/** The threads of the requests, created on demand. */
+	private final ExecutorService executor;
+
+	/** The response times by host. */
+	private final LatencyTracker latencies;
+
+	/**
+	 * Instantiates a new request executor.
+	 *
+	 * @param latencies
+	 *            the tracker that the response times are recorded in
+	 * @param threadFactory
+	 *            the factory of the request threads
+	 */
+	RequestExecutor(LatencyTracker latencies, ThreadFactory threadFactory) {
+		this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+		this.latencies = latencies;
+	}
+
+	/**
+	 * Sends a request and waits for the response. If the response doesn't arrive within the hedge delay, a second request is sent and the
+	 * response that arrives first is used. If one of the requests fails, the other one is waited for.
+	 *
+	 * @param fetcher
+	 *            the fetcher
+	 * @param host
+	 *            the host and port of the URL
+	 * @param url
+	 *            the absolute URL
+	 * @param eTag
+	 *            the <code>ETag</code> of a previous response or <code>null</code>
+	 * @param lastModified
+	 *            the <code>Last-Modified</code> date of a previous response or <code>null</code>
+	 * @param timeout
+	 *            the time until the response headers have to arrive in milliseconds
+	 * @param hedgeDelay
+	 *            the time after which a hedged request is sent in milliseconds or <code>-1</code> for no hedged request
+	 * @param metrics
+	 *            the metrics of the asset, which count the requests
+	 * @return the request that succeeded
+	 * @throws SocketTimeoutException
+	 *             if no response arrived in time
+	 * @throws IOException
+	 *             the exception of the last request, if all requests failed
+	 */
+	Request execute(Fetcher fetcher, String host, String url, String eTag, String lastModified, long timeout, long hedgeDelay,
+			AssetMetrics metrics) throws IOException {
+		BlockingQueue<Request> finished = new LinkedBlockingQueue<Request>();
+		List<Request> running = new ArrayList<Request>(2);
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long hedgeTime = hedgeDelay >= 0 && hedgeDelay < timeout ? start + TimeUnit.MILLISECONDS.toNanos(hedgeDelay) : -1;
+		IOException failure = null;
+		try {
+			running.add(start(new Request(fetcher, host, url, eTag, lastModified, timeout, finished), metrics));
+			while (!running.isEmpty()) {
+				long wait = (hedgeTime >= 0 ? hedgeTime : deadline) - System.nanoTime();
+				Request request = wait > 0 ? finished.poll(wait, TimeUnit.NANOSECONDS) : null;
+				if (request == null) {
+					if (hedgeTime < 0) {
+						for (Request pending : running)
+							pending.recordLatency(timeout);
+						throw new SocketTimeoutException("No response from " + url + " within " + timeout + " ms");
+					}
+					LOG.info("No response from " + url + " within " + hedgeDelay + " ms, sending a hedged request");
+					hedgeTime = -1;
+					running.add(start(new Request(fetcher, host, url, eTag, lastModified, timeout, finished), metrics));
+					continue;
+				}
+				running.remove(request);
+				if (request.exception == null)
+					return request;
+				failure = request.exception;
+			}
+			throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + url);
+		} finally {
+			for (Request request : running)
+				request.abandon();
+		}
+	}
+
+	/**
+	 * Starts a request and counts it.
+	 *
+	 * @param request
+	 *            the request
+	 * @param metrics
+	 *            the metrics of the asset
+	 * @return the request
+	 */
+	private Request start(Request request, AssetMetrics metrics) {
+		executor.execute(request);
+		metrics.addAttempt();
+		return request;
+	}
+
+	/**
+	 * Lets the running requests finish and stops the threads when they are idle.
+	 */
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * A single request.
+	 */
+	final class Request implements Runnable {
+
+		/** The fetcher. */
+		private final Fetcher fetcher;
+
+		/** The host and port of the URL. */
+		private final String host;
+
+		/** The absolute URL. */
+		private final String url;
+
+		/** The <code>ETag</code> of a previous response or <code>null</code>. */
+		private final String eTag;
+
+		/** The <code>Last-Modified</code> date of a previous response or <code>null</code>. */
+		private final String lastModified;
+
+		/** The time until the response headers have to arrive in milliseconds, the recorded response time is capped at it. */
+		private final long timeout;
+
+		/** The queue the request is added to when it is finished. */
+		private final BlockingQueue<Request> finished;
+
+		/** The response or <code>null</code>. */
+		private FetchResponse response;
+
+		/** The exception of the request or <code>null</code>. */
+		private IOException exception;
+
+		/** The time until the response headers arrived in milliseconds. */
+		private long latency;
+
+		/** True if the response isn't used. */
+		private boolean abandoned;
+
+		/** True if the response time was recorded. */
+		private boolean recorded;
+
+		Request(Fetcher fetcher, String host, String url, String eTag, String lastModified, long timeout, BlockingQueue<Request> finished) {
+			this.fetcher = fetcher;
+			this.host = host;
+			this.url = url;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.timeout = timeout;
+			this.finished = finished;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			FetchResponse fetched = null;
+			IOException failed = null;
+			try {
+				fetched = fetcher.fetch(url, eTag, lastModified);
+			} catch (IOException e) {
+				failed = e;
+			} catch (RuntimeException e) {
+				failed = new IOException("Request for " + url + " failed", e);
+			}
+			synchronized (this) {
+				response = fetched;
+				exception = failed;
+				latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				if (abandoned)
+					close();
+				recordLatency(latency);
+			}
+			finished.add(this);
+		}
+
+		/**
+		 * Records the response time of the request, unless it was already recorded.
+		 *
+		 * @param latency
+		 *            the response time or the time until the request was given up in milliseconds, capped at the timeout
+		 */
+		synchronized void recordLatency(long latency) {
+			if (recorded)
+				return;
+			recorded = true;
+			latencies.record(host, Math.min(latency, timeout));
+		}
+
+		/**
+		 * Marks the request as not used and closes its response as soon as it arrives.
+		 */
+		synchronized void abandon() {
+			abandoned = true;
+			close();
+		}
+
+		private void close() {
+			if (response == null)
+				return;
+			try {
+				response.close();
+			} catch (IOException e) {
+				LOG.debug("Couldn't close abandoned response of " + url, e);
+			}
+			response = null;
+		}
+
+		synchronized FetchResponse getResponse() {
+			return response;
+		}
+
+		/**
+		 * Gets the time until the response headers arrived.
+		 *
+		 * @return the time in milliseconds
+		 */
+		synchronized long getLatency() {
+			return latency;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package net.kuesters.mobile.crawler;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Decides how long the crawler waits for a response and how often it asks again.
+ * <p>
+ * The timeout of a request adapts to the host: it is a multiple of the 99th percentile of the latest response times of the host, within
+ * a lower and upper bound. A host without enough response times yet gets the upper bound. The timeout counts until the response headers
+ * arrive, stalls while the body is read are still bounded by the read timeout of the fetcher.
+ * </p>
+ * <p>
+ * A request that times out or fails with a connection error or a transient server error is sent again after a backoff that doubles with
+ * every attempt and is randomized, so the requests of many assets that failed at the same time don't hit the host at the same time again.
+ * Missing assets and throttled requests aren't retried here, the {@link HostScheduler} takes care of throttled hosts.
+ * </p>
+ * <p>
+ * If hedged requests are enabled, a second request for the same asset is sent when the first one runs longer than the 95th percentile of
+ * the host's response times, and the response that arrives first is used. This cuts the long tail of slow responses at the price of a
+ * few percent more requests.
+ * </p>
+ * <p>
+ * A policy can be shared by any number of crawlers at the same time.
+ * </p>
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class RequestPolicy {
+
+	/** The default number of requests for an asset, including the first one. */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	/** The default backoff before the first retry in milliseconds. */
+	public static final long DEFAULT_INITIAL_BACKOFF = 200;
+
+	/** The default upper limit of the backoff in milliseconds. */
+	public static final long DEFAULT_MAX_BACKOFF = 5000;
+
+	/** The default lower bound of the timeout in milliseconds. */
+	public static final long DEFAULT_MIN_TIMEOUT = 1000;
+
+	/** The default upper bound of the timeout in milliseconds, which is also the timeout of hosts without enough response times. */
+	public static final long DEFAULT_MAX_TIMEOUT = HttpFetcher.DEFAULT_READ_TIMEOUT;
+
+	/** The default factor of the 99th percentile of the response times that gives the timeout. */
+	public static final int DEFAULT_TIMEOUT_FACTOR = 3;
+
+	/** The percentile of the response times the timeout is based on. */
+	static final int TIMEOUT_PERCENTILE = 99;
+
+	/** The percentile of the response times after which a hedged request is sent. */
+	static final int HEDGE_PERCENTILE = 95;
+
+	/** The status code of <code>Request Timeout</code>. */
+	private static final int HTTP_REQUEST_TIMEOUT = 408;
+
+	/** The number of requests for an asset, including the first one. */
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	/** The backoff before the first retry in milliseconds. */
+	private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+
+	/** The upper limit of the backoff in milliseconds. */
+	private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+	/** The lower bound of the timeout in milliseconds. */
+	private long minTimeout = DEFAULT_MIN_TIMEOUT;
+
+	/** The upper bound of the timeout in milliseconds. */
+	private long maxTimeout = DEFAULT_MAX_TIMEOUT;
+
+	/** The factor of the 99th percentile of the response times that gives the timeout. */
+	private int timeoutFactor = DEFAULT_TIMEOUT_FACTOR;
+
+	/** True if a second request is sent for slow responses. */
+	private boolean hedgedRequests;
+
+	/** The source of the backoff jitter. */
+	private final Random random = new Random();
+
+	/**
+	 * Gets the number of requests for an asset, including the first one.
+	 *
+	 * @return the number of requests
+	 */
+	public synchronized int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Sets the number of requests for an asset, including the first one. A value of <code>1</code> disables retries.
+	 *
+	 * @param maxAttempts
+	 *            the number of requests, at least <code>1</code>
+	 */
+	public synchronized void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Gets the backoff before the first retry.
+	 *
+	 * @return the backoff in milliseconds
+	 */
+	public synchronized long getInitialBackoff() {
+		return initialBackoff;
+	}
+
+	/**
+	 * Sets the backoff before the first retry. The backoff doubles with every further retry.
+	 *
+	 * @param initialBackoff
+	 *            the backoff in milliseconds
+	 */
+	public synchronized void setInitialBackoff(long initialBackoff) {
+		if (initialBackoff < 0)
+			throw new IllegalArgumentException("initialBackoff must not be negative");
+		this.initialBackoff = initialBackoff;
+	}
+
+	/**
+	 * Gets the upper limit of the backoff.
+	 *
+	 * @return the backoff in milliseconds
+	 */
+	public synchronized long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	/**
+	 * Sets the upper limit of the backoff.
+	 *
+	 * @param maxBackoff
+	 *            the backoff in milliseconds
+	 */
+	public synchronized void setMaxBackoff(long maxBackoff) {
+		if (maxBackoff < 0)
+			throw new IllegalArgumentException("maxBackoff must not be negative");
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Gets the lower bound of the timeout.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public synchronized long getMinTimeout() {
+		return minTimeout;
+	}
+
+	/**
+	 * Sets the lower bound of the timeout, which keeps a host that usually answers fast from timing out on a single hiccup.
+	 *
+	 * @param minTimeout
+	 *            the timeout in milliseconds, at least <code>1</code>
+	 */
+	public synchronized void setMinTimeout(long minTimeout) {
+		if (minTimeout < 1)
+			throw new IllegalArgumentException("minTimeout must be at least 1");
+		this.minTimeout = minTimeout;
+	}
+
+	/**
+	 * Gets the upper bound of the timeout, which is also the timeout of hosts without enough response times.
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public synchronized long getMaxTimeout() {
+		return maxTimeout;
+	}
+
+	/**
+	 * Sets the upper bound of the timeout, which is also the timeout of hosts without enough response times.
+	 *
+	 * @param maxTimeout
+	 *            the timeout in milliseconds, at least <code>1</code>
+	 */
+	public synchronized void setMaxTimeout(long maxTimeout) {
+		if (maxTimeout < 1)
+			throw new IllegalArgumentException("maxTimeout must be at least 1");
+		this.maxTimeout = maxTimeout;
+	}
+
+	/**
+	 * Gets the factor of the 99th percentile of a host's response times that gives the timeout of its requests.
+	 *
+	 * @return the factor
+	 */
+	public synchronized int getTimeoutFactor() {
+		return timeoutFactor;
+	}
+
+	/**
+	 * Sets the factor of the 99th percentile of a host's response times that gives the timeout of its requests.
+	 *
+	 * @param timeoutFactor
+	 *            the factor, at least <code>1</code>
+	 */
+	public synchronized void setTimeoutFactor(int timeoutFactor) {
+		if (timeoutFactor < 1)
+			throw new IllegalArgumentException("timeoutFactor must be at least 1");
+		this.timeoutFactor = timeoutFactor;
+	}
+
+	/**
+	 * Checks if a second request is sent for a response that takes longer than the 95th percentile of the host's response times.
+	 *
+	 * @return true if hedged requests are sent
+	 */
+	public synchronized boolean isHedgedRequests() {
+		return hedgedRequests;
+	}
+
+	/**
+	 * Enables hedged requests: a second request is sent for a response that takes longer than the 95th percentile of the host's response
+	 * times. Disabled by default.
+	 *
+	 * @param hedgedRequests
+	 *            true to send hedged requests
+	 */
+	public synchronized void setHedgedRequests(boolean hedgedRequests) {
+		this.hedgedRequests = hedgedRequests;
+	}
+
+	/**
+	 * Gets the timeout of a request.
+	 *
+	 * @param percentile
+	 *            the 99th percentile of the host's response times in milliseconds or <code>-1</code> if it isn't known yet
+	 * @return the timeout in milliseconds
+	 */
+	synchronized long getTimeout(long percentile) {
+		if (percentile < 0)
+			return maxTimeout;
+		return Math.max(minTimeout, Math.min(maxTimeout, percentile * timeoutFactor));
+	}
+
+	/**
+	 * Gets the randomized backoff before a retry, between half and all of the doubled backoff.
+	 *
+	 * @param attempt
+	 *            the number of the failed attempt, starting with 1
+	 * @return the backoff in milliseconds
+	 */
+	synchronized long getBackoff(int attempt) {
+		long backoff = initialBackoff;
+		for (int i = 1; i < attempt && backoff < maxBackoff; i++)
+			backoff *= 2;
+		backoff = Math.min(maxBackoff, backoff);
+		return backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+	}
+
+	/**
+	 * Checks if a failed request is sent again.
+	 *
+	 * @param e
+	 *            the exception of the request
+	 * @return true for timeouts, connection errors and the statuses <code>408</code>, <code>500</code>, <code>502</code> and
+	 *         <code>504</code>
+	 */
+	boolean isRetryable(IOException e) {
+		if (e instanceof FetchException) {
+			int statusCode = ((FetchException) e).getStatusCode();
+			return statusCode == HTTP_REQUEST_TIMEOUT || statusCode == HttpURLConnection.HTTP_INTERNAL_ERROR
+					|| statusCode == HttpURLConnection.HTTP_BAD_GATEWAY || statusCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+		}
+		if (e instanceof SocketTimeoutException)
+			return true;
+		return !(e instanceof FileNotFoundException || e instanceof MalformedURLException || e instanceof UnknownHostException
+				|| e instanceof InterruptedIOException);
+	}
+}
@@ -0,0 +1,60 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link CssMinifyingWriter}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class CssMinifyingWriterTest {
+
+	@Test
+	public void testWhitespace() throws IOException {
+		assertEquals("a,b{color:red;margin:0 auto}", minify("a , b {\n  color: red;\n  margin: 0  auto;\n}\n"));
+		assertEquals("a b > c{x:y}", minify("a  b  >  c { x: y;; }"));
+		assertEquals("a :hover{x:y}", minify("a :hover { x: y }"));
+	}
+
+	@Test
+	public void testComments() throws IOException {
+		assertEquals("a{x:y}", minify("/* comment */ a { x: /* value */ y }"));
+		assertEquals("/*! license */ a{x:y}", minify("/*! license */\na { x: y }"));
+		assertEquals("a b", minify("a/**/b"));
+	}
+
+	@Test
+	public void testStrings() throws IOException {
+		assertEquals("a:after{content:\"b  ;  }\"}", minify("a:after { content: \"b  ;  }\" }"));
+		assertEquals("a{content:'\\'  /* b */'}", minify("a { content: '\\'  /* b */' }"));
+	}
+
+	@Test
+	public void testUrls() throws IOException {
+		assertEquals("a{b:url(c/d.png)}", minify("a { b: url( c/d.png ) }"));
+		assertEquals("a{b:url(\"c  d.png\")}", minify("a { b: url( \"c  d.png\" ) }"));
+		assertEquals("a{b:url(c/*d*/e.png)}", minify("a { b: url(c/*d*/e.png) }"));
+		assertEquals("a{b:url(c\\)d.png)}", minify("a { b: url(c\\)d.png) }"));
+	}
+
+	@Test
+	public void testEscapes() throws IOException {
+		assertEquals(".a\\ {x:y}", minify(".a\\ { x: y }"));
+		assertEquals(".a\\;b{x:y}", minify(".a\\;b { x: y }"));
+		assertEquals(".a\\\\{x:y}", minify(".a\\\\ { x: y }"));
+		assertEquals(".a\\31 b{x:y}", minify(".a\\31 b { x: y }"));
+	}
+
+	private static String minify(String stylesheet) throws IOException {
+		StringWriter writer = new StringWriter();
+		CssMinifyingWriter minifier = new CssMinifyingWriter(writer);
+		minifier.write(stylesheet);
+		minifier.close();
+		return writer.toString();
+	}
+}
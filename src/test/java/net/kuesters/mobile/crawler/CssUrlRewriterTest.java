@@ -0,0 +1,103 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CssUrlRewriter}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class CssUrlRewriterTest {
+
+	/** The URLs the handler was called with. */
+	private List<String> urls;
+
+	/** Prefixes every URL with <code>r/</code>. */
+	private CssUrlRewriter.UrlHandler prefixHandler;
+
+	/** Returns every URL unchanged. */
+	private CssUrlRewriter.UrlHandler identityHandler;
+
+	@Before
+	public void setUp() {
+		urls = new ArrayList<String>();
+		prefixHandler = new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				urls.add(url);
+				return "r/" + url;
+			}
+		};
+		identityHandler = new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				urls.add(url);
+				return url;
+			}
+		};
+	}
+
+	@Test
+	public void testUrls() {
+		assertEquals("a{b:url(r/c.png)}", CssUrlRewriter.rewrite("a{b:url(c.png)}", prefixHandler));
+		assertEquals("a{b:url( r/c.png )}", CssUrlRewriter.rewrite("a{b:url( c.png )}", prefixHandler));
+		assertEquals("a{b:URL('r/c.png')}", CssUrlRewriter.rewrite("a{b:URL('c.png')}", prefixHandler));
+		assertEquals("a{b:url(\"r/c.png\") , url(r/d.png)}", CssUrlRewriter.rewrite("a{b:url(\"c.png\") , url(d.png)}", prefixHandler));
+		assertEquals(Arrays.asList("c.png", "c.png", "c.png", "c.png", "d.png"), urls);
+	}
+
+	@Test
+	public void testImports() {
+		assertEquals("@import \"r/a.css\";@import url(r/b.css) screen;@IMPORT 'r/c.css';",
+				CssUrlRewriter.rewrite("@import \"a.css\";@import url(b.css) screen;@IMPORT 'c.css';", prefixHandler));
+	}
+
+	@Test
+	public void testSkipped() {
+		String css = "/* url(a.png) */ a:after{content:\"url(b.png)\"} b{c:myurl(d.png)} @importer 'e.css'; f{g:url()}";
+		assertEquals(css, CssUrlRewriter.rewrite(css, prefixHandler));
+		assertEquals(0, urls.size());
+	}
+
+	@Test
+	public void testNullKeepsReference() {
+		String css = "a{b:url( c\\).png );d:url('e\\'.png')}";
+		assertEquals(css, CssUrlRewriter.rewrite(css, new CssUrlRewriter.UrlHandler() {
+			@Override
+			public String rewrite(String url) {
+				return null;
+			}
+		}));
+	}
+
+	@Test
+	public void testEscapes() {
+		assertEquals("a{b:url(\"c)d.png\")}", CssUrlRewriter.rewrite("a{b:url(c\\)d.png)}", identityHandler));
+		assertEquals("a{b:url(\"c\\\"d.png\")}", CssUrlRewriter.rewrite("a{b:url(\"c\\\"d.png\")}", identityHandler));
+		assertEquals("a{b:url('c\\\\d.png')}", CssUrlRewriter.rewrite("a{b:url('c\\\\d.png')}", identityHandler));
+		assertEquals("a{b:url(a.png)}", CssUrlRewriter.rewrite("a{b:url(\\61 .png)}", identityHandler));
+		assertEquals(Arrays.asList("c)d.png", "c\"d.png", "c\\d.png", "a.png"), urls);
+	}
+
+	@Test
+	public void testUnescape() {
+		assertEquals("a.png", CssUrlRewriter.unescape("a.png"));
+		assertEquals("a b(c).png", CssUrlRewriter.unescape("a\\ b\\(c\\).png"));
+		assertEquals("ab", CssUrlRewriter.unescape("\\61 b"));
+		assertEquals("a b", CssUrlRewriter.unescape("\\61  b"));
+		assertEquals("ab", CssUrlRewriter.unescape("\\000061b"));
+		assertEquals("ab", CssUrlRewriter.unescape("\\61\r\nb"));
+		assertEquals("\ud83d\ude00", CssUrlRewriter.unescape("\\1F600"));
+		assertEquals("\ufffd\ufffd\ufffd", CssUrlRewriter.unescape("\\0\\D800\\110000"));
+		assertEquals("ab", CssUrlRewriter.unescape("a\\\nb"));
+		assertEquals("ab", CssUrlRewriter.unescape("a\\\r\nb"));
+		assertEquals("a\\", CssUrlRewriter.unescape("a\\"));
+	}
+}
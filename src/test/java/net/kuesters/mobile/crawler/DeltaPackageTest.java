@@ -0,0 +1,224 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests creating and applying a {@link DeltaPackage} with local ZIP files.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class DeltaPackageTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path oldPackage;
+
+	private Path newPackage;
+
+	private Path deltaPath;
+
+	private Path result;
+
+	@Before
+	public void setUp() throws IOException {
+		Map<String, String> oldEntries = new LinkedHashMap<String, String>();
+		oldEntries.put("/index.html", "<html>old</html>");
+		oldEntries.put("/app.js", "var unchanged = true;");
+		oldEntries.put("/img/removed.png", "removed");
+		oldEntries.put("/config.xml", "<widget/>");
+
+		Map<String, String> newEntries = new LinkedHashMap<String, String>();
+		newEntries.put("/index.html", "<html>new</html>");
+		newEntries.put("/app.js", "var unchanged = true;");
+		newEntries.put("/img/added.png", "added");
+		newEntries.put("/config.xml", "<widget/>");
+
+		oldPackage = writeZip("old.zip", oldEntries);
+		newPackage = writeZip("new.zip", newEntries);
+		deltaPath = folder.getRoot().toPath().resolve("new.zip.delta");
+		result = folder.getRoot().toPath().resolve("result.zip");
+	}
+
+	@Test
+	public void testCreateAndApply() throws IOException {
+		DeltaPackage delta = DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		assertFalse(delta.isEmpty());
+		assertEquals(Arrays.asList("/app.js", "/config.xml"), delta.getPaths(DeltaPackage.Change.UNCHANGED));
+		assertEquals(Arrays.asList("/img/added.png"), delta.getPaths(DeltaPackage.Change.ADDED));
+		assertEquals(Arrays.asList("/index.html"), delta.getPaths(DeltaPackage.Change.CHANGED));
+		assertEquals(Arrays.asList("/img/removed.png"), delta.getPaths(DeltaPackage.Change.REMOVED));
+
+		DeltaPackage.load(deltaPath).apply(oldPackage, result);
+		Map<String, String> expected = readZip(newPackage);
+		Map<String, String> actual = readZip(result);
+		assertEquals(expected, actual);
+		assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+	}
+
+	@Test
+	public void testLoad() throws IOException {
+		DeltaPackage delta = DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		assertEquals(delta.getChanges(), DeltaPackage.load(deltaPath).getChanges());
+	}
+
+	@Test
+	public void testSamePackage() throws IOException {
+		DeltaPackage delta = DeltaPackage.create(newPackage, newPackage, deltaPath);
+		assertTrue(delta.isEmpty());
+
+		delta.apply(newPackage, result);
+		assertEquals(readZip(newPackage), readZip(result));
+	}
+
+	@Test
+	public void testUnknownEntry() throws IOException {
+		DeltaPackage delta = DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		Map<String, String> entries = readZip(oldPackage);
+		entries.put("/unknown.js", "unknown");
+		assertApplyFails(delta, writeZip("unknown.zip", entries));
+	}
+
+	@Test
+	public void testMissingEntry() throws IOException {
+		DeltaPackage delta = DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		Map<String, String> entries = readZip(oldPackage);
+		entries.remove("/img/removed.png");
+		assertApplyFails(delta, writeZip("missing.zip", entries));
+	}
+
+	@Test
+	public void testDifferentUnchangedEntry() throws IOException {
+		DeltaPackage delta = DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		Map<String, String> entries = readZip(oldPackage);
+		entries.put("/app.js", "var unchanged = false;");
+		assertApplyFails(delta, writeZip("different.zip", entries));
+	}
+
+	@Test
+	public void testNewPackageAsOldPackage() throws IOException {
+		assertApplyFails(DeltaPackage.create(oldPackage, newPackage, deltaPath), newPackage);
+	}
+
+	@Test
+	public void testDamagedDelta() throws IOException {
+		DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		Map<String, String> entries = readZip(deltaPath);
+		for (Map.Entry<String, String> entry : entries.entrySet())
+			if (entry.getKey().startsWith("entries/"))
+				entry.setValue("damaged");
+		Files.delete(deltaPath);
+		writeZip(deltaPath.getFileName().toString(), entries);
+		assertApplyFails(DeltaPackage.load(deltaPath), oldPackage);
+	}
+
+	@Test
+	public void testMissingDeltaEntry() throws IOException {
+		DeltaPackage.create(oldPackage, newPackage, deltaPath);
+		Map<String, String> entries = readZip(deltaPath);
+		entries.keySet().retainAll(Collections.singleton("delta.index"));
+		Files.delete(deltaPath);
+		writeZip(deltaPath.getFileName().toString(), entries);
+		assertApplyFails(DeltaPackage.load(deltaPath), oldPackage);
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadNoDelta() throws IOException {
+		DeltaPackage.load(oldPackage);
+	}
+
+	/**
+	 * Applies a delta that has to fail and checks that no newer package is left.
+	 *
+	 * @param delta
+	 *            the delta
+	 * @param oldPackage
+	 *            the path of the older package
+	 */
+	private void assertApplyFails(DeltaPackage delta, Path oldPackage) {
+		try {
+			delta.apply(oldPackage, result);
+			fail("The delta was applied to " + oldPackage);
+		} catch (IOException e) {
+			assertFalse(Files.exists(result));
+		}
+	}
+
+	/**
+	 * Writes a ZIP file to the temporary folder.
+	 *
+	 * @param name
+	 *            the name of the ZIP file
+	 * @param entries
+	 *            the content of the entries by path
+	 * @return the path of the ZIP file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Path writeZip(String name, Map<String, String> entries) throws IOException {
+		Path path = folder.newFile(name).toPath();
+		ZipArchiveOutputStream zipOutputStream = new ZipArchiveOutputStream(path.toFile());
+		try {
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				zipOutputStream.putArchiveEntry(new ZipArchiveEntry(entry.getKey()));
+				zipOutputStream.write(entry.getValue().getBytes(UTF_8));
+				zipOutputStream.closeArchiveEntry();
+			}
+		} finally {
+			zipOutputStream.close();
+		}
+		return path;
+	}
+
+	/**
+	 * Reads the entries of a ZIP file.
+	 *
+	 * @param path
+	 *            the path of the ZIP file
+	 * @return the content of the entries by path in the order of the ZIP file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static Map<String, String> readZip(Path path) throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		ZipFile zipFile = new ZipFile(path.toFile());
+		try {
+			for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+				InputStream inputStream = zipFile.getInputStream(entry);
+				try {
+					entries.put(entry.getName(), IOUtils.toString(inputStream, "UTF-8"));
+				} finally {
+					inputStream.close();
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		return entries;
+	}
+}
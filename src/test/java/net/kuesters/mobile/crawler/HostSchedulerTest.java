@@ -0,0 +1,86 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the slots the {@link HostScheduler} keeps for the tasks of a host.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class HostSchedulerTest {
+
+	private static final String HOST = "example.com:80";
+
+	private static final Runnable TASK = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	private HostScheduler scheduler;
+
+	/** The tasks handed to the executor, which never runs them by itself. */
+	private List<Runnable> dispatched;
+
+	private Executor executor;
+
+	@Before
+	public void setUp() {
+		scheduler = new HostScheduler();
+		scheduler.setMaxConcurrencyPerHost(2);
+		dispatched = new ArrayList<Runnable>();
+		executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				dispatched.add(command);
+			}
+		};
+	}
+
+	@Test
+	public void testLimit() {
+		for (int i = 0; i < 3; i++)
+			scheduler.submit(HOST, executor, TASK);
+		assertEquals(2, dispatched.size());
+
+		dispatched.get(0).run();
+		assertEquals(3, dispatched.size());
+	}
+
+	@Test
+	public void testDropped() {
+		for (int i = 0; i < 4; i++)
+			scheduler.submit(HOST, executor, TASK);
+		assertEquals(2, dispatched.size());
+
+		HostScheduler.dropped(new ArrayList<Runnable>(dispatched));
+		assertEquals(4, dispatched.size());
+	}
+
+	@Test
+	public void testDroppedAfterRun() {
+		for (int i = 0; i < 3; i++)
+			scheduler.submit(HOST, executor, TASK);
+		dispatched.get(0).run();
+		assertEquals(3, dispatched.size());
+
+		// the first task already freed its slot, the second one frees its slot now
+		HostScheduler.dropped(Arrays.asList(dispatched.get(0), dispatched.get(1), TASK));
+		scheduler.submit(HOST, executor, TASK);
+		scheduler.submit(HOST, executor, TASK);
+		assertEquals(4, dispatched.size());
+
+		// a dropped task is not run anymore
+		dispatched.get(1).run();
+		scheduler.submit(HOST, executor, TASK);
+		assertEquals(4, dispatched.size());
+	}
+}
@@ -0,0 +1,86 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link HtmlLinkRewriter}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class HtmlLinkRewriterTest {
+
+	/** The references the handler was called with, as <code>tag attribute url</code>. */
+	private List<String> references;
+
+	/** Prefixes every URL with <code>r/</code>. */
+	private HtmlLinkRewriter.LinkHandler handler;
+
+	@Before
+	public void setUp() {
+		references = new ArrayList<String>();
+		handler = new HtmlLinkRewriter.LinkHandler() {
+			@Override
+			public String rewrite(String tagName, String attributeName, String url) {
+				references.add(tagName + " " + attributeName + " " + url);
+				return "r/" + url;
+			}
+		};
+	}
+
+	@Test
+	public void testAttributes() {
+		assertEquals("<A HREF=\"r/a.html\">a</A><img  src = 'r/b.png' alt=\"b.png\"><video poster=r/c.jpg>",
+				HtmlLinkRewriter.rewrite("<A HREF=\"a.html\">a</A><img  src = 'b.png' alt=\"b.png\"><video poster=c.jpg>", handler));
+		assertEquals(Arrays.asList("a href a.html", "img src b.png", "video poster c.jpg"), references);
+	}
+
+	@Test
+	public void testLinkRelations() {
+		assertEquals("<link rel=\"stylesheet\" href=\"r/a.css\"><link rel=canonical href=\"b.html\"><link href=\"r/c.png\" rel=\"Apple-Touch-Icon\">",
+				HtmlLinkRewriter.rewrite("<link rel=\"stylesheet\" href=\"a.css\"><link rel=canonical href=\"b.html\">"
+						+ "<link href=\"c.png\" rel=\"Apple-Touch-Icon\">", handler));
+	}
+
+	@Test
+	public void testSrcset() {
+		assertEquals("<img srcset=\"r/a.png 1x, r/b.png 2x,r/c.png\">", HtmlLinkRewriter.rewrite("<img srcset=\"a.png 1x, b.png 2x,c.png\">", handler));
+		assertEquals(Arrays.asList("img srcset a.png", "img srcset b.png", "img srcset c.png"), references);
+	}
+
+	@Test
+	public void testStyles() {
+		assertEquals("<div style=\"background:url(r/a.png)\"></div><style>@import 'r/b.css'; c{d:url(r/e.png)}</style>",
+				HtmlLinkRewriter.rewrite("<div style=\"background:url(a.png)\"></div><style>@import 'b.css'; c{d:url(e.png)}</style>", handler));
+		assertEquals(Arrays.asList("div style a.png", "style null b.css", "style null e.png"), references);
+	}
+
+	@Test
+	public void testSkipped() {
+		String html = "<!-- <img src=\"a.png\"> --><script>var b = '<img src=\"b.png\">';</script><textarea><img src=\"c.png\"></textarea>"
+				+ "</img src=\"d.png\"><p>a < b</p>";
+		assertEquals(html, HtmlLinkRewriter.rewrite(html, handler));
+		assertEquals(0, references.size());
+	}
+
+	@Test
+	public void testCharacterReferences() {
+		assertEquals("<a href=\"r/a?b=1&amp;c=&quot;2&quot;\">", HtmlLinkRewriter.rewrite("<a href=\"a?b=1&amp;c=&#34;2&#x22;\">", handler));
+		assertEquals(Arrays.asList("a href a?b=1&c=\"2\""), references);
+	}
+
+	@Test
+	public void testDecode() {
+		assertEquals("a&b<>\"'", HtmlLinkRewriter.decode("a&amp;b&lt;&gt;&quot;&apos;"));
+		assertEquals("a&b", HtmlLinkRewriter.decode("a&b"));
+		assertEquals("&unknown;", HtmlLinkRewriter.decode("&unknown;"));
+		assertEquals("\ud83d\ude00", HtmlLinkRewriter.decode("&#x1F600;"));
+		assertEquals("\ufffd\ufffd\ufffd", HtmlLinkRewriter.decode("&#0;&#xD800;&#x110000;"));
+	}
+}
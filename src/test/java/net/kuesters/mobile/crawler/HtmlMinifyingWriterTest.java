@@ -0,0 +1,52 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link HtmlMinifyingWriter}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class HtmlMinifyingWriterTest {
+
+	@Test
+	public void testText() throws IOException {
+		assertEquals("<p>a b\nc</p>", minify("<p>a   b\n\n  c</p>"));
+		assertEquals("a < b", minify("a < b"));
+	}
+
+	@Test
+	public void testTags() throws IOException {
+		assertEquals("<a href=\"b  c\" class='d'>e</a>", minify("<a  href=\"b  c\"\n   class='d' >e</a>"));
+		assertEquals("<br />", minify("<br   />"));
+	}
+
+	@Test
+	public void testComments() throws IOException {
+		assertEquals("<p>a b</p>", minify("<p>a <!-- comment --> b</p>"));
+		assertEquals("<!--[if IE]><p>a</p><![endif]-->", minify("<!--[if IE]><p>a</p><![endif]-->"));
+		assertEquals("<!-- unterminated", minify("<!-- unterminated"));
+	}
+
+	@Test
+	public void testRawElements() throws IOException {
+		assertEquals("<script>if (a  <  b) {}\n  // </p></script> <p>c</p>",
+				minify("<script>if (a  <  b) {}\n  // </p></script>  <p>c</p>"));
+		assertEquals("<pre>a\n\n  b</pre>", minify("<pre>a\n\n  b</pre>"));
+		assertEquals("<STYLE>a  { }</Style>", minify("<STYLE>a  { }</Style>"));
+		assertEquals("<textarea rows=2>a  <b>  c</textarea>", minify("<textarea rows=2>a  <b>  c</textarea>"));
+	}
+
+	private static String minify(String html) throws IOException {
+		StringWriter writer = new StringWriter();
+		HtmlMinifyingWriter minifier = new HtmlMinifyingWriter(writer);
+		minifier.write(html);
+		minifier.close();
+		return writer.toString();
+	}
+}
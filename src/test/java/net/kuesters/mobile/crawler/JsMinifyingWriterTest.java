@@ -0,0 +1,80 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link JsMinifyingWriter}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class JsMinifyingWriterTest {
+
+	@Test
+	public void testWhitespace() throws IOException {
+		assertEquals("var a=b+c;", minify("var  a = b + c ;"));
+		assertEquals("a+ +b;a- -b", minify("a + +b; a - -b"));
+		assertEquals("1 .toString()", minify("1 .toString()"));
+	}
+
+	@Test
+	public void testComments() throws IOException {
+		assertEquals("a=1;b=2", minify("a = 1; // one\nb = 2 /* two */"));
+		assertEquals("a()/*! license */\nb()", minify("a() /*! license */ b()"));
+		assertEquals("a\nb", minify("a /* line\nbreak */ b"));
+	}
+
+	@Test
+	public void testStrings() throws IOException {
+		assertEquals("a=\"b  // c\";d='e \\' /* f */'", minify("a = \"b  // c\"; d = 'e \\' /* f */'"));
+	}
+
+	@Test
+	public void testStringLineContinuation() throws IOException {
+		assertEquals("var s=\"a\\\nb  c\"", minify("var s = \"a\\\nb  c\""));
+		assertEquals("var s=\"a\\\r\nb  c\"", minify("var s = \"a\\\r\nb  c\""));
+		assertEquals("var s=\"a\\\rb  c\"", minify("var s = \"a\\\rb  c\""));
+	}
+
+	@Test
+	public void testTemplates() throws IOException {
+		assertEquals("a=`b  ${c+{d:1}.d}  e`;f", minify("a = `b  ${ c + { d : 1 }.d }  e`; f"));
+		assertEquals("a=`b ${`c  ${d}`}`", minify("a = `b ${ `c  ${ d }` }`"));
+	}
+
+	@Test
+	public void testRegex() throws IOException {
+		assertEquals("a=/b  c/g.test(d)", minify("a = /b  c/g.test(d)"));
+		assertEquals("return/[/]  x/", minify("return /[/]  x/"));
+		assertEquals("a=b/c/d", minify("a = b / c / d"));
+		assertEquals("a=[b]/c", minify("a = [b] / c"));
+	}
+
+	@Test
+	public void testRegexAfterParenthesis() throws IOException {
+		assertEquals("if(x)/a  b/.test(y)", minify("if (x) /a  b/.test(y)"));
+		assertEquals("a=(b)/ c /d", minify("a = (b) / c / d"));
+		assertEquals("a=(b)/ c\nd", minify("a = (b) / c\n d"));
+	}
+
+	@Test
+	public void testLineBreaks() throws IOException {
+		assertEquals("a=b\nc()", minify("a = b\n  c()"));
+		assertEquals("return\na", minify("return\na"));
+		assertEquals("a++\nb", minify("a++\nb"));
+		assertEquals("f(a,b)", minify("f(\n  a,\n  b\n)"));
+		assertEquals("{a()}", minify("{\n  a()\n}"));
+	}
+
+	private static String minify(String script) throws IOException {
+		StringWriter writer = new StringWriter();
+		JsMinifyingWriter minifier = new JsMinifyingWriter(writer);
+		minifier.write(script);
+		minifier.close();
+		return writer.toString();
+	}
+}
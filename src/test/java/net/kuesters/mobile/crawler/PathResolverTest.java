@@ -0,0 +1,77 @@
+package net.kuesters.mobile.crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the relative paths of the {@link PathResolver} and of {@link AppCrawlerUtil#getRelativeResultingPath(String, String)}.
+ *
+ * @author <a href="http://www.kuesters.net">Jens K&uuml;sters</a>
+ */
+public class PathResolverTest {
+
+	/** The segments the random paths are made of, including names that appear as file and as directory. */
+	private static final String[] SEGMENTS = { "a", "b", "sub", "x.css", "index.html" };
+
+	private PathResolver resolver;
+
+	@Before
+	public void setUp() throws MalformedURLException {
+		resolver = new PathResolver("http://example.com/app/");
+	}
+
+	@Test
+	public void testRelativePaths() {
+		assertRelativePath("", "/a/b.css", "/a/b.css");
+		assertRelativePath("b.css", "/a/b.css", "/a/index.html");
+		assertRelativePath("../b.css", "/b.css", "/a/index.html");
+		assertRelativePath("a/b.css", "/a/b.css", "/index.html");
+		assertRelativePath("../c/d.css", "/a/c/d.css", "/a/b/index.html");
+		assertRelativePath("../x.css", "/x.css", "/x.css/x.css");
+		assertRelativePath("sub/c", "/sub/c", "/sub");
+		assertRelativePath("../b", "/a/b", "/a//c");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRelativeReferrer() {
+		AppCrawlerUtil.getRelativeResultingPath("/a/b.css", "a/index.html");
+	}
+
+	/**
+	 * Compares the resolver and the utility method on random paths, and checks that the relative paths resolve to the file again.
+	 */
+	@Test
+	public void testRandomPaths() {
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			String resultingPath = randomPath(random);
+			String referrerPath = randomPath(random);
+			String relativePath = resolver.getRelativeResultingPath(resultingPath, referrerPath);
+			assertEquals(relativePath, AppCrawlerUtil.getRelativeResultingPath(resultingPath, referrerPath));
+			assertEquals(relativePath, resolver.getRelativeResultingPath(resultingPath, referrerPath));
+
+			URI referrer = URI.create("http://example.com" + referrerPath);
+			String message = resultingPath + " from " + referrerPath + ": " + relativePath;
+			assertEquals(message, resultingPath, relativePath.isEmpty() ? referrerPath : referrer.resolve(relativePath).getPath());
+		}
+	}
+
+	private void assertRelativePath(String expected, String absoluteResultingPath, String absoluteReferrerPath) {
+		assertEquals(expected, resolver.getRelativeResultingPath(absoluteResultingPath, absoluteReferrerPath));
+		assertEquals(expected, AppCrawlerUtil.getRelativeResultingPath(absoluteResultingPath, absoluteReferrerPath));
+	}
+
+	private static String randomPath(Random random) {
+		StringBuilder path = new StringBuilder();
+		int segments = 1 + random.nextInt(4);
+		for (int i = 0; i < segments; i++)
+			path.append('/').append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+		return path.toString();
+	}
+}